@@ -1,7 +1,9 @@
 package io.breen.socrates;
 
 import io.breen.pyfinder.PythonInterpreter;
+import io.breen.socrates.util.BytecodeCache;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.SystemUtils;
 
 import java.awt.*;
@@ -10,6 +12,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Logger;
@@ -21,6 +24,12 @@ public class Globals {
         WINDOWS, OSX, LINUX, OTHER
     }
 
+    /**
+     * The version of Socrates, from the manifest of the JAR it is running from, or "development"
+     * if it is not running from a JAR.
+     */
+    public static final String VERSION;
+
     public static final int NORMAL_EXIT_CODE = 0;
     public static final Color GRAY = new Color(140, 140, 140);
     public static final Color LIGHT_GRAY = new Color(186, 186, 186);
@@ -28,20 +37,51 @@ public class Globals {
     public static final Color RED = new Color(189, 12, 13);
     public static final Color GREEN = new Color(49, 141, 34);
     public static final Color BLUE = new Color(37, 123, 210);
-    public static final SimpleDateFormat ISO8601_UTC;
-    public static final SimpleDateFormat ISO8601;
+
+    /*
+     * SimpleDateFormat is not thread-safe, and receipts are parsed concurrently while submissions
+     * are loaded. Each thread therefore gets its own formatter instances.
+     */
+    public static final ThreadLocal<SimpleDateFormat> ISO8601_UTC;
+    public static final ThreadLocal<SimpleDateFormat> ISO8601;
     public static final String DEFAULT_GRADE_FILE_NAME = "grade.txt";
+    public static final String DEFAULT_MANIFEST_FILE_NAME = "grade.manifest";
     public static Properties properties;
     public static OS operatingSystem;
 
     public static PythonInterpreter interpreter = null;
     private static final Path SOCRATES_TEMP_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "socrates");
 
-    static {
-        ISO8601_UTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        ISO8601_UTC.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /**
+     * The files that have been extracted (or found to be up to date) since Socrates started.
+     */
+    private static final Set<Path> extracted = new HashSet<>();
 
-        ISO8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US);
+    /**
+     * The directories created by createTempDirectory(), which are deleted when Socrates exits.
+     */
+    private static final Set<Path> tempDirectories = new HashSet<>();
+
+    static {
+        Package pkg = Globals.class.getPackage();
+        String version = pkg == null ? null : pkg.getImplementationVersion();
+        VERSION = version == null ? "development" : version;
+
+        ISO8601_UTC = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+                fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+                return fmt;
+            }
+        };
+
+        ISO8601 = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US);
+            }
+        };
 
         if (SystemUtils.IS_OS_MAC || SystemUtils.IS_OS_MAC_OSX) {
             operatingSystem = OS.OSX;
@@ -73,23 +113,82 @@ public class Globals {
     }
 
     /**
-     * Given a relative path to a file ("resource") stored in this package, this method returns the absolute
-     * path to the extracted file on the actual file system (i.e., outside of a JAR, if this code is running from such
-     * a JAR). If the file can't be found, this method returns null. If the file exists, but hasn't been extracted to
-     * the file system, this method extracts it.
+     * Returns the path to the specified file or directory inside Socrates' temporary directory.
+     * The file or directory is not created.
      */
-    public static Path extractOrGetFile(Path modulePath) throws IOException {
-        InputStream is = Globals.class.getClassLoader().getResourceAsStream(modulePath.toString());
+    public static Path getTempPath(String name) {
+        return SOCRATES_TEMP_DIR.resolve(name);
+    }
 
-        if (is == null)
-            return null;
+    /**
+     * Creates a new, empty directory inside Socrates' temporary directory. The directory's name
+     * will begin with the specified prefix. The directory (and anything in it) is deleted when
+     * Socrates exits, along with the bytecode compiled from any modules in it.
+     */
+    public static Path createTempDirectory(String prefix) throws IOException {
+        Files.createDirectories(SOCRATES_TEMP_DIR);
+        Path dir = Files.createTempDirectory(SOCRATES_TEMP_DIR, prefix);
+
+        synchronized (tempDirectories) {
+            if (tempDirectories.isEmpty()) {
+                Runtime.getRuntime().addShutdownHook(
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                synchronized (tempDirectories) {
+                                    for (Path p : tempDirectories) {
+                                        FileUtils.deleteQuietly(p.toFile());
+                                        BytecodeCache.delete(p);
+                                    }
+                                }
+                            }
+                        }
+                );
+            }
+
+            tempDirectories.add(dir);
+        }
 
+        return dir;
+    }
+
+    /**
+     * Given a relative path to a file ("resource") stored in this package, this method returns the absolute
+     * path to the extracted file on the actual file system (i.e., outside of a JAR, if this code is running from such
+     * a JAR). If the file can't be found, this method returns null. If the file hasn't been extracted to the file
+     * system, or the extracted file is different from the resource (e.g., because it was extracted by an older
+     * version of Socrates), this method extracts it. Each file is only checked the first time it is needed.
+     */
+    public static synchronized Path extractOrGetFile(Path modulePath) throws IOException {
         Path dest = Paths.get(SOCRATES_TEMP_DIR.toString(), modulePath.toString());
 
-        if (Files.exists(dest))
+        if (extracted.contains(dest))
             return dest;
 
-        FileUtils.copyInputStreamToFile(is, dest.toFile());
+        byte[] contents;
+        try (InputStream is = Globals.class.getClassLoader().getResourceAsStream(modulePath.toString())) {
+            if (is == null)
+                return null;
+
+            contents = IOUtils.toByteArray(is);
+        }
+
+        if (!Files.isRegularFile(dest) || !Arrays.equals(Files.readAllBytes(dest), contents)) {
+            // another instance of Socrates may be using the file, so it is replaced atomically
+            Files.createDirectories(dest.getParent());
+            Path temp = Files.createTempFile(dest.getParent(), dest.getFileName().toString(), null);
+
+            try {
+                Files.write(temp, contents);
+                Files.move(
+                        temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+                );
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        extracted.add(dest);
         return dest;
     }
 }
@@ -4,6 +4,7 @@ import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -34,7 +35,9 @@ public abstract class GradeReportFormatter {
     }
 
     public void toFile(SubmissionWrapperNode node, Path dest) throws IOException {
-        format(node, new FileWriter(dest.toFile()));
+        try (Writer writer = Files.newBufferedWriter(dest, StandardCharsets.UTF_8)) {
+            format(node, writer);
+        }
     }
 
     protected abstract void format(SubmissionWrapperNode node, Writer writer) throws IOException;
@@ -0,0 +1,284 @@
+package io.breen.socrates;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.criteria.TestMatcher;
+import io.breen.socrates.file.File;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.test.Test;
+
+import javax.swing.text.BadLocationException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.util.*;
+
+/**
+ * Exports a gradebook containing one row for every submission, with the points deducted from
+ * each file and by each test, directly from the submission tree. This replaces building a
+ * gradebook by reading the plain text grade reports.
+ *
+ * The gradebook is written as it is generated, one submission at a time, so exporting does not
+ * use more memory for larger cohorts. Two formats are supported: CSV, with a header row naming
+ * every file and test column, and JSON Lines, with one JSON object for every submission (which
+ * also includes each test's result and the grader's notes).
+ *
+ * As in the grade reports, the points deducted from a file never exceed the file's point value,
+ * and a file that was not submitted loses all of its points.
+ */
+public class GradebookExporter {
+
+    public enum Format {
+        CSV, JSONL;
+
+        /**
+         * Returns the format that the specified file name suggests (JSON Lines for .jsonl and
+         * .json files, otherwise CSV).
+         */
+        public static Format fromFileName(String fileName) {
+            String lower = fileName.toLowerCase();
+            return lower.endsWith(".jsonl") || lower.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Format format;
+    private final DecimalFormat decFmt = new DecimalFormat("#.##");
+
+    /**
+     * The tests of each file in the criteria, keyed by their identities (see TestMatcher), in the
+     * order of the gradebook's columns.
+     */
+    private final Map<File, Map<String, Test>> tests;
+
+    public GradebookExporter(Criteria criteria, Format format) {
+        this.format = format;
+
+        tests = new LinkedHashMap<>();
+        for (File file : criteria.files)
+            tests.put(file, TestMatcher.getIdentities(file));
+    }
+
+    /**
+     * Writes a gradebook for the specified submissions to the specified path, replacing any file
+     * that already exists.
+     */
+    public void export(Iterable<SubmissionWrapperNode> submissions, Path dest)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(
+                dest,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        );
+
+        try (Writer w = new BufferedWriter(
+                Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE
+        ))
+        {
+            export(submissions, w);
+        }
+    }
+
+    public void export(Iterable<SubmissionWrapperNode> submissions, Writer w) throws IOException {
+        switch (format) {
+        case CSV:
+            writeCSVHeader(w);
+            for (SubmissionWrapperNode swn : submissions)
+                writeCSVRow(swn, w);
+            break;
+
+        case JSONL:
+            JsonFactory factory = new JsonFactory();
+            factory.setRootValueSeparator(null);
+            factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            try (JsonGenerator generator = factory.createGenerator(w)) {
+                for (SubmissionWrapperNode swn : submissions) {
+                    writeJSONObject(swn, generator);
+                    generator.flush();
+                    w.write('\n');
+                }
+            }
+        }
+
+        w.flush();
+    }
+
+    private void writeCSVHeader(Writer w) throws IOException {
+        List<String> cells = new ArrayList<>();
+        cells.add("student");
+        cells.add("complete");
+        cells.add("total");
+        cells.add("possible");
+
+        for (Map.Entry<File, Map<String, Test>> e : tests.entrySet()) {
+            cells.add(e.getKey().path);
+            for (Test test : e.getValue().values())
+                cells.add(e.getKey().path + ": " + test.description);
+        }
+
+        writeCSVLine(cells, w);
+    }
+
+    private void writeCSVRow(SubmissionWrapperNode swn, Writer w) throws IOException {
+        Submission submission = (Submission)swn.getUserObject();
+        Map<File, SubmittedFileWrapperNode> files = getFileNodes(swn);
+
+        List<String> cells = new ArrayList<>();
+        cells.add(submission.studentName);
+        cells.add(Boolean.toString(swn.isComplete()));
+
+        List<String> fileCells = new ArrayList<>();
+        double possible = 0.0;
+        double deducted = 0.0;
+
+        for (Map.Entry<File, Map<String, Test>> e : tests.entrySet()) {
+            File file = e.getKey();
+            SubmittedFileWrapperNode sfwn = files.get(file);
+
+            double fileDeducted = getDeducted(file, sfwn);
+            possible += file.pointValue;
+            deducted += fileDeducted;
+
+            fileCells.add(decFmt.format(fileDeducted));
+            for (Test test : e.getValue().values())
+                fileCells.add(sfwn == null ? "" : decFmt.format(getDeduction(sfwn, test)));
+        }
+
+        cells.add(decFmt.format(possible - deducted));
+        cells.add(decFmt.format(possible));
+        cells.addAll(fileCells);
+
+        writeCSVLine(cells, w);
+    }
+
+    private static void writeCSVLine(List<String> cells, Writer w) throws IOException {
+        boolean first = true;
+        for (String cell : cells) {
+            if (!first) w.write(',');
+            first = false;
+
+            if (cell.indexOf(',') < 0 && cell.indexOf('"') < 0 && cell.indexOf('\n') < 0 &&
+                    cell.indexOf('\r') < 0)
+            {
+                w.write(cell);
+            } else {
+                w.write('"');
+                w.write(cell.replace("\"", "\"\""));
+                w.write('"');
+            }
+        }
+
+        w.write("\r\n");
+    }
+
+    private void writeJSONObject(SubmissionWrapperNode swn, JsonGenerator g) throws IOException {
+        Submission submission = (Submission)swn.getUserObject();
+        Map<File, SubmittedFileWrapperNode> files = getFileNodes(swn);
+
+        double possible = 0.0;
+        double deducted = 0.0;
+        for (File file : tests.keySet()) {
+            possible += file.pointValue;
+            deducted += getDeducted(file, files.get(file));
+        }
+
+        g.writeStartObject();
+        g.writeStringField("student", submission.studentName);
+        g.writeBooleanField("complete", swn.isComplete());
+        g.writeNumberField("total", possible - deducted);
+        g.writeNumberField("possible", possible);
+
+        g.writeArrayFieldStart("files");
+        for (Map.Entry<File, Map<String, Test>> e : tests.entrySet()) {
+            File file = e.getKey();
+            SubmittedFileWrapperNode sfwn = files.get(file);
+
+            g.writeStartObject();
+            g.writeStringField("path", file.path);
+            g.writeBooleanField("submitted", sfwn != null);
+            g.writeNumberField("possible", file.pointValue);
+            g.writeNumberField("deducted", getDeducted(file, sfwn));
+
+            if (sfwn != null) {
+                g.writeArrayFieldStart("tests");
+                for (Map.Entry<String, Test> t : e.getValue().entrySet()) {
+                    Test test = t.getValue();
+                    TestWrapperNode node = sfwn.getTestNode(test);
+                    if (node == null) continue;
+
+                    g.writeStartObject();
+                    g.writeStringField("id", t.getKey());
+                    g.writeStringField("description", test.description);
+                    g.writeStringField("result", node.getResult().name());
+                    g.writeNumberField("deduction", getDeduction(sfwn, test));
+
+                    String notes = getNotes(node);
+                    if (!notes.isEmpty()) g.writeStringField("notes", notes);
+
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+            }
+
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+
+        g.writeEndObject();
+    }
+
+    private static Map<File, SubmittedFileWrapperNode> getFileNodes(SubmissionWrapperNode swn) {
+        Map<File, SubmittedFileWrapperNode> map = new HashMap<>();
+        for (int i = 0; i < swn.getChildCount(); i++) {
+            if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+            map.put(sfwn.matchingFile, sfwn);
+        }
+
+        return map;
+    }
+
+    /**
+     * Returns the points deducted from the specified file, which is never more than the file's
+     * point value. If the file was not submitted (i.e., the node is null), all of its points
+     * are deducted.
+     */
+    private double getDeducted(File file, SubmittedFileWrapperNode sfwn) {
+        if (sfwn == null) return file.pointValue;
+
+        double deducted = 0.0;
+        for (Test test : tests.get(file).values())
+            deducted += getDeduction(sfwn, test);
+
+        return Math.min(deducted, file.pointValue);
+    }
+
+    private static double getDeduction(SubmittedFileWrapperNode sfwn, Test test) {
+        TestWrapperNode node = sfwn.getTestNode(test);
+        return node != null && node.getResult() == TestResult.FAILED ? test.deduction : 0.0;
+    }
+
+    private static String getNotes(TestWrapperNode node) {
+        try {
+            return node.notes.getText(0, node.notes.getLength()).trim();
+        } catch (BadLocationException x) {
+            return "";
+        }
+    }
+}
@@ -7,7 +7,10 @@ import io.breen.socrates.controller.MainController;
 import io.breen.socrates.controller.SetupController;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.criteria.InvalidCriteriaException;
-import io.breen.socrates.submission.*;
+import io.breen.socrates.session.Precomputer;
+import io.breen.socrates.session.SessionJournal;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmissionLoader;
 import org.apache.commons.cli.*;
 
 import javax.swing.*;
@@ -114,13 +117,6 @@ public class Socrates {
             System.exit(5);
         }
 
-        /*
-         * Create the MainController. It will wait for the SetupController to send it
-         * a message indicating that the criteria and initial submissions have been
-         * loaded.
-         */
-        MainController main = new MainController();
-
         Path criteriaPath = null;
         Criteria criteria = null;
         if (cmd.hasOption("criteria")) {
@@ -134,42 +130,107 @@ public class Socrates {
             }
         }
 
-        List<Submission> submissions = null;
+        List<Path> submissionPaths = null;
         if (cmd.hasOption("submissions")) {
             String[] paths = cmd.getOptionValues("submissions");
-            submissions = new ArrayList<>(paths.length);
+            submissionPaths = new ArrayList<>(paths.length);
             for (String str : paths) {
-                Path p = null;
                 try {
-                    p = Paths.get(str);
-                    submissions.add(Submission.fromDirectory(p));
+                    submissionPaths.add(Paths.get(str));
                 } catch (InvalidPathException x) {
                     logger.warning("invalid submission: '" + str + "' is not a valid path");
-                } catch (IllegalArgumentException x) {
-                    logger.warning("invalid submission: '" + p + "' " + x);
-                } catch (IOException x) {
-                    logger.warning("IOException occurred adding submission: " + x);
-                } catch (ReceiptFormatException x) {
-                    logger.warning("invalid receipt for submission '" + p + "'");
-                } catch (AlreadyGradedException x) {
-                    logger.warning("skipping submission: already has a grade file: '" + p + "'");
                 }
             }
 
-            if (submissions.size() == 0) {
-                submissions = null;
+            if (submissionPaths.size() == 0) {
+                submissionPaths = null;
             }
         }
 
+        Path sessionPath = null;
+        if (cmd.hasOption("session")) {
+            try {
+                sessionPath = Paths.get(cmd.getOptionValue("session"));
+            } catch (InvalidPathException x) {
+                logger.warning("command-line option for session path was invalid");
+            }
+        }
+
+        if (cmd.hasOption("precompute")) {
+            if (criteria == null || submissionPaths == null) {
+                System.err.println("error: --precompute requires a valid criteria and submissions");
+                System.exit(6);
+            }
+
+            if (sessionPath == null) sessionPath = SessionJournal.getPath(criteriaPath);
+            System.exit(precompute(criteria, submissionPaths, sessionPath));
+        }
+
+        /*
+         * Create the MainController. It will wait for the SetupController to send it
+         * a message indicating that the criteria and initial submissions have been
+         * loaded.
+         */
+        MainController main = new MainController();
+
+        if (cmd.hasOption("watch")) main.enableWatchMode();
+        if (cmd.hasOption("incremental")) main.enableIncrementalMode();
+        if (sessionPath != null) main.setSessionPath(sessionPath);
+
         /*
          * Start the SetupController.
          * If the --criteria command line option was specified and a Criteria object
          * could be created, that step of the setup will be skipped.
-         * If the --submissions command line option was specified, and at least one
-         * submission could be added, that step of the setup will be skipped.
+         * If the --submissions command line option was specified, the submissions are
+         * loaded (in parallel) by the SetupController, and if at least one submission
+         * could be added, that step of the setup will be skipped.
          */
         SetupController setup = new SetupController(main);
-        setup.start(criteriaPath, criteria, submissions);
+        setup.start(criteriaPath, criteria, submissionPaths);
+    }
+
+    /**
+     * Runs every automated test on the specified submissions without showing the GUI, recording
+     * the outcomes in the session journal at the specified path. Returns the exit code.
+     *
+     * @see Precomputer
+     */
+    private static int precompute(Criteria criteria, List<Path> submissionPaths,
+                                  Path sessionPath)
+    {
+        SubmissionLoader loader = new SubmissionLoader();
+
+        try {
+            List<Submission> submissions = loader.load(submissionPaths, null);
+
+            for (Map.Entry<Path, Exception> e : loader.getErrors().entrySet())
+                System.err.println("skipping " + e.getKey() + ": " + e.getValue());
+
+            int numRun = new Precomputer(criteria).run(
+                    submissions, sessionPath, new Precomputer.ProgressListener() {
+                        @Override
+                        public void filePrecomputed(int numPrecomputed, int numTotal) {
+                            System.out.println(
+                                    "precomputed " + numPrecomputed + " of " + numTotal + " files"
+                            );
+                        }
+                    }
+            );
+
+            System.out.println(
+                    "ran " + numRun + " automated tests on " + submissions.size() +
+                            " submissions, session saved to " + sessionPath
+            );
+
+        } catch (IOException x) {
+            System.err.println("error: could not write session: " + x);
+            return 7;
+
+        } catch (InterruptedException x) {
+            return 7;
+        }
+
+        return Globals.NORMAL_EXIT_CODE;
     }
 
     private static void setDefaultProperties() {
@@ -218,10 +279,37 @@ public class Socrates {
                       .longOpt("submissions")
                       .hasArgs()
                       .argName("paths")
-                      .desc("space-separated paths to submission directories")
+                      .desc("space-separated paths to submission directories or archives")
                       .build()
         );
 
+        opts.addOption(
+                "w", "watch", false, "add new and changed submissions while grading"
+        );
+
+        opts.addOption(
+                "i",
+                "incremental",
+                false,
+                "open graded submissions, and only run tests whose outcomes may have changed"
+        );
+
+        opts.addOption(
+                Option.builder()
+                      .longOpt("session")
+                      .hasArg()
+                      .argName("path")
+                      .desc("path to the session journal (default: next to the criteria)")
+                      .build()
+        );
+
+        opts.addOption(
+                "P",
+                "precompute",
+                false,
+                "run all automated tests without the GUI, saving the results to the session"
+        );
+
         opts.addOption("h", "help", false, "print this message");
 
         return opts;
@@ -20,11 +20,13 @@ import java.util.*;
  */
 public class TextGradeReportFormatter extends GradeReportFormatter {
 
-    private final static SimpleDateFormat dateFmt = new SimpleDateFormat(
-            "EEEE, MMMM d, yyyy h:mm:ss a"
-    );
+    /*
+     * These formats are not thread-safe. Each formatter has its own, so that grade reports can be
+     * saved concurrently by separate formatters.
+     */
+    private final SimpleDateFormat dateFmt = new SimpleDateFormat("EEEE, MMMM d, yyyy h:mm:ss a");
 
-    private final static DecimalFormat decFmt = new DecimalFormat("#.#");
+    private final DecimalFormat decFmt = new DecimalFormat("#.#");
 
     public TextGradeReportFormatter(Criteria criteria) {
         super(criteria);
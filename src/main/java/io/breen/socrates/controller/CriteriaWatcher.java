@@ -0,0 +1,119 @@
+package io.breen.socrates.controller;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.criteria.InvalidCriteriaException;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the criteria file (or package) being used to grade, so that mistakes in the criteria
+ * can be fixed during a grading session without restarting Socrates. When the criteria changes,
+ * it is loaded again and the watcher's listener is notified with the new Criteria object. If the
+ * changed criteria cannot be loaded, the change is ignored (and logged).
+ *
+ * Editors often save a file by writing a new file and renaming it, so the directory containing
+ * the criteria is watched, rather than the criteria itself. Changes are only reported once the
+ * criteria has not changed for a short period.
+ */
+public class CriteriaWatcher {
+
+    /**
+     * Objects implementing this interface receive reloaded criteria. This method is called from
+     * the watcher's thread, not the event dispatch thread.
+     */
+    public interface Listener {
+
+        void criteriaChanged(Criteria criteria);
+    }
+
+    private static final long QUIET_PERIOD_MILLIS = 1000;
+
+    private static Logger logger = Logger.getLogger(CriteriaWatcher.class.getName());
+
+    private final Path criteriaPath;
+    private final WatchService service;
+    private final Listener listener;
+
+    private Thread thread;
+
+    public CriteriaWatcher(Path criteriaPath, Listener listener) throws IOException {
+        this.criteriaPath = criteriaPath.toAbsolutePath().normalize();
+        this.listener = listener;
+
+        service = FileSystems.getDefault().newWatchService();
+        this.criteriaPath.getParent().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+    }
+
+    public void start() {
+        thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    watch();
+                } catch (InterruptedException | ClosedWatchServiceException x) {
+                    logger.info("criteria watcher stopped");
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        logger.info("watching criteria for changes: " + criteriaPath);
+    }
+
+    public void stop() {
+        try {
+            service.close();
+        } catch (IOException x) {
+            logger.warning("could not close watch service: " + x);
+        }
+    }
+
+    private void watch() throws InterruptedException {
+        Path fileName = criteriaPath.getFileName();
+        boolean changed = false;
+
+        while (true) {
+            WatchKey key;
+            if (changed)
+                key = service.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+            else
+                key = service.take();
+
+            if (key == null) {
+                changed = false;
+                reload();
+                continue;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || fileName.equals(event.context())) changed = true;
+            }
+
+            if (!key.reset()) {
+                logger.warning("criteria directory can no longer be watched");
+                return;
+            }
+        }
+    }
+
+    private void reload() {
+        if (!Files.exists(criteriaPath)) return;
+
+        Criteria criteria;
+        try {
+            criteria = Criteria.loadFromPath(criteriaPath);
+        } catch (IOException | InvalidCriteriaException x) {
+            logger.warning("could not reload criteria, keeping current criteria: " + x);
+            return;
+        }
+
+        logger.info("reloaded criteria: " + criteriaPath);
+        listener.criteriaChanged(criteria);
+    }
+}
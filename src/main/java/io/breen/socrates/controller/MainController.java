@@ -1,16 +1,25 @@
 package io.breen.socrates.controller;
 
 import io.breen.socrates.Globals;
+import io.breen.socrates.GradebookExporter;
 import io.breen.socrates.TextGradeReportFormatter;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.File;
 import io.breen.socrates.model.AutomationStage;
+import io.breen.socrates.model.CohortStatistics;
+import io.breen.socrates.model.ContentIndex;
 import io.breen.socrates.model.TestResult;
 import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
 import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.session.GradeManifest;
+import io.breen.socrates.session.Precomputer;
+import io.breen.socrates.session.SessionJournal;
+import io.breen.socrates.similarity.SimilarityReport;
 import io.breen.socrates.submission.Submission;
 import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.test.*;
+import io.breen.socrates.test.python.ModuleCatalog;
 import io.breen.socrates.util.Pair;
 import io.breen.socrates.view.main.MainView;
 import io.breen.socrates.view.main.MenuBarManager;
@@ -19,31 +28,82 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
 import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 
 public class MainController {
 
+    /**
+     * The maximum number of grade reports that are written at the same time when saving all
+     * grade reports, so that slow (e.g., network-mounted) file systems are not overwhelmed.
+     */
+    private static final int MAX_CONCURRENT_SAVES = 4;
+
+    private static final String DEFAULT_GRADEBOOK_FILE_NAME = "gradebook.csv";
+    private static final String DEFAULT_STATISTICS_FILE_NAME = "statistics.csv";
+
+    /**
+     * How often the statistics window is updated while it is visible.
+     */
+    private static final int STATISTICS_REFRESH_MILLIS = 1000;
+
     private static Logger logger = Logger.getLogger(MainController.class.getName());
     public JFrame transcriptWindow;
     public JTextPane transcriptTextPane;
     public Action showTranscript;
+    public JFrame similarityWindow;
+    public JTextPane similarityTextPane;
+    public Action showSimilarityReport;
+    public Action saveAllGradeReports;
+    public Action exportGradebook;
+    public JFrame statisticsWindow;
+    public JTextPane statisticsTextPane;
+    public Action showStatistics;
+    public Action exportStatistics;
     private Criteria criteria;
     private List<Submission> submissions;
     private BlockingQueue<TestTask> tasks;
     private MainView mainView;
     private MenuBarManager menuBar;
+    private SubmissionWatcher watcher;
+    private CriteriaWatcher criteriaWatcher;
+    private SessionJournal journal;
+    private CohortStatistics statistics;
+
+    /**
+     * The path of the session journal, or null if the default path next to the criteria should
+     * be used.
+     */
+    private Path sessionPath;
+
+    /**
+     * Whether the submission directories should be watched for new and changed submissions
+     * while grading.
+     */
+    private boolean watching;
+
+    /**
+     * Whether the outcomes recorded when submissions were last graded should be restored, so that
+     * only tests whose outcomes may have changed are run again.
+     */
+    private boolean incremental;
 
     public MainController() {
         menuBar = new MenuBarManager();
@@ -85,6 +145,104 @@ public class MainController {
         );
         menuBar.transcriptWindow.setAction(showTranscript);
 
+        similarityWindow = new JFrame("Similarity Report");
+        similarityWindow.setMinimumSize(new Dimension(300, 200));
+        similarityWindow.setSize(new Dimension(500, 500));
+        similarityWindow.setLocationRelativeTo(null);
+
+        similarityTextPane = new JTextPane();
+        similarityTextPane.setEditable(false);
+        similarityTextPane.setFont(Font.decode(Font.MONOSPACED));
+
+        JScrollPane similarityScrollPane = new JScrollPane(similarityTextPane);
+        similarityScrollPane.setBorder(new EmptyBorder(3, 3, 3, 3));
+
+        similarityWindow.add(similarityScrollPane);
+
+        showSimilarityReport = new AbstractAction(menuBar.similarityReport.getText()) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                generateSimilarityReport();
+            }
+        };
+        menuBar.similarityReport.setAction(showSimilarityReport);
+
+        saveAllGradeReports = new AbstractAction(menuBar.saveAllGradeReports.getText()) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveAllGradeReports();
+            }
+        };
+        menuBar.saveAllGradeReports.setAction(saveAllGradeReports);
+
+        exportGradebook = new AbstractAction(menuBar.exportGradebook.getText()) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser fc = new JFileChooser();
+                fc.setSelectedFile(new java.io.File(DEFAULT_GRADEBOOK_FILE_NAME));
+                if (fc.showSaveDialog(mainView) != JFileChooser.APPROVE_OPTION) return;
+
+                exportGradebook(fc.getSelectedFile().toPath());
+            }
+        };
+        menuBar.exportGradebook.setAction(exportGradebook);
+
+        statisticsWindow = new JFrame("Statistics");
+        statisticsWindow.setMinimumSize(new Dimension(300, 200));
+        statisticsWindow.setSize(new Dimension(500, 500));
+        statisticsWindow.setLocationRelativeTo(null);
+
+        statisticsTextPane = new JTextPane();
+        statisticsTextPane.setEditable(false);
+        statisticsTextPane.setFont(Font.decode(Font.MONOSPACED));
+
+        JScrollPane statisticsScrollPane = new JScrollPane(statisticsTextPane);
+        statisticsScrollPane.setBorder(new EmptyBorder(3, 3, 3, 3));
+
+        statisticsWindow.add(statisticsScrollPane);
+
+        /*
+         * The statistics are kept up to date as results change; the window only needs to show
+         * them again every so often.
+         */
+        final javax.swing.Timer statisticsTimer = new javax.swing.Timer(
+                STATISTICS_REFRESH_MILLIS, new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (statisticsWindow.isVisible()) refreshStatistics();
+                    }
+                }
+        );
+
+        showStatistics = new AbstractAction(menuBar.statisticsWindow.getText()) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshStatistics();
+                statisticsWindow.setVisible(true);
+                statisticsTimer.start();
+            }
+        };
+        menuBar.statisticsWindow.setAction(showStatistics);
+
+        exportStatistics = new AbstractAction(menuBar.exportStatistics.getText()) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (statistics == null) return;
+
+                JFileChooser fc = new JFileChooser();
+                fc.setSelectedFile(new java.io.File(DEFAULT_STATISTICS_FILE_NAME));
+                if (fc.showSaveDialog(mainView) != JFileChooser.APPROVE_OPTION) return;
+
+                Path dest = fc.getSelectedFile().toPath();
+                try (Writer writer = Files.newBufferedWriter(dest, StandardCharsets.UTF_8)) {
+                    statistics.toCSV(writer);
+                } catch (IOException x) {
+                    logger.warning("could not export statistics: " + x);
+                }
+            }
+        };
+        menuBar.exportStatistics.setAction(exportStatistics);
+
         final Document transcriptDocument = transcriptTextPane.getDocument();
 
         tasks = new LinkedBlockingQueue<>();
@@ -145,26 +303,67 @@ public class MainController {
                         return;
                     }
 
+                    if (t.node.isConstrained() || t.node.getResult() != TestResult.NONE) {
+                        /*
+                         * Tests queued in bulk may have been constrained (or decided by hand, or
+                         * given the result of an identical file) since they were queued.
+                         */
+                        if (t.node.getAutomationStage() == AutomationStage.QUEUED)
+                            t.node.setAutomationStage(AutomationStage.NONE);
+                        continue;
+                    }
+
+                    /*
+                     * If this test only depends on the file's contents (or the submission's), and
+                     * it has already been run on an identical file, we can reuse that result.
+                     */
+                    String outcomeHash = ContentIndex.getOutcomeHash(
+                            t.automatableTest, t.submittedFile, t.submission
+                    );
+                    boolean sharable = outcomeHash != null;
+                    if (sharable) {
+                        ContentIndex.Outcome outcome = getContentIndex().getOutcome(
+                                outcomeHash, t.automatableTest
+                        );
+
+                        if (outcome != null) {
+                            Test.appendToDocument(
+                                    transcriptDocument,
+                                    t.automatableTest + ": reusing result of identical file\n"
+                            );
+                            applyOutcome(t.node, outcome);
+                            continue;
+                        }
+                    }
+
                     t.node.setAutomationStage(AutomationStage.STARTED);
                     try {
                         Automatable automatableTest = (Automatable)t.automatableTest;
 
+                        /*
+                         * Notes from a sharable test are collected separately, so that they can
+                         * be copied to the same test of every identical file.
+                         */
+                        Document notes = sharable ? new PlainDocument() : t.node.notes;
+
                         boolean passed = automatableTest.shouldPass(
                                 t.file,
                                 t.submittedFile,
                                 t.submission,
                                 criteria,
                                 transcriptDocument,
-                                t.node.notes
+                                notes
                         );
 
-                        if (passed) t.node.setResult(TestResult.PASSED);
-                        else t.node.setResult(TestResult.FAILED);
+                        TestResult result = passed ? TestResult.PASSED : TestResult.FAILED;
+                        t.node.setResult(result);
 
                         t.node.setAutomationStage(
                                 AutomationStage.FINISHED_NORMAL
                         );
 
+                        if (sharable) shareOutcome(t, outcomeHash, result, notes);
+
                     } catch (CannotBeAutomatedException x) {
                         logger.warning(t.automatableTest + ": cannot be automated: " + x);
 
@@ -211,21 +410,721 @@ public class MainController {
         mainView.submissionTree.addUngraded(map);
         mainView.submissionTree.expandFirstSubmission();
 
+        analyzeModules();
+
+        if (incremental) restoreManifests();
+
+        openJournal(criteriaPath);
+        rebuildStatistics();
+
         mainView.setVisible(true);
+
+        if (watching) startWatching();
+
+        watchCriteria(criteriaPath);
+    }
+
+    /**
+     * Analyzes every submitted Python module in the background, so that the existence tests of
+     * the modules are answered without importing them (see ModuleCatalog).
+     */
+    private void analyzeModules() {
+        final Criteria criteria = this.criteria;
+        final List<Submission> submissions = new ArrayList<>(this.submissions);
+
+        Thread thread = new Thread("module analyzer") {
+            @Override
+            public void run() {
+                try {
+                    int numAnalyzed = ModuleCatalog.analyzeAll(criteria, submissions);
+                    logger.info("analyzed " + numAnalyzed + " submitted modules");
+                } catch (IOException x) {
+                    logger.warning("could not analyze submitted modules: " + x);
+                }
+            }
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens the journal for the criteria, restores any results and notes that were recorded (but
+     * not saved in a grade report) by an earlier session, and starts recording changes.
+     *
+     * @see SessionJournal
+     */
+    private void openJournal(Path criteriaPath) {
+        Path path = sessionPath != null ? sessionPath : SessionJournal.getPath(criteriaPath);
+
+        try {
+            journal = SessionJournal.open(path, criteria.assignmentName);
+        } catch (IOException x) {
+            logger.warning("could not open journal, changes will not be recorded: " + x);
+            return;
+        }
+
+        try {
+            Precomputer.deleteStaleTranscript(journal, path);
+        } catch (IOException x) {
+            logger.warning("could not delete precomputed transcript: " + x);
+        }
+
+        Path transcriptPath = Precomputer.getTranscriptPath(path);
+        if (Files.exists(transcriptPath)) {
+            try {
+                Test.appendToDocument(
+                        transcriptTextPane.getDocument(),
+                        new String(Files.readAllBytes(transcriptPath), StandardCharsets.UTF_8)
+                );
+            } catch (IOException x) {
+                logger.warning("could not read precomputed transcript: " + x);
+            }
+        }
+
+        int numRestored = 0;
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes()) {
+            Submission submission = (Submission)swn.getUserObject();
+
+            for (int i = 0; i < swn.getChildCount(); i++) {
+                if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+                SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+                numRestored += journal.restore(submission, sfwn);
+            }
+        }
+
+        if (numRestored > 0) {
+            logger.info("restored " + numRestored + " tests from journal");
+            Test.appendToDocument(
+                    transcriptTextPane.getDocument(),
+                    "restored " + numRestored + " unsaved test results from previous session\n"
+            );
+        }
+
+        attachJournal();
+
+        Runtime.getRuntime().addShutdownHook(
+                new Thread() {
+                    @Override
+                    public void run() {
+                        journal.close();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Causes changes to every test in the submission tree to be recorded in the journal. This
+     * must be called whenever nodes are added to the tree or replaced.
+     */
+    private void attachJournal() {
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes())
+            attachJournal(swn);
+    }
+
+    private void attachJournal(SubmissionWrapperNode swn) {
+        if (journal == null) return;
+
+        Submission submission = (Submission)swn.getUserObject();
+
+        for (int i = 0; i < swn.getChildCount(); i++) {
+            if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+            journal.attach(submission, (SubmittedFileWrapperNode)swn.getChildAt(i));
+        }
+    }
+
+    /**
+     * Starts collecting statistics about every submission in the submission tree again, from
+     * scratch. This is needed when the criteria changes; otherwise, the statistics are kept up to
+     * date as results change (and submissions are added, or gain files).
+     *
+     * @see CohortStatistics
+     */
+    private void rebuildStatistics() {
+        if (statistics != null) statistics.detach();
+
+        statistics = new CohortStatistics(criteria);
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes())
+            statistics.add(swn);
+    }
+
+    private void refreshStatistics() {
+        if (statistics == null) return;
+
+        int caret = statisticsTextPane.getCaretPosition();
+        statisticsTextPane.setText(statistics.toText());
+        statisticsTextPane.setCaretPosition(
+                Math.min(caret, statisticsTextPane.getDocument().getLength())
+        );
+    }
+
+    /**
+     * Watches the criteria for changes, so that it can be reloaded during grading.
+     */
+    private void watchCriteria(Path criteriaPath) {
+        CriteriaWatcher.Listener listener = new CriteriaWatcher.Listener() {
+            @Override
+            public void criteriaChanged(final Criteria newCriteria) {
+                SwingUtilities.invokeLater(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                reloadCriteria(newCriteria);
+                            }
+                        }
+                );
+            }
+        };
+
+        try {
+            criteriaWatcher = new CriteriaWatcher(criteriaPath, listener);
+            criteriaWatcher.start();
+        } catch (IOException x) {
+            logger.warning("could not watch criteria: " + x);
+        }
+    }
+
+    /**
+     * Replaces the criteria being used to grade with a newer version of the criteria. The results
+     * of tests that are the same in both versions are kept; automated tests that are new or whose
+     * definitions changed are queued to run again on every submission.
+     */
+    private void reloadCriteria(Criteria newCriteria) {
+        // any queued tests belong to the test trees that are about to be replaced
+        tasks.clear();
+
+        Map<SubmittedFileWrapperNode, List<TestWrapperNode>> rerun = mainView.submissionTree
+                .rebindCriteria(newCriteria);
+        criteria = newCriteria;
+        attachJournal();
+        rebuildStatistics();
+
+        int numQueued = 0;
+        for (Map.Entry<SubmittedFileWrapperNode, List<TestWrapperNode>> e : rerun.entrySet()) {
+            SubmittedFileWrapperNode sfwn = e.getKey();
+            Submission submission = (Submission)((SubmissionWrapperNode)sfwn.getParent())
+                    .getUserObject();
+
+            for (TestWrapperNode node : e.getValue())
+                if (queueTest(node, sfwn, submission)) numQueued++;
+        }
+
+        logger.info("criteria reloaded, " + numQueued + " automated tests queued");
+        Test.appendToDocument(
+                transcriptTextPane.getDocument(),
+                "criteria reloaded: " + numQueued + " changed tests queued\n"
+        );
+    }
+
+    /**
+     * Causes the submission directories to be watched once start() is called. New submissions
+     * found while grading are added to the submission tree, and submitted files that change have
+     * their automated tests reset and run again in the background.
+     */
+    public void enableWatchMode() {
+        watching = true;
+    }
+
+    /**
+     * Causes the session journal at the specified path to be used, instead of the journal next to
+     * the criteria (e.g., to open a session created with the --precompute option).
+     *
+     * @see io.breen.socrates.session.Precomputer
+     */
+    public void setSessionPath(Path sessionPath) {
+        this.sessionPath = sessionPath;
+    }
+
+    /**
+     * Causes submissions that have already been graded to be opened, restoring the outcomes
+     * recorded in their grade manifests when start() is called.
+     *
+     * @see GradeManifest
+     */
+    public void enableIncrementalMode() {
+        incremental = true;
+    }
+
+    public boolean isIncrementalMode() {
+        return incremental;
+    }
+
+    /**
+     * Restores the outcomes recorded in the grade manifest of every submission that has one, and
+     * queues the automated tests whose outcomes could not be restored (because the file or the
+     * test changed). Submissions whose grade reports would not change are marked as saved, so
+     * that only the reports of affected submissions need to be saved again.
+     */
+    private void restoreManifests() {
+        int numRestored = 0;
+        int numUnchanged = 0;
+        int numQueued = 0;
+
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes()) {
+            Submission submission = (Submission)swn.getUserObject();
+            Path path = GradeManifest.getPath(submission.getDefaultGradeFilePath());
+            if (!Files.exists(path)) continue;
+
+            GradeManifest manifest;
+            try {
+                manifest = GradeManifest.read(path);
+            } catch (IOException x) {
+                logger.warning("could not read grade manifest " + path + ": " + x);
+                continue;
+            }
+
+            if (!criteria.assignmentName.equals(manifest.assignmentName)) {
+                logger.warning("ignoring grade manifest for another assignment: " + path);
+                continue;
+            }
+
+            boolean unchanged = true;
+            List<SubmittedFile> recognized = new ArrayList<>(swn.getChildCount());
+            Map<SubmittedFileWrapperNode, List<TestWrapperNode>> rerun = new LinkedHashMap<>();
+
+            for (int i = 0; i < swn.getChildCount(); i++) {
+                if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+                SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+                recognized.add((SubmittedFile)sfwn.getUserObject());
+
+                List<TestWrapperNode> nodes = new LinkedList<>();
+                if (!manifest.restore(sfwn, nodes)) unchanged = false;
+                rerun.put(sfwn, nodes);
+            }
+
+            if (manifest.hasOtherFiles(recognized)) unchanged = false;
+
+            for (Map.Entry<SubmittedFileWrapperNode, List<TestWrapperNode>> e : rerun.entrySet())
+                for (TestWrapperNode node : e.getValue())
+                    if (queueTest(node, e.getKey(), submission)) numQueued++;
+
+            numRestored++;
+            if (unchanged && swn.isComplete()) {
+                swn.setSaved(true);
+                numUnchanged++;
+            }
+        }
+
+        logger.info(
+                "restored " + numRestored + " grade manifests (" + numUnchanged + " unchanged), " +
+                        numQueued + " automated tests queued"
+        );
+    }
+
+    private void startWatching() {
+        SubmissionWatcher.Listener listener = new SubmissionWatcher.Listener() {
+            @Override
+            public void submissionAdded(final Submission submission) {
+                /*
+                 * The files are matched on the event dispatch thread, since the criteria may be
+                 * reloaded (see reloadCriteria) while this thread is running.
+                 */
+                SwingUtilities.invokeLater(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                List<Pair<SubmittedFile, File>> list = new ArrayList<>(
+                                        submission.files.size()
+                                );
+                                for (SubmittedFile f : submission.files) {
+                                    File matchingFile = criteria.getFileByLocalPath(f.localPath);
+                                    list.add(new Pair<>(f, matchingFile));
+                                }
+
+                                Map<Submission, List<Pair<SubmittedFile, File>>> map =
+                                        new TreeMap<>();
+                                map.put(submission, list);
+
+                                mainView.submissionTree.addUngraded(map);
+
+                                SubmissionWrapperNode swn = mainView.submissionTree
+                                        .getSubmissionNode(submission);
+                                if (swn == null) return;
+
+                                // only the new submission needs to be attached and counted
+                                attachJournal(swn);
+                                if (statistics != null) statistics.add(swn);
+                            }
+                        }
+                );
+            }
+
+            @Override
+            public void submittedFileChanged(final Submission submission,
+                                             final SubmittedFile file)
+            {
+                SwingUtilities.invokeLater(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                File matchingFile = criteria.getFileByLocalPath(file.localPath);
+                                SubmittedFileWrapperNode sfwn = mainView.submissionTree
+                                        .updateSubmittedFile(submission, file, matchingFile);
+
+                                if (sfwn == null) return;
+
+                                if (journal != null) journal.attach(submission, sfwn);
+
+                                // only this submission's statistics need to be counted again
+                                if (statistics != null) {
+                                    SubmissionWrapperNode swn = (SubmissionWrapperNode)sfwn
+                                            .getParent();
+                                    statistics.remove(swn);
+                                    statistics.add(swn);
+                                }
+
+                                queueAutomatedTests(sfwn, submission);
+                            }
+                        }
+                );
+            }
+        };
+
+        try {
+            watcher = new SubmissionWatcher(submissions, listener);
+            watcher.start();
+        } catch (IOException x) {
+            logger.warning("could not watch submission directories: " + x);
+        }
+    }
+
+    /**
+     * Queues every automated test of the specified file that has not yet been run, in the order
+     * the tests appear in the criteria. Tests that become constrained before they are run will be
+     * skipped.
+     */
+    public void queueAutomatedTests(SubmittedFileWrapperNode sfwn, Submission submission) {
+        DefaultMutableTreeNode root = (DefaultMutableTreeNode)sfwn.treeModel.getRoot();
+        @SuppressWarnings("unchecked") Enumeration<DefaultMutableTreeNode> nodes = root
+                .preorderEnumeration();
+        while (nodes.hasMoreElements()) {
+            DefaultMutableTreeNode n = nodes.nextElement();
+            if (!(n instanceof TestWrapperNode)) continue;
+
+            queueTest((TestWrapperNode)n, sfwn, submission);
+        }
+    }
+
+    /**
+     * Queues the specified test of the specified file, if it is automated and has not yet been
+     * run. Returns whether the test was queued.
+     */
+    private boolean queueTest(TestWrapperNode node, SubmittedFileWrapperNode sfwn,
+                              Submission submission)
+    {
+        SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+        Test testObj = (Test)node.getUserObject();
+
+        if (testObj instanceof Automatable &&
+                node.getResult() == TestResult.NONE &&
+                node.getAutomationStage() == AutomationStage.NONE &&
+                !node.isConstrained())
+        {
+            tasks.add(new TestTask(node, testObj, sfwn.matchingFile, submittedFile, submission));
+
+            node.setAutomationStage(AutomationStage.QUEUED);
+            return true;
+        }
+
+        return false;
     }
 
     public void saveGradeReport(SubmissionWrapperNode completed, Path dest) {
         mainView.setEnabled(false);
-        TextGradeReportFormatter fmt = new TextGradeReportFormatter(criteria);
         try {
-            fmt.toFile(completed, dest);
+            writeGradeReport(completed, dest);
             completed.setSaved(true);
+
+            if (journal != null) journal.submissionSaved((Submission)completed.getUserObject());
         } catch (IOException x) {
             logger.warning("could not save grade report: " + x);
         }
         mainView.setEnabled(true);
     }
 
+    /**
+     * Writes the grade report (and grade manifest) for the specified submission. This does not
+     * change the submission's saved state, and may be called from any thread.
+     */
+    private void writeGradeReport(SubmissionWrapperNode completed, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+        new TextGradeReportFormatter(criteria).toFile(completed, dest);
+
+        try {
+            GradeManifest manifest = new GradeManifest(criteria.assignmentName, completed);
+            manifest.write(GradeManifest.getPath(dest));
+        } catch (IOException x) {
+            logger.warning("could not save grade manifest: " + x);
+        }
+    }
+
+    /**
+     * Saves the grade report of every complete submission whose report has not been saved, to
+     * the default location in each submission's directory. The reports are written on background
+     * threads, at most MAX_CONCURRENT_SAVES at a time; the main window is disabled until every
+     * report has been written.
+     */
+    private void saveAllGradeReports() {
+        final List<SubmissionWrapperNode> unsaved = new ArrayList<>();
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes())
+            if (swn.isComplete() && !swn.isSaved()) unsaved.add(swn);
+
+        if (unsaved.isEmpty()) return;
+
+        mainView.setEnabled(false);
+        saveAllGradeReports.setEnabled(false);
+
+        SwingWorker<List<SubmissionWrapperNode>, Void> worker =
+                new SwingWorker<List<SubmissionWrapperNode>, Void>() {
+            @Override
+            protected List<SubmissionWrapperNode> doInBackground() throws Exception {
+                long start = System.currentTimeMillis();
+
+                int poolSize = Math.min(MAX_CONCURRENT_SAVES, unsaved.size());
+                ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+
+                List<Future<SubmissionWrapperNode>> futures = new ArrayList<>(unsaved.size());
+                for (final SubmissionWrapperNode swn : unsaved) {
+                    futures.add(
+                            pool.submit(
+                                    new Callable<SubmissionWrapperNode>() {
+                                        @Override
+                                        public SubmissionWrapperNode call() {
+                                            Submission s = (Submission)swn.getUserObject();
+                                            try {
+                                                writeGradeReport(swn, s.getDefaultGradeFilePath());
+                                                return swn;
+                                            } catch (IOException x) {
+                                                logger.warning(
+                                                        "could not save grade report: " + x
+                                                );
+                                                return null;
+                                            }
+                                        }
+                                    }
+                            )
+                    );
+                }
+
+                List<SubmissionWrapperNode> saved = new ArrayList<>(unsaved.size());
+                try {
+                    for (Future<SubmissionWrapperNode> f : futures) {
+                        SubmissionWrapperNode swn = f.get();
+                        if (swn != null) saved.add(swn);
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+
+                logger.info(
+                        "saved " + saved.size() + " grade reports in " +
+                                (System.currentTimeMillis() - start) + " ms"
+                );
+                return saved;
+            }
+
+            @Override
+            protected void done() {
+                List<SubmissionWrapperNode> saved;
+                try {
+                    saved = get();
+                } catch (InterruptedException | ExecutionException x) {
+                    logger.warning("could not save grade reports: " + x);
+                    saved = Collections.emptyList();
+                }
+
+                for (SubmissionWrapperNode swn : saved) {
+                    swn.setSaved(true);
+                    if (journal != null) journal.submissionSaved((Submission)swn.getUserObject());
+                }
+
+                Test.appendToDocument(
+                        transcriptTextPane.getDocument(),
+                        "saved " + saved.size() + " of " + unsaved.size() + " grade reports\n"
+                );
+
+                saveAllGradeReports.setEnabled(true);
+                mainView.setEnabled(true);
+            }
+        };
+
+        worker.execute();
+    }
+
+    /**
+     * Writes a gradebook containing every submission to the specified path, in the format
+     * suggested by the path's extension. The gradebook is written on a background thread, while
+     * the main window is disabled.
+     *
+     * @see GradebookExporter
+     */
+    private void exportGradebook(final Path dest) {
+        final GradebookExporter exporter = new GradebookExporter(
+                criteria, GradebookExporter.Format.fromFileName(dest.getFileName().toString())
+        );
+        final List<SubmissionWrapperNode> nodes = mainView.submissionTree.getSubmissionNodes();
+
+        mainView.setEnabled(false);
+
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                exporter.export(nodes, dest);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                String message;
+                try {
+                    get();
+                    message = "exported gradebook to " + dest;
+                } catch (InterruptedException | ExecutionException x) {
+                    logger.warning("could not export gradebook: " + x);
+                    message = "could not export gradebook: " + x.getCause();
+                }
+
+                Test.appendToDocument(transcriptTextPane.getDocument(), message + "\n");
+                mainView.setEnabled(true);
+            }
+        };
+
+        worker.execute();
+    }
+
+    /**
+     * Compares every recognized file with the other submissions of the same file on a background
+     * thread, and shows the resulting report in the similarity window.
+     */
+    private void generateSimilarityReport() {
+        final SimilarityReport report = new SimilarityReport(criteria);
+
+        for (SubmissionWrapperNode swn : mainView.submissionTree.getSubmissionNodes()) {
+            Submission submission = (Submission)swn.getUserObject();
+
+            for (int i = 0; i < swn.getChildCount(); i++) {
+                if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+                SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+                SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+                report.add(submission, submittedFile, sfwn.matchingFile);
+            }
+        }
+
+        showSimilarityReport.setEnabled(false);
+        similarityTextPane.setText("Comparing submissions...");
+        similarityWindow.setVisible(true);
+
+        SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                long start = System.currentTimeMillis();
+                String text = report.generate();
+                logger.info(
+                        "generated similarity report in " +
+                                (System.currentTimeMillis() - start) + " ms"
+                );
+                return text;
+            }
+
+            @Override
+            protected void done() {
+                showSimilarityReport.setEnabled(true);
+
+                try {
+                    similarityTextPane.setText(get());
+                    similarityTextPane.setCaretPosition(0);
+                } catch (InterruptedException | ExecutionException x) {
+                    logger.warning("could not generate similarity report: " + x);
+                    similarityTextPane.setText("The similarity report could not be generated.");
+                }
+            }
+        };
+
+        worker.execute();
+    }
+
+    private ContentIndex getContentIndex() {
+        return mainView.submissionTree.contentIndex;
+    }
+
+    /**
+     * Gives the specified node the result of running its test on an identical file. The node must
+     * not have a result yet.
+     */
+    private static void applyOutcome(TestWrapperNode node, ContentIndex.Outcome outcome) {
+        if (!outcome.notes.isEmpty()) Test.appendToDocument(node.notes, outcome.notes);
+
+        node.setResult(outcome.result);
+        node.setAutomationStage(AutomationStage.FINISHED_NORMAL);
+    }
+
+    /**
+     * Records the outcome of a test that depends only on the contents of its file (or its
+     * submission), by the specified hash, and gives the same outcome to that test for every
+     * identical file that has not yet been graded by it.
+     *
+     * Since tests append their notes on the event dispatch thread, this method waits until those
+     * notes have been appended before reading them.
+     */
+    private void shareOutcome(final TestTask t, final String outcomeHash, final TestResult result,
+                              final Document notes)
+    {
+        SwingUtilities.invokeLater(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        String text = "";
+                        try {
+                            text = notes.getText(0, notes.getLength());
+                        } catch (BadLocationException ignored) {}
+
+                        ContentIndex.Outcome outcome = new ContentIndex.Outcome(result, text);
+                        ContentIndex index = getContentIndex();
+                        index.putOutcome(outcomeHash, t.automatableTest, outcome);
+
+                        if (!text.isEmpty()) Test.appendToDocument(t.node.notes, text);
+
+                        int numShared = 0;
+                        for (SubmittedFileWrapperNode sfwn : index.getNodes(
+                                t.submittedFile.hash, t.file
+                        ))
+                        {
+                            TestWrapperNode node = sfwn.getTestNode(t.automatableTest);
+                            if (node == null || node == t.node) continue;
+
+                            // the other files in the submission may differ
+                            SubmissionWrapperNode swn = (SubmissionWrapperNode)sfwn.getParent();
+                            if (swn == null || !outcomeHash.equals(ContentIndex.getOutcomeHash(
+                                    t.automatableTest,
+                                    (SubmittedFile)sfwn.getUserObject(),
+                                    (Submission)swn.getUserObject()
+                            )))
+                                continue;
+
+                            AutomationStage stage = node.getAutomationStage();
+                            if (node.getResult() == TestResult.NONE && !node.isConstrained() &&
+                                    (stage == AutomationStage.NONE ||
+                                            stage == AutomationStage.QUEUED))
+                            {
+                                applyOutcome(node, outcome);
+                                numShared++;
+                            }
+                        }
+
+                        if (numShared > 0)
+                            logger.info(
+                                    t.automatableTest + ": shared result with " + numShared +
+                                            " identical files"
+                            );
+                    }
+                }
+        );
+    }
+
     private class TestTask {
 
         public final TestWrapperNode node;
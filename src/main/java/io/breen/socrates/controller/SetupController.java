@@ -12,6 +12,7 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
 public class SetupController {
@@ -66,77 +67,156 @@ public class SetupController {
                     @Override
                     public void actionPerformed(ActionEvent e) {
                         List<Path> ps = view.chooseSubmissions();
-                        if (ps != null) {
-                            Map<Path, Exception> errors = new HashMap<>();
-                            submissions = new ArrayList<>(ps.size());
-                            for (Path p : ps) {
-                                try {
-                                    submissions.add(Submission.fromDirectory(p));
-                                } catch (IOException x) {
-                                    errors.put(p, x);
-                                    logger.warning("IOE thrown when adding submission: " + x);
-                                } catch (ReceiptFormatException x) {
-                                    errors.put(p, x);
-                                    logger.warning("RFE thrown when adding submission: " + x);
-                                } catch (AlreadyGradedException x) {
-                                    errors.put(p, x);
-                                    logger.info("AGE thrown when adding submission: " + x);
-                                }
+                        if (ps != null) loadSubmissions(ps);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Loads the submissions at the specified paths on a background thread, showing the progress
+     * to the user. When loading finishes, any problems are reported, and if the criteria has
+     * also been loaded, control is transferred to the MainController. If the user cancels, the
+     * submissions that have not been loaded yet are abandoned, and none of them are used.
+     */
+    private void loadSubmissions(final List<Path> paths) {
+        final ProgressMonitor monitor = new ProgressMonitor(
+                view, "Opening submissions...", null, 0, paths.size()
+        );
+        monitor.setMillisToDecideToPopup(250);
+
+        final SubmissionLoader loader = new SubmissionLoader();
+        loader.setAllowGraded(main.isIncrementalMode());
+
+        final javax.swing.Timer cancelTimer = new javax.swing.Timer(100, null);
+
+        final SwingWorker<List<Submission>, Integer> worker = new SwingWorker<List<Submission>,
+                Integer>()
+        {
+            @Override
+            protected List<Submission> doInBackground() throws Exception {
+                return loader.load(
+                        paths, new SubmissionLoader.ProgressListener() {
+                            @Override
+                            public void directoryLoaded(Path directory, int numLoaded,
+                                                        int numTotal)
+                            {
+                                publish(numLoaded);
                             }
+                        }
+                );
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                int numLoaded = chunks.get(chunks.size() - 1);
+                monitor.setProgress(numLoaded);
+                monitor.setNote(numLoaded + " of " + paths.size());
+            }
+
+            @Override
+            protected void done() {
+                cancelTimer.stop();
+                monitor.close();
+
+                if (isCancelled()) {
+                    logger.info("opening submissions was cancelled");
+                    if (criteria != null && !view.isVisible()) {
+                        view.showSubmissionsCard();
+                        view.setVisible(true);
+                    }
+                    return;
+                }
 
-                            int numErrors = errors.size();
-                            int numAdded = submissions.size();
-                            if (numErrors > 0) {
-                                StringBuilder sb = new StringBuilder();
-                                for (Map.Entry<Path, Exception> x : errors.entrySet())
-                                    sb.append(x.getValue().getMessage() + ": " + x.getKey() + "\n");
-
-                                String msg = "There was a problem opening " + numErrors + "" +
-                                        " submission" + (numErrors == 1 ? "" : "s") + ".";
-                                if (numAdded > 0) {
-                                    msg += " The remaining " + numAdded + " submission" +
-                                            (numAdded == 1 ? " is" : "s are") + " available" +
-                                            " to grade.";
-                                }
-                                String title = (numErrors == 1 ? "Issue" : "Issues") + " " +
-                                        "Opening Submissions";
+                List<Submission> loaded;
+                try {
+                    loaded = get();
+                } catch (InterruptedException | ExecutionException x) {
+                    logger.severe("could not load submissions: " + x);
+                    return;
+                }
 
-                                DetailOptionPane.showMessageDialog(
-                                        view,
-                                        msg,
-                                        title,
-                                        JOptionPane.INFORMATION_MESSAGE,
-                                        sb.toString()
-                                );
-                            }
+                Map<Path, Exception> errors = loader.getErrors();
+                for (Map.Entry<Path, Exception> x : errors.entrySet())
+                    logger.warning("could not add submission " + x.getKey() + ": " + x.getValue());
+
+                int numErrors = errors.size();
+                int numAdded = loaded.size();
+                if (numErrors > 0) {
+                    StringBuilder sb = new StringBuilder();
+                    for (Map.Entry<Path, Exception> x : errors.entrySet())
+                        sb.append(x.getValue().getMessage() + ": " + x.getKey() + "\n");
+
+                    String msg = "There was a problem opening " + numErrors + "" +
+                            " submission" + (numErrors == 1 ? "" : "s") + ".";
+                    if (numAdded > 0) {
+                        msg += " The remaining " + numAdded + " submission" +
+                                (numAdded == 1 ? " is" : "s are") + " available" +
+                                " to grade.";
+                    }
+                    String title = (numErrors == 1 ? "Issue" : "Issues") + " " +
+                            "Opening Submissions";
+
+                    DetailOptionPane.showMessageDialog(
+                            view,
+                            msg,
+                            title,
+                            JOptionPane.INFORMATION_MESSAGE,
+                            sb.toString()
+                    );
+                }
 
-                            if (numAdded > 0) {
-                                transferToMain();
-                            } else {
-                                logger.warning("no submissions could be added");
-                            }
-                        }
+                if (numAdded > 0) {
+                    submissions = new ArrayList<>(loaded);
+                    if (criteria != null) transferToMain();
+                } else {
+                    logger.warning("no submissions could be added");
+                    if (criteria != null && !view.isVisible()) {
+                        view.showSubmissionsCard();
+                        view.setVisible(true);
+                    }
+                }
+            }
+        };
+
+        /*
+         * ProgressMonitor does not notify anyone when its Cancel button is pressed, so it is
+         * checked periodically. Cancelling the worker interrupts the loader, which stops its pool.
+         */
+        cancelTimer.addActionListener(
+                new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (monitor.isCanceled()) worker.cancel(true);
                     }
                 }
         );
+
+        cancelTimer.start();
+        worker.execute();
     }
 
-    public void start(Path criteriaPath, Criteria criteria, List<Submission> submissions) {
+    /**
+     * Starts the setup. If the criteria is non-null, the "Choose a criteria file" step is skipped.
+     * If a list of submission paths is specified, the submissions are loaded immediately; if the
+     * criteria is also non-null and at least one submission can be loaded, the setup is skipped
+     * entirely.
+     */
+    public void start(Path criteriaPath, Criteria criteria, List<Path> submissionPaths) {
         this.criteriaPath = criteriaPath;
         this.criteria = criteria;
-        this.submissions = submissions;
+        this.submissions = null;
 
         if (criteria == null) {
             view.showCriteriaCard();
             view.setVisible(true);
-        } else if (submissions == null) {
+        } else if (submissionPaths == null) {
             // we can skip the "Choose a criteria file" step
             view.showSubmissionsCard();
             view.setVisible(true);
-        } else {
-            // we can skip the setup entirely
-            main.start(criteriaPath, criteria, submissions);
         }
+
+        if (submissionPaths != null) loadSubmissions(submissionPaths);
     }
 
     public void transferToMain() {
@@ -0,0 +1,244 @@
+package io.breen.socrates.controller;
+
+import io.breen.socrates.Globals;
+import io.breen.socrates.submission.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the directories containing the submissions being graded, so that submissions arriving
+ * (or changing) during a grading session can be added without restarting Socrates.
+ *
+ * The watcher notices two kinds of changes. If a new directory appears next to the submissions
+ * already being graded, it is loaded as a new submission. If a file (or a receipt) inside a known
+ * submission is created or modified, a new SubmittedFile is created for it. In both cases, the
+ * watcher's listener is notified. Since files are often copied into place over some time, changes
+ * are only reported once the watched directories have been quiet for a short period.
+ *
+ * Submissions stored in archives are never watched.
+ */
+public class SubmissionWatcher {
+
+    /**
+     * Objects implementing this interface receive the changes found by the watcher. These methods
+     * are called from the watcher's thread, not the event dispatch thread.
+     */
+    public interface Listener {
+
+        void submissionAdded(Submission submission);
+
+        void submittedFileChanged(Submission submission, SubmittedFile file);
+    }
+
+    private static final long QUIET_PERIOD_MILLIS = 2000;
+
+    private static final String RECEIPT_EXTENSION = ".receipt";
+
+    private static Logger logger = Logger.getLogger(SubmissionWatcher.class.getName());
+
+    private final WatchService service;
+    private final Listener listener;
+
+    /**
+     * Maps each watch key to the (absolute) directory it was registered for.
+     */
+    private final Map<WatchKey, Path> keys;
+
+    /**
+     * The (absolute) directories containing the submission directories.
+     */
+    private final Set<Path> roots;
+
+    /**
+     * Maps each (absolute) submission directory to the submission loaded from it.
+     */
+    private final Map<Path, Submission> submissions;
+
+    private Thread thread;
+
+    public SubmissionWatcher(List<Submission> initial, Listener listener) throws IOException {
+        this.listener = listener;
+
+        service = FileSystems.getDefault().newWatchService();
+        keys = new HashMap<>();
+        roots = new HashSet<>();
+        submissions = new HashMap<>();
+
+        for (Submission s : initial) {
+            if (s.isArchived()) continue;
+
+            Path dir = s.submissionDir.toAbsolutePath().normalize();
+            submissions.put(dir, s);
+
+            Path root = dir.getParent();
+            if (root != null && roots.add(root)) register(root);
+
+            registerAll(dir);
+        }
+    }
+
+    public void start() {
+        thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    watch();
+                } catch (InterruptedException | ClosedWatchServiceException x) {
+                    logger.info("submission watcher stopped");
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        logger.info("watching " + roots.size() + " directories for new submissions");
+    }
+
+    public void stop() {
+        try {
+            service.close();
+        } catch (IOException x) {
+            logger.warning("could not close watch service: " + x);
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        keys.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY), dir);
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(
+                start, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                            throws IOException
+                    {
+                        register(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+        );
+    }
+
+    private void watch() throws InterruptedException {
+        Set<Path> newDirs = new LinkedHashSet<>();
+        Set<Path> changedFiles = new LinkedHashSet<>();
+
+        while (true) {
+            WatchKey key;
+            if (newDirs.isEmpty() && changedFiles.isEmpty())
+                key = service.take();
+            else
+                key = service.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (key == null) {
+                // nothing happened for a while, so the changes are probably complete
+                for (Path dir : newDirs)
+                    addSubmission(dir);
+
+                for (Path file : changedFiles)
+                    updateFile(file);
+
+                newDirs.clear();
+                changedFiles.clear();
+                continue;
+            }
+
+            Path dir = keys.get(key);
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || dir == null) continue;
+
+                Path path = dir.resolve((Path)event.context());
+
+                if (roots.contains(dir)) {
+                    if (Files.isDirectory(path) && !submissions.containsKey(path))
+                        newDirs.add(path);
+
+                } else if (Files.isDirectory(path)) {
+                    // a new subdirectory inside of a submission
+                    try {
+                        registerAll(path);
+                    } catch (IOException x) {
+                        logger.warning("could not watch directory " + path + ": " + x);
+                    }
+
+                } else if (!newDirs.contains(findSubmissionDir(path))) {
+                    changedFiles.add(path);
+                }
+            }
+
+            if (!key.reset()) keys.remove(key);
+        }
+    }
+
+    private void addSubmission(Path dir) {
+        Submission s;
+        try {
+            s = Submission.fromDirectory(dir);
+            registerAll(dir);
+        } catch (IOException | ReceiptFormatException | AlreadyGradedException |
+                IllegalArgumentException x) {
+            logger.warning("could not add new submission '" + dir + "': " + x);
+            return;
+        }
+
+        submissions.put(dir, s);
+        logger.info("found new submission: " + dir);
+        listener.submissionAdded(s);
+    }
+
+    private void updateFile(Path path) {
+        Path dir = findSubmissionDir(path);
+        if (dir == null) return;
+
+        Submission s = submissions.get(dir);
+
+        String fileName = path.getFileName().toString();
+        if (fileName.endsWith(RECEIPT_EXTENSION)) {
+            // a receipt changed, so the file it belongs to must be updated
+            fileName = fileName.substring(0, fileName.length() - RECEIPT_EXTENSION.length());
+            path = path.resolveSibling(fileName);
+        }
+
+        if (fileName.equals(Globals.DEFAULT_GRADE_FILE_NAME) ||
+                fileName.equals(Globals.DEFAULT_MANIFEST_FILE_NAME))
+            return;
+
+        try {
+            if (!Files.isRegularFile(path) || Files.isHidden(path)) return;
+
+            Path localPath = dir.relativize(path);
+            Path fullPath = s.submissionDir.resolve(localPath.toString());
+            Path receipt = fullPath.resolveSibling(fileName + RECEIPT_EXTENSION);
+
+            SubmittedFile f = new SubmittedFile(
+                    fullPath, localPath, Files.exists(receipt) ? receipt : null
+            );
+
+            logger.info("submitted file changed: " + fullPath);
+            listener.submittedFileChanged(s, f);
+
+        } catch (IOException | ReceiptFormatException x) {
+            logger.warning("could not update submitted file '" + path + "': " + x);
+        }
+    }
+
+    /**
+     * Returns the (absolute) submission directory containing the specified path, or null if the
+     * path is not inside a known submission.
+     */
+    private Path findSubmissionDir(Path path) {
+        for (Path p = path.getParent(); p != null; p = p.getParent())
+            if (submissions.containsKey(p)) return p;
+
+        return null;
+    }
+}
@@ -1,10 +1,13 @@
 package io.breen.socrates.criteria;
 
+import io.breen.socrates.Verifiable;
 import io.breen.socrates.file.*;
 import io.breen.socrates.file.java.JavaFile;
 import io.breen.socrates.file.logicly.LogiclyFile;
 import io.breen.socrates.file.plain.PlainFile;
 import io.breen.socrates.file.python.PythonFile;
+import io.breen.socrates.submission.FileContents;
+import io.breen.socrates.test.Test;
 import io.breen.socrates.test.TestGroup;
 import io.breen.socrates.test.any.ReviewTest;
 import io.breen.socrates.test.any.ScriptTest;
@@ -13,6 +16,7 @@ import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.error.YAMLException;
 
+import java.io.Serializable;
 import java.io.IOException;
 import java.io.Reader;
 import java.nio.charset.Charset;
@@ -20,8 +24,6 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * A class representing a criteria file (or package) containing specifications of parts of the
@@ -29,7 +31,9 @@ import java.util.zip.ZipFile;
  * packages may also contain other resources that are needed to execute the tests specified in a
  * criteria file (e.g., hooks, scripts, or static files).
  */
-public class Criteria {
+public class Criteria implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public static final String[] CRITERIA_FILE_EXTENSIONS = {"scf", "yml"};
     public static final String[] CRITERIA_PACKAGE_EXTENSIONS = {"scp", "zip"};
@@ -49,14 +53,26 @@ public class Criteria {
      */
     public List<File> files;
 
-    public Map<String, Path> staticResources;
-    public Map<String, Path> scripts;
+    /*
+     * Paths cannot be serialized, and these are set again whenever the criteria is loaded.
+     */
+    public transient Map<String, Path> staticResources;
+    public transient Map<String, Path> scripts;
 
     /**
      * If this criteria was created from a criteria package, this field stores the file system
-     * location to which the archive was "unzipped".
+     * location to which the archive was "unzipped". This directory is shared with every other
+     * criteria created from a package with the same contents (see PackageCache).
+     */
+    private transient Path tempDir;
+
+    /*
+     * The following indexes are built by compile(), once the criteria has been loaded.
      */
-    private Path tempDir;
+    private Map<String, File> filesByPath;
+    private Map<Object, Integer> ids;
+    private List<Object> testsAndGroups;
+    private Map<Test, File> filesByTest;
 
     /**
      * This empty constructor is used by SnakeYAML.
@@ -66,6 +82,7 @@ public class Criteria {
     public Criteria(String assignmentName, List<File> files) {
         this.assignmentName = assignmentName;
         this.files = files;
+        compile();
     }
 
     public static Criteria loadFromPath(Path path) throws IOException, InvalidCriteriaException {
@@ -77,11 +94,9 @@ public class Criteria {
             return loadCriteriaFileFromPath(path);
 
         } else if (looksLikeCriteriaPackage(fileName)) {
-            Path tempDir = Files.createTempDirectory(null);
+            Path tempDir = PackageCache.extract(path);
 
-            logger.info("using temporary directory for criteria package: " + tempDir);
-
-            unzip(path, tempDir);
+            logger.info("using directory for criteria package: " + tempDir);
 
             // need this array because the variable has to be final...
             final Path[] criteriaPath = new Path[] {null};
@@ -154,7 +169,18 @@ public class Criteria {
     private static Criteria loadCriteriaFileFromPath(Path path)
             throws IOException, InvalidCriteriaException
     {
-        return loadCriteriaFileFromReader(Files.newBufferedReader(path, Charset.defaultCharset()));
+        String hash = FileContents.getHash(path);
+
+        Criteria c = CriteriaCache.load(path, hash);
+        if (c != null) {
+            logger.info("loaded criteria from cache: " + CriteriaCache.getCachePath(path));
+            return c;
+        }
+
+        c = loadCriteriaFileFromReader(Files.newBufferedReader(path, Charset.defaultCharset()));
+        CriteriaCache.store(path, hash, c);
+
+        return c;
     }
 
     private static Criteria loadCriteriaFileFromReader(Reader reader)
@@ -262,36 +288,128 @@ public class Criteria {
         for (File f : c.files)
             f.afterConstruction();
 
+        c.compile();
+
+        /*
+         * Tests that are checked when they are run would otherwise fail on every submission (and
+         * take down the thread running them), so they are checked once, here.
+         */
+        for (Object o : c.testsAndGroups) {
+            if (!(o instanceof Verifiable)) continue;
+
+            try {
+                ((Verifiable)o).verify();
+            } catch (IllegalArgumentException x) {
+                throw new InvalidCriteriaException(o + ": " + x.getMessage());
+            }
+        }
+
         return c;
     }
 
-    private static void unzip(Path zipPath, Path destDir) throws IOException {
-        ZipFile file = new ZipFile(zipPath.toFile());
+    public Path getStaticDir() {
+        return Paths.get(tempDir.toString(), "static");
+    }
 
-        Enumeration<? extends ZipEntry> entries = file.entries();
-        while (entries.hasMoreElements()) {
-            ZipEntry entry = entries.nextElement();
-            String entryName = entry.getName();
-            Path entryDest = Paths.get(destDir.toString(), entryName);
+    /**
+     * Builds the indexes used to look up files and tests, so that lookups made for every submitted
+     * file and every test run take constant time. This also assigns each test and test group an
+     * ID: the position of the test or group in a depth-first traversal of every file's test tree,
+     * in the order the files appear in the criteria. IDs are therefore dense (starting from 0) and
+     * do not change as long as the criteria does not change.
+     *
+     * This must be called again if the files (or their tests) are changed after loading.
+     */
+    public void compile() {
+        filesByPath = new HashMap<>(files.size() * 2);
+        ids = new IdentityHashMap<>();
+        testsAndGroups = new ArrayList<>();
+        filesByTest = new IdentityHashMap<>();
 
-            if (entry.isDirectory()) Files.createDirectory(entryDest);
-            else Files.copy(file.getInputStream(entry), entryDest);
+        for (File f : files) {
+            filesByPath.put(toKey(Paths.get(f.path)), f);
+            if (f.testRoot != null) assignIds(f.testRoot, f);
         }
+    }
+
+    private void assignIds(TestGroup group, File file) {
+        ids.put(group, testsAndGroups.size());
+        testsAndGroups.add(group);
+
+        if (group.members == null) return;
 
-        file.close();
+        for (Object member : group.members) {
+            if (member instanceof TestGroup) {
+                assignIds((TestGroup)member, file);
+
+            } else if (member instanceof Test) {
+                ids.put(member, testsAndGroups.size());
+                testsAndGroups.add(member);
+                filesByTest.put((Test)member, file);
+            }
+        }
     }
 
-    public Path getStaticDir() {
-        return Paths.get(tempDir.toString(), "static");
+    /**
+     * Converts a relative path into a string that does not depend on the path's file system, so
+     * that paths inside archives match the paths in the criteria.
+     */
+    private static String toKey(Path path) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : path) {
+            if (builder.length() > 0) builder.append('/');
+            builder.append(name.toString());
+        }
+
+        return builder.toString();
     }
 
     public File getFileByLocalPath(Path path) {
-        for (File f : files) {
-            Path p = Paths.get(f.path);
-            if (p.equals(path)) return f;
-        }
+        if (filesByPath == null) compile();
+
+        return filesByPath.get(toKey(path));
+    }
+
+    /**
+     * Returns the File whose test tree contains the specified test, or null if the test is not
+     * part of this criteria.
+     */
+    public File getFileForTest(Test test) {
+        if (filesByTest == null) compile();
+
+        return filesByTest.get(test);
+    }
+
+    /**
+     * Returns the ID of the specified test or test group, or -1 if it is not part of this
+     * criteria.
+     *
+     * @see #compile()
+     */
+    public int getId(Object testOrGroup) {
+        if (ids == null) compile();
+
+        Integer id = ids.get(testOrGroup);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the test or test group with the specified ID, or null if there is no such ID.
+     */
+    public Object getById(int id) {
+        if (testsAndGroups == null) compile();
+
+        if (id < 0 || id >= testsAndGroups.size()) return null;
+        return testsAndGroups.get(id);
+    }
+
+    /**
+     * Returns the number of IDs assigned to tests and test groups (one more than the largest ID).
+     */
+    public int getNumIds() {
+        if (testsAndGroups == null) compile();
 
-        return null;
+        return testsAndGroups.size();
     }
 
     public String toString() {
@@ -0,0 +1,117 @@
+package io.breen.socrates.criteria;
+
+import io.breen.socrates.Globals;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.logging.Logger;
+
+/**
+ * Stores fully constructed Criteria objects (including every file's test tree and the indexes
+ * built by Criteria.compile()) in a binary cache file next to the criteria file they were loaded
+ * from. Loading a criteria from its cache skips parsing the YAML and constructing the test trees.
+ *
+ * A cache file begins with a header containing a format version, the version of Socrates that
+ * wrote it and the hash of the criteria file it was created from; a cache file whose header does
+ * not match is ignored (and replaced). The rest of the file is the serialized Criteria object.
+ * Since a new version of Socrates never reads an older version's cache, the criteria classes
+ * declare their serialVersionUIDs, and these need only be changed if a class changes
+ * incompatibly during development.
+ */
+class CriteriaCache {
+
+    public static final String EXTENSION = "cache";
+
+    /**
+     * Incremented whenever the header of cache files changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String MAGIC = "socrates-criteria";
+
+    private static Logger logger = Logger.getLogger(CriteriaCache.class.getName());
+
+    private CriteriaCache() {}
+
+    public static Path getCachePath(Path criteriaPath) {
+        return criteriaPath.resolveSibling(criteriaPath.getFileName() + "." + EXTENSION);
+    }
+
+    /**
+     * Returns the criteria stored in the cache file for the specified criteria file, or null if
+     * there is no cache file, or if it was not created from a criteria file with the specified
+     * hash, or if it cannot be read.
+     */
+    public static Criteria load(Path criteriaPath, String hash) {
+        Path cachePath = getCachePath(criteriaPath);
+        if (!Files.exists(cachePath)) return null;
+
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(cachePath))
+        ))
+        {
+            if (!in.readUTF().equals(MAGIC) || in.readInt() != FORMAT_VERSION) {
+                logger.info("ignoring criteria cache with unknown format: " + cachePath);
+                return null;
+            }
+
+            if (!in.readUTF().equals(Globals.VERSION)) {
+                logger.info("ignoring criteria cache from another version: " + cachePath);
+                return null;
+            }
+
+            if (!in.readUTF().equals(hash)) {
+                logger.info("ignoring out of date criteria cache: " + cachePath);
+                return null;
+            }
+
+            return (Criteria)in.readObject();
+
+        } catch (IOException | ClassNotFoundException | ClassCastException x) {
+            logger.info("could not read criteria cache: " + cachePath + ": " + x);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified criteria to the cache file for the specified criteria file. The cache
+     * file is written under a temporary name and then renamed, so that a partially written cache
+     * is never read. If the cache cannot be written (e.g., because the criteria file is in a
+     * read-only directory), this method logs a warning and does nothing else.
+     */
+    public static void store(Path criteriaPath, String hash, Criteria criteria) {
+        Path cachePath = getCachePath(criteriaPath);
+        Path tempPath = null;
+
+        try {
+            tempPath = Files.createTempFile(
+                    cachePath.toAbsolutePath().getParent(), cachePath.getFileName().toString(), null
+            );
+
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempPath))
+            ))
+            {
+                out.writeUTF(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(Globals.VERSION);
+                out.writeUTF(hash);
+                out.writeObject(criteria);
+            }
+
+            Files.move(
+                    tempPath,
+                    cachePath,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+
+        } catch (IOException x) {
+            logger.warning("could not write criteria cache: " + cachePath + ": " + x);
+
+            if (tempPath != null) try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {}
+        }
+    }
+}
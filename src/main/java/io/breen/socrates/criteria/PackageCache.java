@@ -0,0 +1,359 @@
+package io.breen.socrates.criteria;
+
+import io.breen.socrates.Globals;
+import io.breen.socrates.submission.FileContents;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts criteria packages into a cache inside Socrates' temporary directory, so that a package
+ * is only extracted the first time it is opened. Each package is extracted into a directory named
+ * after the SHA-1 hash of the package's contents; if that directory already exists (from this
+ * launch or an earlier one), it is used as is.
+ *
+ * A package is extracted into a directory with a temporary name, which is renamed once extraction
+ * has completed. A cached directory therefore never contains a partially extracted package, even
+ * if Socrates was killed during extraction or two instances of Socrates opened the same package.
+ *
+ * The cache holds at most MAX_ENTRIES packages. When a package is used, its directory's
+ * modification time is updated; when the cache is full, the least recently used packages are
+ * deleted. Each instance of Socrates holds a shared lock on the lock file of every package it has
+ * used (e.g., "<hash>.lock" for the directory "<hash>"), and a package is only deleted if its lock
+ * file can be locked exclusively and it was not used in the last RECENT_MILLIS. A package that is
+ * still open in another instance is therefore not deleted, even if that instance opened it long
+ * ago; if the file system does not support locking, only recently used packages are kept. The
+ * cache may hold more than MAX_ENTRIES packages while they are in use.
+ */
+class PackageCache {
+
+    public static final int MAX_ENTRIES = 8;
+
+    private static final String CACHE_DIR_NAME = "criteria";
+
+    /**
+     * Remembers the hash of each package by its path, size, and modification time, so that a
+     * package that hasn't changed does not need to be read again to compute its hash.
+     */
+    private static final String HASHES_FILE_NAME = "hashes.properties";
+
+    /**
+     * Partially extracted packages (whose names contain '-') older than this are deleted.
+     */
+    private static final long PARTIAL_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Packages used more recently than this are never deleted.
+     */
+    private static final long RECENT_MILLIS = 60 * 60 * 1000;
+
+    private static final String LOCK_EXTENSION = ".lock";
+
+    /**
+     * The shared locks held on the packages used by this instance, by hash. These are held until
+     * Socrates exits.
+     */
+    private static final Map<String, FileLock> locks = new HashMap<>();
+
+    private static Logger logger = Logger.getLogger(PackageCache.class.getName());
+
+    private PackageCache() {}
+
+    /**
+     * Returns a directory containing the extracted contents of the specified criteria package,
+     * extracting the package only if it is not already in the cache.
+     */
+    public static synchronized Path extract(Path archive) throws IOException {
+        Path cacheDir = Globals.getTempPath(CACHE_DIR_NAME);
+        Files.createDirectories(cacheDir);
+
+        String hash = getHash(cacheDir, archive);
+        Path dest = cacheDir.resolve(hash);
+
+        // a package is locked before it is extracted, so it cannot be deleted once it exists
+        lock(cacheDir, hash);
+
+        if (Files.isDirectory(dest)) {
+            logger.info("using cached criteria package: " + dest);
+            Files.setLastModifiedTime(dest, FileTime.fromMillis(System.currentTimeMillis()));
+            return dest;
+        }
+
+        Path partial = Files.createTempDirectory(cacheDir, hash + "-");
+        try {
+            long start = System.currentTimeMillis();
+            unzip(archive, partial);
+            logger.info(
+                    "extracted criteria package in " + (System.currentTimeMillis() - start) + " ms"
+            );
+
+            try {
+                Files.move(partial, dest, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException x) {
+                // another instance of Socrates extracted the same package first
+                deleteRecursively(partial);
+            }
+
+        } catch (IOException x) {
+            deleteRecursively(partial);
+            throw x;
+        }
+
+        collectGarbage(cacheDir, dest);
+
+        return dest;
+    }
+
+    private static String getHash(Path cacheDir, Path archive) throws IOException {
+        Path hashesFile = cacheDir.resolve(HASHES_FILE_NAME);
+
+        Properties hashes = new Properties();
+        if (Files.exists(hashesFile)) {
+            try (InputStream in = Files.newInputStream(hashesFile)) {
+                hashes.load(in);
+            } catch (IllegalArgumentException x) {
+                logger.warning("ignoring malformed hashes file: " + x);
+            }
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(archive, BasicFileAttributes.class);
+        String key = archive.toAbsolutePath().normalize().toString();
+        String stamp = attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":";
+
+        String value = hashes.getProperty(key);
+        if (value != null && value.startsWith(stamp)) return value.substring(stamp.length());
+
+        String hash = FileContents.getHash(archive);
+        hashes.setProperty(key, stamp + hash);
+
+        /*
+         * The file is replaced, rather than written in place, so that another instance of
+         * Socrates never reads a partially written file. If two instances write the file at the
+         * same time, one's new hash is lost, and is only computed again.
+         */
+        Path temp = Files.createTempFile(cacheDir, HASHES_FILE_NAME, null);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                hashes.store(out, null);
+            }
+
+            Files.move(
+                    temp,
+                    hashesFile,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+
+        } catch (IOException x) {
+            Files.deleteIfExists(temp);
+            throw x;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Acquires a shared lock on the lock file of the package with the specified hash (creating
+     * the file if it does not exist), unless this instance already holds one. This blocks while
+     * another instance is deleting the package. If the file system does not support locking, this
+     * only logs a warning.
+     */
+    private static void lock(Path cacheDir, String hash) throws IOException {
+        if (locks.containsKey(hash)) return;
+
+        FileChannel channel = FileChannel.open(
+                cacheDir.resolve(hash + LOCK_EXTENSION),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        try {
+            locks.put(hash, channel.lock(0, Long.MAX_VALUE, true));
+        } catch (IOException x) {
+            logger.warning("could not lock criteria package " + hash + ": " + x);
+            channel.close();
+        }
+    }
+
+    /**
+     * Deletes the specified package directory if no instance of Socrates (including this one)
+     * holds a lock on the package.
+     */
+    private static void deleteIfUnlocked(Path cacheDir, Path dir) {
+        String hash = dir.getFileName().toString();
+        if (locks.containsKey(hash)) return;
+
+        try (FileChannel channel = FileChannel.open(
+                cacheDir.resolve(hash + LOCK_EXTENSION),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        ))
+        {
+            FileLock lock = channel.tryLock();
+            if (lock == null) return;
+
+            try {
+                logger.info("removing least recently used criteria package: " + dir);
+                deleteRecursively(dir);
+            } finally {
+                lock.release();
+            }
+
+        } catch (IOException | OverlappingFileLockException x) {
+            logger.info("not removing criteria package that may be in use: " + dir + ": " + x);
+        }
+    }
+
+    /**
+     * Extracts every entry of the archive into the specified directory. Directories are created
+     * first; then files are written concurrently, since a package may contain many large static
+     * files.
+     */
+    private static void unzip(Path archive, final Path destDir) throws IOException {
+        try (final ZipFile file = new ZipFile(archive.toFile())) {
+            List<ZipEntry> fileEntries = new ArrayList<>();
+
+            Enumeration<? extends ZipEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path entryDest = resolveEntry(destDir, entry);
+
+                if (entry.isDirectory()) {
+                    Files.createDirectories(entryDest);
+                } else {
+                    Files.createDirectories(entryDest.getParent());
+                    fileEntries.add(entry);
+                }
+            }
+
+            int numThreads = Math.min(
+                    Runtime.getRuntime().availableProcessors(), Math.max(fileEntries.size(), 1)
+            );
+            ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+            try {
+                List<Future<Void>> futures = new ArrayList<>(fileEntries.size());
+                for (final ZipEntry entry : fileEntries) {
+                    futures.add(
+                            pool.submit(
+                                    new Callable<Void>() {
+                                        @Override
+                                        public Void call() throws IOException {
+                                            Path entryDest = resolveEntry(destDir, entry);
+                                            try (InputStream in = file.getInputStream(entry)) {
+                                                Files.copy(in, entryDest);
+                                            }
+                                            return null;
+                                        }
+                                    }
+                            )
+                    );
+                }
+
+                for (Future<Void> f : futures)
+                    f.get();
+
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException("interrupted while extracting " + archive);
+
+            } catch (ExecutionException x) {
+                if (x.getCause() instanceof IOException) throw (IOException)x.getCause();
+                throw new RuntimeException(x.getCause());
+
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static Path resolveEntry(Path destDir, ZipEntry entry) throws IOException {
+        Path entryDest = destDir.resolve(entry.getName()).normalize();
+
+        if (!entryDest.startsWith(destDir))
+            throw new IOException("archive entry is outside of archive: " + entry.getName());
+
+        return entryDest;
+    }
+
+    /**
+     * Deletes the least recently used packages until at most MAX_ENTRIES remain, as well as any
+     * partially extracted packages that were left behind long ago. The specified directory (the
+     * one just extracted) is never deleted, and neither are packages that are in use or were used
+     * recently.
+     */
+    private static void collectGarbage(Path cacheDir, Path keep) {
+        final Map<Path, Long> used = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+            for (Path p : stream) {
+                if (!Files.isDirectory(p) || p.equals(keep)) continue;
+
+                long modified = Files.getLastModifiedTime(p).toMillis();
+                String name = p.getFileName().toString();
+
+                if (name.contains("-")) {
+                    if (now - modified > PARTIAL_MAX_AGE_MILLIS) deleteRecursively(p);
+                } else {
+                    used.put(p, modified);
+                }
+            }
+        } catch (IOException x) {
+            logger.warning("could not clean up criteria package cache: " + x);
+            return;
+        }
+
+        List<Path> entries = new ArrayList<>(used.keySet());
+        Collections.sort(
+                entries, new Comparator<Path>() {
+                    @Override
+                    public int compare(Path a, Path b) {
+                        return Long.compare(used.get(b), used.get(a));
+                    }
+                }
+        );
+
+        // the directory being kept takes up one of the entries
+        for (Path p : entries.subList(Math.min(entries.size(), MAX_ENTRIES - 1), entries.size())) {
+            if (now - used.get(p) > RECENT_MILLIS) deleteIfUnlocked(cacheDir, p);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try {
+            Files.walkFileTree(
+                    dir, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                                throws IOException
+                        {
+                            Files.delete(file);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult postVisitDirectory(Path d, IOException exc)
+                                throws IOException
+                        {
+                            Files.delete(d);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    }
+            );
+        } catch (IOException x) {
+            logger.warning("could not delete " + dir + ": " + x);
+        }
+    }
+}
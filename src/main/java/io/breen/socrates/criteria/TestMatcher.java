@@ -0,0 +1,216 @@
+package io.breen.socrates.criteria;
+
+import io.breen.socrates.file.File;
+import io.breen.socrates.test.Test;
+import io.breen.socrates.test.TestGroup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Matches the tests of a File from one version of a criteria with the tests of the same File from
+ * a newer version of the criteria, so that the outcomes of tests that did not change can be kept
+ * when the criteria is reloaded.
+ *
+ * Tests are matched by their identity: the type of the test and its description, together with
+ * the number of tests in the file with the same type and description that come before it. This
+ * identity does not change if tests are added, removed, or moved to other groups. A matched test
+ * has changed if its definition (the values of all of its fields, such as its deduction or its
+ * expected output) is different in the new criteria.
+ */
+public class TestMatcher {
+
+    /**
+     * Fields with this name hold the tests of a class, function, method or variable. They are not
+     * part of the definition of a test that refers to such an object.
+     */
+    private static final String TESTS_FIELD_NAME = "tests";
+
+    private static Logger logger = Logger.getLogger(TestMatcher.class.getName());
+
+    private final Map<Test, Test> oldTests;
+    private final Set<Test> changed;
+
+    public TestMatcher(File oldFile, File newFile) {
+        oldTests = new IdentityHashMap<>();
+        changed = Collections.newSetFromMap(new IdentityHashMap<Test, Boolean>());
+
+        Map<String, Test> oldByIdentity = getIdentities(oldFile);
+
+        for (Map.Entry<String, Test> e : getIdentities(newFile).entrySet()) {
+            Test newTest = e.getValue();
+            Test oldTest = oldByIdentity.get(e.getKey());
+
+            if (oldTest == null) {
+                changed.add(newTest);
+                continue;
+            }
+
+            oldTests.put(newTest, oldTest);
+            if (!getDefinition(oldTest).equals(getDefinition(newTest))) changed.add(newTest);
+        }
+
+        logger.fine(
+                newFile.path + ": " + oldTests.size() + " matching tests, " + changed.size() +
+                        " new or changed tests"
+        );
+    }
+
+    /**
+     * Returns the test from the old file with the same identity as the specified test from the
+     * new file, or null if the test is new.
+     */
+    public Test getOldTest(Test newTest) {
+        return oldTests.get(newTest);
+    }
+
+    /**
+     * Returns whether the specified test from the new file is new, or whether its definition is
+     * different from the definition of the matching test in the old file.
+     */
+    public boolean isChanged(Test newTest) {
+        return changed.contains(newTest);
+    }
+
+    /**
+     * Returns the tests in the specified file's test tree keyed by their identities, in the order
+     * they appear in the tree. A test's identity is the same in every version of the criteria in
+     * which the test (or a changed version of it) appears.
+     */
+    public static Map<String, Test> getIdentities(File file) {
+        Map<String, Test> identities = new LinkedHashMap<>();
+        if (file.testRoot != null) addIdentities(file.testRoot, identities);
+
+        return identities;
+    }
+
+    private static void addIdentities(TestGroup group, Map<String, Test> identities) {
+        if (group.members == null) return;
+
+        for (Object member : group.members) {
+            if (member instanceof TestGroup) {
+                addIdentities((TestGroup)member, identities);
+
+            } else if (member instanceof Test) {
+                Test test = (Test)member;
+                String prefix = test.getClass().getName() + ":" + test.description + "#";
+
+                int n = 0;
+                while (identities.containsKey(prefix + n))
+                    n++;
+
+                identities.put(prefix + n, test);
+            }
+        }
+    }
+
+    /**
+     * Returns a string containing the values of all of the fields of the specified test. Two tests
+     * with the same definition behave in the same way.
+     */
+    static String getDefinition(Test test) {
+        StringBuilder builder = new StringBuilder();
+        appendValue(builder, test, new IdentityHashMap<Object, Boolean>());
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns a hexadecimal SHA-1 digest of the specified test's definition, which can be stored
+     * (e.g., in a grade manifest) and compared with the digest of a test from another session.
+     */
+    public static String getDefinitionHash(Test test) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException(x);
+        }
+
+        byte[] bytes = digest.digest(getDefinition(test).getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes)
+            builder.append(String.format("%02x", b));
+
+        return builder.toString();
+    }
+
+    private static void appendValue(StringBuilder builder, Object value,
+                                    Map<Object, Boolean> visited)
+    {
+        if (value == null) {
+            builder.append("null");
+
+        } else if (value instanceof String || value instanceof Number ||
+                value instanceof Boolean || value instanceof Character || value instanceof Enum)
+        {
+            builder.append(value.getClass().getSimpleName()).append(':').append(value);
+
+        } else if (value instanceof Date) {
+            builder.append("Date:").append(((Date)value).getTime());
+
+        } else if (value instanceof Collection) {
+            builder.append('[');
+            for (Object element : (Collection<?>)value) {
+                appendValue(builder, element, visited);
+                builder.append(',');
+            }
+            builder.append(']');
+
+        } else if (value instanceof Map) {
+            builder.append('{');
+            for (Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+                appendValue(builder, e.getKey(), visited);
+                builder.append('=');
+                appendValue(builder, e.getValue(), visited);
+                builder.append(',');
+            }
+            builder.append('}');
+
+        } else if (visited.containsKey(value) ||
+                (!visited.isEmpty() && (value instanceof Test || value instanceof TestGroup)))
+        {
+            // other tests are not part of this test's definition
+            builder.append(value.getClass().getName());
+
+        } else {
+            visited.put(value, true);
+            appendFields(builder, value, visited);
+        }
+    }
+
+    private static void appendFields(StringBuilder builder, Object object,
+                                     Map<Object, Boolean> visited)
+    {
+        builder.append(object.getClass().getName()).append('(');
+
+        for (Class<?> c = object.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ||
+                        f.isSynthetic() || f.getName().equals(TESTS_FIELD_NAME))
+                    continue;
+
+                Object fieldValue;
+                try {
+                    f.setAccessible(true);
+                    fieldValue = f.get(object);
+                } catch (IllegalAccessException | SecurityException x) {
+                    fieldValue = x.toString();
+                }
+
+                builder.append(f.getName()).append('=');
+                appendValue(builder, fieldValue, visited);
+                builder.append(',');
+            }
+        }
+
+        builder.append(')');
+    }
+}
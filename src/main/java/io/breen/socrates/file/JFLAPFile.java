@@ -6,6 +6,8 @@ package io.breen.socrates.file;
  */
 public class JFLAPFile extends File {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
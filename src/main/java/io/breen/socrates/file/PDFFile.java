@@ -7,6 +7,8 @@ package io.breen.socrates.file;
  */
 public class PDFFile extends File {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
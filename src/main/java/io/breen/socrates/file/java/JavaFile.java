@@ -15,8 +15,17 @@ import java.util.*;
  */
 public final class JavaFile extends File implements PostConstructionAction {
 
+    private static final long serialVersionUID = 1L;
+
     public List<Class> classes = Collections.emptyList();
 
+    /*
+     * Indexes from each method to its class and from each method's test to the method. These are
+     * built after construction, since the Java tests look them up every time they are run.
+     */
+    private Map<Method, Class> classesByMethod;
+    private Map<Test, Method> methodsByTest;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -31,17 +40,32 @@ public final class JavaFile extends File implements PostConstructionAction {
         super(path, pointValue, dueDates, tests);
     }
 
-    private static boolean hasTest(List<java.lang.Object> list, Test test) {
-        for (java.lang.Object o : list)
-            if (o instanceof Test && o == test) return true;
-            else if (o instanceof TestGroup) return hasTest(((TestGroup)o).members, test);
+    private static <T> void indexTests(List<java.lang.Object> list, T owner, Map<Test, T> index) {
+        if (list == null) return;
 
-        return false;
+        for (java.lang.Object o : list)
+            if (o instanceof Test) index.put((Test)o, owner);
+            else if (o instanceof TestGroup) indexTests(((TestGroup)o).members, owner, index);
     }
 
     @Override
     public void afterConstruction() {
         super.afterConstruction();
+        buildIndexes();
+    }
+
+    private void buildIndexes() {
+        classesByMethod = new IdentityHashMap<>();
+        methodsByTest = new IdentityHashMap<>();
+
+        if (classes == null) return;
+
+        for (Class c : classes) {
+            for (Method m : c.methods) {
+                classesByMethod.put(m, c);
+                indexTests(m.tests, m, methodsByTest);
+            }
+        }
     }
 
     @Override
@@ -58,7 +82,7 @@ public final class JavaFile extends File implements PostConstructionAction {
 
                 methodRoots.add(
                         new TestGroup(
-                                Arrays.asList(
+                                Arrays.<java.lang.Object>asList(
                                         methodExistsTest, new TestGroup(m.tests, 0, 0.0)
                                 ), 1, 0.0
                         )
@@ -73,7 +97,7 @@ public final class JavaFile extends File implements PostConstructionAction {
 
             tests.add(
                     new TestGroup(
-                            Arrays.asList(
+                            Arrays.<java.lang.Object>asList(
                                     classExistsTest, new TestGroup(methodRoots, 0, 0.0)
                             ), 1, 0.0
                     )
@@ -93,18 +117,14 @@ public final class JavaFile extends File implements PostConstructionAction {
     }
 
     public Class getClassForMethod(Method m) {
-        for (Class c : classes) {
-            if (c.methods.contains(m)) return c;
-        }
+        if (classesByMethod == null) buildIndexes();
 
-        return null;
+        return classesByMethod.get(m);
     }
 
     public Method getMethodForTest(Test t) {
-        for (Class c : classes)
-            for (Method m : c.methods)
-                if (hasTest(m.tests, t)) return m;
+        if (methodsByTest == null) buildIndexes();
 
-        return null;
+        return methodsByTest.get(t);
     }
 }
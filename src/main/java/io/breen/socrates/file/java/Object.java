@@ -1,11 +1,15 @@
 package io.breen.socrates.file.java;
 
+import java.io.Serializable;
+
 /**
  * Instances of this class represent an object that should be passed into a Java method. They are
  * created when the criteria file is read in. Each object has an associated Type, and will be
  * converted to an actual Java object of the "real" type before a Java method is actually called.
  */
-public class Object {
+public class Object implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * The value of this object, produced by SnakeYAML.
@@ -1,10 +1,14 @@
 package io.breen.socrates.file.java;
 
+import java.io.Serializable;
+
 /**
  * Instances of this class are used to specify the type and name of a parameter to a method in a
  * criteria file.
  */
-public class Parameter {
+public class Parameter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public String name;
     public Type type;
@@ -1,11 +1,15 @@
 package io.breen.socrates.file.java;
 
+import java.io.Serializable;
+
 /**
  * Instances of this class are used to specify the type of a Java object in a criteria file. At
  * runtime, instances of this class will be used to attempt to convert an actual object produced by
  * SnakeYAML into an object that a Java method expects.
  */
-public class Type {
+public class Type implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public String typeName;
 
@@ -14,6 +14,8 @@ import java.util.*;
  */
 public final class PlainFile extends File implements PostConstructionAction {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -2,10 +2,12 @@ package io.breen.socrates.file.python;
 
 import io.breen.socrates.PostConstructionAction;
 import io.breen.socrates.file.File;
+import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.test.Test;
 import io.breen.socrates.test.TestGroup;
 import io.breen.socrates.test.python.*;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -16,16 +18,45 @@ import java.util.*;
  */
 public final class PythonFile extends File implements PostConstructionAction {
 
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_TIMEOUT = 10.0;
+    public static final int DEFAULT_MEMORY_LIMIT = 512;
+
     /**
      * The deduction taken when the Python module cannot be imported due to a serious error (e.g., a
      * syntax error).
      */
     public double importFailureDeduction;
 
+    /**
+     * The number of seconds the student's code may run while the module is imported and a test
+     * is evaluated (zero means no limit). Evaluation tests may specify their own time limits.
+     */
+    public double timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * The amount of memory (in MiB) the Python interpreter may use while the module is imported
+     * and a test is evaluated (zero means no limit). Evaluation tests may specify their own
+     * memory limits. This limit is only enforced on systems supporting resource limits (i.e.,
+     * not on Windows).
+     */
+    public int memoryLimit = DEFAULT_MEMORY_LIMIT;
+
     public List<Variable> variables = Collections.emptyList();
     public List<Function> functions = Collections.emptyList();
     public List<Class> classes = Collections.emptyList();
 
+    /*
+     * Indexes from tests to the variables, functions and methods they test, and from methods to
+     * their classes. These are built after construction, since the Python tests look them up every
+     * time they are run.
+     */
+    private Map<Test, Variable> variablesByTest;
+    private Map<Test, Function> functionsByTest;
+    private Map<Test, Method> methodsByTest;
+    private Map<Method, Class> classesByMethod;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -39,17 +70,42 @@ public final class PythonFile extends File implements PostConstructionAction {
         this.importFailureDeduction = importFailureDeduction;
     }
 
-    private static boolean hasTest(List<java.lang.Object> list, Test test) {
-        for (java.lang.Object o : list)
-            if (o instanceof Test && o == test) return true;
-            else if (o instanceof TestGroup) return hasTest(((TestGroup)o).members, test);
+    private static <T> void indexTests(List<java.lang.Object> list, T owner, Map<Test, T> index) {
+        if (list == null) return;
 
-        return false;
+        for (java.lang.Object o : list)
+            if (o instanceof Test) index.put((Test)o, owner);
+            else if (o instanceof TestGroup) indexTests(((TestGroup)o).members, owner, index);
     }
 
     @Override
     public void afterConstruction() {
         super.afterConstruction();
+        buildIndexes();
+    }
+
+    private void buildIndexes() {
+        variablesByTest = new IdentityHashMap<>();
+        functionsByTest = new IdentityHashMap<>();
+        methodsByTest = new IdentityHashMap<>();
+        classesByMethod = new IdentityHashMap<>();
+
+        if (variables != null)
+            for (Variable v : variables)
+                indexTests(v.tests, v, variablesByTest);
+
+        if (functions != null)
+            for (Function f : functions)
+                indexTests(f.tests, f, functionsByTest);
+
+        if (classes != null) {
+            for (Class c : classes) {
+                for (Method m : c.methods) {
+                    classesByMethod.put(m, c);
+                    indexTests(m.tests, m, methodsByTest);
+                }
+            }
+        }
     }
 
     @Override
@@ -134,33 +190,56 @@ public final class PythonFile extends File implements PostConstructionAction {
         return "Python source code";
     }
 
+    /**
+     * Returns a new inspector for the submitted module at the specified path, which is subject to
+     * the specified time and memory limits, or this file's limits if they are null.
+     */
+    public PythonInspector newInspector(Path modulePath, Double timeout, Integer memoryLimit)
+            throws IOException
+    {
+        return new PythonInspector(
+                modulePath,
+                timeout != null ? timeout : this.timeout,
+                memoryLimit != null ? memoryLimit : this.memoryLimit
+        );
+    }
+
+    /**
+     * Like newInspector(Path, Double, Integer), but first checks that the submitted module can be
+     * compiled (without running it), so that no interpreter is started for a module that could
+     * not be imported.
+     *
+     * @throws CompileError If the module cannot be compiled
+     */
+    public PythonInspector newInspector(SubmittedFile target, Path modulePath, Double timeout,
+                                        Integer memoryLimit) throws IOException, CompileError
+    {
+        ModuleCatalog.get(target);
+        return newInspector(modulePath, timeout, memoryLimit);
+    }
+
     public Variable getVariableForTest(VariableTest test) {
-        for (Variable v : variables)
-            if (hasTest(v.tests, test)) return v;
+        if (variablesByTest == null) buildIndexes();
 
-        return null;
+        return variablesByTest.get(test);
     }
 
     public Function getFunctionForTest(FunctionTest test) {
-        for (Function f : functions)
-            if (hasTest(f.tests, test)) return f;
+        if (functionsByTest == null) buildIndexes();
 
-        return null;
+        return functionsByTest.get(test);
     }
 
     public Class getClassContainingMethod(Method method) {
-        for (Class c : classes)
-            if (c.methods.contains(method)) return c;
+        if (classesByMethod == null) buildIndexes();
 
-        return null;
+        return classesByMethod.get(method);
     }
 
     public Method getMethodForTest(MethodTest test) {
-        for (Class c : classes)
-            for (Method m : c.methods)
-                if (hasTest(m.tests, test)) return m;
+        if (methodsByTest == null) buildIndexes();
 
-        return null;
+        return methodsByTest.get(test);
     }
 
     public String getModuleName() {
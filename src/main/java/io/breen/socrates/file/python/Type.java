@@ -1,7 +1,10 @@
 package io.breen.socrates.file.python;
 
+import java.io.Serializable;
 
-public class Type {
+public class Type implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public String typeName;
 
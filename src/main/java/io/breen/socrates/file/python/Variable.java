@@ -1,12 +1,15 @@
 package io.breen.socrates.file.python;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * A class representing a variable specified in the criteria file.
  */
-public class Variable {
+public class Variable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public String name;
     public double pointValue;
@@ -0,0 +1,474 @@
+package io.breen.socrates.model;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.criteria.TestMatcher;
+import io.breen.socrates.file.File;
+import io.breen.socrates.model.event.ResultChangedEvent;
+import io.breen.socrates.model.event.SubmissionCompletedChangeEvent;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.test.Test;
+import io.breen.socrates.util.ObservableChangedEvent;
+import io.breen.socrates.util.Observer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.*;
+
+/**
+ * Maintains statistics about every submission being graded: how often each test passed and
+ * failed, the mean number of points deducted from each file, and the distribution of the scores
+ * of complete submissions. These can be used to notice a broken test early in a grading session.
+ *
+ * The statistics are updated as ResultChangedEvents and SubmissionCompletedChangeEvents arrive,
+ * in constant time for each event; a submission's test trees are only walked when it is added (or
+ * added again, after it gains a file). As in the grade reports, only failed tests deduct points,
+ * and the points deducted from a file never exceed its point value.
+ */
+public class CohortStatistics implements Observer<TestWrapperNode> {
+
+    /**
+     * The number of bins in the score histogram. Each bin covers an equal part of the range of
+     * possible scores.
+     */
+    public static final int NUM_BINS = 10;
+
+    public static class TestStatistics {
+
+        public final File file;
+        public final Test test;
+        public int numPassed;
+        public int numFailed;
+        public int numTotal;
+
+        private TestStatistics(File file, Test test) {
+            this.file = file;
+            this.test = test;
+        }
+
+        public double getFailureRate() {
+            int numDecided = numPassed + numFailed;
+            return numDecided == 0 ? 0.0 : (double)numFailed / numDecided;
+        }
+    }
+
+    public static class FileStatistics {
+
+        public final File file;
+        public int numSubmitted;
+        public int numMissing;
+        public double totalDeducted;
+
+        private FileStatistics(File file) {
+            this.file = file;
+        }
+
+        public double getMeanDeduction() {
+            int n = numSubmitted + numMissing;
+            return n == 0 ? 0.0 : totalDeducted / n;
+        }
+    }
+
+    /**
+     * The points deducted from one submitted file, before and after the file's limit is applied.
+     */
+    private static class FileState {
+
+        final FileStatistics stats;
+        final SubmissionState submission;
+        double deducted;
+
+        /**
+         * The last result counted for each test of the file.
+         */
+        final Map<TestWrapperNode, TestResult> results = new IdentityHashMap<>();
+
+        FileState(FileStatistics stats, SubmissionState submission) {
+            this.stats = stats;
+            this.submission = submission;
+        }
+
+        double getCapped() {
+            return Math.min(deducted, stats.file.pointValue);
+        }
+    }
+
+    private static class SubmissionState {
+
+        double score;
+        /**
+         * The histogram bin containing this submission, or -1 if the submission is not complete.
+         */
+        int bin = -1;
+
+        final List<FileState> files = new ArrayList<>();
+        final List<FileStatistics> missing = new ArrayList<>();
+    }
+
+    private final double possible;
+    private final Map<Test, TestStatistics> tests;
+    private final Map<File, FileStatistics> files;
+    private final int[] histogram;
+
+    private final Map<TestWrapperNode, FileState> nodes;
+    private final Map<SubmissionWrapperNode, SubmissionState> submissions;
+    private final Observer<SubmissionWrapperNode> submissionObserver;
+
+    public CohortStatistics(Criteria criteria) {
+        tests = new LinkedHashMap<>();
+        files = new LinkedHashMap<>();
+        histogram = new int[NUM_BINS];
+        nodes = new IdentityHashMap<>();
+        submissions = new IdentityHashMap<>();
+
+        double total = 0.0;
+        for (File file : criteria.files) {
+            files.put(file, new FileStatistics(file));
+            total += file.pointValue;
+
+            for (Test test : TestMatcher.getIdentities(file).values())
+                tests.put(test, new TestStatistics(file, test));
+        }
+        possible = total;
+
+        submissionObserver = new Observer<SubmissionWrapperNode>() {
+            @Override
+            public void objectChanged(ObservableChangedEvent<SubmissionWrapperNode> event) {
+                if (!(event instanceof SubmissionCompletedChangeEvent)) return;
+
+                synchronized (CohortStatistics.this) {
+                    SubmissionState state = submissions.get(event.source);
+                    if (state == null) return;
+
+                    if (((SubmissionCompletedChangeEvent)event).isNowComplete) {
+                        if (state.bin < 0) addToHistogram(state);
+                    } else if (state.bin >= 0) {
+                        histogram[state.bin]--;
+                        state.bin = -1;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the specified submission to these statistics, and starts observing changes to its
+     * tests. This walks the submission's test trees once.
+     */
+    public void add(SubmissionWrapperNode swn) {
+        /*
+         * Test nodes notify their observers while holding their own locks, so we must not lock a
+         * node while holding this object's lock.
+         */
+        synchronized (this) {
+            if (submissions.containsKey(swn)) return;
+        }
+
+        for (int i = 0; i < swn.getChildCount(); i++) {
+            if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+            for (Test test : TestMatcher.getIdentities(sfwn.matchingFile).values()) {
+                TestWrapperNode node = sfwn.getTestNode(test);
+                if (node != null) node.addObserver(this);
+            }
+        }
+
+        addState(swn);
+        swn.addObserver(submissionObserver);
+    }
+
+    private synchronized void addState(SubmissionWrapperNode swn) {
+        if (submissions.containsKey(swn)) return;
+
+        SubmissionState submission = new SubmissionState();
+        submission.score = possible;
+        submissions.put(swn, submission);
+
+        Set<File> submitted = new HashSet<>();
+        for (int i = 0; i < swn.getChildCount(); i++) {
+            if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+            FileStatistics fileStats = files.get(sfwn.matchingFile);
+            if (fileStats == null || !submitted.add(sfwn.matchingFile)) continue;
+
+            fileStats.numSubmitted++;
+            FileState state = new FileState(fileStats, submission);
+            submission.files.add(state);
+
+            for (Test test : TestMatcher.getIdentities(sfwn.matchingFile).values()) {
+                TestWrapperNode node = sfwn.getTestNode(test);
+                if (node == null) continue;
+
+                nodes.put(node, state);
+                state.results.put(node, TestResult.NONE);
+
+                TestStatistics testStats = tests.get(test);
+                if (testStats != null) testStats.numTotal++;
+
+                update(node, TestResult.NONE, node.getResult());
+            }
+        }
+
+        for (FileStatistics fileStats : files.values()) {
+            if (submitted.contains(fileStats.file)) continue;
+
+            fileStats.numMissing++;
+            fileStats.totalDeducted += fileStats.file.pointValue;
+            submission.score -= fileStats.file.pointValue;
+            submission.missing.add(fileStats);
+        }
+
+        if (swn.isComplete()) addToHistogram(submission);
+    }
+
+    /**
+     * Removes the specified submission from these statistics (as if it had never been added), and
+     * stops observing its tests. This does not walk the submission's test trees, so it can be
+     * called after the tree has changed (e.g., before adding the submission again because it
+     * gained a file).
+     */
+    public void remove(SubmissionWrapperNode swn) {
+        List<TestWrapperNode> oldNodes = new ArrayList<>();
+
+        synchronized (this) {
+            SubmissionState submission = submissions.remove(swn);
+            if (submission == null) return;
+
+            for (FileState state : submission.files) {
+                state.stats.numSubmitted--;
+                state.stats.totalDeducted -= state.getCapped();
+
+                for (Map.Entry<TestWrapperNode, TestResult> e : state.results.entrySet()) {
+                    TestWrapperNode node = e.getKey();
+                    nodes.remove(node);
+                    oldNodes.add(node);
+
+                    TestStatistics testStats = tests.get((Test)node.getUserObject());
+                    if (testStats == null) continue;
+
+                    testStats.numTotal--;
+                    if (e.getValue() == TestResult.PASSED) testStats.numPassed--;
+                    if (e.getValue() == TestResult.FAILED) testStats.numFailed--;
+                }
+            }
+
+            for (FileStatistics fileStats : submission.missing) {
+                fileStats.numMissing--;
+                fileStats.totalDeducted -= fileStats.file.pointValue;
+            }
+
+            if (submission.bin >= 0) histogram[submission.bin]--;
+        }
+
+        for (TestWrapperNode node : oldNodes)
+            node.removeObserver(this);
+
+        swn.removeObserver(submissionObserver);
+    }
+
+    /**
+     * Stops observing every submission and test (e.g., because the criteria was reloaded, and new
+     * statistics are being collected).
+     */
+    public void detach() {
+        List<TestWrapperNode> oldNodes;
+        List<SubmissionWrapperNode> oldSubmissions;
+
+        synchronized (this) {
+            oldNodes = new ArrayList<>(nodes.keySet());
+            oldSubmissions = new ArrayList<>(submissions.keySet());
+            nodes.clear();
+            submissions.clear();
+        }
+
+        for (TestWrapperNode node : oldNodes)
+            node.removeObserver(this);
+
+        for (SubmissionWrapperNode swn : oldSubmissions)
+            swn.removeObserver(submissionObserver);
+    }
+
+    @Override
+    public synchronized void objectChanged(ObservableChangedEvent<TestWrapperNode> event) {
+        if (!(event instanceof ResultChangedEvent)) return;
+
+        ResultChangedEvent e = (ResultChangedEvent)event;
+        update(e.source, e.oldResult, e.newResult);
+    }
+
+    private void update(TestWrapperNode node, TestResult oldResult, TestResult newResult) {
+        FileState state = nodes.get(node);
+        if (state == null || oldResult == newResult) return;
+
+        state.results.put(node, newResult);
+
+        Test test = (Test)node.getUserObject();
+        TestStatistics testStats = tests.get(test);
+
+        if (testStats != null) {
+            if (oldResult == TestResult.PASSED) testStats.numPassed--;
+            if (oldResult == TestResult.FAILED) testStats.numFailed--;
+            if (newResult == TestResult.PASSED) testStats.numPassed++;
+            if (newResult == TestResult.FAILED) testStats.numFailed++;
+        }
+
+        double delta = 0.0;
+        if (oldResult == TestResult.FAILED) delta -= test.deduction;
+        if (newResult == TestResult.FAILED) delta += test.deduction;
+        if (delta == 0.0) return;
+
+        double cappedBefore = state.getCapped();
+        state.deducted += delta;
+        double cappedDelta = state.getCapped() - cappedBefore;
+
+        state.stats.totalDeducted += cappedDelta;
+
+        SubmissionState submission = state.submission;
+        submission.score -= cappedDelta;
+
+        if (submission.bin >= 0) {
+            histogram[submission.bin]--;
+            addToHistogram(submission);
+        }
+    }
+
+    private void addToHistogram(SubmissionState submission) {
+        int bin = possible <= 0 ? NUM_BINS - 1 : (int)(submission.score / possible * NUM_BINS);
+        submission.bin = Math.max(0, Math.min(NUM_BINS - 1, bin));
+        histogram[submission.bin]++;
+    }
+
+    public synchronized TestStatistics getTestStatistics(Test test) {
+        return tests.get(test);
+    }
+
+    public synchronized FileStatistics getFileStatistics(File file) {
+        return files.get(file);
+    }
+
+    public synchronized int getNumSubmissions() {
+        return submissions.size();
+    }
+
+    public synchronized int getNumComplete() {
+        int n = 0;
+        for (int count : histogram)
+            n += count;
+
+        return n;
+    }
+
+    /**
+     * Returns the number of complete submissions whose scores fall in each bin of the score
+     * histogram. The first bin contains the lowest scores.
+     */
+    public synchronized int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public double getPossible() {
+        return possible;
+    }
+
+    /**
+     * Returns a human-readable summary of these statistics, listing the tests with the highest
+     * failure rates first.
+     */
+    public synchronized String toText() {
+        DecimalFormat decFmt = new DecimalFormat("#.##");
+        DecimalFormat pctFmt = new DecimalFormat("#%");
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(getNumComplete()).append(" of ").append(submissions.size())
+               .append(" submissions complete\n\n");
+
+        builder.append("Score distribution (complete submissions)\n");
+        int max = 0;
+        for (int count : histogram)
+            max = Math.max(max, count);
+
+        for (int i = NUM_BINS - 1; i >= 0; i--) {
+            String low = decFmt.format(possible * i / NUM_BINS);
+            String high = decFmt.format(possible * (i + 1) / NUM_BINS);
+            builder.append(String.format("%6s-%-6s %4d ", low, high, histogram[i]));
+
+            int width = max == 0 ? 0 : histogram[i] * 40 / max;
+            for (int j = 0; j < width; j++)
+                builder.append('#');
+            builder.append('\n');
+        }
+
+        builder.append("\nMean deduction by file\n");
+        for (FileStatistics f : files.values()) {
+            builder.append(String.format(
+                    "%8s / %-6s %s (%d missing)\n",
+                    decFmt.format(f.getMeanDeduction()),
+                    decFmt.format(f.file.pointValue),
+                    f.file.path,
+                    f.numMissing
+            ));
+        }
+
+        List<TestStatistics> sorted = new ArrayList<>(tests.values());
+        Collections.sort(
+                sorted, new Comparator<TestStatistics>() {
+                    @Override
+                    public int compare(TestStatistics a, TestStatistics b) {
+                        return Double.compare(b.getFailureRate(), a.getFailureRate());
+                    }
+                }
+        );
+
+        builder.append("\nFailure rate by test\n");
+        for (TestStatistics t : sorted) {
+            builder.append(String.format(
+                    "%5s %4d/%-4d %s: %s\n",
+                    pctFmt.format(t.getFailureRate()),
+                    t.numFailed,
+                    t.numPassed + t.numFailed,
+                    t.file.path,
+                    t.test.description
+            ));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the statistics of every test as CSV, with one row for each test.
+     */
+    public synchronized void toCSV(Writer w) throws IOException {
+        w.write("file,test,passed,failed,undecided,failure rate,mean file deduction\r\n");
+
+        for (TestStatistics t : tests.values()) {
+            FileStatistics f = files.get(t.file);
+            writeCSVCell(w, t.file.path);
+            w.write(',');
+            writeCSVCell(w, t.test.description);
+
+            int numUndecided = t.numTotal - t.numPassed - t.numFailed;
+            w.write(
+                    "," + t.numPassed + "," + t.numFailed + "," + numUndecided + "," +
+                            t.getFailureRate() + "," + f.getMeanDeduction() + "\r\n"
+            );
+        }
+
+        w.flush();
+    }
+
+    private static void writeCSVCell(Writer w, String cell) throws IOException {
+        if (cell == null) cell = "";
+
+        if (cell.indexOf(',') < 0 && cell.indexOf('"') < 0 && cell.indexOf('\n') < 0) {
+            w.write(cell);
+        } else {
+            w.write('"');
+            w.write(cell.replace("\"", "\"\""));
+            w.write('"');
+        }
+    }
+}
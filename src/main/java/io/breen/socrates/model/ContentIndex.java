@@ -0,0 +1,154 @@
+package io.breen.socrates.model;
+
+import io.breen.socrates.file.File;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.*;
+
+import java.util.*;
+
+/**
+ * Groups the submitted files being graded by their contents. Every SubmittedFileWrapperNode is
+ * indexed by the hash of its submitted file together with the File from the criteria it matches,
+ * so that byte-for-byte identical submissions of the same file can be found quickly.
+ *
+ * This index also stores the outcomes of automated tests that depend only on the contents of a
+ * file, so that such a test needs to be run only once for each distinct version of a file. The
+ * outcomes of tests that depend on the whole submission (e.g., tests that run the student's code)
+ * are stored by the hash of the submission's contents instead (see getOutcomeHash()).
+ *
+ * @see io.breen.socrates.test.DependsOnlyOnContents
+ * @see io.breen.socrates.test.DependsOnlyOnSubmissionContents
+ */
+public class ContentIndex {
+
+    /**
+     * The result of running an automated test on a particular version of a file, along with any
+     * notes that the test produced.
+     */
+    public static class Outcome {
+
+        public final TestResult result;
+        public final String notes;
+
+        public Outcome(TestResult result, String notes) {
+            this.result = result;
+            this.notes = notes;
+        }
+    }
+
+    private static class Key {
+
+        private final String hash;
+        private final Object object;
+
+        public Key(String hash, Object object) {
+            this.hash = hash;
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return hash.equals(other.hash) && object == other.object;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.hashCode() * 31 + System.identityHashCode(object);
+        }
+    }
+
+    private final Map<Key, List<SubmittedFileWrapperNode>> nodes;
+    private final Map<Key, Outcome> outcomes;
+
+    public ContentIndex() {
+        nodes = new HashMap<>();
+        outcomes = new HashMap<>();
+    }
+
+    private static Key keyOf(SubmittedFileWrapperNode sfwn) {
+        SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+        return new Key(submittedFile.hash, sfwn.matchingFile);
+    }
+
+    public synchronized void add(SubmittedFileWrapperNode sfwn) {
+        Key key = keyOf(sfwn);
+
+        List<SubmittedFileWrapperNode> list = nodes.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            nodes.put(key, list);
+        }
+
+        list.add(sfwn);
+    }
+
+    /**
+     * Removes the specified node from this index. This must be called before the node's submitted
+     * file is replaced.
+     */
+    public synchronized void remove(SubmittedFileWrapperNode sfwn) {
+        Key key = keyOf(sfwn);
+
+        List<SubmittedFileWrapperNode> list = nodes.get(key);
+        if (list == null) return;
+
+        list.remove(sfwn);
+        if (list.isEmpty()) nodes.remove(key);
+    }
+
+    /**
+     * Returns every node whose submitted file has the specified hash and matches the specified
+     * File from the criteria.
+     */
+    public synchronized List<SubmittedFileWrapperNode> getNodes(String hash, File file) {
+        List<SubmittedFileWrapperNode> list = nodes.get(new Key(hash, file));
+        if (list == null) return Collections.emptyList();
+
+        return new ArrayList<>(list);
+    }
+
+    /**
+     * Returns the number of other nodes whose submitted files have the same contents as (and
+     * match the same File as) the specified node's.
+     */
+    public synchronized int getNumDuplicates(SubmittedFileWrapperNode sfwn) {
+        List<SubmittedFileWrapperNode> list = nodes.get(keyOf(sfwn));
+        return list == null ? 0 : list.size() - 1;
+    }
+
+    /**
+     * Returns the hash by which the outcome of the specified test on the specified submitted file
+     * (which must be one of the specified submission's files) is stored, or null if the outcome of
+     * the test cannot be shared with any other file.
+     */
+    public static String getOutcomeHash(Test test, SubmittedFile submittedFile,
+                                        Submission submission)
+    {
+        if (test instanceof DependsOnlyOnContents) return submittedFile.hash;
+
+        if (test instanceof DependsOnlyOnSubmissionContents)
+            return submission.getContentsHash();
+
+        return null;
+    }
+
+    public synchronized Outcome getOutcome(String hash, Test test) {
+        return outcomes.get(new Key(hash, test));
+    }
+
+    public synchronized void putOutcome(String hash, Test test, Outcome outcome) {
+        outcomes.put(new Key(hash, test), outcome);
+    }
+
+    /**
+     * Forgets every stored outcome (e.g., because the tests they came from are no longer part of
+     * the criteria).
+     */
+    public synchronized void clearOutcomes() {
+        outcomes.clear();
+    }
+}
@@ -2,12 +2,14 @@ package io.breen.socrates.model.wrapper;
 
 import io.breen.socrates.model.event.*;
 import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.util.Observable;
 import io.breen.socrates.util.*;
 import io.breen.socrates.util.Observer;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.MutableTreeNode;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -57,6 +59,79 @@ public class SubmissionWrapperNode extends DefaultMutableTreeNode
         }
     }
 
+    /**
+     * Replaces one of this node's children with another node for the same submitted file (e.g.,
+     * after the criteria was reloaded). This node's completed state is updated as if the old child
+     * was removed and the new child was added in its place.
+     */
+    public void replace(MutableTreeNode oldChild, MutableTreeNode newChild) {
+        int numBefore = unfinishedFiles.size();
+
+        int index = getIndex(oldChild);
+        if (index == -1) throw new IllegalArgumentException("not a child of this node");
+
+        remove(index);
+
+        if (oldChild instanceof SubmittedFileWrapperNode) {
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)oldChild;
+            unfinishedFiles.remove(sfwn);
+            sfwn.removeObserver(this);
+        }
+
+        if (newChild instanceof SubmittedFileWrapperNode) {
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)newChild;
+            if (!sfwn.isComplete()) unfinishedFiles.add(sfwn);
+            sfwn.addObserver(this);
+
+        } else if (!(newChild instanceof UnrecognizedFileWrapperNode)) {
+            throw new IllegalArgumentException();
+        }
+
+        insert(newChild, index);
+
+        int numAfter = unfinishedFiles.size();
+
+        SubmissionCompletedChangeEvent e;
+        if (numBefore == 0 && numAfter > 0) {
+            e = new SubmissionCompletedChangeEvent(this, false);
+            for (Observer<SubmissionWrapperNode> o : observers)
+                o.objectChanged(e);
+        } else if (numBefore > 0 && numAfter == 0) {
+            e = new SubmissionCompletedChangeEvent(this, true);
+            for (Observer<SubmissionWrapperNode> o : observers)
+                o.objectChanged(e);
+        }
+    }
+
+    /**
+     * Returns the child of this node for the submitted file with the specified local path, or
+     * null if there is no such child.
+     */
+    public DefaultMutableTreeNode getFileNode(Path localPath) {
+        for (int i = 0; i < getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode)getChildAt(i);
+            if (((SubmittedFile)child.getUserObject()).localPath.equals(localPath)) return child;
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the submitted file with the same local path as the specified file (e.g., because
+     * the student resubmitted it) in this node's submission, and in the child of this node for
+     * that file. If the submission did not have such a file, the new file is added to it. Returns
+     * the child for the file, or null if there was none (in which case the caller should add a
+     * child for the new file).
+     */
+    public DefaultMutableTreeNode updateFile(SubmittedFile newFile) {
+        ((Submission)getUserObject()).putFile(newFile);
+
+        DefaultMutableTreeNode child = getFileNode(newFile.localPath);
+        if (child != null) child.setUserObject(newFile);
+
+        return child;
+    }
+
     @Override
     public void objectChanged(ObservableChangedEvent<SubmittedFileWrapperNode> event) {
         // any change of submitted files should invalidate saved state
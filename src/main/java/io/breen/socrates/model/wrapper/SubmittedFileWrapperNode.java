@@ -1,5 +1,6 @@
 package io.breen.socrates.model.wrapper;
 
+import io.breen.socrates.criteria.TestMatcher;
 import io.breen.socrates.file.File;
 import io.breen.socrates.model.*;
 import io.breen.socrates.model.event.*;
@@ -9,6 +10,7 @@ import io.breen.socrates.util.Observable;
 import io.breen.socrates.util.*;
 import io.breen.socrates.util.Observer;
 
+import javax.swing.text.BadLocationException;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import java.util.*;
@@ -33,6 +35,7 @@ public class SubmittedFileWrapperNode extends DefaultMutableTreeNode
     public final ConstraintUpdater updater;
 
     private final Map<TestWrapperNode, Boolean> finished;
+    private final Map<Test, TestWrapperNode> testNodes;
     private final List<Observer<SubmittedFileWrapperNode>> observers;
 
     public SubmittedFileWrapperNode(SubmittedFile submittedFile, File matchingFile) {
@@ -46,6 +49,7 @@ public class SubmittedFileWrapperNode extends DefaultMutableTreeNode
         this.matchingFile = matchingFile;
 
         finished = new HashMap<>();
+        testNodes = new IdentityHashMap<>();
         observers = new LinkedList<>();
 
         treeModel = new DefaultTreeModel(null);
@@ -64,6 +68,7 @@ public class SubmittedFileWrapperNode extends DefaultMutableTreeNode
                 child.addObserver(updater);
                 child.addObserver(this);
                 finished.put(child, false);
+                testNodes.put(test, child);
                 parent.add(child);
 
             } else if (member instanceof TestGroup) {
@@ -84,7 +89,7 @@ public class SubmittedFileWrapperNode extends DefaultMutableTreeNode
          */
         if (event instanceof NotesChangedEvent) {
             SubmissionWrapperNode swn = (SubmissionWrapperNode)this.getParent();
-            swn.setSaved(false);
+            if (swn != null) swn.setSaved(false);
             return;
         }
 
@@ -132,13 +137,101 @@ public class SubmittedFileWrapperNode extends DefaultMutableTreeNode
 
     @Override
     public void removeObserver(Observer<SubmittedFileWrapperNode> observer) {
-        observers.add(observer);
+        observers.remove(observer);
+    }
+
+    /**
+     * Returns the node in this file's test tree that wraps the specified test, or null if the test
+     * is not part of this file's criteria.
+     */
+    public TestWrapperNode getTestNode(Test test) {
+        return testNodes.get(test);
+    }
+
+    /**
+     * Copies the results, automation stages and notes of the tests in another node's test tree to
+     * the matching tests in this node's tree. This is used when the criteria is reloaded: the other
+     * node wraps the same submitted file, but its tests are from the old criteria. This should be
+     * called before this node is added to the submission tree.
+     *
+     * Automated tests that are new or whose definitions changed are not copied, since their
+     * results may no longer be correct. Tests performed by a human keep their results even if
+     * their definitions changed (e.g., if only the deduction changed).
+     *
+     * Returns the automated tests in this node's tree that must be run again: the new and changed
+     * tests, as well as any tests that were waiting to run (or running) in the other tree.
+     */
+    public List<TestWrapperNode> copyResults(SubmittedFileWrapperNode other, TestMatcher matcher) {
+        List<TestWrapperNode> rerun = new LinkedList<>();
+
+        DefaultMutableTreeNode root = (DefaultMutableTreeNode)treeModel.getRoot();
+        @SuppressWarnings("unchecked") Enumeration<DefaultMutableTreeNode> nodes = root
+                .preorderEnumeration();
+        while (nodes.hasMoreElements()) {
+            DefaultMutableTreeNode n = nodes.nextElement();
+            if (!(n instanceof TestWrapperNode)) continue;
+
+            TestWrapperNode node = (TestWrapperNode)n;
+            Test test = (Test)node.getUserObject();
+            boolean automatable = test instanceof Automatable;
+
+            Test oldTest = matcher.getOldTest(test);
+            TestWrapperNode oldNode = oldTest == null ? null : other.getTestNode(oldTest);
+
+            if (oldNode == null || (automatable && matcher.isChanged(test))) {
+                if (automatable) rerun.add(node);
+                continue;
+            }
+
+            try {
+                String notes = oldNode.notes.getText(0, oldNode.notes.getLength());
+                if (!notes.isEmpty()) node.notes.insertString(0, notes, null);
+            } catch (BadLocationException ignored) {}
+
+            node.setResult(oldNode.getResult());
+
+            switch (oldNode.getAutomationStage()) {
+            case FINISHED_NORMAL:
+            case FINISHED_ERROR:
+                node.setAutomationStage(oldNode.getAutomationStage());
+                break;
+            case QUEUED:
+            case STARTED:
+                if (oldNode.getResult() == TestResult.NONE) rerun.add(node);
+            }
+        }
+
+        return rerun;
     }
 
     public boolean isComplete() {
         return finished.isEmpty() || !finished.containsValue(false);
     }
 
+    /**
+     * Like resetAllTests(), but leaves the results of tests that must be performed by a human
+     * alone. This is used when the submitted file has been replaced, since any automated result
+     * came from the old contents of the file.
+     */
+    public void resetAutomatedTests() {
+        DefaultMutableTreeNode root = (DefaultMutableTreeNode)treeModel.getRoot();
+        @SuppressWarnings("unchecked") Enumeration<DefaultMutableTreeNode> dfs = root
+                .depthFirstEnumeration();
+        while (dfs.hasMoreElements()) {
+            DefaultMutableTreeNode n = dfs.nextElement();
+
+            if (n instanceof TestWrapperNode) {
+                TestWrapperNode node = (TestWrapperNode)n;
+                Test test = (Test)node.getUserObject();
+
+                if (test instanceof Automatable) {
+                    node.setResult(TestResult.NONE);
+                    node.setAutomationStage(AutomationStage.NONE);
+                }
+            }
+        }
+    }
+
     public void resetAllTests() {
         DefaultMutableTreeNode root = (DefaultMutableTreeNode)treeModel.getRoot();
         @SuppressWarnings("unchecked") Enumeration<DefaultMutableTreeNode> dfs = root
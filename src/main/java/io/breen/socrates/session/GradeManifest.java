@@ -0,0 +1,229 @@
+package io.breen.socrates.session;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.breen.socrates.Globals;
+import io.breen.socrates.criteria.TestMatcher;
+import io.breen.socrates.model.AutomationStage;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.Automatable;
+import io.breen.socrates.test.Test;
+
+import javax.swing.text.BadLocationException;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A record of the outcome of every test for a graded submission, saved next to the submission's
+ * grade report. When submissions are graded again incrementally (e.g., after regrade requests or
+ * a fix to the criteria), the manifest is used to restore the outcomes of tests that do not need
+ * to be run again, so that only the automated tests for changed files and changed tests are run,
+ * and only the grade reports of affected submissions need to be saved again.
+ *
+ * For each submitted file, the manifest stores the hash of the file's contents. For each test,
+ * the manifest stores the test's identity and a hash of its definition (see TestMatcher), along
+ * with the test's result, automation stage and notes.
+ *
+ * Instances of this class are written to and read from JSON by Jackson.
+ */
+public class GradeManifest {
+
+    public static final int FORMAT_VERSION = 1;
+
+    public static class FileEntry {
+
+        public String path;
+        public String hash;
+        public List<TestEntry> tests = new ArrayList<>();
+    }
+
+    public static class TestEntry {
+
+        public String id;
+        public String definition;
+        public TestResult result;
+        public AutomationStage stage;
+        public String notes;
+    }
+
+    public int version = FORMAT_VERSION;
+    public String assignmentName;
+    public List<FileEntry> files = new ArrayList<>();
+
+    /**
+     * This empty constructor is used by Jackson.
+     */
+    public GradeManifest() {}
+
+    /**
+     * Creates a manifest recording the current state of every test of the specified submission.
+     */
+    public GradeManifest(String assignmentName, SubmissionWrapperNode swn) {
+        this.assignmentName = assignmentName;
+
+        for (int i = 0; i < swn.getChildCount(); i++) {
+            if (!(swn.getChildAt(i) instanceof SubmittedFileWrapperNode)) continue;
+
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode)swn.getChildAt(i);
+            SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+
+            FileEntry fileEntry = new FileEntry();
+            fileEntry.path = toKey(submittedFile.localPath);
+            fileEntry.hash = submittedFile.hash;
+
+            for (Map.Entry<String, Test> e : TestMatcher.getIdentities(sfwn.matchingFile)
+                                                       .entrySet())
+            {
+                TestWrapperNode node = sfwn.getTestNode(e.getValue());
+                if (node == null) continue;
+
+                TestEntry testEntry = new TestEntry();
+                testEntry.id = e.getKey();
+                testEntry.definition = TestMatcher.getDefinitionHash(e.getValue());
+                testEntry.result = node.getResult();
+                testEntry.stage = node.getAutomationStage();
+
+                try {
+                    testEntry.notes = node.notes.getText(0, node.notes.getLength());
+                } catch (BadLocationException ignored) {}
+
+                fileEntry.tests.add(testEntry);
+            }
+
+            files.add(fileEntry);
+        }
+    }
+
+    /**
+     * Returns the path of the manifest for the grade report at the specified path.
+     */
+    public static Path getPath(Path gradeFilePath) {
+        return gradeFilePath.resolveSibling(Globals.DEFAULT_MANIFEST_FILE_NAME);
+    }
+
+    public static GradeManifest read(Path path) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        GradeManifest manifest = mapper.readValue(path.toFile(), GradeManifest.class);
+        if (manifest.version != FORMAT_VERSION)
+            throw new IOException("unsupported manifest version: " + manifest.version);
+
+        return manifest;
+    }
+
+    /**
+     * Writes this manifest to the specified path. The manifest is written to a temporary file
+     * first, so that an interrupted write does not leave a corrupt manifest behind.
+     */
+    public void write(Path path) throws IOException {
+        Path temp = Files.createTempFile(
+                path.toAbsolutePath().getParent(), path.getFileName().toString(), null
+        );
+
+        try {
+            new ObjectMapper().writeValue(temp.toFile(), this);
+            Files.move(
+                    temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Restores the outcomes recorded in this manifest into the test tree of the specified file. An
+     * outcome is restored only if the file's contents have not changed and the test's definition
+     * has not changed. (As when the criteria is reloaded, tests performed by a human keep their
+     * outcomes if only their definitions changed.) The automated tests whose outcomes were not
+     * restored are added to the specified list.
+     *
+     * Returns true if every outcome was restored, and the set of tests is the same as when the
+     * manifest was written (i.e., the file's part of the grade report would not change).
+     */
+    public boolean restore(SubmittedFileWrapperNode sfwn, List<TestWrapperNode> rerun) {
+        SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+
+        FileEntry fileEntry = getFileEntry(submittedFile);
+        boolean unchanged = fileEntry != null && fileEntry.hash.equals(submittedFile.hash);
+
+        Map<String, TestEntry> entries = new HashMap<>();
+        if (unchanged) {
+            for (TestEntry e : fileEntry.tests)
+                entries.put(e.id, e);
+        }
+
+        Map<String, Test> identities = TestMatcher.getIdentities(sfwn.matchingFile);
+        if (!entries.keySet().equals(identities.keySet())) unchanged = false;
+
+        for (Map.Entry<String, Test> e : identities.entrySet()) {
+            Test test = e.getValue();
+            TestWrapperNode node = sfwn.getTestNode(test);
+            if (node == null) continue;
+
+            boolean automatable = test instanceof Automatable;
+            TestEntry entry = entries.get(e.getKey());
+
+            boolean changed = entry == null ||
+                    !entry.definition.equals(TestMatcher.getDefinitionHash(test));
+            if (changed) unchanged = false;
+
+            if (entry == null || (automatable && changed)) {
+                if (automatable) rerun.add(node);
+                continue;
+            }
+
+            if (entry.notes != null && !entry.notes.isEmpty()) {
+                try {
+                    node.notes.insertString(0, entry.notes, null);
+                } catch (BadLocationException ignored) {}
+            }
+
+            if (entry.result != null) node.setResult(entry.result);
+
+            if (entry.stage == AutomationStage.FINISHED_NORMAL ||
+                    entry.stage == AutomationStage.FINISHED_ERROR)
+                node.setAutomationStage(entry.stage);
+        }
+
+        return unchanged;
+    }
+
+    /**
+     * Returns whether this manifest records any file that is not among the specified files (e.g.,
+     * because the student deleted it).
+     */
+    public boolean hasOtherFiles(Collection<SubmittedFile> submittedFiles) {
+        Set<String> paths = new HashSet<>();
+        for (SubmittedFile f : submittedFiles)
+            paths.add(toKey(f.localPath));
+
+        for (FileEntry e : files)
+            if (!paths.contains(e.path)) return true;
+
+        return false;
+    }
+
+    private FileEntry getFileEntry(SubmittedFile submittedFile) {
+        String key = toKey(submittedFile.localPath);
+        for (FileEntry e : files)
+            if (e.path.equals(key)) return e;
+
+        return null;
+    }
+
+    private static String toKey(Path localPath) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : localPath) {
+            if (builder.length() > 0) builder.append('/');
+            builder.append(name.toString());
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,320 @@
+package io.breen.socrates.session;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.file.File;
+import io.breen.socrates.model.AutomationStage;
+import io.breen.socrates.model.ContentIndex;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.*;
+import io.breen.socrates.test.python.ModuleCatalog;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Runs every automated test on every submission ahead of time, without the GUI, and records the
+ * outcomes in a session journal. When the same criteria (or the same session) is later opened in
+ * the GUI, the journal is replayed, so every automated result is shown immediately and graders
+ * only need to perform the tests that cannot be automated.
+ *
+ * Files are tested concurrently, one file per thread. The tests of a single file are run one at a
+ * time, in the order they appear in the criteria, so that tests constrained by the failure of an
+ * earlier test are skipped, as they would be in the GUI. Outcomes already recorded in the journal
+ * (e.g., by an earlier, interrupted run) are kept, and those tests are not run again.
+ *
+ * The transcript produced by the tests of each file is written to a text file next to the
+ * journal (see getTranscriptPath()), which the GUI shows in its transcript window. Transcripts are
+ * appended to the file, and the file is deleted once the journal is empty (see
+ * deleteStaleTranscript()).
+ *
+ * @see SessionJournal
+ */
+public class Precomputer {
+
+    /**
+     * Objects implementing this interface can be notified each time the tests of a file have
+     * finished. The precomputer calls this method from the thread that called run(), never from
+     * one of the pool's threads.
+     */
+    public interface ProgressListener {
+
+        void filePrecomputed(int numPrecomputed, int numTotal);
+    }
+
+    public static final String TRANSCRIPT_EXTENSION = "transcript";
+
+    public static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static Logger logger = Logger.getLogger(Precomputer.class.getName());
+
+    private final Criteria criteria;
+    private final int numThreads;
+    private final ContentIndex contentIndex;
+
+    public Precomputer(Criteria criteria) {
+        this(criteria, DEFAULT_NUM_THREADS);
+    }
+
+    public Precomputer(Criteria criteria, int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("need at least one thread");
+
+        this.criteria = criteria;
+        this.numThreads = numThreads;
+        contentIndex = new ContentIndex();
+    }
+
+    /**
+     * Returns the path of the transcript written alongside the journal at the specified path.
+     */
+    public static Path getTranscriptPath(Path journalPath) {
+        return journalPath.resolveSibling(
+                journalPath.getFileName() + "." + TRANSCRIPT_EXTENSION
+        );
+    }
+
+    /**
+     * Deletes the transcript written alongside the journal at the specified path if the journal is
+     * empty. The transcript then only describes submissions whose grade reports have been saved
+     * (or belongs to another assignment), so it would otherwise grow with every session.
+     */
+    public static void deleteStaleTranscript(SessionJournal journal, Path journalPath)
+            throws IOException
+    {
+        if (journal.isEmpty()) Files.deleteIfExists(getTranscriptPath(journalPath));
+    }
+
+    /**
+     * Runs the automated tests of every recognized file of the specified submissions, recording
+     * their outcomes in the journal at the specified path. This method blocks until every test
+     * has finished. Returns the number of tests that were run.
+     *
+     * @param listener An optional listener notified as the tests of each file finish (may be null)
+     *
+     * @throws InterruptedException If this thread is interrupted while waiting for the tests
+     */
+    public int run(List<Submission> submissions, Path journalPath, ProgressListener listener)
+            throws IOException, InterruptedException
+    {
+        SessionJournal journal = SessionJournal.open(journalPath, criteria.assignmentName);
+        deleteStaleTranscript(journal, journalPath);
+
+        final Map<SubmittedFileWrapperNode, Submission> nodes = new LinkedHashMap<>();
+        final Map<SubmittedFileWrapperNode, Document> transcripts = new HashMap<>();
+
+        for (Submission submission : submissions) {
+            for (SubmittedFile submittedFile : submission.files) {
+                File matchingFile = criteria.getFileByLocalPath(submittedFile.localPath);
+                if (matchingFile == null) continue;
+
+                SubmittedFileWrapperNode sfwn = new SubmittedFileWrapperNode(
+                        submittedFile, matchingFile
+                );
+                journal.restore(submission, sfwn);
+                journal.attach(submission, sfwn);
+
+                nodes.put(sfwn, submission);
+                transcripts.put(sfwn, new PlainDocument());
+            }
+        }
+
+        logger.info("precomputing automated tests for " + nodes.size() + " files");
+        long start = System.currentTimeMillis();
+
+        // one interpreter finds the members of every Python module, without running them
+        try {
+            int numAnalyzed = ModuleCatalog.analyzeAll(criteria, submissions);
+            logger.info("analyzed " + numAnalyzed + " submitted modules");
+        } catch (IOException x) {
+            logger.warning("could not analyze submitted modules: " + x);
+        }
+
+        int poolSize = Math.min(numThreads, Math.max(nodes.size(), 1));
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        CompletionService<Integer> service = new ExecutorCompletionService<>(pool);
+
+        for (final Map.Entry<SubmittedFileWrapperNode, Submission> e : nodes.entrySet()) {
+            service.submit(
+                    new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            return runTests(
+                                    e.getKey(), e.getValue(), transcripts.get(e.getKey())
+                            );
+                        }
+                    }
+            );
+        }
+
+        int numRun = 0;
+        try {
+            for (int i = 1; i <= nodes.size(); i++) {
+                try {
+                    numRun += service.take().get();
+                } catch (ExecutionException x) {
+                    logger.severe("failure precomputing tests: " + x.getCause());
+                }
+
+                if (listener != null) listener.filePrecomputed(i, nodes.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        /*
+         * Tests append their notes and transcripts on the event dispatch thread, so we wait for
+         * it to catch up before writing the transcript and closing the journal.
+         */
+        waitForEventDispatchThread();
+
+        writeTranscript(getTranscriptPath(journalPath), nodes, transcripts);
+        journal.close();
+
+        logger.info(
+                "ran " + numRun + " automated tests in " + (System.currentTimeMillis() - start) +
+                        " ms"
+        );
+
+        return numRun;
+    }
+
+    /**
+     * Runs the automated tests of a single file that do not have an outcome yet. Returns the
+     * number of tests that were run.
+     */
+    private int runTests(SubmittedFileWrapperNode sfwn, Submission submission,
+                         Document transcript) throws InterruptedException
+    {
+        SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+        int numRun = 0;
+
+        DefaultMutableTreeNode root = (DefaultMutableTreeNode)sfwn.treeModel.getRoot();
+        @SuppressWarnings("unchecked") Enumeration<DefaultMutableTreeNode> children = root
+                .preorderEnumeration();
+        while (children.hasMoreElements()) {
+            DefaultMutableTreeNode n = children.nextElement();
+            if (!(n instanceof TestWrapperNode)) continue;
+
+            TestWrapperNode node = (TestWrapperNode)n;
+            Test test = (Test)node.getUserObject();
+
+            if (!(test instanceof Automatable) || node.isConstrained() ||
+                    node.getResult() != TestResult.NONE ||
+                    node.getAutomationStage() == AutomationStage.FINISHED_ERROR)
+                continue;
+
+            String outcomeHash = ContentIndex.getOutcomeHash(test, submittedFile, submission);
+            boolean sharable = outcomeHash != null;
+            if (sharable) {
+                ContentIndex.Outcome outcome = contentIndex.getOutcome(outcomeHash, test);
+                if (outcome != null) {
+                    if (!outcome.notes.isEmpty()) Test.appendToDocument(node.notes, outcome.notes);
+                    node.setResult(outcome.result);
+                    node.setAutomationStage(AutomationStage.FINISHED_NORMAL);
+                    continue;
+                }
+            }
+
+            node.setAutomationStage(AutomationStage.STARTED);
+            Document notes = sharable ? new PlainDocument() : node.notes;
+
+            try {
+                boolean passed = ((Automatable)test).shouldPass(
+                        sfwn.matchingFile, submittedFile, submission, criteria, transcript, notes
+                );
+
+                TestResult result = passed ? TestResult.PASSED : TestResult.FAILED;
+
+                if (sharable) {
+                    waitForEventDispatchThread();
+
+                    String text = "";
+                    try {
+                        text = notes.getText(0, notes.getLength());
+                    } catch (BadLocationException ignored) {}
+
+                    contentIndex.putOutcome(
+                            outcomeHash, test, new ContentIndex.Outcome(result, text)
+                    );
+                    if (!text.isEmpty()) Test.appendToDocument(node.notes, text);
+                }
+
+                node.setResult(result);
+                node.setAutomationStage(AutomationStage.FINISHED_NORMAL);
+
+            } catch (CannotBeAutomatedException x) {
+                logger.warning(test + ": cannot be automated: " + x);
+                node.setAutomationStage(AutomationStage.FINISHED_ERROR);
+
+            } catch (AutomationFailureException x) {
+                logger.severe(test + ": failure automating test: " + x);
+                node.setAutomationStage(AutomationStage.FINISHED_ERROR);
+            }
+
+            numRun++;
+        }
+
+        return numRun;
+    }
+
+    /**
+     * Appends the transcripts of the specified files to the transcript file, so that the
+     * transcript of an earlier run on the same session is kept.
+     */
+    private static void writeTranscript(Path path,
+                                        Map<SubmittedFileWrapperNode, Submission> nodes,
+                                        Map<SubmittedFileWrapperNode, Document> transcripts)
+            throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter(
+                path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        ))
+        {
+            for (Map.Entry<SubmittedFileWrapperNode, Submission> e : nodes.entrySet()) {
+                Document transcript = transcripts.get(e.getKey());
+                if (transcript.getLength() == 0) continue;
+
+                SubmittedFile submittedFile = (SubmittedFile)e.getKey().getUserObject();
+                writer.write(
+                        "=== " + e.getValue().studentName + ": " + submittedFile.localPath +
+                                " ===\n"
+                );
+
+                try {
+                    writer.write(transcript.getText(0, transcript.getLength()));
+                } catch (BadLocationException ignored) {}
+
+                writer.write("\n");
+            }
+        }
+    }
+
+    private static void waitForEventDispatchThread() throws InterruptedException {
+        try {
+            SwingUtilities.invokeAndWait(
+                    new Runnable() {
+                        @Override
+                        public void run() {}
+                    }
+            );
+        } catch (InvocationTargetException x) {
+            throw new RuntimeException(x.getCause());
+        }
+    }
+}
@@ -0,0 +1,647 @@
+package io.breen.socrates.session;
+
+import io.breen.socrates.criteria.TestMatcher;
+import io.breen.socrates.model.AutomationStage;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.event.NotesChangedEvent;
+import io.breen.socrates.model.event.ResultChangedEvent;
+import io.breen.socrates.model.event.StageChangedEvent;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.model.wrapper.TestWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.Automatable;
+import io.breen.socrates.test.Test;
+import io.breen.socrates.util.ObservableChangedEvent;
+import io.breen.socrates.util.Observer;
+
+import javax.swing.text.BadLocationException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of every change to the outcome of a test during a grading session, so
+ * that results and notes that have not yet been saved in a grade report are not lost if Socrates
+ * crashes (or the computer loses power). The journal is stored next to the criteria file, and is
+ * replayed into the submission tree when the same criteria is opened again.
+ *
+ * The journal observes every TestWrapperNode that is attached to it, and records changes to the
+ * node's result, automation stage and notes. (A node's constraint follows from the results of
+ * other tests, so constraints are restored by restoring results.) Tests are identified by the
+ * submission's directory (and archive, if any), the file's local path and the test's identity (see
+ * TestMatcher), so that a journal can be replayed into a tree built from a different Criteria
+ * object.
+ *
+ * Records are written by a background thread, which batches the records that are waiting and
+ * forces them to disk at most FORCE_INTERVAL_MILLIS after they were written. Each record is
+ * prefixed by its length and a checksum, so that a record that was only partially written when
+ * Socrates stopped is detected (and discarded) when the journal is read. When a submission's
+ * grade report is saved, its records are no longer needed; when most of the records in the
+ * journal have been superseded, the journal is compacted by rewriting only the current state.
+ */
+public class SessionJournal implements Observer<TestWrapperNode> {
+
+    public static final String EXTENSION = "journal";
+
+    /**
+     * Incremented whenever the format of journal files changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String MAGIC = "socrates-journal";
+
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The journal is compacted when it contains at least this many records, and more than
+     * COMPACTION_RATIO records for each test whose state is recorded.
+     */
+    private static final int COMPACTION_MIN_RECORDS = 10000;
+    private static final int COMPACTION_RATIO = 4;
+
+    /**
+     * Records longer than this are assumed to be corrupt.
+     */
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte RESULT = 1;
+    private static final byte STAGE = 2;
+    private static final byte NOTES = 3;
+    private static final byte SAVED = 4;
+
+    /**
+     * Placed in the queue to stop the writer thread.
+     */
+    private static final byte[] CLOSE = new byte[0];
+
+    private static Logger logger = Logger.getLogger(SessionJournal.class.getName());
+
+    /**
+     * The most recently recorded state of a single test.
+     */
+    private static class Entry {
+
+        final String submission;
+        final String file;
+        final String test;
+
+        String fileHash;
+        TestResult result;
+        AutomationStage stage;
+        String notes;
+
+        Entry(String submission, String file, String test) {
+            this.submission = submission;
+            this.file = file;
+            this.test = test;
+        }
+    }
+
+    /**
+     * Identifies the test wrapped by an attached TestWrapperNode.
+     */
+    private static class Target {
+
+        final String submission;
+        final String file;
+        final String test;
+        final SubmittedFileWrapperNode sfwn;
+
+        Target(String submission, String file, String test, SubmittedFileWrapperNode sfwn) {
+            this.submission = submission;
+            this.file = file;
+            this.test = test;
+            this.sfwn = sfwn;
+        }
+    }
+
+    private final Path path;
+    private final byte[] header;
+
+    /**
+     * The current state of every test recorded in the journal. Records are added to the queue
+     * while holding this object's lock, so that they are written in the same order that the state
+     * was updated.
+     */
+    private final Map<String, Entry> state;
+
+    private final Map<TestWrapperNode, Target> targets;
+    private final BlockingQueue<byte[]> queue;
+
+    private FileChannel channel;
+    private Thread writer;
+    private int numRecords;
+
+    private SessionJournal(Path path, String assignmentName) {
+        this.path = path;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(assignmentName);
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+        header = bytes.toByteArray();
+
+        state = new LinkedHashMap<>();
+        targets = Collections.synchronizedMap(new WeakHashMap<TestWrapperNode, Target>());
+        queue = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Returns the path of the journal for the criteria at the specified path.
+     */
+    public static Path getPath(Path criteriaPath) {
+        return criteriaPath.resolveSibling(criteriaPath.getFileName() + "." + EXTENSION);
+    }
+
+    /**
+     * Opens the journal at the specified path, reading the state recorded by an earlier session
+     * (if the journal was created for the same assignment), and starts the thread that writes new
+     * records to the journal.
+     */
+    public static SessionJournal open(Path path, String assignmentName) throws IOException {
+        SessionJournal journal = new SessionJournal(path, assignmentName);
+
+        long start = System.currentTimeMillis();
+        long length = journal.read();
+        logger.info(
+                "read " + journal.numRecords + " journal records (" + journal.state.size() +
+                        " tests) in " + (System.currentTimeMillis() - start) + " ms"
+        );
+
+        if (length < 0) {
+            journal.compact();
+        } else {
+            journal.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            journal.channel.truncate(length);
+            journal.channel.position(length);
+
+            if (journal.shouldCompact()) journal.compact();
+        }
+
+        journal.startWriter();
+
+        return journal;
+    }
+
+    /**
+     * Reads the records in the journal file into this journal's state. Returns the length of the
+     * valid part of the file (any partially written records at the end are not included), or -1
+     * if the file does not exist or was not created for this assignment.
+     */
+    private long read() throws IOException {
+        if (!Files.exists(path)) return -1;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 64 * 1024)
+        ))
+        {
+            byte[] fileHeader = new byte[header.length];
+            try {
+                in.readFully(fileHeader);
+            } catch (EOFException x) {
+                fileHeader = null;
+            }
+
+            if (!Arrays.equals(header, fileHeader)) {
+                logger.info("ignoring journal for another assignment or version: " + path);
+                return -1;
+            }
+
+            long length = header.length;
+            CRC32 crc = new CRC32();
+
+            while (true) {
+                int recordLength;
+                long checksum;
+                byte[] record;
+
+                try {
+                    recordLength = in.readInt();
+                    checksum = in.readInt() & 0xffffffffL;
+
+                    if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH) break;
+
+                    record = new byte[recordLength];
+                    in.readFully(record);
+                } catch (EOFException x) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(record);
+                if (crc.getValue() != checksum) break;
+
+                apply(record);
+                length += 8 + recordLength;
+                numRecords++;
+            }
+
+            if (length < Files.size(path))
+                logger.warning("discarding incomplete journal records at end of " + path);
+
+            return length;
+        }
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+
+        if (type == SAVED) {
+            removeSubmission(in.readUTF());
+            return;
+        }
+
+        String submission = in.readUTF();
+        String file = in.readUTF();
+        String test = in.readUTF();
+        Entry entry = getEntry(submission, file, test);
+        entry.fileHash = in.readUTF();
+
+        try {
+            switch (type) {
+            case RESULT:
+                entry.result = TestResult.valueOf(in.readUTF());
+                break;
+            case STAGE:
+                entry.stage = AutomationStage.valueOf(in.readUTF());
+                break;
+            case NOTES:
+                byte[] notes = new byte[in.readInt()];
+                in.readFully(notes);
+                entry.notes = new String(notes, StandardCharsets.UTF_8);
+                break;
+            default:
+                logger.warning("ignoring journal record of unknown type: " + type);
+            }
+        } catch (IllegalArgumentException x) {
+            logger.warning("ignoring malformed journal record: " + x);
+        }
+    }
+
+    private Entry getEntry(String submission, String file, String test) {
+        String key = submission + '\0' + file + '\0' + test;
+
+        Entry entry = state.get(key);
+        if (entry == null) {
+            entry = new Entry(submission, file, test);
+            state.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    private void removeSubmission(String submission) {
+        Iterator<Entry> it = state.values().iterator();
+        while (it.hasNext())
+            if (it.next().submission.equals(submission)) it.remove();
+    }
+
+    /**
+     * Restores the state recorded in this journal into the test tree of the specified file, and
+     * returns the number of tests whose state was restored. If the file's contents have changed
+     * since the state was recorded, only the tests performed by a human are restored.
+     */
+    public int restore(Submission submission, SubmittedFileWrapperNode sfwn) {
+        String submissionKey = toKey(submission);
+        SubmittedFile submittedFile = (SubmittedFile)sfwn.getUserObject();
+        String fileKey = toKey(submittedFile.localPath);
+
+        int numRestored = 0;
+        for (Map.Entry<String, Test> e : TestMatcher.getIdentities(sfwn.matchingFile).entrySet()) {
+            TestWrapperNode node = sfwn.getTestNode(e.getValue());
+            if (node == null) continue;
+
+            Entry entry;
+            synchronized (this) {
+                entry = state.get(submissionKey + '\0' + fileKey + '\0' + e.getKey());
+            }
+
+            if (entry == null) continue;
+            if (e.getValue() instanceof Automatable && !submittedFile.hash.equals(entry.fileHash))
+                continue;
+
+            if (entry.notes != null) {
+                try {
+                    node.notes.remove(0, node.notes.getLength());
+                    node.notes.insertString(0, entry.notes, null);
+                } catch (BadLocationException ignored) {}
+            }
+
+            if (entry.result != null) node.setResult(entry.result);
+            if (entry.stage != null) node.setAutomationStage(entry.stage);
+
+            numRestored++;
+        }
+
+        return numRestored;
+    }
+
+    /**
+     * Causes changes to the tests of the specified file to be recorded in this journal.
+     */
+    public void attach(Submission submission, SubmittedFileWrapperNode sfwn) {
+        String submissionKey = toKey(submission);
+        String fileKey = toKey(((SubmittedFile)sfwn.getUserObject()).localPath);
+
+        for (Map.Entry<String, Test> e : TestMatcher.getIdentities(sfwn.matchingFile).entrySet()) {
+            TestWrapperNode node = sfwn.getTestNode(e.getValue());
+            if (node == null || targets.containsKey(node)) continue;
+
+            targets.put(node, new Target(submissionKey, fileKey, e.getKey(), sfwn));
+            node.addObserver(this);
+        }
+    }
+
+    /**
+     * Returns whether no test's state is recorded in this journal (e.g., because the journal is
+     * new, or because the grade report of every submission in it has been saved).
+     */
+    public synchronized boolean isEmpty() {
+        return state.isEmpty();
+    }
+
+    /**
+     * Records that the grade report for the specified submission was saved, so that its tests'
+     * state will not be restored from this journal.
+     */
+    public void submissionSaved(Submission submission) {
+        String submissionKey = toKey(submission);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SAVED);
+            out.writeUTF(submissionKey);
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+
+        synchronized (this) {
+            removeSubmission(submissionKey);
+            queue.add(bytes.toByteArray());
+        }
+    }
+
+    @Override
+    public void objectChanged(ObservableChangedEvent<TestWrapperNode> event) {
+        Target target = targets.get(event.source);
+        if (target == null) return;
+
+        String fileHash = ((SubmittedFile)target.sfwn.getUserObject()).hash;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (event instanceof ResultChangedEvent) {
+                writeTarget(out, RESULT, target, fileHash);
+                out.writeUTF(((ResultChangedEvent)event).newResult.name());
+
+            } else if (event instanceof StageChangedEvent) {
+                AutomationStage stage = ((StageChangedEvent)event).newStage;
+
+                // tests that were queued or running must be run again after a crash
+                if (stage == AutomationStage.QUEUED || stage == AutomationStage.STARTED) return;
+
+                writeTarget(out, STAGE, target, fileHash);
+                out.writeUTF(stage.name());
+
+            } else if (event instanceof NotesChangedEvent) {
+                String notes;
+                try {
+                    notes = event.source.notes.getText(0, event.source.notes.getLength());
+                } catch (BadLocationException x) {
+                    return;
+                }
+
+                byte[] notesBytes = notes.getBytes(StandardCharsets.UTF_8);
+                writeTarget(out, NOTES, target, fileHash);
+                out.writeInt(notesBytes.length);
+                out.write(notesBytes);
+
+            } else {
+                return;
+            }
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+
+        byte[] record = bytes.toByteArray();
+
+        synchronized (this) {
+            try {
+                apply(record);
+            } catch (IOException x) {
+                throw new RuntimeException(x);
+            }
+
+            queue.add(record);
+        }
+    }
+
+    private static void writeTarget(DataOutputStream out, byte type, Target target,
+                                    String fileHash) throws IOException
+    {
+        out.writeByte(type);
+        out.writeUTF(target.submission);
+        out.writeUTF(target.file);
+        out.writeUTF(target.test);
+        out.writeUTF(fileHash);
+    }
+
+    /**
+     * Writes the records that are waiting to be written, forces them to disk, and stops the
+     * writer thread. Changes made after this method is called are not recorded.
+     */
+    public void close() {
+        if (writer == null) return;
+
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException ignored) {}
+
+        writer = null;
+    }
+
+    private void startWriter() {
+        writer = new Thread("journal writer") {
+            @Override
+            public void run() {
+                try {
+                    write();
+                } catch (InterruptedException x) {
+                    logger.info("journal writer interrupted");
+                } catch (IOException x) {
+                    logger.severe("could not write journal, changes are no longer recorded: " + x);
+                }
+
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void write() throws InterruptedException, IOException {
+        List<byte[]> batch = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+
+        long lastForce = System.currentTimeMillis();
+        boolean dirty = false;
+        boolean closing = false;
+
+        while (!closing) {
+            byte[] first = queue.poll(FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch);
+            }
+
+            bytes.reset();
+            for (byte[] record : batch) {
+                if (record == CLOSE) {
+                    closing = true;
+                    break;
+                }
+
+                crc.reset();
+                crc.update(record);
+                out.writeInt(record.length);
+                out.writeInt((int)crc.getValue());
+                out.write(record);
+                numRecords++;
+            }
+            batch.clear();
+
+            if (bytes.size() > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                dirty = true;
+            }
+
+            long now = System.currentTimeMillis();
+            if (dirty && (closing || first == null || now - lastForce >= FORCE_INTERVAL_MILLIS)) {
+                channel.force(false);
+                lastForce = now;
+                dirty = false;
+            }
+
+            if (!closing && shouldCompact()) compact();
+        }
+    }
+
+    private synchronized boolean shouldCompact() {
+        return numRecords >= COMPACTION_MIN_RECORDS &&
+                numRecords > COMPACTION_RATIO * state.size();
+    }
+
+    /**
+     * Replaces the journal file with one containing only the current state of each test. The new
+     * file is written under a temporary name and then renamed, so that a crash while compacting
+     * leaves the old journal in place.
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int n = 0;
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(header);
+
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            CRC32 crc = new CRC32();
+
+            synchronized (this) {
+                for (Entry entry : state.values()) {
+                    Target target = new Target(entry.submission, entry.file, entry.test, null);
+                    for (byte type : new byte[] {RESULT, STAGE, NOTES}) {
+                        recordBytes.reset();
+                        writeTarget(record, type, target, entry.fileHash);
+
+                        if (type == RESULT && entry.result != null) {
+                            record.writeUTF(entry.result.name());
+                        } else if (type == STAGE && entry.stage != null) {
+                            record.writeUTF(entry.stage.name());
+                        } else if (type == NOTES && entry.notes != null) {
+                            byte[] notesBytes = entry.notes.getBytes(StandardCharsets.UTF_8);
+                            record.writeInt(notesBytes.length);
+                            record.write(notesBytes);
+                        } else {
+                            continue;
+                        }
+
+                        byte[] b = recordBytes.toByteArray();
+                        crc.reset();
+                        crc.update(b);
+                        out.writeInt(b.length);
+                        out.writeInt((int)crc.getValue());
+                        out.write(b);
+                        n++;
+                    }
+                }
+            }
+        }
+
+        if (channel != null) channel.close();
+
+        Path temp = Files.createTempFile(
+                path.toAbsolutePath().getParent(), path.getFileName().toString(), null
+        );
+
+        try {
+            try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining())
+                    tempChannel.write(buffer);
+                tempChannel.force(false);
+            }
+
+            Files.move(
+                    temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+
+        logger.info("compacted journal from " + numRecords + " to " + n + " records");
+        numRecords = n;
+    }
+
+    private static String toKey(Submission submission) {
+        String dir = submission.submissionDir.toAbsolutePath().normalize().toString();
+        if (!submission.isArchived()) return dir;
+
+        // the directory is a path inside the archive, so the same name may appear in two archives
+        return submission.archive.toAbsolutePath().normalize() + "!" + dir;
+    }
+
+    private static String toKey(Path localPath) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : localPath) {
+            if (builder.length() > 0) builder.append('/');
+            builder.append(name.toString());
+        }
+
+        return builder.toString();
+    }
+}
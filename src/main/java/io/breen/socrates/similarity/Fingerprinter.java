@@ -0,0 +1,178 @@
+package io.breen.socrates.similarity;
+
+import com.threecrickets.jygments.ResolutionException;
+import com.threecrickets.jygments.grammar.Lexer;
+import com.threecrickets.jygments.grammar.Token;
+import com.threecrickets.jygments.grammar.TokenType;
+
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes a "fingerprint" of a source file: a set of hashes that stays mostly the same when a
+ * file is lightly edited (e.g., when variables are renamed, literals are changed, or comments and
+ * whitespace are added or removed).
+ *
+ * The file is first split into tokens using the same Jygments lexer that is used to highlight it
+ * in the file view. Comments and whitespace are dropped, and identifiers and literals are replaced
+ * by placeholders, so that only the "shape" of the code remains. Every run of k tokens (a k-gram)
+ * is then hashed, and the hashes are winnowed: from each window of consecutive k-gram hashes,
+ * only the smallest is kept. This guarantees that any match of at least (k + window - 1) tokens
+ * between two files is reflected in their fingerprints, while keeping fingerprints small.
+ */
+public class Fingerprinter {
+
+    public static final int DEFAULT_K = 5;
+    public static final int DEFAULT_WINDOW = 4;
+
+    private static final String IDENTIFIER = "N";
+    private static final String LITERAL = "L";
+
+    /**
+     * Used to split files for which there is no lexer into words and single symbols.
+     */
+    private static final Pattern WORD = Pattern.compile("\\w+|\\S");
+
+    private static Logger logger = Logger.getLogger(Fingerprinter.class.getName());
+
+    private final int k;
+    private final int window;
+
+    public Fingerprinter() {
+        this(DEFAULT_K, DEFAULT_WINDOW);
+    }
+
+    public Fingerprinter(int k, int window) {
+        if (k < 1 || window < 1)
+            throw new IllegalArgumentException("k-gram and window sizes must be positive");
+
+        this.k = k;
+        this.window = window;
+    }
+
+    /**
+     * Returns the normalized tokens of the specified contents. If the language is null or has no
+     * Jygments lexer, the contents are split into words and symbols without normalization.
+     */
+    public static List<String> tokenize(String contents, String language) {
+        List<String> tokens = new ArrayList<>();
+
+        Lexer lexer = null;
+        if (language != null) {
+            try {
+                lexer = Lexer.getByName(language);
+            } catch (ResolutionException x) {
+                logger.fine("no lexer for language '" + language + "': " + x);
+            }
+        }
+
+        if (lexer == null) {
+            Matcher m = WORD.matcher(contents);
+            while (m.find())
+                tokens.add(m.group());
+
+            return tokens;
+        }
+
+        for (Token t : lexer.getTokens(contents)) {
+            String normalized = normalize(t);
+            if (normalized != null) tokens.add(normalized);
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Returns the string that should stand in for the specified token, or null if the token should
+     * be ignored.
+     */
+    private static String normalize(Token token) {
+        String value = token.getValue();
+        if (value == null || value.trim().isEmpty()) return null;
+
+        TokenType type = token.getType();
+        String name = type == null ? "" : type.getName();
+        if (name.startsWith("Token.")) name = name.substring("Token.".length());
+
+        int dot = name.indexOf('.');
+        String category = dot == -1 ? name : name.substring(0, dot);
+
+        switch (category) {
+        case "Comment":
+            return null;
+
+        case "Name":
+            // built-in names are rarely renamed, so they say more about the code as they are
+            if (name.startsWith("Name.Builtin")) return value;
+            return IDENTIFIER;
+
+        case "Literal":
+        case "String":
+        case "Number":
+            return LITERAL;
+
+        default:
+            return value.trim();
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the specified contents as a sorted array of distinct hashes.
+     */
+    public int[] fingerprint(String contents, String language) {
+        return fingerprint(tokenize(contents, language));
+    }
+
+    public int[] fingerprint(List<String> tokens) {
+        int n = tokens.size();
+        if (n == 0) return new int[0];
+
+        int[] tokenHashes = new int[n];
+        for (int i = 0; i < n; i++)
+            tokenHashes[i] = tokens.get(i).hashCode();
+
+        // very short files have just one k-gram: the entire file
+        int numGrams = Math.max(n - k + 1, 1);
+        int[] grams = new int[numGrams];
+        for (int i = 0; i < numGrams; i++) {
+            int h = 1;
+            for (int j = i; j < Math.min(i + k, n); j++)
+                h = h * 31 + tokenHashes[j];
+            grams[i] = mix(h);
+        }
+
+        Set<Integer> selected = new HashSet<>();
+
+        int numWindows = Math.max(numGrams - window + 1, 1);
+        for (int i = 0; i < numWindows; i++) {
+            int min = grams[i];
+            for (int j = i + 1; j < Math.min(i + window, numGrams); j++)
+                if (grams[j] <= min) min = grams[j];
+
+            selected.add(min);
+        }
+
+        int[] fingerprint = new int[selected.size()];
+        int i = 0;
+        for (int h : selected)
+            fingerprint[i++] = h;
+
+        Arrays.sort(fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Scrambles the bits of a hash (the finalizer of MurmurHash3), so that similar k-grams do not
+     * have similar hashes.
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
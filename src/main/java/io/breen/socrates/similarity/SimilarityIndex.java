@@ -0,0 +1,218 @@
+package io.breen.socrates.similarity;
+
+import java.util.*;
+
+/**
+ * Finds pairs of similar items (e.g., submitted files) among many, given the fingerprint of each
+ * item. The similarity of two items is the Jaccard similarity of their fingerprints: the number of
+ * hashes they share divided by the number of distinct hashes in either.
+ *
+ * Comparing every pair of items would take quadratic time. Instead, a MinHash signature is
+ * computed for each fingerprint, and the signatures are split into bands that are hashed into
+ * buckets (locality-sensitive hashing). Only items that share a bucket in at least one band are
+ * compared exactly. With these parameters, pairs with a similarity of 0.5 are found with a
+ * probability of about 64%, pairs with a similarity of 0.6 with a probability of about 89%, and
+ * pairs with a similarity of 0.7 with a probability of about 99%. Only about 12% of pairs with a
+ * similarity of 0.3 are ever compared.
+ *
+ * Hashes that appear in a large fraction of all items (e.g., those from starter code that every
+ * student was given) say nothing about copying, so they are removed before comparison.
+ *
+ * @param <T> The type of the items being compared
+ */
+public class SimilarityIndex<T> {
+
+    public static final int NUM_BANDS = 16;
+    public static final int ROWS_PER_BAND = 4;
+
+    /**
+     * Hashes shared by more than this fraction of items are ignored.
+     */
+    public static final double DEFAULT_MAX_FREQUENCY = 0.5;
+
+    /**
+     * Hashes are only ignored for being too common if there are at least this many items.
+     */
+    private static final int MIN_ITEMS_FOR_FREQUENCY = 10;
+
+    private static final long SEED = 0x50c7a7e5L;
+
+    /**
+     * A pair of similar items, ordered so that more similar pairs come first.
+     */
+    public static class Match<T> implements Comparable<Match<T>> {
+
+        public final T first;
+        public final T second;
+        public final double similarity;
+
+        public Match(T first, T second, double similarity) {
+            this.first = first;
+            this.second = second;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public int compareTo(Match<T> other) {
+            return Double.compare(other.similarity, similarity);
+        }
+
+        @Override
+        public String toString() {
+            return "Match(" + first + ", " + second + ", similarity=" + similarity + ")";
+        }
+    }
+
+    private final List<T> items;
+    private final List<int[]> fingerprints;
+
+    private final int[] multipliers;
+    private final int[] offsets;
+
+    public SimilarityIndex() {
+        items = new ArrayList<>();
+        fingerprints = new ArrayList<>();
+
+        int numHashes = NUM_BANDS * ROWS_PER_BAND;
+        multipliers = new int[numHashes];
+        offsets = new int[numHashes];
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < numHashes; i++) {
+            multipliers[i] = random.nextInt() | 1;
+            offsets[i] = random.nextInt();
+        }
+    }
+
+    /**
+     * Adds an item with the specified fingerprint, which must be a sorted array of distinct
+     * hashes (as returned by Fingerprinter).
+     */
+    public void add(T item, int[] fingerprint) {
+        items.add(item);
+        fingerprints.add(fingerprint);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public List<Match<T>> findMatches(double threshold) {
+        return findMatches(threshold, DEFAULT_MAX_FREQUENCY);
+    }
+
+    /**
+     * Returns every pair of items found to have a similarity of at least the specified threshold,
+     * most similar first.
+     *
+     * @param maxFrequency The largest fraction of items a hash may appear in without being ignored
+     */
+    public List<Match<T>> findMatches(double threshold, double maxFrequency) {
+        int n = items.size();
+        List<int[]> filtered = removeCommonHashes(maxFrequency);
+
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            int[] fingerprint = filtered.get(i);
+            if (fingerprint.length == 0) continue;
+
+            int[] signature = signatureOf(fingerprint);
+
+            for (int band = 0; band < NUM_BANDS; band++) {
+                long key = band;
+                for (int row = 0; row < ROWS_PER_BAND; row++)
+                    key = key * 1000003 + signature[band * ROWS_PER_BAND + row];
+
+                List<Integer> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>(2);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(i);
+            }
+        }
+
+        Set<Long> compared = new HashSet<>();
+        List<Match<T>> matches = new ArrayList<>();
+
+        for (List<Integer> bucket : buckets.values()) {
+            for (int a = 0; a < bucket.size(); a++) {
+                for (int b = a + 1; b < bucket.size(); b++) {
+                    int i = bucket.get(a);
+                    int j = bucket.get(b);
+
+                    if (!compared.add((long)i * n + j)) continue;
+
+                    double similarity = jaccard(filtered.get(i), filtered.get(j));
+                    if (similarity >= threshold)
+                        matches.add(new Match<>(items.get(i), items.get(j), similarity));
+                }
+            }
+        }
+
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private List<int[]> removeCommonHashes(double maxFrequency) {
+        int n = items.size();
+        if (n < MIN_ITEMS_FOR_FREQUENCY) return fingerprints;
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int[] fingerprint : fingerprints) {
+            for (int h : fingerprint) {
+                Integer count = counts.get(h);
+                counts.put(h, count == null ? 1 : count + 1);
+            }
+        }
+
+        int maxCount = (int)(maxFrequency * n);
+
+        List<int[]> filtered = new ArrayList<>(n);
+        for (int[] fingerprint : fingerprints) {
+            int[] kept = new int[fingerprint.length];
+            int numKept = 0;
+            for (int h : fingerprint)
+                if (counts.get(h) <= maxCount) kept[numKept++] = h;
+
+            filtered.add(Arrays.copyOf(kept, numKept));
+        }
+
+        return filtered;
+    }
+
+    private int[] signatureOf(int[] fingerprint) {
+        int[] signature = new int[multipliers.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+
+        for (int h : fingerprint) {
+            for (int i = 0; i < signature.length; i++) {
+                int permuted = Fingerprinter.mix(h * multipliers[i] + offsets[i]);
+                if (permuted < signature[i]) signature[i] = permuted;
+            }
+        }
+
+        return signature;
+    }
+
+    /**
+     * Computes the Jaccard similarity of two sorted arrays of distinct hashes.
+     */
+    static double jaccard(int[] a, int[] b) {
+        int i = 0, j = 0, shared = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        int union = a.length + b.length - shared;
+        return union == 0 ? 0.0 : (double)shared / union;
+    }
+}
@@ -0,0 +1,159 @@
+package io.breen.socrates.similarity;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.file.File;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.util.Pair;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Produces a plain text report of the submissions whose files are very similar to each other.
+ * Submitted files are compared only with other submissions of the same File from the criteria,
+ * and the report has one section per File, listing the most similar pairs first.
+ *
+ * @see Fingerprinter
+ * @see SimilarityIndex
+ */
+public class SimilarityReport {
+
+    /**
+     * Pairs of files less similar than this are not reported.
+     */
+    public static final double DEFAULT_THRESHOLD = 0.6;
+
+    public static final int MAX_MATCHES_PER_FILE = 100;
+
+    private static Logger logger = Logger.getLogger(SimilarityReport.class.getName());
+
+    private final Criteria criteria;
+    private final Map<File, List<Pair<Submission, SubmittedFile>>> files;
+
+    public SimilarityReport(Criteria criteria) {
+        this.criteria = criteria;
+
+        files = new LinkedHashMap<>();
+        for (File f : criteria.files)
+            files.put(f, new ArrayList<Pair<Submission, SubmittedFile>>());
+    }
+
+    /**
+     * Adds a submitted file to be compared with the other submissions of the same File. Files
+     * whose contents are not plain text are ignored.
+     */
+    public void add(Submission submission, SubmittedFile submittedFile, File matchingFile) {
+        if (!matchingFile.contentsArePlainText) return;
+
+        List<Pair<Submission, SubmittedFile>> list = files.get(matchingFile);
+        if (list != null) list.add(new Pair<>(submission, submittedFile));
+    }
+
+    /**
+     * Fingerprints every submitted file (in parallel) and returns the report.
+     *
+     * @throws InterruptedException If this thread is interrupted while waiting for the
+     * fingerprints
+     */
+    public String generate() throws InterruptedException {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+        Map<File, List<Future<int[]>>> futures = new LinkedHashMap<>();
+        try {
+            final Fingerprinter fingerprinter = new Fingerprinter();
+
+            for (Map.Entry<File, List<Pair<Submission, SubmittedFile>>> e : files.entrySet()) {
+                final String language = e.getKey().language;
+
+                List<Future<int[]>> list = new ArrayList<>(e.getValue().size());
+                for (Pair<Submission, SubmittedFile> p : e.getValue()) {
+                    final SubmittedFile submittedFile = p.second;
+
+                    list.add(
+                            pool.submit(
+                                    new Callable<int[]>() {
+                                        @Override
+                                        public int[] call() throws IOException {
+                                            String contents = submittedFile.getContents();
+                                            return fingerprinter.fingerprint(contents, language);
+                                        }
+                                    }
+                            )
+                    );
+                }
+
+                futures.put(e.getKey(), list);
+            }
+
+            StringBuilder builder = new StringBuilder();
+            builder.append("Similarity report for ").append(criteria.assignmentName).append('\n');
+            builder.append("Pairs of submissions whose files are at least ")
+                   .append(percent(DEFAULT_THRESHOLD))
+                   .append(" similar, most similar first.\n");
+            builder.append("Code shared by most submissions (e.g., starter code) is ignored.\n");
+
+            for (Map.Entry<File, List<Future<int[]>>> e : futures.entrySet()) {
+                File file = e.getKey();
+                List<Pair<Submission, SubmittedFile>> submitted = files.get(file);
+
+                SimilarityIndex<Submission> index = new SimilarityIndex<>();
+                for (int i = 0; i < submitted.size(); i++) {
+                    try {
+                        index.add(submitted.get(i).first, e.getValue().get(i).get());
+                    } catch (ExecutionException x) {
+                        logger.warning(
+                                "could not fingerprint " + submitted.get(i).second + ": " +
+                                        x.getCause()
+                        );
+                    }
+                }
+
+                appendSection(builder, file, index);
+            }
+
+            return builder.toString();
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void appendSection(StringBuilder builder, File file,
+                                      SimilarityIndex<Submission> index)
+    {
+        List<SimilarityIndex.Match<Submission>> matches = index.findMatches(DEFAULT_THRESHOLD);
+
+        builder.append('\n');
+        builder.append(file.path).append(": ").append(index.size()).append(" submissions, ");
+
+        if (matches.isEmpty()) {
+            builder.append("no similar pairs\n");
+            return;
+        }
+
+        builder.append(matches.size()).append(" similar pair");
+        if (matches.size() > 1) builder.append('s');
+        builder.append('\n');
+
+        int n = Math.min(matches.size(), MAX_MATCHES_PER_FILE);
+        for (SimilarityIndex.Match<Submission> m : matches.subList(0, n)) {
+            builder.append(String.format("%8s", percent(m.similarity)))
+                   .append("  ")
+                   .append(m.first.studentName)
+                   .append(", ")
+                   .append(m.second.studentName)
+                   .append('\n');
+        }
+
+        if (n < matches.size())
+            builder.append("    (").append(matches.size() - n).append(" more not shown)\n");
+    }
+
+    private static String percent(double fraction) {
+        return Math.round(fraction * 100) + "%";
+    }
+}
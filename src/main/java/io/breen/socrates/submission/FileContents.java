@@ -0,0 +1,261 @@
+package io.breen.socrates.submission;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Reads and decodes the contents of submitted files. Every part of Socrates that needs the text
+ * of a submitted file (the file view, the file information panel, and tests) should read it
+ * through this class, so that a file selected many times is only read and decoded once.
+ *
+ * Files are decoded as UTF-8 in bulk. Malformed input does not cause the file to be read a second
+ * time; instead, the bytes are decoded again from memory, replacing each malformed sequence with
+ * U+FFFD. Large files on the default file system are memory-mapped instead of copied into the
+ * heap before decoding.
+ *
+ * Decoded contents are kept in a least-recently-used cache whose total size (in characters) is
+ * bounded. Entries are keyed by path and are only used if the file's last modified time has not
+ * changed since it was decoded.
+ */
+public final class FileContents {
+
+    /**
+     * Files at least this large (in bytes) are memory-mapped when they are read.
+     */
+    public static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+    /**
+     * The default maximum number of characters kept in the cache across all files.
+     */
+    public static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private static final char REPLACEMENT = '�';
+
+    private static Logger logger = Logger.getLogger(FileContents.class.getName());
+
+    private static final Cache cache = new Cache(DEFAULT_CAPACITY);
+
+    /**
+     * The text of a file, decoded once, as well as whether any part of the file was not valid
+     * UTF-8 (and was therefore replaced).
+     */
+    private static class Decoded {
+
+        public final FileTime modified;
+        public final String text;
+        public final boolean malformed;
+
+        public Decoded(FileTime modified, String text, boolean malformed) {
+            this.modified = modified;
+            this.text = text;
+            this.malformed = malformed;
+        }
+    }
+
+    private static class Cache extends LinkedHashMap<Path, Decoded> {
+
+        private final long capacity;
+        private long numChars;
+
+        public Cache(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        public synchronized Decoded lookup(Path path, FileTime modified) {
+            Decoded e = get(path);
+            if (e == null) return null;
+
+            if (!e.modified.equals(modified)) {
+                numChars -= remove(path).text.length();
+                return null;
+            }
+
+            return e;
+        }
+
+        public synchronized void store(Path path, Decoded entry) {
+            if (entry.text.length() > capacity) return;
+
+            Decoded old = put(path, entry);
+            if (old != null) numChars -= old.text.length();
+            numChars += entry.text.length();
+
+            Iterator<Decoded> it = values().iterator();
+            while (numChars > capacity && it.hasNext()) {
+                numChars -= it.next().text.length();
+                it.remove();
+            }
+        }
+
+        public synchronized void invalidate(Path path) {
+            Decoded e = remove(path);
+            if (e != null) numChars -= e.text.length();
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            numChars = 0;
+        }
+    }
+
+    private FileContents() {}
+
+    /**
+     * Returns the contents of the specified file decoded as UTF-8, exactly as they appear in the
+     * file. Malformed input is replaced with U+FFFD.
+     */
+    public static String getText(Path path) throws IOException {
+        return getDecoded(path).text;
+    }
+
+    /**
+     * Returns the contents of the specified file decoded as UTF-8, in which every line ends with a
+     * single '\n' character (regardless of the line terminator used by the file). Malformed input
+     * is replaced with U+FFFD.
+     */
+    public static String getLines(Path path) throws IOException {
+        return normalizeLineEndings(getDecoded(path).text);
+    }
+
+    /**
+     * Like getLines(), but throws MalformedInputException if the file is not valid UTF-8.
+     */
+    public static String getLinesStrict(Path path) throws IOException {
+        Decoded e = getDecoded(path);
+        if (e.malformed) throw new MalformedInputException(1);
+
+        return normalizeLineEndings(e.text);
+    }
+
+    public static FileTime getLastModified(Path path) throws IOException {
+        return Files.getLastModifiedTime(path);
+    }
+
+    /**
+     * Reads all of the bytes of the specified file. If the file is large and stored on the default
+     * file system, the returned buffer is a read-only mapping of the file.
+     */
+    public static ByteBuffer readBytes(Path path) throws IOException {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size >= MAPPING_THRESHOLD && size <= Integer.MAX_VALUE)
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        return ByteBuffer.wrap(Files.readAllBytes(path));
+    }
+
+    /**
+     * Returns a hexadecimal SHA-1 digest of the specified file's contents. Two files with the same
+     * digest can be assumed to be byte-for-byte identical.
+     */
+    public static String getHash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException(x);
+        }
+
+        digest.update(readBytes(path));
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest())
+            builder.append(String.format("%02x", b));
+
+        return builder.toString();
+    }
+
+    /**
+     * Removes any cached contents of the specified file.
+     */
+    public static void invalidate(Path path) {
+        cache.invalidate(path);
+    }
+
+    /**
+     * Removes the cached contents of all files.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static Decoded getDecoded(Path path) throws IOException {
+        FileTime modified = getLastModified(path);
+
+        Decoded e = cache.lookup(path, modified);
+        if (e != null) return e;
+
+        e = decode(modified, readBytes(path));
+        cache.store(path, e);
+
+        if (e.malformed) logger.fine("file contains malformed UTF-8: " + path);
+
+        return e;
+    }
+
+    private static Decoded decode(FileTime modified, ByteBuffer bytes)
+            throws CharacterCodingException
+    {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+
+        try {
+            CharBuffer chars = decoder.onMalformedInput(CodingErrorAction.REPORT)
+                                      .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                      .decode(bytes.duplicate());
+            return new Decoded(modified, chars.toString(), false);
+
+        } catch (MalformedInputException | UnmappableCharacterException x) {
+            decoder.reset();
+
+            CharBuffer chars = decoder.onMalformedInput(CodingErrorAction.REPLACE)
+                                      .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                                      .replaceWith(String.valueOf(REPLACEMENT))
+                                      .decode(bytes.duplicate());
+            return new Decoded(modified, chars.toString(), true);
+        }
+    }
+
+    /**
+     * Replaces each "\r\n" and "\r" line terminator with '\n', and makes sure that any non-empty
+     * text ends with '\n'. This matches the result of reading the text line by line with a
+     * BufferedReader and appending '\n' after each line.
+     */
+    public static String normalizeLineEndings(String text) {
+        int length = text.length();
+        boolean endsWithNewline = length > 0 && text.charAt(length - 1) == '\n';
+
+        if (text.indexOf('\r') == -1) {
+            if (length == 0 || endsWithNewline) return text;
+            return text + '\n';
+        }
+
+        StringBuilder builder = new StringBuilder(length + 1);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                builder.append('\n');
+                if (i + 1 < length && text.charAt(i + 1) == '\n') i++;
+            } else {
+                builder.append(c);
+            }
+        }
+
+        if (builder.charAt(builder.length() - 1) != '\n') builder.append('\n');
+
+        return builder.toString();
+    }
+}
@@ -8,6 +8,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -31,25 +32,26 @@ public final class Receipt {
     public static Receipt fromReceiptFile(Path path) throws IOException, ReceiptFormatException
     {
         List<Date> list = new LinkedList<>();
-        BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset());
+        SimpleDateFormat fmt = Globals.ISO8601.get();
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            Date ldt;
-            try {
-                ldt = Globals.ISO8601.parse(line);
-            } catch (ParseException e) {
-                throw new ReceiptFormatException(
-                        "receipt has invalid timestamp: " + line
-                );
-            }
+        try (BufferedReader reader = Files.newBufferedReader(path, Charset.defaultCharset())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Date ldt;
+                try {
+                    ldt = fmt.parse(line);
+                } catch (ParseException e) {
+                    throw new ReceiptFormatException(
+                            "receipt has invalid timestamp: " + line
+                    );
+                }
 
-            list.add(ldt);
+                list.add(ldt);
+            }
         }
 
         if (list.isEmpty()) throw new ReceiptFormatException("receipt file is empty");
 
-        reader.close();
         return new Receipt(list);
     }
 
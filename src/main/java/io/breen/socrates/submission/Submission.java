@@ -3,15 +3,19 @@ package io.breen.socrates.submission;
 import io.breen.socrates.Globals;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.LinkedList;
-import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * Class representing immutable objects that store the contents of a single student's submission.
- * For each actual file found on the file system, an immutable SubmittedFile object is created and
- * referenced by instances of this class.
+ * Class representing objects that store the contents of a single student's submission. For each
+ * actual file found on the file system, an immutable SubmittedFile object is created and referenced
+ * by instances of this class. (If a file changes during a grading session, its SubmittedFile is
+ * replaced; see putFile().)
  *
  * SubmittedFileWrapperNode objects are built using the requirements read from the criteria and
  * the contents of
@@ -27,16 +31,42 @@ public class Submission implements Comparable<Submission> {
 
     public final Path submissionDir;
 
+    /**
+     * The files of this submission. Since a file may be replaced (by the thread watching the
+     * submission) while other threads read this list, it is a copy-on-write list.
+     */
     public final List<SubmittedFile> files;
 
+    /**
+     * If this submission is stored inside an archive (e.g., a ZIP file containing the submissions
+     * of many students), this is the path to the archive, and submissionDir is a path on the
+     * archive's file system. Otherwise, this is null.
+     */
+    public final Path archive;
+
+    /**
+     * The directory on the default file system to which the files of an archived submission have
+     * been copied, so that tests can execute them. This is created the first time it is needed.
+     *
+     * @see #getWorkingDirectory()
+     */
+    private Path workspace;
+
     public Submission(String studentName, Path submissionDir) {
         this(studentName, submissionDir, new LinkedList<SubmittedFile>());
     }
 
     public Submission(String studentName, Path submissionDir, List<SubmittedFile> files) {
+        this(studentName, submissionDir, files, null);
+    }
+
+    public Submission(String studentName, Path submissionDir, List<SubmittedFile> files,
+                      Path archive)
+    {
         this.studentName = studentName;
         this.submissionDir = submissionDir;
-        this.files = new LinkedList<>(files);
+        this.files = new CopyOnWriteArrayList<>(files);
+        this.archive = archive;
     }
 
     /**
@@ -51,14 +81,45 @@ public class Submission implements Comparable<Submission> {
      * @throws ReceiptFormatException If a receipt file has an invalid format
      * @see Submission
      */
-    public static Submission fromDirectory(final Path directory)
+    public static Submission fromDirectory(Path directory)
+            throws IOException, ReceiptFormatException, AlreadyGradedException
+    {
+        return fromDirectory(directory, null);
+    }
+
+    /**
+     * Like fromDirectory(Path), but the directory may be stored inside the specified archive, in
+     * which case the directory must be a path on the archive's file system. Files and receipts
+     * are read directly from the archive; nothing is extracted.
+     *
+     * @see SubmissionLoader
+     */
+    public static Submission fromDirectory(Path directory, Path archive)
+            throws IOException, ReceiptFormatException, AlreadyGradedException
+    {
+        return fromDirectory(directory, archive, false);
+    }
+
+    /**
+     * Like fromDirectory(Path, Path), but if allowGraded is true, a directory containing a grade
+     * report is loaded like any other (ignoring the report and its manifest), instead of causing
+     * an AlreadyGradedException to be thrown.
+     */
+    public static Submission fromDirectory(final Path directory, Path archive,
+                                           final boolean allowGraded)
             throws IOException, ReceiptFormatException, AlreadyGradedException
     {
         if (Files.notExists(directory)) throw new IllegalArgumentException("does not exist");
 
         if (!Files.isDirectory(directory)) throw new IllegalArgumentException("not a directory");
 
-        final List<SubmittedFile> submittedFiles = new LinkedList<>();
+        /*
+         * The traversal only records what it finds. Receipts are matched to their files
+         * afterward, so that we don't need to ask the file system whether a receipt exists
+         * for every file (which is slow on network-mounted storage).
+         */
+        final Map<Path, BasicFileAttributes> found = new LinkedHashMap<>();
+        final Set<Path> receipts = new HashSet<>();
 
         try {
             Files.walkFileTree(
@@ -70,62 +131,168 @@ public class Submission implements Comparable<Submission> {
                             if (!attr.isRegularFile() || Files.isHidden(path))
                                 return FileVisitResult.CONTINUE;
 
-                            Path localPath = directory.relativize(path);
                             String fileName = path.getFileName().toString();
 
                             if (fileName.endsWith(".receipt")) {
                                 // only consider receipts when we look at a file
-                                return FileVisitResult.CONTINUE;
+                                receipts.add(path);
                             } else if (fileName.equals(Globals.DEFAULT_GRADE_FILE_NAME)) {
                                 // won't open already graded submissions
-                                throw new AlreadyGradedExceptionIO(new AlreadyGradedException());
+                                if (!allowGraded) throw new AlreadyGradedExceptionIO(
+                                        new AlreadyGradedException()
+                                );
+                            } else if (fileName.equals(Globals.DEFAULT_MANIFEST_FILE_NAME)) {
+                                // written by Socrates with the grade report
+                                return FileVisitResult.CONTINUE;
                             } else {
                                 // found a submitted file that is not a receipt
-                                SubmittedFile submittedFile;
-
-                                // TODO does this work on Windows?
-                                Path receiptPath = Paths.get(
-                                        path.toString() + ".receipt"
-                                );
-
-                                if (Files.exists(receiptPath)) {
-                                    try {
-                                        submittedFile = new SubmittedFile(
-                                                path, localPath, receiptPath
-                                        );
-                                    } catch (IOException e) {
-                                        throw e;
-                                    } catch (ReceiptFormatException e) {
-                                        throw new ReceiptFormatExceptionIO(e);
-                                    }
-                                } else {
-                                    submittedFile = new SubmittedFile(path, localPath);
-                                }
-
-                                submittedFiles.add(submittedFile);
+                                found.put(path, attr);
                             }
 
                             return FileVisitResult.CONTINUE;
                         }
                     }
             );
-        } catch (ReceiptFormatExceptionIO exc) {
-            throw exc.e;
         } catch (AlreadyGradedExceptionIO exc) {
             throw exc.e;
-        } catch (IOException exc) {
-            throw exc;
         }
 
-        return new Submission(
-                directory.getFileName().toString(), directory, submittedFiles
-        );
+        final List<SubmittedFile> submittedFiles = new LinkedList<>();
+
+        for (Map.Entry<Path, BasicFileAttributes> entry : found.entrySet()) {
+            Path path = entry.getKey();
+            Path localPath = directory.relativize(path);
+            long size = entry.getValue().size();
+
+            Path receiptPath = path.resolveSibling(path.getFileName().toString() + ".receipt");
+
+            if (receipts.contains(receiptPath))
+                submittedFiles.add(new SubmittedFile(path, localPath, size, receiptPath));
+            else
+                submittedFiles.add(new SubmittedFile(path, localPath, size, null));
+        }
+
+        // directories inside some archives have names ending in a slash
+        String studentName = directory.getFileName().toString();
+        if (studentName.endsWith("/"))
+            studentName = studentName.substring(0, studentName.length() - 1);
+
+        return new Submission(studentName, directory, submittedFiles, archive);
+    }
+
+    public boolean isArchived() {
+        return archive != null;
+    }
+
+    /**
+     * Returns a directory on the default file system containing this submission's files, which
+     * can be given to external processes (e.g., a Python interpreter) that run the student's code.
+     *
+     * For an ordinary submission, this is simply the submission directory. For a submission stored
+     * in an archive, the submitted files (but not receipts) are copied to a new directory in
+     * Socrates' temporary directory the first time this method is called, and that directory is
+     * returned from then on. The directory is deleted when Socrates exits.
+     */
+    public synchronized Path getWorkingDirectory() throws IOException {
+        if (!isArchived()) return submissionDir;
+
+        if (workspace == null) {
+            Path dest = Globals.createTempDirectory(studentName + "-");
+
+            for (SubmittedFile f : files) {
+                Path destFile = dest.resolve(f.localPath.toString());
+                Files.createDirectories(destFile.getParent());
+                Files.copy(f.fullPath, destFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            workspace = dest;
+        }
+
+        return workspace;
+    }
+
+    /**
+     * Returns the path to the specified file (which must be one of this submission's files)
+     * inside the working directory.
+     *
+     * @see #getWorkingDirectory()
+     */
+    public Path getWorkingPath(SubmittedFile file) throws IOException {
+        if (!isArchived()) return file.fullPath;
+
+        return getWorkingDirectory().resolve(file.localPath.toString());
+    }
+
+    /**
+     * Replaces the file with the same local path as the specified file (e.g., because the student
+     * resubmitted it), or adds the specified file if this submission has no such file.
+     */
+    public synchronized void putFile(SubmittedFile newFile) {
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).localPath.equals(newFile.localPath)) {
+                files.set(i, newFile);
+                return;
+            }
+        }
+
+        files.add(newFile);
+    }
+
+    /**
+     * Returns a hexadecimal SHA-1 digest of the paths and contents of all of this submission's
+     * files (but not their receipts). Two submissions with the same digest contain identical
+     * files at identical paths, so a student's code behaves the same way in either.
+     *
+     * @see io.breen.socrates.test.DependsOnlyOnSubmissionContents
+     */
+    public synchronized String getContentsHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException(x);
+        }
+
+        // the order in which the files were found must not matter
+        SortedMap<String, String> hashes = new TreeMap<>();
+        for (SubmittedFile f : files)
+            hashes.put(f.localPath.toString().replace('\\', '/'), f.hash);
+
+        for (Map.Entry<String, String> e : hashes.entrySet()) {
+            digest.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+            digest.update(e.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)0);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest())
+            builder.append(String.format("%02x", b));
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the path at which this submission's grade report should be saved by default. For an
+     * ordinary submission, the report is saved inside the submission directory. Archives are
+     * never modified; instead, reports are saved to a directory next to the archive, with one
+     * subdirectory per student.
+     */
+    public Path getDefaultGradeFilePath() {
+        if (!isArchived())
+            return submissionDir.resolve(Globals.DEFAULT_GRADE_FILE_NAME);
+
+        String archiveName = archive.getFileName().toString();
+        return archive.resolveSibling(archiveName + "-grades")
+                      .resolve(studentName)
+                      .resolve(Globals.DEFAULT_GRADE_FILE_NAME);
     }
 
     public String toString() {
         return "Submission\n" +
                 "\tstudentName=" + studentName + "\n" +
                 "\tsubmissionDir=" + submissionDir + "\n" +
+                "\tarchive=" + archive + "\n" +
                 "\tfiles=" + files;
     }
 
@@ -135,18 +302,9 @@ public class Submission implements Comparable<Submission> {
     }
 
     /**
-     * "Wrapper" exception classes so that the visitFile() method used above can throw different
-     * types of exception.
+     * "Wrapper" exception class so that the visitFile() method used above can throw a different
+     * type of exception.
      */
-    private static class ReceiptFormatExceptionIO extends IOException {
-
-        public final ReceiptFormatException e;
-
-        public ReceiptFormatExceptionIO(ReceiptFormatException e) {
-            this.e = e;
-        }
-    }
-
     private static class AlreadyGradedExceptionIO extends IOException {
 
         public final AlreadyGradedException e;
@@ -0,0 +1,213 @@
+package io.breen.socrates.submission;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Creates Submission objects from many submission directories at once. Each directory is
+ * traversed by Submission.fromDirectory() on a thread from a fixed-size pool, so that slow file
+ * systems (e.g., network-mounted storage) can be scanned with many requests in flight.
+ *
+ * Any of the specified paths may instead be an archive (a ZIP file) containing many submission
+ * directories at its top level. Archives are not extracted; each top-level directory is loaded
+ * straight from the archive's file system.
+ *
+ * Directories that could not be loaded do not stop the others from loading. Instead, the
+ * exception thrown for each such directory is recorded and can be obtained by calling
+ * getErrors().
+ *
+ * @see Submission#fromDirectory(Path)
+ */
+public class SubmissionLoader {
+
+    /**
+     * Objects implementing this interface can be notified each time a directory has been
+     * handled (either successfully or not). The loader calls this method from the thread that
+     * called load(), never from one of the pool's threads.
+     */
+    public interface ProgressListener {
+
+        void directoryLoaded(Path directory, int numLoaded, int numTotal);
+    }
+
+    public static final String[] ARCHIVE_EXTENSIONS = {"zip"};
+
+    /**
+     * Traversals mostly wait on the file system, so we use more threads than we have processors.
+     */
+    public static final int DEFAULT_NUM_THREADS = Math.max(
+            4, Runtime.getRuntime().availableProcessors() * 2
+    );
+
+    private static Logger logger = Logger.getLogger(SubmissionLoader.class.getName());
+
+    private final int numThreads;
+    private final List<Submission> submissions;
+    private final Map<Path, Exception> errors;
+
+    /**
+     * Whether submissions that have already been graded should be loaded.
+     */
+    private boolean allowGraded;
+
+    public SubmissionLoader() {
+        this(DEFAULT_NUM_THREADS);
+    }
+
+    public SubmissionLoader(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("need at least one thread");
+
+        this.numThreads = numThreads;
+        submissions = new ArrayList<>();
+        errors = new LinkedHashMap<>();
+    }
+
+    /**
+     * Causes submissions that have already been graded (i.e., that contain a grade report) to be
+     * loaded, instead of being reported as errors. This is used to grade incrementally.
+     *
+     * @see Submission#fromDirectory(Path, Path, boolean)
+     */
+    public void setAllowGraded(boolean allowGraded) {
+        this.allowGraded = allowGraded;
+    }
+
+    /**
+     * Loads every directory in the specified list, blocking until all of them have been handled.
+     * The submissions that could be loaded are returned in the same order as their directories
+     * were specified.
+     *
+     * @param listener An optional listener notified as each directory is handled (may be null)
+     *
+     * @throws InterruptedException If this thread is interrupted while waiting for the pool (e.g.,
+     * because the user cancelled loading), in which case the directories that are still being
+     * loaded are abandoned, and the pool's threads are interrupted
+     */
+    public List<Submission> load(List<Path> paths, ProgressListener listener)
+            throws InterruptedException
+    {
+        final Map<Path, Path> archives = new HashMap<>();
+        final boolean allowGraded = this.allowGraded;
+        List<Path> directories = expandArchives(paths, archives);
+
+        int total = directories.size();
+        int poolSize = Math.min(numThreads, Math.max(total, 1));
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        CompletionService<Submission> service = new ExecutorCompletionService<>(pool);
+
+        Map<Future<Submission>, Path> futures = new HashMap<>(total);
+        for (final Path dir : directories) {
+            Future<Submission> future = service.submit(
+                    new Callable<Submission>() {
+                        @Override
+                        public Submission call() throws Exception {
+                            return Submission.fromDirectory(
+                                    dir, archives.get(dir), allowGraded
+                            );
+                        }
+                    }
+            );
+
+            futures.put(future, dir);
+        }
+
+        Map<Path, Submission> loaded = new HashMap<>(total);
+
+        try {
+            for (int i = 1; i <= total; i++) {
+                Future<Submission> future = service.take();
+                Path dir = futures.get(future);
+
+                try {
+                    loaded.put(dir, future.get());
+                } catch (ExecutionException x) {
+                    Throwable cause = x.getCause();
+                    if (cause instanceof Exception) {
+                        errors.put(dir, (Exception)cause);
+                        logger.info("could not load submission '" + dir + "': " + cause);
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                }
+
+                if (listener != null) listener.directoryLoaded(dir, i, total);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (Path dir : directories) {
+            Submission s = loaded.get(dir);
+            if (s != null) submissions.add(s);
+        }
+
+        return Collections.unmodifiableList(submissions);
+    }
+
+    public static boolean looksLikeArchive(Path path) {
+        String fileName = path.getFileName().toString();
+        for (String ext : ARCHIVE_EXTENSIONS)
+            if (fileName.endsWith("." + ext)) return true;
+        return false;
+    }
+
+    /**
+     * Returns the list of directories that should be loaded, in which each archive in the
+     * specified list is replaced by the top-level directories inside it. For each of those
+     * directories, the archive it came from is added to the specified map.
+     *
+     * The archive file systems are left open, since the files they contain will be read lazily
+     * for as long as the submissions are being graded.
+     */
+    private List<Path> expandArchives(List<Path> paths, Map<Path, Path> archives) {
+        List<Path> directories = new ArrayList<>(paths.size());
+
+        for (Path path : paths) {
+            if (!looksLikeArchive(path) || !Files.isRegularFile(path)) {
+                directories.add(path);
+                continue;
+            }
+
+            try {
+                FileSystem fs = FileSystems.newFileSystem(path, (ClassLoader)null);
+
+                List<Path> inside = new ArrayList<>();
+                for (Path root : fs.getRootDirectories()) {
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                        for (Path p : stream)
+                            if (Files.isDirectory(p)) inside.add(p);
+                    }
+                }
+
+                Collections.sort(inside);
+
+                for (Path p : inside)
+                    archives.put(p, path);
+
+                directories.addAll(inside);
+                logger.info("found " + inside.size() + " submissions in archive: " + path);
+
+            } catch (IOException | ProviderNotFoundException x) {
+                errors.put(path, x);
+                logger.info("could not open archive '" + path + "': " + x);
+            }
+        }
+
+        return directories;
+    }
+
+    public List<Submission> getSubmissions() {
+        return Collections.unmodifiableList(submissions);
+    }
+
+    /**
+     * Returns a map from each directory that could not be loaded to the exception that was
+     * thrown trying to load it (e.g., an AlreadyGradedException or ReceiptFormatException).
+     */
+    public Map<Path, Exception> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+}
@@ -1,11 +1,10 @@
 package io.breen.socrates.submission;
 
-import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.*;
+import java.io.IOException;
+import java.nio.charset.MalformedInputException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.logging.Logger;
 
 /**
@@ -38,19 +37,39 @@ public class SubmittedFile {
      */
     public final Receipt receipt;
 
+    /**
+     * A digest of this file's contents, computed when this object is created. Submitted files with
+     * equal hashes have identical contents.
+     *
+     * @see FileContents#getHash(Path)
+     */
+    public final String hash;
+
     public SubmittedFile(Path fullPath, Path localPath) throws IOException {
         this.fullPath = fullPath;
         this.localPath = localPath;
         this.size = Files.size(fullPath);
         this.receipt = null;
+        this.hash = FileContents.getHash(fullPath);
     }
 
     public SubmittedFile(Path fullPath, Path localPath, Path receipt)
             throws IOException, ReceiptFormatException
+    {
+        this(fullPath, localPath, Files.size(fullPath), receipt);
+    }
+
+    /**
+     * This constructor can be used when the size of the file is already known (e.g., from the
+     * attributes obtained while walking a submission directory), to avoid asking the file system
+     * for it again.
+     */
+    public SubmittedFile(Path fullPath, Path localPath, long size, Path receipt)
+            throws IOException, ReceiptFormatException
     {
         this.fullPath = fullPath;
         this.localPath = localPath;
-        this.size = Files.size(fullPath);
+        this.size = size;
 
         Receipt r = null;
         if (receipt != null) {
@@ -58,6 +77,7 @@ public class SubmittedFile {
         }
 
         this.receipt = r;
+        this.hash = FileContents.getHash(fullPath);
     }
 
     public String toString() {
@@ -67,47 +87,32 @@ public class SubmittedFile {
                 ")";
     }
 
+    /**
+     * Returns the contents of this file decoded as UTF-8, exactly as they appear in the file. Any
+     * malformed input is replaced with U+FFFD.
+     */
     public String getContentsMixedUTF8() throws IOException {
-        FileInputStream inStream = new FileInputStream(fullPath.toFile());
-        StringBuilder builder = new StringBuilder();
-
-        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
-        byte[] buffer = new byte[1];
-        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
-
-        while (true) {
-            if (inStream.read(buffer) == -1) break;
-            wrapped.rewind();
-
-            try {
-                CharBuffer cbuf = decoder.decode(wrapped);
-                builder.append(cbuf.charAt(0));
-            } catch (MalformedInputException | UnmappableCharacterException x) {
-                builder.append("�");
-            }
-        }
-
-        return builder.toString();
+        return FileContents.getText(fullPath);
     }
 
+    /**
+     * Returns the lines of this file decoded as UTF-8, each ending with '\n'.
+     *
+     * @throws MalformedInputException If the file is not valid UTF-8
+     */
     public String getContentsUTF8() throws IOException {
-        StringBuilder builder = new StringBuilder();
-        BufferedReader reader = Files.newBufferedReader(fullPath, StandardCharsets.UTF_8);
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
-            builder.append('\n');
-        }
-
-        return builder.toString();
+        return FileContents.getLinesStrict(fullPath);
     }
 
+    /**
+     * Returns the lines of this file decoded as UTF-8, each ending with '\n'. Any malformed input
+     * is replaced with U+FFFD.
+     */
     public String getContents() throws IOException {
-        try {
-            return getContentsUTF8();
-        } catch (IOException ignored) {}
+        return FileContents.getLines(fullPath);
+    }
 
-        return getContentsMixedUTF8();
+    public FileTime getLastModified() throws IOException {
+        return FileContents.getLastModified(fullPath);
     }
 }
@@ -0,0 +1,13 @@
+package io.breen.socrates.test;
+
+/**
+ * A marker interface for Automatable tests whose outcome depends only on the contents of the
+ * target file (and on the criteria). Since such a test will always produce the same result for
+ * two files with identical contents, its result (and any notes it produces) may be computed once
+ * and shared by every submitted file with the same contents.
+ *
+ * Tests that look at anything else (e.g., a file's receipt, the other files in the submission, or
+ * the submission directory itself) must not implement this interface. In particular, tests that run
+ * the student's code should implement DependsOnlyOnSubmissionContents instead.
+ */
+public interface DependsOnlyOnContents {}
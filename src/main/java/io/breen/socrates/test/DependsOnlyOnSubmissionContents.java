@@ -0,0 +1,12 @@
+package io.breen.socrates.test;
+
+/**
+ * A marker interface for Automatable tests whose outcome depends only on the contents of the files
+ * in the target file's submission (and on the criteria). Tests that run a student's code belong
+ * here rather than in DependsOnlyOnContents, since the code may import the student's other modules
+ * or read their data files. The result of such a test may be shared by every submitted file with
+ * the same contents in a submission whose files (and their paths) are all identical.
+ *
+ * @see io.breen.socrates.submission.Submission#getContentsHash()
+ */
+public interface DependsOnlyOnSubmissionContents {}
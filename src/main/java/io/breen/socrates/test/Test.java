@@ -3,6 +3,7 @@ package io.breen.socrates.test;
 import javax.swing.*;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import java.io.Serializable;
 
 /**
  * Class representing a single test specified by the criteria. Instances of non-abstract subclasses
@@ -21,7 +22,9 @@ import javax.swing.text.Document;
  * @see io.breen.socrates.criteria.Criteria
  * @see io.breen.socrates.test.Automatable
  */
-public abstract class Test {
+public abstract class Test implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public double deduction;
     public String description;
@@ -1,5 +1,6 @@
 package io.breen.socrates.test;
 
+import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -17,7 +18,9 @@ import java.util.List;
  *
  * @see io.breen.socrates.test.Test
  */
-public class TestGroup {
+public class TestGroup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public List<Object> members = new LinkedList<>();
 
@@ -17,6 +17,8 @@ import java.util.Date;
  */
 public class LateSubmissionTest extends Test implements Automatable {
 
+    private static final long serialVersionUID = 1L;
+
     private final static SimpleDateFormat formatter = new SimpleDateFormat(
             "M/d h:mm:ss a"
     );
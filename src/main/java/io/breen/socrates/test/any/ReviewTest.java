@@ -4,6 +4,8 @@ import io.breen.socrates.test.Test;
 
 public class ReviewTest extends Test {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -0,0 +1,244 @@
+package io.breen.socrates.test.any;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.breen.socrates.Globals;
+import io.breen.socrates.test.Test;
+import io.breen.socrates.util.BytecodeCache;
+import io.breen.socrates.util.Watchdog;
+
+import javax.swing.text.Document;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived Python process (see script_host.py) that runs the scripts of script-based tests.
+ * Starting an interpreter and importing socrates.py for every test takes much longer than most
+ * scripts do, so hosts are started as they are needed and then kept running in a pool, to run
+ * the scripts of later tests. When the pool is full, the extra hosts are stopped.
+ *
+ * Requests and responses are sent as JSON objects, each preceded by its length. Each script's
+ * response is the object it sends by calling conclude() or error() in socrates.py. Any output
+ * printed by the script is read as it is printed, before the response.
+ *
+ * The host stops a script that runs longer than its time limit (along with any processes the
+ * script started). In case the host itself does not respond, a watchdog stops the host shortly
+ * after the time limit.
+ *
+ * A host stops when its standard in is closed, so hosts do not outlive this process.
+ */
+public class ScriptHost {
+
+    /**
+     * The maximum number of idle hosts that are kept running.
+     */
+    public static final int MAX_IDLE_HOSTS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * How long the watchdog waits after a script's time limit before stopping its host.
+     */
+    private static final long WATCHDOG_GRACE_PERIOD_MILLIS = 5000;
+
+    private static Logger logger = Logger.getLogger(ScriptHost.class.getName());
+
+    private static final String HOST_FILE_NAME = "script_host.py";
+    private static final String SOCRATES_FILE_NAME = "socrates.py";
+
+    private static final Deque<ScriptHost> idle = new ArrayDeque<>();
+
+    /**
+     * The directory containing the copies of script_host.py and socrates.py used by hosts.
+     */
+    private static Path hostDir;
+
+    private final Path interpreterPath;
+    private final Process process;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final ObjectMapper mapper;
+
+    /**
+     * Whether this host was stopped by the watchdog.
+     */
+    private volatile boolean timedOut;
+
+    private ScriptHost(Path interpreterPath) throws IOException {
+        this.interpreterPath = interpreterPath;
+
+        Path hostPath = getHostDir().resolve(HOST_FILE_NAME);
+
+        ProcessBuilder builder = BytecodeCache.newProcessBuilder(
+                interpreterPath, hostPath.toString()
+        );
+
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        process = builder.start();
+        out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        mapper = new ObjectMapper();
+    }
+
+    /**
+     * Runs the script at the specified path using an idle host (starting a new host if there are
+     * none), and returns the script's response. The script runs in the specified directory, and
+     * is sent the specified parameters. Output printed by the script is appended to the specified
+     * document as it is printed.
+     *
+     * The script is stopped if it takes longer than the specified number of seconds, or uses
+     * more than the specified number of seconds of CPU time. (Zero means no limit.) If the
+     * response contains a "host_error" key, the script did not conclude (e.g., because it was
+     * stopped).
+     *
+     * @throws InterruptedIOException If the host did not respond within its time limit
+     * @throws IOException If a host could not be started, or the host stopped unexpectedly
+     */
+    public static Map<String, Object> run(Path scriptPath, Path workingDir,
+                                          Map<String, Object> parameters, double timeout,
+                                          double cpuTime, Document output) throws IOException
+    {
+        final ScriptHost host = acquire();
+
+        ScheduledFuture<?> stop = null;
+        if (timeout > 0) {
+            long delay = (long)(timeout * 1000) + WATCHDOG_GRACE_PERIOD_MILLIS;
+            stop = Watchdog.schedule(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            logger.warning("script host did not respond; stopping it");
+                            host.timedOut = true;
+                            host.destroy();
+                        }
+                    }, delay
+            );
+        }
+
+        Map<String, Object> response;
+        try {
+            response = host.request(scriptPath, workingDir, parameters, timeout, cpuTime, output);
+        } catch (IOException x) {
+            host.destroy();
+
+            if (host.timedOut)
+                throw new InterruptedIOException("script timed out after " + timeout + " seconds");
+
+            throw x;
+        } finally {
+            if (stop != null) stop.cancel(false);
+        }
+
+        release(host);
+        return response;
+    }
+
+    private static ScriptHost acquire() throws IOException {
+        Path interpreterPath = Globals.interpreter.path;
+
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                ScriptHost host = idle.pop();
+
+                // hosts started with another interpreter (or that have died) are not reused
+                if (host.interpreterPath.equals(interpreterPath) && host.isAlive()) return host;
+
+                host.destroy();
+            }
+        }
+
+        logger.info("starting script host");
+        return new ScriptHost(interpreterPath);
+    }
+
+    private static void release(ScriptHost host) {
+        synchronized (idle) {
+            if (!host.timedOut && idle.size() < MAX_IDLE_HOSTS) {
+                idle.push(host);
+                return;
+            }
+        }
+
+        host.destroy();
+    }
+
+    /**
+     * Returns the directory from which hosts are run, creating it if it does not exist. The host
+     * imports socrates.py from its own directory, so both files are extracted to a new directory
+     * (rather than using files that may have been extracted by an older version of Socrates),
+     * which is deleted when Socrates exits.
+     */
+    private static synchronized Path getHostDir() throws IOException {
+        if (hostDir != null) return hostDir;
+
+        Path dir = Globals.createTempDirectory("host");
+        for (String fileName : Arrays.asList(HOST_FILE_NAME, SOCRATES_FILE_NAME)) {
+            try (InputStream is = ScriptHost.class.getClassLoader().getResourceAsStream(
+                    fileName
+            ))
+            {
+                if (is == null) throw new IOException("could not locate " + fileName);
+                Files.copy(is, dir.resolve(fileName));
+            }
+        }
+
+        hostDir = dir;
+        return hostDir;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> request(Path scriptPath, Path workingDir,
+                                        Map<String, Object> parameters, double timeout,
+                                        double cpuTime, Document output) throws IOException
+    {
+        Map<String, Object> request = new HashMap<>();
+        request.put("script", scriptPath.toAbsolutePath().toString());
+        request.put("cwd", workingDir.toAbsolutePath().toString());
+        request.put("parameters", parameters);
+        request.put("timeout", timeout);
+        request.put("cpu_time", cpuTime);
+
+        byte[] data = mapper.writeValueAsBytes(request);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+
+        while (true) {
+            byte[] frame;
+            try {
+                frame = new byte[in.readInt()];
+                in.readFully(frame);
+            } catch (EOFException x) {
+                throw new IOException("script host stopped unexpectedly");
+            }
+
+            Map<String, Object> response = mapper.readValue(frame, Map.class);
+
+            if (response.size() == 1 && response.containsKey("output")) {
+                Test.appendToDocument(output, (String)response.get("output"));
+                continue;
+            }
+
+            return response;
+        }
+    }
+
+    private boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException x) {
+            return true;
+        }
+    }
+
+    private void destroy() {
+        try {
+            out.close();
+        } catch (IOException ignored) {}
+
+        process.destroy();
+    }
+}
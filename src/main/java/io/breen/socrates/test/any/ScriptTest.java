@@ -7,15 +7,35 @@ import io.breen.socrates.file.File;
 import io.breen.socrates.submission.Submission;
 import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.test.*;
+import io.breen.socrates.util.BytecodeCache;
+import io.breen.socrates.util.Watchdog;
 
 import javax.swing.text.Document;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 public class ScriptTest extends Test implements Automatable {
 
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_TIMEOUT = 60.0;
+    public static final double DEFAULT_CPU_TIME = 30.0;
+
+    /**
+     * How long to wait for the rest of a script's output after it exits, when it is run without a
+     * script host.
+     */
+    private static final long OUTPUT_GRACE_PERIOD_MILLIS = 1000;
+
+    private static Logger logger = Logger.getLogger(ScriptTest.class.getName());
+
     /**
      * The string specifying the path to this script, relative to the "scripts" directory in a
      * criteria package. (This comes directly from the criteria file.)
@@ -28,6 +48,20 @@ public class ScriptTest extends Test implements Automatable {
      */
     public Map<String, Object> parameters = Collections.emptyMap();
 
+    /**
+     * The number of seconds the script may run before it is stopped, and the test cannot be
+     * automated. Zero means the script may run indefinitely. (This comes directly from the
+     * criteria file.)
+     */
+    public double timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * The number of seconds of CPU time the script may use before it is stopped. Zero means there
+     * is no limit. (This comes directly from the criteria file.) This limit is only enforced on
+     * systems supporting resource limits (i.e., not on Windows).
+     */
+    public double cpuTime = DEFAULT_CPU_TIME;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -54,6 +88,69 @@ public class ScriptTest extends Test implements Automatable {
         if (scriptPath == null)
             throw new AutomationFailureException("could not find script: " + path);
 
+        Path targetPath;
+        try {
+            targetPath = submission.getWorkingPath(target);
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        }
+
+        Map<String, Object> params = new HashMap<>(parameters);
+        params.put("target_full_path", targetPath.toString());
+        params.put("target_local_path", target.localPath.toString());
+        params.put("student_name", submission.studentName);
+
+        params.put("static_path", criteria.getStaticDir().toString());
+
+        Path parentDir = targetPath.getParent();
+
+        Map<String, Object> response;
+        try {
+            response = ScriptHost.run(scriptPath, parentDir, params, timeout, cpuTime, transcript);
+        } catch (InterruptedIOException x) {
+            throw new AutomationFailureException(x);
+        } catch (IOException x) {
+            logger.warning("could not run script in script host: " + x);
+            response = runInNewProcess(scriptPath, parentDir, params, transcript);
+        }
+
+        if (response.containsKey("host_error"))
+            throw new AutomationFailureException((String)response.get("host_error"));
+
+        if (isErrorResponse(response)) {
+            String errorType = (String)response.get("error_type");
+            String errorMessage = (String)response.get("error_message");
+
+            String reason = "script raised error: " + errorType + ": " + errorMessage;
+            appendToDocument(transcript, reason + "\n");
+            throw new CannotBeAutomatedException(reason);
+        }
+
+        String transcriptStr = (String)response.get("transcript");
+        if (transcriptStr != null) {
+            if (!transcriptStr.endsWith("\n")) transcriptStr += "\n";
+
+            appendToDocument(transcript, transcriptStr);
+        }
+
+        String notesStr = (String)response.get("notes");
+        if (notesStr != null) {
+            appendToDocument(notes, notesStr);
+        }
+
+        return (boolean)response.get("should_pass");
+    }
+
+    /**
+     * Runs the script in a new interpreter, which exits after the script concludes. This is only
+     * used if a script host could not be used to run the script. Output printed by the script is
+     * appended to the specified document as it is printed, and the script is stopped if it runs
+     * longer than the time limit. (The CPU time limit is not enforced.)
+     */
+    Map<String, Object> runInNewProcess(Path scriptPath, Path parentDir,
+                                        Map<String, Object> params, final Document output)
+            throws AutomationFailureException
+    {
         Path socratesPyPath;
         try {
             socratesPyPath = Globals.extractOrGetFile(Paths.get("socrates.py"));
@@ -61,12 +158,14 @@ public class ScriptTest extends Test implements Automatable {
             throw new AutomationFailureException("could not locate socrates.py");
         }
 
-        ProcessBuilder builder = new ProcessBuilder(
-                Globals.interpreter.path.toString(),
-                // turns off writing bytecode files (.py[co])
-                "-B",
-                scriptPath.toString()
-        );
+        ProcessBuilder builder;
+        try {
+            builder = BytecodeCache.newProcessBuilder(
+                    Globals.interpreter.path, scriptPath.toString()
+            );
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        }
 
         builder.redirectError(ProcessBuilder.Redirect.INHERIT);
 
@@ -78,66 +177,81 @@ public class ScriptTest extends Test implements Automatable {
         Map<String, String> env = builder.environment();
         env.put(
                 "PYTHONPATH",
-                System.getProperty("path.separator") + socratesPyPath.toString()
+                System.getProperty("path.separator") + socratesPyPath.getParent().toString()
         );
 
-        Path parentDir = target.fullPath.getParent();
         builder.directory(parentDir.toFile());
 
         ObjectMapper mapper = new ObjectMapper();
-        Process process;
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final AtomicReference<String> last = new AtomicReference<>();
+        ScheduledFuture<?> stop = null;
 
         int exitCode;
         try {
-            process = builder.start();
+            final Process process = builder.start();
+
+            if (timeout > 0) {
+                stop = Watchdog.schedule(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                timedOut.set(true);
+                                process.destroy();
+                            }
+                        }, (long)(timeout * 1000)
+                );
+            }
 
-            Map<String, Object> params = new HashMap<>(parameters);
-            params.put("target_full_path", target.fullPath.toString());
-            params.put("target_local_path", target.localPath.toString());
-            params.put("student_name", submission.studentName);
+            /*
+             * The script's output is read as it is printed (rather than after the script exits),
+             * so that a script printing more than the pipe can hold does not block forever. The
+             * response is the last line printed, by conclude() or error(). This is done on
+             * another thread, since processes started by the script may keep the pipe open after
+             * the script exits.
+             */
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)
+            );
 
-            params.put("static_path", criteria.getStaticDir().toString());
+            Thread outputReader = new Thread("script output reader") {
+                @Override
+                public void run() {
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            String previous = last.getAndSet(line);
+                            if (previous != null) appendToDocument(output, previous + "\n");
+                        }
+                    } catch (IOException ignored) {}
+                }
+            };
+
+            outputReader.setDaemon(true);
+            outputReader.start();
 
             mapper.writeValue(process.getOutputStream(), params);
 
             exitCode = process.waitFor();
+            outputReader.join(OUTPUT_GRACE_PERIOD_MILLIS);
 
         } catch (IOException | InterruptedException x) {
             throw new AutomationFailureException(x);
+        } finally {
+            if (stop != null) stop.cancel(false);
         }
 
-        if (exitCode != Globals.NORMAL_EXIT_CODE)
+        if (timedOut.get())
+            throw new AutomationFailureException("script timed out after " + timeout + " seconds");
+
+        if (exitCode != Globals.NORMAL_EXIT_CODE || last.get() == null)
             throw new AutomationFailureException("script exited abnormally");
 
-        Map<String, Object> response;
         try {
-            response = mapper.readValue(process.getInputStream(), Map.class);
+            return mapper.readValue(last.get(), Map.class);
         } catch (IOException x) {
             throw new AutomationFailureException(x);
         }
-
-        if (isErrorResponse(response)) {
-            String errorType = (String)response.get("error_type");
-            String errorMessage = (String)response.get("error_message");
-
-            String reason = "script raised error: " + errorType + ": " + errorMessage;
-            appendToDocument(transcript, reason + "\n");
-            throw new CannotBeAutomatedException(reason);
-        }
-
-        String transcriptStr = (String)response.get("transcript");
-        if (transcriptStr != null) {
-            if (!transcriptStr.endsWith("\n")) transcriptStr += "\n";
-
-            appendToDocument(transcript, transcriptStr);
-        }
-
-        String notesStr = (String)response.get("notes");
-        if (notesStr != null) {
-            appendToDocument(notes, notesStr);
-        }
-
-        return (boolean)response.get("should_pass");
     }
 
     private boolean isErrorResponse(Map<String, Object> response) {
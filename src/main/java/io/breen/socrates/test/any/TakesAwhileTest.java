@@ -13,6 +13,8 @@ import javax.swing.text.Document;
  */
 public class TakesAwhileTest extends Test implements Automatable {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -9,10 +9,13 @@ import io.breen.socrates.test.*;
 import org.codehaus.janino.JavaSourceClassLoader;
 
 import javax.swing.text.Document;
+import java.io.IOException;
 
 
 public class ClassExistsTest extends Test implements Automatable<JavaFile> {
 
+    private static final long serialVersionUID = 1L;
+
     private final Class klass;
 
     public ClassExistsTest(Class klass) {
@@ -25,10 +28,15 @@ public class ClassExistsTest extends Test implements Automatable<JavaFile> {
                               Criteria criteria, Document transcript, Document notes)
             throws CannotBeAutomatedException, AutomationFailureException
     {
+        java.io.File sourceDir;
+        try {
+            sourceDir = submission.getWorkingDirectory().toFile();
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        }
+
         ClassLoader cl = new JavaSourceClassLoader(
-                this.getClass().getClassLoader(),
-                new java.io.File[] {submission.submissionDir.toFile()},
-                null
+                this.getClass().getClassLoader(), new java.io.File[] {sourceDir}, null
         );
 
         try {
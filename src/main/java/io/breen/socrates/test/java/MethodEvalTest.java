@@ -10,6 +10,7 @@ import io.breen.socrates.test.*;
 import org.codehaus.janino.JavaSourceClassLoader;
 
 import javax.swing.text.Document;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,8 @@ import java.util.Map;
 
 public class MethodEvalTest extends Test implements Automatable<JavaFile> {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * The expected return value of the method.
      *
@@ -78,10 +81,15 @@ public class MethodEvalTest extends Test implements Automatable<JavaFile> {
         Class klass = parent.getClassForMethod(method);
         if (klass == null) throw new IllegalArgumentException();
 
+        java.io.File sourceDir;
+        try {
+            sourceDir = submission.getWorkingDirectory().toFile();
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        }
+
         ClassLoader cl = new JavaSourceClassLoader(
-                this.getClass().getClassLoader(),
-                new java.io.File[] {submission.submissionDir.toFile()},
-                null
+                this.getClass().getClassLoader(), new java.io.File[] {sourceDir}, null
         );
 
         java.lang.Class c;
@@ -9,10 +9,13 @@ import io.breen.socrates.test.*;
 import org.codehaus.janino.JavaSourceClassLoader;
 
 import javax.swing.text.Document;
+import java.io.IOException;
 
 
 public class MethodExistsTest extends Test implements Automatable<JavaFile> {
 
+    private static final long serialVersionUID = 1L;
+
     private final Method method;
 
     public MethodExistsTest(Method method) {
@@ -28,10 +31,15 @@ public class MethodExistsTest extends Test implements Automatable<JavaFile> {
         Class klass = parent.getClassForMethod(method);
         if (klass == null) throw new IllegalArgumentException();
 
+        java.io.File sourceDir;
+        try {
+            sourceDir = submission.getWorkingDirectory().toFile();
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        }
+
         ClassLoader cl = new JavaSourceClassLoader(
-                this.getClass().getClassLoader(),
-                new java.io.File[] {submission.submissionDir.toFile()},
-                null
+                this.getClass().getClassLoader(), new java.io.File[] {sourceDir}, null
         );
 
         java.lang.Class c;
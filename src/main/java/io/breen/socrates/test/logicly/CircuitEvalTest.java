@@ -3,6 +3,7 @@ package io.breen.socrates.test.logicly;
 
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.logicly.LogiclyFile;
+import io.breen.socrates.submission.FileContents;
 import io.breen.socrates.submission.Submission;
 import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.test.*;
@@ -14,14 +15,18 @@ import javax.xml.parsers.*;
 import javax.xml.xpath.*;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
-public class CircuitEvalTest extends Test implements Automatable<LogiclyFile> {
+public class CircuitEvalTest extends Test
+        implements Automatable<LogiclyFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     private static final int MAX_FILE_SIZE = 1 << 16;
     private static final XPath xpInstance;
@@ -155,7 +160,10 @@ public class CircuitEvalTest extends Test implements Automatable<LogiclyFile> {
     private org.w3c.dom.Document loadXML(Path path)
             throws IOException, DataFormatException, ParserConfigurationException, SAXException
     {
-        byte[] compressedBytes = Files.readAllBytes(path);
+        ByteBuffer buffer = FileContents.readBytes(path);
+        byte[] compressedBytes = new byte[buffer.remaining()];
+        buffer.get(compressedBytes);
+
         Inflater decompresser = new Inflater(true);
         decompresser.setInput(compressedBytes, 0, compressedBytes.length);
 
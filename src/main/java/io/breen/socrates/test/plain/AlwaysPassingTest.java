@@ -5,11 +5,16 @@ import io.breen.socrates.file.plain.PlainFile;
 import io.breen.socrates.submission.Submission;
 import io.breen.socrates.submission.SubmittedFile;
 import io.breen.socrates.test.Automatable;
+import io.breen.socrates.test.DependsOnlyOnContents;
 import io.breen.socrates.test.Test;
 
 import javax.swing.text.Document;
 
-public class AlwaysPassingTest extends Test implements Automatable<PlainFile> {
+public class AlwaysPassingTest extends Test
+        implements Automatable<PlainFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * This empty constructor is used by SnakeYAML.
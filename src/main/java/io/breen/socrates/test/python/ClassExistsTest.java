@@ -11,7 +11,11 @@ import javax.swing.text.Document;
 import java.io.IOException;
 
 
-public class ClassExistsTest extends Test implements Automatable<PythonFile> {
+public class ClassExistsTest extends Test
+        implements Automatable<PythonFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     private final Class klass;
 
@@ -27,8 +31,8 @@ public class ClassExistsTest extends Test implements Automatable<PythonFile> {
     {
         // TODO transcript
         try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-            return inspector.classExists(klass.name);
+            ModuleCatalog catalog = ModuleCatalog.get(target);
+            return catalog.hasClass(klass.name);
         } catch (IOException x) {
             throw new AutomationFailureException(x);
         } catch (PythonError x) {
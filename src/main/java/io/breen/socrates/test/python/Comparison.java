@@ -0,0 +1,55 @@
+package io.breen.socrates.test.python;
+
+/**
+ * How the Python interpreter compares a value produced by student code with the expected value of
+ * a test. In every mode, a Boolean only equals a bool, a string only equals a str, and an expected
+ * Object (see io.breen.socrates.file.python.Object) equals an instance of the class with that name
+ * whose attributes equal the fields of the Object.
+ */
+public enum Comparison {
+    /**
+     * The types must be exactly the same (e.g., 1 does not equal 1.0), as well as the values.
+     */
+    EXACT,
+
+    /**
+     * Numbers are compared by value (e.g., 1 equals 1.0), and lists and dicts by their contents.
+     */
+    EQUAL,
+
+    /**
+     * As EQUAL, but numbers need only be very close (e.g., 0.1 + 0.2 equals 0.3).
+     */
+    APPROXIMATE,
+
+    /**
+     * As EQUAL, but an expected list equals a list, tuple or set containing the same items in any
+     * order.
+     */
+    UNORDERED;
+
+    public static final Comparison DEFAULT = EQUAL;
+
+    /**
+     * Returns the comparison with the specified name (in any case), or the default comparison if
+     * the name is null.
+     *
+     * @throws IllegalArgumentException If there is no comparison with the specified name
+     */
+    public static Comparison fromName(String name) {
+        if (name == null) return DEFAULT;
+
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException x) {
+            throw new IllegalArgumentException("unknown comparison: " + name);
+        }
+    }
+
+    /**
+     * Returns the name of this comparison, as it is sent to the interpreter.
+     */
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,25 @@
+package io.breen.socrates.test.python;
+
+/**
+ * A PythonError indicating that a student's module could not be compiled (e.g., because of a
+ * SyntaxError), and so could not be imported. This is found by analyzing the module, without
+ * running it (see ModuleCatalog).
+ */
+public class CompileError extends PythonError {
+
+    /**
+     * The line (starting at 1) at which the error occurred, or 0 if it is not known.
+     */
+    public final int line;
+
+    /**
+     * The column (starting at 1) at which the error occurred, or 0 if it is not known.
+     */
+    public final int column;
+
+    public CompileError(String errorType, String errorMessage, int line, int column) {
+        super(errorType, errorMessage);
+        this.line = line;
+        this.column = column;
+    }
+}
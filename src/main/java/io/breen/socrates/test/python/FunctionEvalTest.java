@@ -1,5 +1,6 @@
 package io.breen.socrates.test.python;
 
+import io.breen.socrates.Verifiable;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.python.Function;
 import io.breen.socrates.file.python.PythonFile;
@@ -12,7 +13,11 @@ import javax.swing.text.Document;
 import java.io.IOException;
 import java.util.*;
 
-public class FunctionEvalTest extends FunctionTest implements Automatable<PythonFile> {
+public class FunctionEvalTest extends FunctionTest
+        implements Automatable<PythonFile>, DependsOnlyOnSubmissionContents, Verifiable
+{
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * The expected return value of the function (could be a standard Java object as instantiated by
@@ -36,6 +41,24 @@ public class FunctionEvalTest extends FunctionTest implements Automatable<Python
      */
     public Map<String, java.lang.Object> arguments;
 
+    /**
+     * How the return value is compared with the expected value: "exact", "equal",
+     * "approximate" or "unordered" (see Comparison). If this is null, "equal" is used.
+     */
+    public String comparison;
+
+    /**
+     * The number of seconds the student's code may run for this test, or null to use the time
+     * limit of the file.
+     */
+    public Double timeout;
+
+    /**
+     * The amount of memory (in MiB) the Python interpreter may use for this test, or null to use
+     * the memory limit of the file.
+     */
+    public Integer memoryLimit;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -59,6 +82,11 @@ public class FunctionEvalTest extends FunctionTest implements Automatable<Python
         return "function evaluation";
     }
 
+    @Override
+    public void verify() {
+        Comparison.fromName(comparison);
+    }
+
     @Override
     public boolean shouldPass(PythonFile parent, SubmittedFile target, Submission submission,
                               Criteria criteria, Document transcript, Document notes)
@@ -73,16 +101,17 @@ public class FunctionEvalTest extends FunctionTest implements Automatable<Python
 
         // TODO kwargs, if any
 
-        try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-
+        try (PythonInspector inspector = parent.newInspector(
+                target, submission.getWorkingPath(target), timeout, memoryLimit
+        ))
+        {
             appendToDocument(
                     transcript,
                     ">>> " + PythonInspector.callToString(func.name, args) + "\n"
             );
 
             Pair<Boolean, String> result = inspector.functionProduces(
-                    func.name, args, null, input, value, output
+                    func.name, args, null, input, value, output, Comparison.fromName(comparison)
             );
 
             appendToDocument(transcript, result.second + "\n");
@@ -91,6 +120,10 @@ public class FunctionEvalTest extends FunctionTest implements Automatable<Python
 
         } catch (IOException x) {
             throw new AutomationFailureException(x);
+        } catch (ResourceLimitError x) {
+            String reason = "resource limit exceeded: " + x.errorMessage;
+            appendToDocument(transcript, reason + "\n");
+            throw new CannotBeAutomatedException(reason);
         } catch (PythonError x) {
             String reason = "Python error occurred evaluating function: " + x;
             appendToDocument(transcript, reason + "\n");
@@ -10,7 +10,11 @@ import io.breen.socrates.test.*;
 import javax.swing.text.Document;
 import java.io.IOException;
 
-public class FunctionExistsTest extends FunctionTest implements Automatable<PythonFile> {
+public class FunctionExistsTest extends FunctionTest
+        implements Automatable<PythonFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     private final Function function;
 
@@ -35,8 +39,8 @@ public class FunctionExistsTest extends FunctionTest implements Automatable<Pyth
             throws CannotBeAutomatedException, AutomationFailureException
     {
         try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-            return inspector.functionExists(function.name);
+            ModuleCatalog catalog = ModuleCatalog.get(target);
+            return catalog.hasFunction(function.name);
         } catch (IOException x) {
             throw new AutomationFailureException(x);
         } catch (PythonError x) {
@@ -10,7 +10,11 @@ import io.breen.socrates.util.Pair;
 import javax.swing.text.Document;
 import java.io.IOException;
 
-public class ImportTest extends Test implements Automatable<PythonFile> {
+public class ImportTest extends Test
+        implements Automatable<PythonFile>, DependsOnlyOnSubmissionContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     public ImportTest(PythonFile file) {
         super(file.importFailureDeduction, "could not load '" + file.path + "'");
@@ -31,10 +35,30 @@ public class ImportTest extends Test implements Automatable<PythonFile> {
                               Criteria criteria, Document transcript, Document notes)
             throws CannotBeAutomatedException, AutomationFailureException
     {
+        String statement = ">>> from " + parent.getModuleName() + " import *\n";
+
         try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
+            ModuleCatalog.get(target);
+        } catch (IOException x) {
+            throw new AutomationFailureException(x);
+        } catch (CompileError x) {
+            // the module could not be compiled, so importing it would fail the same way
+            appendToDocument(transcript, statement + x.errorType + ": " + x.errorMessage + "\n");
 
-            appendToDocument(transcript, ">>> from " + parent.getModuleName() + " import *\n");
+            if (x.line > 0) {
+                String position = "line " + x.line;
+                if (x.column > 0) position += ", column " + x.column;
+                appendToDocument(notes, x.errorType + " at " + position + "\n");
+            }
+
+            return false;
+        }
+
+        try (PythonInspector inspector = parent.newInspector(
+                submission.getWorkingPath(target), null, null
+        ))
+        {
+            appendToDocument(transcript, statement);
 
             Pair<Boolean, String> result = inspector.canImportModule();
 
@@ -47,6 +71,10 @@ public class ImportTest extends Test implements Automatable<PythonFile> {
 
         } catch (IOException x) {
             throw new AutomationFailureException(x);
+        } catch (ResourceLimitError x) {
+            String reason = "resource limit exceeded: " + x.errorMessage;
+            appendToDocument(transcript, reason + "\n");
+            throw new CannotBeAutomatedException(reason);
         } catch (PythonError x) {
             // should be thrown if an error occurs with our code, not student's
             String reason = "Python error occurred importing module: " + x;
@@ -1,6 +1,6 @@
 package io.breen.socrates.test.python;
 
-
+import io.breen.socrates.Verifiable;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.python.*;
 import io.breen.socrates.file.python.Object;
@@ -13,7 +13,11 @@ import javax.swing.text.Document;
 import java.io.IOException;
 import java.util.*;
 
-public class MethodEvalTest extends MethodTest implements Automatable<PythonFile> {
+public class MethodEvalTest extends MethodTest
+        implements Automatable<PythonFile>, DependsOnlyOnSubmissionContents, Verifiable
+{
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * The expected return value of the method (could be a standard Java object as instantiated by
@@ -49,6 +53,28 @@ public class MethodEvalTest extends MethodTest implements Automatable<PythonFile
      */
     public Object after;
 
+    /**
+     * How the return value and the called object are compared with the expected values: "exact",
+     * "equal", "approximate" or "unordered" (see Comparison). If this is null, "equal" is used.
+     */
+    public String comparison;
+
+    /**
+     * The number of seconds the student's code may run for this test, or null to use the time
+     * limit of the file.
+     */
+    public Double timeout;
+
+    /**
+     * The amount of memory (in MiB) the Python interpreter may use for this test, or null to use
+     * the memory limit of the file.
+     */
+    public Integer memoryLimit;
+
+    @Override
+    public void verify() {
+        Comparison.fromName(comparison);
+    }
 
     @Override
     public boolean shouldPass(PythonFile parent, SubmittedFile target, Submission submission,
@@ -66,9 +92,10 @@ public class MethodEvalTest extends MethodTest implements Automatable<PythonFile
 
         // TODO kwargs, if any
 
-        try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-
+        try (PythonInspector inspector = parent.newInspector(
+                target, submission.getWorkingPath(target), timeout, memoryLimit
+        ))
+        {
             if (before != null) {
                 appendToDocument(
                         transcript, ">>> obj = " + PythonInspector.toPythonString(before) + "\n"
@@ -81,7 +108,8 @@ public class MethodEvalTest extends MethodTest implements Automatable<PythonFile
             );
 
             Pair<Boolean, String> result = inspector.methodProduces(
-                    m.name, before, args, null, input, after, value, output
+                    m.name, before, args, null, input, after, value, output,
+                    Comparison.fromName(comparison)
             );
 
             if (!result.second.isEmpty()) appendToDocument(transcript, result.second + "\n");
@@ -90,6 +118,10 @@ public class MethodEvalTest extends MethodTest implements Automatable<PythonFile
 
         } catch (IOException x) {
             throw new AutomationFailureException(x);
+        } catch (ResourceLimitError x) {
+            String reason = "resource limit exceeded: " + x.errorMessage;
+            appendToDocument(transcript, reason + "\n");
+            throw new CannotBeAutomatedException(reason);
         } catch (PythonError x) {
             String reason = "Python error occurred evaluating function: " + x;
             appendToDocument(transcript, reason + "\n");
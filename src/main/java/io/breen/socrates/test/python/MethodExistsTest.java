@@ -11,7 +11,11 @@ import javax.swing.text.Document;
 import java.io.IOException;
 
 
-public class MethodExistsTest extends MethodTest implements Automatable<PythonFile> {
+public class MethodExistsTest extends MethodTest
+        implements Automatable<PythonFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     private final Method method;
 
@@ -30,8 +34,8 @@ public class MethodExistsTest extends MethodTest implements Automatable<PythonFi
         if (klass == null) throw new IllegalArgumentException();
 
         try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-            return inspector.methodExists(klass.name, method.name);
+            ModuleCatalog catalog = ModuleCatalog.get(target);
+            return catalog.hasMethod(klass.name, method.name);
         } catch (IOException x) {
             throw new AutomationFailureException(x);
         } catch (PythonError x) {
@@ -0,0 +1,332 @@
+package io.breen.socrates.test.python;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.breen.socrates.Globals;
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.file.File;
+import io.breen.socrates.file.python.PythonFile;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.util.BytecodeCache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Every class (with its methods), function and variable defined by a student's Python module.
+ *
+ * The catalogs used by tests are found by analyzing the source code of the modules (see
+ * analyzer.py), without importing them, so a module's top-level code (which may wait for input, or
+ * never finish) is not run just to find whether a function exists. Many modules are analyzed by a
+ * single interpreter (see analyzeAll()), and the catalog of each distinct version of a module is
+ * kept, so existence tests are answered without starting an interpreter at all. Modules are only
+ * imported by tests that must run the student's code.
+ *
+ * @see io.breen.socrates.test.DependsOnlyOnContents
+ */
+public class ModuleCatalog {
+
+    /**
+     * The parameters of a function or method.
+     */
+    public static class Signature {
+
+        /**
+         * The names of the parameters (for a method, including self).
+         */
+        public final List<String> parameters;
+
+        /**
+         * The number of parameters that do not have default values.
+         */
+        public final int numRequired;
+
+        /**
+         * Whether the function accepts any number of extra arguments (i.e., *args).
+         */
+        public final boolean varargs;
+
+        @SuppressWarnings("unchecked")
+        private Signature(Map<String, Object> map) {
+            parameters = Collections.unmodifiableList((List<String>)map.get("parameters"));
+            numRequired = ((Number)map.get("required")).intValue();
+            varargs = Boolean.TRUE.equals(map.get("varargs"));
+        }
+
+        /**
+         * Returns whether the function can be called with the specified number of positional
+         * arguments.
+         */
+        public boolean accepts(int numArgs) {
+            return numArgs >= numRequired && (varargs || numArgs <= parameters.size());
+        }
+    }
+
+    /**
+     * The maximum number of catalogs that are kept.
+     */
+    private static final int MAX_CACHED_CATALOGS = 4096;
+
+    private static Logger logger = Logger.getLogger(ModuleCatalog.class.getName());
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The catalog (or the error that occurred compiling the module) for each hash of a module's
+     * contents, least recently used first.
+     */
+    private static final Map<String, Object> cache = new LinkedHashMap<String, Object>(
+            16, 0.75f, true
+    )
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_CACHED_CATALOGS;
+        }
+    };
+
+    public final Map<String, Map<String, Signature>> classes;
+    public final Map<String, Signature> functions;
+    public final Set<String> variables;
+
+    /**
+     * Creates a catalog from the result of analyzing a module (see analyzer.py).
+     */
+    @SuppressWarnings("unchecked")
+    ModuleCatalog(Map<String, Object> map) {
+        Map<String, Map<String, Signature>> classes = new HashMap<>();
+        Map<String, Object> classMaps = (Map)map.get("classes");
+        for (Map.Entry<String, Object> e : classMaps.entrySet())
+            classes.put(e.getKey(), toSignatures(e.getValue()));
+
+        this.classes = Collections.unmodifiableMap(classes);
+        functions = toSignatures(map.get("functions"));
+        variables = Collections.unmodifiableSet(
+                new HashSet<>((List<String>)map.get("variables"))
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Signature> toSignatures(Object maps) {
+        Map<String, Signature> signatures = new HashMap<>();
+        for (Map.Entry<String, Map> e : ((Map<String, Map>)maps).entrySet())
+            signatures.put(e.getKey(), new Signature(e.getValue()));
+
+        return Collections.unmodifiableMap(signatures);
+    }
+
+    /**
+     * Returns the catalog of the specified submitted module. The module is analyzed where it was
+     * submitted (e.g., inside an archive), so this never copies an archived submission's files to
+     * its working directory.
+     *
+     * @see #get(Path, String)
+     */
+    public static ModuleCatalog get(SubmittedFile target) throws IOException, CompileError {
+        return get(target.fullPath, target.hash);
+    }
+
+    /**
+     * Returns the catalog of the module at the specified path (on any file system), whose
+     * contents have the specified hash. If a module with the same contents was already analyzed,
+     * its catalog is returned (or, if the module could not be compiled, the same error is thrown
+     * again) without reading the module or starting an interpreter.
+     *
+     * @throws IOException If the module could not be read, or a low-level error occurs
+     * communicating with the interpreter
+     * @throws CompileError If the module could not be compiled (e.g., a SyntaxError)
+     */
+    public static ModuleCatalog get(Path modulePath, String hash)
+            throws IOException, CompileError
+    {
+        Object cached;
+        synchronized (cache) {
+            cached = cache.get(hash);
+        }
+
+        if (cached == null) {
+            analyze(Collections.singletonMap(modulePath, hash));
+
+            synchronized (cache) {
+                cached = cache.get(hash);
+            }
+
+            if (cached == null) throw new IOException("could not analyze " + modulePath);
+        }
+
+        if (cached instanceof CompileError) throw (CompileError)cached;
+
+        return (ModuleCatalog)cached;
+    }
+
+    /**
+     * Analyzes every submitted file of the specified submissions that matches a Python file in
+     * the criteria (and has not already been analyzed), using a single interpreter. This should
+     * be called as soon as the submissions are loaded, so that the files that cannot be compiled
+     * fail their import tests (and their other tests are not run) without starting interpreters.
+     * Returns the number of modules that were analyzed.
+     *
+     * The modules of archived submissions are read from their archives and sent to the analyzer,
+     * rather than being copied to working directories, so their bytecode is not compiled ahead of
+     * time (see analyzer.py).
+     */
+    public static int analyzeAll(Criteria criteria, List<Submission> submissions)
+            throws IOException
+    {
+        Map<Path, String> modules = new LinkedHashMap<>();
+        Set<String> hashes = new HashSet<>();
+
+        for (Submission submission : submissions) {
+            for (SubmittedFile submittedFile : submission.files) {
+                File matchingFile = criteria.getFileByLocalPath(submittedFile.localPath);
+                if (!(matchingFile instanceof PythonFile)) continue;
+
+                synchronized (cache) {
+                    if (cache.containsKey(submittedFile.hash)) continue;
+                }
+
+                if (hashes.add(submittedFile.hash))
+                    modules.put(submittedFile.fullPath, submittedFile.hash);
+            }
+        }
+
+        if (!modules.isEmpty()) analyze(modules);
+
+        return modules.size();
+    }
+
+    /**
+     * Analyzes the modules at the specified paths, keeping the catalog of each module (or the
+     * error that occurred compiling it) by the hash of its contents. The analyzer reads modules
+     * on the default file system itself; the contents of other modules (e.g., inside archives)
+     * are read here and sent to it.
+     */
+    @SuppressWarnings("unchecked")
+    private static void analyze(final Map<Path, String> modules) throws IOException {
+        Path analyzerPath = Globals.extractOrGetFile(Paths.get("analyzer.py"));
+
+        if (analyzerPath == null) throw new RuntimeException("could not locate analyzer.py");
+
+        ProcessBuilder builder = BytecodeCache.newProcessBuilder(
+                Globals.interpreter.path, analyzerPath.toString()
+        );
+
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Process process = builder.start();
+
+        /*
+         * The modules are written by another thread, so that the interpreter is never blocked
+         * writing results that we are not yet reading.
+         */
+        final OutputStream os = process.getOutputStream();
+        Thread writer = new Thread("module writer") {
+            @Override
+            public void run() {
+                try (OutputStream out = new BufferedOutputStream(os)) {
+                    for (Map.Entry<Path, String> e : modules.entrySet()) {
+                        Map<String, Object> request = toRequest(e.getKey(), e.getValue());
+                        if (request == null) continue;
+
+                        out.write(mapper.writeValueAsBytes(request));
+                        out.write('\n');
+                    }
+                } catch (IOException x) {
+                    logger.warning("could not send modules to analyzer: " + x);
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
+        int numAnalyzed = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8
+        )))
+        {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Map<String, Object> result = mapper.readValue(line, Map.class);
+
+                String hash = (String)result.get("key");
+                if (hash == null) continue;
+
+                Object cached;
+                if (result.containsKey("io_error")) {
+                    logger.warning("could not analyze " + hash + ": " + result.get("io_error"));
+                    continue;
+                } else if (result.containsKey("error_type")) {
+                    cached = new CompileError(
+                            (String)result.get("error_type"),
+                            (String)result.get("error_message"),
+                            toInt(result.get("line")),
+                            toInt(result.get("column"))
+                    );
+                } else {
+                    cached = new ModuleCatalog((Map<String, Object>)result.get("catalog"));
+                }
+
+                synchronized (cache) {
+                    cache.put(hash, cached);
+                }
+
+                numAnalyzed++;
+            }
+        }
+
+        logger.fine("analyzed " + numAnalyzed + " of " + modules.size() + " modules");
+    }
+
+    /**
+     * Returns the request to analyze the module at the specified path: its path, if the analyzer
+     * can read it, or else its name and contents. Returns null if the module cannot be read.
+     */
+    private static Map<String, Object> toRequest(Path path, String hash) {
+        Map<String, Object> request = new HashMap<>();
+        request.put("key", hash);
+
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            request.put("path", path.toString());
+            return request;
+        }
+
+        try {
+            // Jackson writes the contents in Base64
+            request.put("name", path.getFileName().toString());
+            request.put("source", Files.readAllBytes(path));
+            return request;
+
+        } catch (IOException x) {
+            logger.warning("could not read " + path + ": " + x);
+            return null;
+        }
+    }
+
+    private static int toInt(Object number) {
+        return number instanceof Number ? ((Number)number).intValue() : 0;
+    }
+
+    public boolean hasVariable(String name) {
+        return variables.contains(name);
+    }
+
+    public boolean hasFunction(String name) {
+        return functions.containsKey(name);
+    }
+
+    public boolean hasClass(String name) {
+        return classes.containsKey(name);
+    }
+
+    /**
+     * Returns whether the class with the specified name exists and has a method with the
+     * specified name (defined by the class or inherited).
+     */
+    public boolean hasMethod(String className, String methodName) {
+        Map<String, Signature> methods = classes.get(className);
+        return methods != null && methods.containsKey(methodName);
+    }
+}
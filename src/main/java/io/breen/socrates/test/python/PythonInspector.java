@@ -1,22 +1,120 @@
 package io.breen.socrates.test.python;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import io.breen.socrates.Globals;
 import io.breen.socrates.file.python.Object;
+import io.breen.socrates.file.python.PythonFile;
+import io.breen.socrates.util.BytecodeCache;
 import io.breen.socrates.util.Pair;
+import io.breen.socrates.util.Watchdog;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a student's Python module using a separate Python interpreter (see tester.py). The
+ * module is imported once, when the first request is handled.
+ *
+ * Requests and responses are JSON objects sent in binary frames, each with a header containing
+ * the payload's length, the ID of the request and the payload's kind. Payloads larger than
+ * LARGE_PAYLOAD_SIZE (e.g., requests or responses containing large lists) are written to a
+ * temporary file, which the receiver maps into memory and deletes, rather than being sent through
+ * the pipe. Since responses carry the ID of their request, several threads may send requests
+ * before any of the responses are read.
+ *
+ * The interpreter exits when the inspector is closed.
+ */
+public class PythonInspector implements Closeable {
+
+    /**
+     * Payloads larger than this number of bytes are sent in a file, rather than through the pipe.
+     */
+    public static final int LARGE_PAYLOAD_SIZE = 1024 * 1024;
+
+    private static final byte PAYLOAD_INLINE = 0;
+    private static final byte PAYLOAD_FILE = 1;
+
+    /**
+     * Encodes and decodes every request and response (ObjectMapper is thread-safe).
+     */
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * How long after the time limit the interpreter is stopped, if it has not already stopped
+     * itself.
+     */
+    private static final long WATCHDOG_GRACE_PERIOD_MILLIS = 2000;
+
+    /**
+     * How long the interpreter is given to exit once its standard in is closed, before it is
+     * stopped (e.g., because a thread started by the student's code keeps it running).
+     */
+    private static final long EXIT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The exit code of a process killed by SIGXCPU (i.e., when the CPU time limit is exceeded).
+     */
+    private static final int CPU_LIMIT_EXIT_CODE = 128 + 24;
+
+    /**
+     * The key identifying an expected Object sent to the interpreter (see tester.py).
+     */
+    private static final String OBJECT_TAG = "!python:object";
 
-public class PythonInspector {
     private final String moduleName;
     private final ProcessBuilder builder;
     private final Process process;
+    private final double timeout;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+
+    /**
+     * Responses read while waiting for the response to another request, by request ID.
+     */
+    private final Map<Integer, Map<String, java.lang.Object>> responses = new HashMap<>();
 
+    /**
+     * The number of requests that have been sent, but not answered. (Guarded by this.)
+     */
+    private int numPending;
+
+    /**
+     * Stops the interpreter if the request it is handling takes too long. (Guarded by this.)
+     */
+    private ScheduledFuture<?> stop;
+
+    /**
+     * Whether the interpreter was stopped because it exceeded the time limit.
+     */
+    private final AtomicBoolean timedOut = new AtomicBoolean();
+
+    /**
+     * Creates an inspector for the module at the specified path, with the default limits of a
+     * PythonFile.
+     */
     public PythonInspector(Path targetModulePath) throws IOException {
+        this(targetModulePath, PythonFile.DEFAULT_TIMEOUT, PythonFile.DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Creates an inspector for the module at the specified path, starting a new interpreter. The
+     * interpreter stops itself if the student's code takes longer than the specified number of
+     * seconds, or uses more than the specified number of MiB of memory (zero means no limit).
+     * If it does not, it is stopped shortly after the time limit.
+     */
+    public PythonInspector(Path targetModulePath, double timeout, int memoryLimit)
+            throws IOException
+    {
         if (!Files.isRegularFile(targetModulePath))
             throw new IllegalArgumentException("module path must be a path to a file");
 
@@ -29,11 +127,14 @@ public class PythonInspector {
         if (testerPath == null)
             throw new RuntimeException("could not locate tester.py");
 
-        builder = new ProcessBuilder(
-                Globals.interpreter.path.toString(),
-                // turns off writing bytecode files (.py[co])
-                "-B",
-                testerPath.toString()
+        this.timeout = timeout;
+
+        builder = BytecodeCache.newProcessBuilder(
+                Globals.interpreter.path,
+                testerPath.toString(),
+                Double.toString(timeout),
+                Integer.toString(memoryLimit),
+                getPayloadDir().toString()
         );
 
         builder.redirectError(ProcessBuilder.Redirect.INHERIT);
@@ -54,75 +155,52 @@ public class PythonInspector {
         builder.directory(parentDir.toFile());
 
         process = builder.start();
+        out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
     }
 
-    private static boolean equals(java.lang.Object expected, ResultObject other) {
-        if (expected == null) {
-            return other.value == null;
-
-        } else if (expected instanceof Boolean) {
-            Boolean b = (Boolean)expected;
-
-            if (other == null || !other.type.equals("bool")) return false;
-
-            return b.equals(other.value);
-
-        } else if (expected instanceof Number) {
-            Double expectedDouble = ((Number)expected).doubleValue();
-
-            if (other == null || (!other.type.equals("int") && !other.type.equals("float")))
-                return false;
-
-            Number otherNumber = (Number)other.value;
-            Double otherDouble = otherNumber.doubleValue();
-
-            return expectedDouble.equals(otherDouble);
-
-        } else if (expected instanceof String) {
-            String s = (String)expected;
-
-            if (other == null || !other.type.equals("str")) return false;
-
-            return s.equals(other.value);
-
-        } else if (expected instanceof List) {
-            List list = (List)expected;
-
-            if (other == null || !other.type.equals("list")) return false;
-
-            if (!(other.value instanceof List)) return false;
-
-            List otherList = (List)other.value;
-
-            return list.equals(otherList);
-
-        } else if (expected.getClass().isArray()) {
-            java.lang.Object[] arr = (java.lang.Object[])expected;
+    private static Path getPayloadDir() throws IOException {
+        Path dir = Globals.getTempPath("payloads");
+        Files.createDirectories(dir);
+        return dir;
+    }
 
-            if (other == null || !other.type.equals("list")) return false;
+    /**
+     * Converts an expected value to the value sent to the interpreter, which compares it with the
+     * value produced by the student's code. Objects are sent as maps with the OBJECT_TAG key, and
+     * arrays as lists.
+     */
+    private static java.lang.Object toExpectedValue(java.lang.Object expected) {
+        if (expected instanceof Object) {
+            Object pyObj = (Object)expected;
 
-            if (!(other.value instanceof List)) return false;
+            Map<String, java.lang.Object> map = new HashMap<>();
+            map.put(OBJECT_TAG, pyObj.type.typeName);
+            Map<String, java.lang.Object> fields = pyObj.fields;
+            if (fields == null) fields = new HashMap<>();
 
-            List otherList = (List)other.value;
+            map.put("fields", toExpectedValue(fields));
+            return map;
 
-            if (arr.length != otherList.size()) return false;
+        } else if (expected instanceof List || expected instanceof java.lang.Object[]) {
+            Collection<?> items = expected instanceof List ?
+                    (List<?>)expected : Arrays.asList((java.lang.Object[])expected);
 
-            for (int i = 0; i < arr.length; i++)
-                if (!arr[i].equals(otherList.get(i))) return false;
+            List<java.lang.Object> list = new ArrayList<>(items.size());
+            for (java.lang.Object item : items)
+                list.add(toExpectedValue(item));
 
-            return true;
+            return list;
 
         } else if (expected instanceof Map) {
-            Map map = (Map)expected;
-
-            if (other == null || !other.type.equals("dict")) return false;
+            Map<java.lang.Object, java.lang.Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)expected).entrySet())
+                map.put(entry.getKey(), toExpectedValue(entry.getValue()));
 
-            if (!(other.value instanceof Map)) return false;
-
-            return map.equals(other.value);
+            return map;
         }
 
-        throw new IllegalArgumentException();
+        return expected;
     }
 
     private static boolean isPrimitive(java.lang.Object object) {
@@ -237,17 +315,189 @@ public class PythonInspector {
     }
 
     private PythonError errorFromResponse(Map<String, java.lang.Object> response) {
-        return new PythonError(
-                (String)response.get("error_type"), (String)response.get("error_message")
+        String errorType = (String)response.get("error_type");
+        String errorMessage = (String)response.get("error_message");
+
+        if (ResourceLimitError.isLimitErrorType(errorType))
+            return new ResourceLimitError(errorType, errorMessage);
+
+        return new PythonError(errorType, errorMessage);
+    }
+
+    /**
+     * Sends a request to the interpreter, and waits for the response. If the interpreter was
+     * stopped before it could respond because it exceeded the time limit, this method throws a
+     * ResourceLimitError.
+     */
+    private Map<String, java.lang.Object> call(Map<String, java.lang.Object> request)
+            throws IOException, PythonError
+    {
+        try {
+            return receive(send(request));
+
+        } catch (EOFException x) {
+            boolean cpuLimitExceeded = false;
+            try {
+                cpuLimitExceeded = process.waitFor() == CPU_LIMIT_EXIT_CODE;
+            } catch (InterruptedException ignored) {}
+
+            if (timedOut.get() || cpuLimitExceeded)
+                throw new ResourceLimitError(
+                        ResourceLimitError.TIME_LIMIT_EXCEEDED,
+                        "student code ran longer than " + timeout + " seconds"
+                );
+
+            throw new IOException("interpreter exited unexpectedly", x);
+        }
+    }
+
+    /**
+     * Sends a request to the interpreter, and returns the ID of the request.
+     */
+    private int send(Map<String, java.lang.Object> request) throws IOException {
+        int id = nextRequestId.incrementAndGet();
+        byte[] payload = mapper.writeValueAsBytes(request);
+        byte kind = PAYLOAD_INLINE;
+
+        if (payload.length > LARGE_PAYLOAD_SIZE) {
+            Path path = Files.createTempFile(getPayloadDir(), "request", ".json");
+            Files.write(path, payload);
+
+            payload = path.toString().getBytes(StandardCharsets.UTF_8);
+            kind = PAYLOAD_FILE;
+        }
+
+        synchronized (this) {
+            if (numPending++ == 0) startWatchdog();
+        }
+
+        synchronized (out) {
+            out.writeInt(payload.length);
+            out.writeInt(id);
+            out.writeByte(kind);
+            out.write(payload);
+            out.flush();
+        }
+
+        return id;
+    }
+
+    /**
+     * Waits for the response to the request with the specified ID. Responses to other requests
+     * read in the meantime are kept for the threads waiting for them.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, java.lang.Object> receive(int id) throws IOException {
+        synchronized (in) {
+            while (true) {
+                synchronized (responses) {
+                    Map<String, java.lang.Object> response = responses.remove(id);
+                    if (response != null) return response;
+                }
+
+                int length = in.readInt();
+                int responseId = in.readInt();
+                byte kind = in.readByte();
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                Map<String, java.lang.Object> response;
+                if (kind == PAYLOAD_FILE) {
+                    Path path = Paths.get(new String(payload, StandardCharsets.UTF_8));
+
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        MappedByteBuffer buffer = channel.map(
+                                FileChannel.MapMode.READ_ONLY, 0, channel.size()
+                        );
+                        response = mapper.readValue(
+                                new ByteBufferBackedInputStream(buffer), Map.class
+                        );
+                    } finally {
+                        Files.deleteIfExists(path);
+                    }
+
+                } else {
+                    response = mapper.readValue(payload, Map.class);
+                }
+
+                synchronized (this) {
+                    // there is no watchdog without a time limit
+                    if (stop != null) stop.cancel(false);
+                    if (--numPending > 0) startWatchdog();
+                }
+
+                if (responseId == id) return response;
+
+                synchronized (responses) {
+                    responses.put(responseId, response);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the interpreter shortly after the time limit, unless it responds to the request it is
+     * handling first. (The interpreter handles one request at a time, so the watchdog is started
+     * again after each response, if there are more requests pending.)
+     */
+    private void startWatchdog() {
+        if (timeout <= 0) return;
+
+        stop = Watchdog.schedule(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        timedOut.set(true);
+                        process.destroy();
+                    }
+                }, (long)(timeout * 1000) + WATCHDOG_GRACE_PERIOD_MILLIS
         );
     }
 
-    private ResultObject toPythonObject(Map<String, java.lang.Object> response) {
-        return new ResultObject(response.get("value"), (String)response.get("type"));
+    /**
+     * Closes the interpreter's standard in, after which it exits. If it has not exited shortly
+     * afterwards, it is stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (stop != null) stop.cancel(false);
+        }
+
+        try {
+            out.close();
+        } finally {
+            if (!waitForExit(EXIT_TIMEOUT_MILLIS)) process.destroy();
+        }
+    }
+
+    /**
+     * Waits up to the specified time for the interpreter to exit, returning whether it did.
+     */
+    private boolean waitForExit(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException x) {
+                // the process has not exited yet
+            }
+
+            if (System.currentTimeMillis() >= deadline) return false;
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
     }
 
     public boolean variableExists(String variableName) throws IOException, PythonError {
-        ObjectMapper mapper = new ObjectMapper();
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "exists");
 
@@ -257,12 +507,7 @@ public class PythonInspector {
 
         request.put("target", targetMap);
 
-        mapper.writeValue(process.getOutputStream(), request);
-
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
@@ -272,7 +517,21 @@ public class PythonInspector {
     public boolean variableEquals(String variableName, java.lang.Object value)
             throws IOException, PythonError
     {
-        ObjectMapper mapper = new ObjectMapper();
+        return variableEquals(variableName, value, Comparison.DEFAULT);
+    }
+
+    /**
+     * Asks the Python interpreter to compare the value of a variable with the specified value,
+     * using the specified comparison. Only the result of the comparison is sent back.
+     *
+     * @return true if the variable has the specified value, false otherwise
+     *
+     * @throws IOException If a low-level error occurs communicating with the interpreter
+     * @throws PythonError If Python exits with an error
+     */
+    public boolean variableEquals(String variableName, java.lang.Object value,
+                                  Comparison comparison) throws IOException, PythonError
+    {
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "eval");
 
@@ -282,16 +541,17 @@ public class PythonInspector {
 
         request.put("target", targetMap);
 
-        mapper.writeValue(process.getOutputStream(), request);
+        Map<String, java.lang.Object> parametersMap = new HashMap<>();
+        parametersMap.put("expected", toExpectedValue(value));
+        parametersMap.put("comparison", comparison.getName());
 
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        request.put("parameters", parametersMap);
+
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
-        return equals(value, toPythonObject(response));
+        return Boolean.TRUE.equals(response.get("matches"));
     }
 
     /**
@@ -306,16 +566,10 @@ public class PythonInspector {
      * @throws PythonError If Python exits with an error (in our code, not the student's)
      */
     public Pair<Boolean, String> canImportModule() throws IOException, PythonError {
-        ObjectMapper mapper = new ObjectMapper();
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "load");
 
-        mapper.writeValue(process.getOutputStream(), request);
-
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) {
             throw errorFromResponse(response);
@@ -340,7 +594,6 @@ public class PythonInspector {
      * @throws PythonError If Python exits with an error
      */
     public boolean functionExists(String functionName) throws IOException, PythonError {
-        ObjectMapper mapper = new ObjectMapper();
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "exists");
 
@@ -350,12 +603,7 @@ public class PythonInspector {
 
         request.put("target", targetMap);
 
-        mapper.writeValue(process.getOutputStream(), request);
-
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
@@ -371,7 +619,6 @@ public class PythonInspector {
      * @throws PythonError If Python exits with an error
      */
     public boolean classExists(String className) throws IOException, PythonError {
-        ObjectMapper mapper = new ObjectMapper();
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "exists");
 
@@ -381,12 +628,7 @@ public class PythonInspector {
 
         request.put("target", targetMap);
 
-        mapper.writeValue(process.getOutputStream(), request);
-
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
@@ -406,7 +648,6 @@ public class PythonInspector {
     public boolean methodExists(String className, String functionName)
             throws IOException, PythonError
     {
-        ObjectMapper mapper = new ObjectMapper();
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "exists");
 
@@ -417,12 +658,7 @@ public class PythonInspector {
 
         request.put("target", targetMap);
 
-        mapper.writeValue(process.getOutputStream(), request);
-
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
@@ -447,7 +683,24 @@ public class PythonInspector {
                                                   String input, java.lang.Object returnValue,
                                                   String output) throws IOException, PythonError
     {
-        return methodProduces(functionName, null, args, kwargs, input, null, returnValue, output);
+        return functionProduces(
+                functionName, args, kwargs, input, returnValue, output, Comparison.DEFAULT
+        );
+    }
+
+    /**
+     * Like functionProduces(), but compares the return value with the expected value using the
+     * specified comparison.
+     */
+    public Pair<Boolean, String> functionProduces(String functionName, List<java.lang.Object> args,
+                                                  Map<String, java.lang.Object> kwargs,
+                                                  String input, java.lang.Object returnValue,
+                                                  String output, Comparison comparison)
+            throws IOException, PythonError
+    {
+        return methodProduces(
+                functionName, null, args, kwargs, input, null, returnValue, output, comparison
+        );
     }
 
     /**
@@ -459,6 +712,12 @@ public class PythonInspector {
      * (if any), followed by the newline character, and the string representation of the return
      * value (i.e., as if the function were evaluated on the Python REPL).
      *
+     * The output is compared with the expected output by the interpreter, as it is produced. If
+     * the output is very long, only its beginning and end are included in the string returned.
+     * Likewise, the return value and the called object are compared with the expected values by
+     * the interpreter (using the specified comparison), and only the repr() of the return value
+     * (abbreviated, if the value is large) is sent back.
+     *
      * @return A pair indicating whether the expected value is the same
      *
      * @throws IOException If a low-level error occurs communicating with the interpreter
@@ -470,7 +729,23 @@ public class PythonInspector {
                                                 Object after, java.lang.Object returnValue,
                                                 String output) throws IOException, PythonError
     {
-        ObjectMapper mapper = new ObjectMapper();
+        return methodProduces(
+                methodName, before, args, kwargs, input, after, returnValue, output,
+                Comparison.DEFAULT
+        );
+    }
+
+    /**
+     * Like methodProduces(), but compares the return value and the called object with the expected
+     * values using the specified comparison.
+     */
+    public Pair<Boolean, String> methodProduces(String methodName, Object before,
+                                                List<java.lang.Object> args,
+                                                Map<String, java.lang.Object> kwargs, String input,
+                                                Object after, java.lang.Object returnValue,
+                                                String output, Comparison comparison)
+            throws IOException, PythonError
+    {
         Map<String, java.lang.Object> request = newRequestMap();
         request.put("type", "eval");
 
@@ -521,6 +796,9 @@ public class PythonInspector {
         if (kwargs != null && !kwargs.isEmpty()) parametersMap.put("kwargs", kwargs);
         if (input != null) parametersMap.put("input", input);
 
+        // the interpreter compares the output as it is printed, and only sends part of it back
+        if (output != null) parametersMap.put("expected_output", output);
+
         if (before != null) {
             Map<String, java.lang.Object> beforeMap = new HashMap<>();
             beforeMap.put("class_name", before.type.typeName);
@@ -528,51 +806,31 @@ public class PythonInspector {
             parametersMap.put("before", beforeMap);
         }
 
-        request.put("parameters", parametersMap);
+        // the interpreter compares the values, so only the result of the comparison is sent back
+        parametersMap.put("expected", toExpectedValue(returnValue));
+        parametersMap.put("comparison", comparison.getName());
+        if (after != null) parametersMap.put("expected_after", toExpectedValue(after.fields));
 
-        mapper.writeValue(process.getOutputStream(), request);
+        request.put("parameters", parametersMap);
 
-        Map<String, java.lang.Object> response = mapper.readValue(
-                process.getInputStream(),
-                Map.class
-        );
+        Map<String, java.lang.Object> response = call(request);
 
         if (isErrorResponse(response)) throw errorFromResponse(response);
 
         String str = "";
 
-        if (response.containsKey("output")) str += response.get("output");
+        if (response.get("output") != null) str += response.get("output");
 
-        if (!response.get("type").equals("NoneType")) str += toPythonString(response.get("value"));
+        if (!response.get("type").equals("NoneType")) str += response.get("repr");
 
-        if (output != null)
-            if (!response.containsKey("output") || !output.equals(response.get("output")))
-                // we expect output, but this function produces no output/incorrect output
-                return new Pair<>(false, str);
+        if (output != null && !Boolean.TRUE.equals(response.get("output_matches")))
+            // we expect output, but this function produces no output/incorrect output
+            return new Pair<>(false, str);
 
-        if (after != null) {
-            Map<String, java.lang.Object> fields = (Map)response.get("after");
-            for (Map.Entry<String, java.lang.Object> field : after.fields.entrySet()) {
-                java.lang.Object afterValue = fields.get(field.getKey());
-                if (!afterValue.equals(field.getValue())) {
-                    // TODO should not compare with object equals
-                    // object state after method call does not match expected state
-                    return new Pair<>(false, str);
-                }
-            }
-        }
+        if (after != null && !Boolean.TRUE.equals(response.get("after_matches")))
+            // object state after method call does not match expected state
+            return new Pair<>(false, str);
 
-        return new Pair<>(equals(returnValue, toPythonObject(response)), str);
-    }
-
-    public class ResultObject {
-
-        public final java.lang.Object value;
-        public final String type;
-
-        public ResultObject(java.lang.Object value, String type) {
-            this.value = value;
-            this.type = type;
-        }
+        return new Pair<>(Boolean.TRUE.equals(response.get("matches")), str);
     }
 }
@@ -0,0 +1,19 @@
+package io.breen.socrates.test.python;
+
+/**
+ * A PythonError indicating that the student's code exceeded a resource limit (i.e., it ran too
+ * long, or used too much memory), and the Python interpreter was stopped.
+ */
+public class ResourceLimitError extends PythonError {
+
+    public static final String TIME_LIMIT_EXCEEDED = "TimeLimitExceeded";
+    public static final String MEMORY_LIMIT_EXCEEDED = "MemoryLimitExceeded";
+
+    public ResourceLimitError(String errorType, String errorMessage) {
+        super(errorType, errorMessage);
+    }
+
+    public static boolean isLimitErrorType(String errorType) {
+        return TIME_LIMIT_EXCEEDED.equals(errorType) || MEMORY_LIMIT_EXCEEDED.equals(errorType);
+    }
+}
@@ -1,5 +1,6 @@
 package io.breen.socrates.test.python;
 
+import io.breen.socrates.Verifiable;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.python.PythonFile;
 import io.breen.socrates.file.python.Variable;
@@ -10,13 +11,35 @@ import io.breen.socrates.test.*;
 import javax.swing.text.Document;
 import java.io.IOException;
 
-public class VariableEvalTest extends VariableTest implements Automatable<PythonFile> {
+public class VariableEvalTest extends VariableTest
+        implements Automatable<PythonFile>, DependsOnlyOnSubmissionContents, Verifiable
+{
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * The expected value of the variable.
      */
     public Object value;
 
+    /**
+     * How the value of the variable is compared with the expected value: "exact", "equal",
+     * "approximate" or "unordered" (see Comparison). If this is null, "equal" is used.
+     */
+    public String comparison;
+
+    /**
+     * The number of seconds the student's code may run for this test, or null to use the time
+     * limit of the file.
+     */
+    public Double timeout;
+
+    /**
+     * The amount of memory (in MiB) the Python interpreter may use for this test, or null to use
+     * the memory limit of the file.
+     */
+    public Integer memoryLimit;
+
     /**
      * This empty constructor is used by SnakeYAML.
      */
@@ -37,6 +60,11 @@ public class VariableEvalTest extends VariableTest implements Automatable<Python
         return "variable evaluation";
     }
 
+    @Override
+    public void verify() {
+        Comparison.fromName(comparison);
+    }
+
     @Override
     public boolean shouldPass(PythonFile parent, SubmittedFile target, Submission submission,
                               Criteria criteria, Document transcript, Document notes)
@@ -45,11 +73,19 @@ public class VariableEvalTest extends VariableTest implements Automatable<Python
         Variable var = parent.getVariableForTest(this);
         if (var == null) throw new IllegalArgumentException();
 
-        try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-            return inspector.variableEquals(var.name, value);
+        try (PythonInspector inspector = parent.newInspector(
+                target, submission.getWorkingPath(target), timeout, memoryLimit
+        ))
+        {
+            return inspector.variableEquals(
+                    var.name, value, Comparison.fromName(comparison)
+            );
         } catch (IOException x) {
             throw new AutomationFailureException(x);
+        } catch (ResourceLimitError x) {
+            String reason = "resource limit exceeded: " + x.errorMessage;
+            appendToDocument(transcript, reason + "\n");
+            throw new CannotBeAutomatedException(reason);
         } catch (PythonError x) {
             throw new CannotBeAutomatedException(
                     "Python error occurred evaluating variable: " + x
@@ -10,7 +10,11 @@ import io.breen.socrates.test.*;
 import javax.swing.text.Document;
 import java.io.IOException;
 
-public class VariableExistsTest extends VariableTest implements Automatable<PythonFile> {
+public class VariableExistsTest extends VariableTest
+        implements Automatable<PythonFile>, DependsOnlyOnContents
+{
+
+    private static final long serialVersionUID = 1L;
 
     private final Variable variable;
 
@@ -35,8 +39,8 @@ public class VariableExistsTest extends VariableTest implements Automatable<Pyth
             throws CannotBeAutomatedException, AutomationFailureException
     {
         try {
-            PythonInspector inspector = new PythonInspector(target.fullPath);
-            return inspector.variableExists(variable.name);
+            ModuleCatalog catalog = ModuleCatalog.get(target);
+            return catalog.hasVariable(variable.name);
         } catch (IOException x) {
             throw new AutomationFailureException(x);
         } catch (PythonError x) {
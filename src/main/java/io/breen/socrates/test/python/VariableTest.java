@@ -4,6 +4,8 @@ import io.breen.socrates.test.Test;
 
 public abstract class VariableTest extends Test {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * This empty constructor is used by SnakeYAML for the extenders of this class that are
      * instantiated from a criteria file.
@@ -0,0 +1,123 @@
+package io.breen.socrates.util;
+
+import io.breen.socrates.Globals;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Creates the processes that run Python code, which keep the bytecode compiled from the modules
+ * they import in a private directory inside Socrates' temporary directory (using the
+ * PYTHONPYCACHEPREFIX environment variable), rather than in __pycache__ directories next to the
+ * modules. Student modules are therefore compiled once, rather than every time they are imported,
+ * and the bytecode is reused by later tests without adding files to submissions.
+ *
+ * The bytecode of a module is kept at the module's absolute path inside the cache directory.
+ * Bytecode compiled from modules in submission folders is reused by later sessions, but the
+ * bytecode compiled from modules in Socrates' temporary directories (e.g., those extracted from
+ * archives) is deleted along with those directories when Socrates exits.
+ *
+ * Interpreters older than Python 3.8 do not support this, and would write bytecode next to the
+ * modules, so they are run with -B (i.e., without writing bytecode at all).
+ */
+public class BytecodeCache {
+
+    public static final String DIR_NAME = "pycache";
+
+    private static final String PREFIX_VARIABLE = "PYTHONPYCACHEPREFIX";
+
+    private static Logger logger = Logger.getLogger(BytecodeCache.class.getName());
+
+    /**
+     * Whether each interpreter (by path) supports PYTHONPYCACHEPREFIX.
+     */
+    private static final Map<Path, Boolean> supported = new HashMap<>();
+
+    /**
+     * Returns a new process builder that runs the interpreter at the specified path with the
+     * specified arguments, using the bytecode cache if the interpreter supports it.
+     */
+    public static ProcessBuilder newProcessBuilder(Path interpreterPath, String... args)
+            throws IOException
+    {
+        boolean cached = isSupported(interpreterPath);
+
+        List<String> command = new ArrayList<>(args.length + 2);
+        command.add(interpreterPath.toString());
+
+        // turns off writing bytecode files (.py[co])
+        if (!cached) command.add("-B");
+
+        command.addAll(Arrays.asList(args));
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (cached) builder.environment().put(PREFIX_VARIABLE, getDirectory().toString());
+
+        return builder;
+    }
+
+    /**
+     * Returns the directory containing the bytecode, creating it if it does not exist.
+     */
+    public static Path getDirectory() throws IOException {
+        Path dir = Globals.getTempPath(DIR_NAME);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /**
+     * Deletes the bytecode compiled from the modules inside the specified directory, if there is
+     * any.
+     */
+    public static void delete(Path dir) {
+        Path absolute = dir.toAbsolutePath();
+
+        // as Python does, drop the root (including any drive) from the module's path
+        Path relative = absolute.getRoot().relativize(absolute);
+
+        Path bytecode = Globals.getTempPath(DIR_NAME).resolve(relative.toString());
+        FileUtils.deleteQuietly(bytecode.toFile());
+    }
+
+    /**
+     * Returns whether the interpreter at the specified path supports PYTHONPYCACHEPREFIX. The
+     * interpreter is only asked once.
+     */
+    public static synchronized boolean isSupported(Path interpreterPath) {
+        Boolean b = supported.get(interpreterPath);
+
+        if (b == null) {
+            b = querySupported(interpreterPath);
+            supported.put(interpreterPath, b);
+        }
+
+        return b;
+    }
+
+    private static boolean querySupported(Path interpreterPath) {
+        ProcessBuilder builder = new ProcessBuilder(
+                interpreterPath.toString(),
+                "-B",
+                "-c",
+                "import sys; sys.exit(0 if sys.version_info >= (3, 8) else 1)"
+        );
+
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        try {
+            return builder.start().waitFor() == 0;
+
+        } catch (IOException x) {
+            logger.warning("could not query interpreter: " + x);
+            return false;
+
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.breen.socrates.util;
+
+import java.util.concurrent.*;
+
+/**
+ * A single daemon thread on which tasks that stop runaway processes (e.g., Python interpreters
+ * running student code that does not terminate) are run after a delay.
+ */
+public class Watchdog {
+
+    private static final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "watchdog");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }
+            );
+
+    /**
+     * Runs the specified task on the watchdog's thread after the specified delay. The returned
+     * future can be used to cancel the task.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
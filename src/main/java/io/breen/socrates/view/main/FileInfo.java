@@ -14,8 +14,6 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -135,8 +133,8 @@ public class FileInfo {
         );
     }
 
-    private static Date getModified(Path path) throws IOException {
-        FileTime modified = Files.getLastModifiedTime(path);
+    private static Date getModified(SubmittedFile file) throws IOException {
+        FileTime modified = file.getLastModified();
         return new Date(modified.toMillis());
     }
 
@@ -178,7 +176,7 @@ public class FileInfo {
         );
 
         properties.set(
-                FileProperty.MODIFIED_DATE.index, formatter.format(getModified(file.fullPath))
+                FileProperty.MODIFIED_DATE.index, formatter.format(getModified(file))
         );
     }
 
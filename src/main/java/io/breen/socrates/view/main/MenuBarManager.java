@@ -18,6 +18,9 @@ public class MenuBarManager {
     public final JMenuItem revealSubmission;
     public final JMenuItem saveGradeReport;
     public final JMenuItem saveGradeReportAs;
+    public final JMenuItem saveAllGradeReports;
+    public final JMenuItem exportGradebook;
+    public final JMenuItem exportStatistics;
 
     public final JMenuItem nextFile;
     public final JMenuItem previousFile;
@@ -35,6 +38,8 @@ public class MenuBarManager {
     public final JMenuItem focusOnNotes;
 
     public final JMenuItem transcriptWindow;
+    public final JMenuItem similarityReport;
+    public final JMenuItem statisticsWindow;
 
 
     public MenuBarManager() {
@@ -64,6 +69,9 @@ public class MenuBarManager {
 
         saveGradeReport = new JMenuItem("Save Grade Report");
         saveGradeReportAs = new JMenuItem("Save Grade Report As...");
+        saveAllGradeReports = new JMenuItem("Save All Grade Reports");
+        exportGradebook = new JMenuItem("Export Gradebook...");
+        exportStatistics = new JMenuItem("Export Statistics...");
 
         submissionMenu.add(nextSubmission);
         submissionMenu.add(previousSubmission);
@@ -72,6 +80,10 @@ public class MenuBarManager {
         submissionMenu.addSeparator();
         submissionMenu.add(saveGradeReport);
         submissionMenu.add(saveGradeReportAs);
+        submissionMenu.add(saveAllGradeReports);
+        submissionMenu.addSeparator();
+        submissionMenu.add(exportGradebook);
+        submissionMenu.add(exportStatistics);
 
 
         /*
@@ -139,8 +151,12 @@ public class MenuBarManager {
         windowMenu = new JMenu("Window");
 
         transcriptWindow = new JMenuItem("Transcript");
+        similarityReport = new JMenuItem("Similarity Report");
+        statisticsWindow = new JMenuItem("Statistics");
 
         windowMenu.add(transcriptWindow);
+        windowMenu.add(similarityReport);
+        windowMenu.add(statisticsWindow);
     }
 
     public void setView(MainView view) {
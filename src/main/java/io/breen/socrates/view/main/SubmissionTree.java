@@ -2,7 +2,10 @@ package io.breen.socrates.view.main;
 
 import io.breen.socrates.Globals;
 import io.breen.socrates.controller.MainController;
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.criteria.TestMatcher;
 import io.breen.socrates.file.File;
+import io.breen.socrates.model.ContentIndex;
 import io.breen.socrates.model.event.GradeReportSavedEvent;
 import io.breen.socrates.model.event.SubmissionCompletedChangeEvent;
 import io.breen.socrates.model.wrapper.*;
@@ -21,8 +24,8 @@ import javax.swing.tree.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
 import java.util.logging.Logger;
@@ -46,6 +49,12 @@ public class SubmissionTree implements Observer {
     public final Action nextFile;
     public final Action previousFile;
     public final Action openFile;
+
+    /**
+     * Indexes every recognized file in this tree by its contents, so that identical files can be
+     * flagged and their automated test results shared.
+     */
+    public final ContentIndex contentIndex;
     private JPanel rootPanel;
     private JScrollPane scrollPane;
     private JTree tree;
@@ -57,6 +66,7 @@ public class SubmissionTree implements Observer {
         this.view = view;
 
         notSaved = new LinkedList<>();
+        contentIndex = new ContentIndex();
 
         $$$setupUI$$$();
         int ctrl = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
@@ -84,10 +94,7 @@ public class SubmissionTree implements Observer {
                 SubmissionWrapperNode node = getCurrentSubmissionNode();
                 Submission s = (Submission) node.getUserObject();
 
-                Path dest = Paths.get(
-                        s.submissionDir.toString(), Globals.DEFAULT_GRADE_FILE_NAME
-                );
-                main.saveGradeReport(node, dest);
+                main.saveGradeReport(node, s.getDefaultGradeFilePath());
             }
         };
         saveGradeReport.setEnabled(false);
@@ -102,7 +109,7 @@ public class SubmissionTree implements Observer {
                 SubmissionWrapperNode node = getCurrentSubmissionNode();
                 Submission s = (Submission) node.getUserObject();
 
-                Path dest = chooseSaveLocation(s.submissionDir);
+                Path dest = chooseSaveLocation(s.getDefaultGradeFilePath().getParent());
                 if (dest == null) return;
 
                 main.saveGradeReport(node, dest);
@@ -155,8 +162,8 @@ public class SubmissionTree implements Observer {
             public void actionPerformed(ActionEvent e) {
                 SubmissionWrapperNode node = getCurrentSubmissionNode();
                 Submission s = (Submission) node.getUserObject();
-                Path path = s.submissionDir;
                 try {
+                    Path path = s.getWorkingDirectory();
                     Desktop.getDesktop().open(path.toFile());
                 } catch (IOException x) {
                     logger.warning("got I/O exception revealing submission: " + x);
@@ -221,8 +228,9 @@ public class SubmissionTree implements Observer {
             @Override
             public void actionPerformed(ActionEvent e) {
                 SubmittedFile f = getSelectedSubmittedFile();
-                Path path = f.fullPath;
+                Submission s = (Submission) getCurrentSubmissionNode().getUserObject();
                 try {
+                    Path path = s.getWorkingPath(f);
                     Desktop.getDesktop().open(path.toFile());
                 } catch (IOException x) {
                     logger.warning("got I/O exception opening file: " + x);
@@ -255,6 +263,9 @@ public class SubmissionTree implements Observer {
      * for a file is different on OS X.
      */
     private static Icon getSystemIcon(Path p) {
+        // files inside archives have no icon of their own
+        if (p.getFileSystem() != FileSystems.getDefault()) return null;
+
         if (Globals.operatingSystem == Globals.OS.OSX) {
             JFileChooser c = new JFileChooser();
             return c.getIcon(p.toFile());
@@ -485,6 +496,16 @@ public class SubmissionTree implements Observer {
 
                             if (sfwn.isComplete()) comment = "complete";
 
+                            SubmittedFile sf = (SubmittedFile) sfwn.getUserObject();
+                            int numDuplicates = contentIndex.getNumDuplicates(sfwn);
+
+                            // empty files are "identical" but not worth pointing out
+                            if (numDuplicates > 0 && sf.size > 0) {
+                                if (!comment.isEmpty()) comment += ", ";
+                                comment += "identical to " + numDuplicates + " other";
+                                if (numDuplicates > 1) comment += "s";
+                            }
+
                         } else if (value instanceof SubmissionWrapperNode) {
                             SubmissionWrapperNode swn = (SubmissionWrapperNode) value;
 
@@ -583,6 +604,7 @@ public class SubmissionTree implements Observer {
                 } else {
                     SubmittedFileWrapperNode newSFWN = new SubmittedFileWrapperNode(sf, f);
                     newSFWN.addObserver(this);
+                    contentIndex.add(newSFWN);
                     recognized.add(newSFWN);
                 }
             }
@@ -605,7 +627,164 @@ public class SubmissionTree implements Observer {
             parent.addObserver(this);
 
             root.add(parent);
+            getModel().nodesWereInserted(root, new int[] {root.getIndex(parent)});
+        }
+    }
+
+    /**
+     * Returns the node for the specified submission, or null if the submission is not in this
+     * tree.
+     */
+    public SubmissionWrapperNode getSubmissionNode(Submission submission) {
+        for (int i = 0; i < root.getChildCount(); i++) {
+            DefaultMutableTreeNode n = (DefaultMutableTreeNode) root.getChildAt(i);
+            if (n.getUserObject() == submission) return (SubmissionWrapperNode) n;
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the node for a submitted file whose contents have changed on disk (e.g., if the
+     * student resubmitted it) with a node for the new SubmittedFile object, which also replaces the
+     * file in the submission (see SubmissionWrapperNode.updateFile). If a test tree already
+     * exists for the file, its automated tests are reset; otherwise a new node is added to the
+     * submission. Returns the SubmittedFileWrapperNode for the file, or null if the file is not
+     * recognized or the submission is not in this tree.
+     */
+    public SubmittedFileWrapperNode updateSubmittedFile(Submission submission,
+                                                        SubmittedFile newFile, File matchingFile)
+    {
+        SubmissionWrapperNode parent = getSubmissionNode(submission);
+        if (parent == null) return null;
+
+        DefaultMutableTreeNode child = parent.getFileNode(newFile.localPath);
+
+        // the node must be removed from the index before its submitted file is replaced
+        if (child instanceof SubmittedFileWrapperNode)
+            contentIndex.remove((SubmittedFileWrapperNode) child);
+
+        parent.updateFile(newFile);
+
+        if (child instanceof SubmittedFileWrapperNode) {
+            SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode) child;
+            contentIndex.add(sfwn);
+
+            getModel().nodeChanged(sfwn);
+            sfwn.resetAutomatedTests();
+            return sfwn;
+
+        } else if (child != null) {
+            getModel().nodeChanged(child);
+            return null;
+        }
+
+        MutableTreeNode newNode;
+        if (matchingFile == null) {
+            newNode = new UnrecognizedFileWrapperNode(newFile);
+        } else {
+            SubmittedFileWrapperNode sfwn = new SubmittedFileWrapperNode(newFile, matchingFile);
+            sfwn.addObserver(this);
+            contentIndex.add(sfwn);
+            newNode = sfwn;
+        }
+
+        parent.add(newNode);
+        getModel().nodesWereInserted(parent, new int[] {parent.getIndex(newNode)});
+
+        return newNode instanceof SubmittedFileWrapperNode ?
+                (SubmittedFileWrapperNode) newNode : null;
+    }
+
+    /**
+     * Rebuilds the test tree of every submitted file using the specified (reloaded) criteria.
+     * The results of tests that did not change are kept (see SubmittedFileWrapperNode.copyResults),
+     * and files that are recognized (or no longer recognized) by the new criteria are updated.
+     *
+     * Returns the automated tests that must be run again, grouped by the node of the file they
+     * belong to.
+     */
+    public Map<SubmittedFileWrapperNode, List<TestWrapperNode>> rebindCriteria(Criteria criteria) {
+        Map<SubmittedFileWrapperNode, List<TestWrapperNode>> rerun = new LinkedHashMap<>();
+        Map<File, TestMatcher> matchers = new IdentityHashMap<>();
+
+        DefaultMutableTreeNode selected = getSelectedNode();
+        DefaultMutableTreeNode newSelected = null;
+
+        contentIndex.clearOutcomes();
+
+        for (SubmissionWrapperNode swn : getSubmissionNodes()) {
+            List<DefaultMutableTreeNode> children = new ArrayList<>(swn.getChildCount());
+            for (int i = 0; i < swn.getChildCount(); i++)
+                children.add((DefaultMutableTreeNode) swn.getChildAt(i));
+
+            for (DefaultMutableTreeNode child : children) {
+                SubmittedFile sf = (SubmittedFile) child.getUserObject();
+                File matchingFile = criteria.getFileByLocalPath(sf.localPath);
+
+                if (matchingFile == null && child instanceof UnrecognizedFileWrapperNode)
+                    continue;
+
+                DefaultMutableTreeNode newChild;
+                if (matchingFile == null) {
+                    newChild = new UnrecognizedFileWrapperNode(sf);
+
+                } else {
+                    SubmittedFileWrapperNode newSFWN = new SubmittedFileWrapperNode(
+                            sf, matchingFile
+                    );
+
+                    List<TestWrapperNode> nodes;
+                    if (child instanceof SubmittedFileWrapperNode) {
+                        SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode) child;
+
+                        TestMatcher matcher = matchers.get(sfwn.matchingFile);
+                        if (matcher == null) {
+                            matcher = new TestMatcher(sfwn.matchingFile, matchingFile);
+                            matchers.put(sfwn.matchingFile, matcher);
+                        }
+
+                        nodes = newSFWN.copyResults(sfwn, matcher);
+                    } else {
+                        nodes = new LinkedList<>();
+                    }
+
+                    if (!nodes.isEmpty()) rerun.put(newSFWN, nodes);
+
+                    newSFWN.addObserver(this);
+                    contentIndex.add(newSFWN);
+                    newChild = newSFWN;
+                }
+
+                if (child instanceof SubmittedFileWrapperNode) {
+                    SubmittedFileWrapperNode sfwn = (SubmittedFileWrapperNode) child;
+                    sfwn.removeObserver(this);
+                    contentIndex.remove(sfwn);
+                }
+
+                int index = swn.getIndex(child);
+                swn.replace(child, newChild);
+                getModel().nodesWereRemoved(swn, new int[] {index}, new Object[] {child});
+                getModel().nodesWereInserted(swn, new int[] {index});
+
+                if (child == selected) newSelected = newChild;
+            }
         }
+
+        if (newSelected != null) select(newSelected);
+
+        return rerun;
+    }
+
+    /**
+     * Returns every submission in this tree, in the order they are displayed.
+     */
+    public List<SubmissionWrapperNode> getSubmissionNodes() {
+        List<SubmissionWrapperNode> nodes = new ArrayList<>(root.getChildCount());
+        for (int i = 0; i < root.getChildCount(); i++)
+            nodes.add((SubmissionWrapperNode) root.getChildAt(i));
+
+        return nodes;
     }
 
     public void expandFirstSubmission() {
@@ -104,7 +104,8 @@ public class SetupView extends JFrame {
     public List<Path> chooseSubmissions() {
         JFileChooser fc = new JFileChooser();
 
-        fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        // submissions may be directories or archives containing many directories
+        fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         fc.setMultiSelectionEnabled(true);
 
         int rv = fc.showOpenDialog(this);
@@ -193,7 +194,7 @@ public class SetupView extends JFrame {
         textArea2.setFont(new Font("Dialog", textArea2.getFont().getStyle(), textArea2.getFont().getSize()));
         textArea2.setLineWrap(true);
         textArea2.setOpaque(false);
-        textArea2.setText("Now select the student submissions you would like to grade. You must select at least one submission. Socrates will refuse to open a submission if it already contains a grade file, to ensure that the existing grade file is not overwritten.\n\nEach submission you select must be a folder containing the files submitted by one student. If you were sent a compressed archive (for example, a ZIP file) containing the submissions, decompress the archive before continuing.\n\nIf you are using receipts, make sure each receipt is stored alongside its receipted file.");
+        textArea2.setText("Now select the student submissions you would like to grade. You must select at least one submission. Socrates will refuse to open a submission if it already contains a grade file, to ensure that the existing grade file is not overwritten.\n\nEach submission you select must be a folder containing the files submitted by one student. If you were sent a ZIP file containing the submissions, you may select the ZIP file itself; the submissions will be read directly from it.\n\nIf you are using receipts, make sure each receipt is stored alongside its receipted file.");
         textArea2.setWrapStyleWord(true);
         selectSubmissionsPanel.add(textArea2, BorderLayout.CENTER);
         final JPanel panel2 = new JPanel();
@@ -0,0 +1,304 @@
+"""
+Finds the classes (with their methods), functions and variables defined by Python modules, by
+parsing their source code with the ast module. The modules are never run, so top-level code in a
+module (e.g., calls to input(), infinite loops) does not matter, and many modules can be analyzed
+by a single process.
+
+The modules are read from the standard in, as one JSON object per line, containing a 'key' that
+identifies the module and either:
+
+- 'path': the path of the module; or
+- 'name' and 'source': the file name and the contents (in Base64) of a module that cannot be read
+  from a path (e.g., because it is inside an archive).
+
+For each module, a JSON object is written to the standard out (on its own line), containing the
+module's key and either:
+
+- 'catalog': the module's members, as an object containing 'classes' (mapping each class name to
+  an object mapping each of its method names to a signature), 'functions' (mapping each function
+  name to a signature) and 'variables' (a sorted list of names), where a signature is an object
+  containing the names of the 'parameters', the number of them that are 'required' (i.e., have no
+  default value), and whether the function takes 'varargs' (i.e., *args);
+- 'error_type' and 'error_message': the error that occurred compiling the module (e.g., a
+  SyntaxError), which would also occur if the module were imported, along with the 'line' and
+  'column' at which it occurred (if known); or
+- 'io_error': a message, if the module could not be read (or its contents could not be decoded).
+
+Since the modules are not run, members created at runtime (e.g., by exec() or star imports) are
+not found, and names bound in any branch of an if statement (or any other block at the top level
+of the module) are included, except in the body of an "if __name__ == '__main__':" statement,
+which never runs when a test imports the module. Names bound by import statements are left out.
+A name assigned a function or class defined earlier in the module (e.g., "area = compute_area")
+is a function or class, just as it would be if the module were imported.
+
+When there are many modules (e.g., every submission of a cohort), they are analyzed in parallel by
+a pool of worker processes, and the results are written in the order the modules are analyzed.
+
+If Socrates keeps a bytecode cache (i.e., sys.pycache_prefix is set), the bytecode of every module
+that was read from a path and compiles is also written to the cache, so that it is not compiled again when the module is
+imported by a test. This bytecode is checked against a hash of the module's contents (rather than
+its modification time), so it stays valid for as long as the module's contents do not change.
+"""
+
+import sys
+
+import ast
+import base64
+import json
+import multiprocessing
+import os
+
+ASYNC_FUNCTION_DEF = getattr(ast, 'AsyncFunctionDef', ast.FunctionDef)
+FUNCTION_DEFS = (ast.FunctionDef, ASYNC_FUNCTION_DEF)
+
+# with fewer modules than this, starting worker processes takes longer than analyzing them
+PARALLEL_THRESHOLD = 32
+
+# the number of modules sent to a worker process at once
+CHUNK_SIZE = 8
+
+# the fields of compound statements containing blocks of statements
+BLOCK_FIELDS = ['body', 'orelse', 'finalbody', 'handlers', 'cases']
+
+
+def signature(args):
+    """Return the signature of a function with the specified ast.arguments (see the 'catalog'
+    result above).
+    """
+    positional = list(getattr(args, 'posonlyargs', [])) + list(args.args)
+    parameters = [getattr(a, 'arg', None) or getattr(a, 'id', None) for a in positional]
+
+    return {
+        'parameters': parameters,
+        'required': len(parameters) - len(args.defaults),
+        'varargs': args.vararg is not None
+    }
+
+
+def string_value(node):
+    """Return the value of the specified string literal, or None if it is not one."""
+    # Python 3.8 replaced ast.Str (and its field s) with ast.Constant
+    value = node.value if hasattr(node, 'value') else getattr(node, 's', None)
+    return value if isinstance(value, str) else None
+
+
+def is_main_guard(test):
+    """Return whether the specified test of an if statement is __name__ == '__main__' (or
+    '__main__' == __name__).
+    """
+    if not isinstance(test, ast.Compare) or len(test.ops) != 1 \
+            or not isinstance(test.ops[0], ast.Eq):
+        return False
+
+    operands = [test.left, test.comparators[0]]
+    return any(isinstance(o, ast.Name) and o.id == '__name__' for o in operands) \
+        and any(string_value(o) == '__main__' for o in operands)
+
+
+def target_names(target):
+    """Return the names bound by an assignment to the specified target."""
+    if isinstance(target, ast.Name):
+        return [target.id]
+
+    if isinstance(target, (ast.Tuple, ast.List)):
+        names = []
+        for element in target.elts:
+            names.extend(target_names(element))
+        return names
+
+    if isinstance(target, getattr(ast, 'Starred', ())):
+        return target_names(target.value)
+
+    # attributes and subscripts do not bind names
+    return []
+
+
+class Scope:
+    """The names bound in a module or a class body, in the order the statements appear. A name
+    bound again replaces its earlier binding (e.g., a function replaced by a variable).
+    """
+    def __init__(self):
+        self.classes = {}
+        self.functions = {}
+        self.variables = set()
+
+    def bind(self, name, kind, value=None):
+        self.classes.pop(name, None)
+        self.functions.pop(name, None)
+        self.variables.discard(name)
+
+        if kind == 'class':
+            self.classes[name] = value
+        elif kind == 'function':
+            self.functions[name] = value
+        else:
+            self.variables.add(name)
+
+    def visit_block(self, statements):
+        for statement in statements:
+            self.visit(statement)
+
+    def visit(self, statement):
+        if isinstance(statement, FUNCTION_DEFS):
+            self.bind(statement.name, 'function', signature(statement.args))
+
+        elif isinstance(statement, ast.ClassDef):
+            body = Scope()
+            body.visit_block(statement.body)
+            self.bind(statement.name, 'class', (statement, body))
+
+        elif isinstance(statement, ast.Assign):
+            value = statement.value
+
+            if isinstance(value, ast.Lambda):
+                kind, bound = 'function', signature(value.args)
+            elif isinstance(value, ast.Name) and value.id in self.functions:
+                # an alias of a function defined earlier
+                kind, bound = 'function', self.functions[value.id]
+            elif isinstance(value, ast.Name) and value.id in self.classes:
+                kind, bound = 'class', self.classes[value.id]
+            else:
+                kind, bound = 'variable', None
+
+            for target in statement.targets:
+                for name in target_names(target):
+                    self.bind(name, kind, bound)
+
+        elif isinstance(statement, (ast.AugAssign, getattr(ast, 'AnnAssign', ()))):
+            if getattr(statement, 'value', True) is not None:
+                for name in target_names(statement.target):
+                    self.bind(name, 'variable')
+
+        elif isinstance(statement, ast.If) and is_main_guard(statement.test):
+            # the module is imported under its own name by tests, so only the else branch runs
+            self.visit_block(statement.orelse)
+
+        else:
+            if isinstance(statement, ast.For):
+                for name in target_names(statement.target):
+                    self.bind(name, 'variable')
+
+            for item in getattr(statement, 'items', []):
+                # with statements
+                if getattr(item, 'optional_vars', None) is not None:
+                    for name in target_names(item.optional_vars):
+                        self.bind(name, 'variable')
+
+            for field in BLOCK_FIELDS:
+                for child in getattr(statement, field, None) or []:
+                    if isinstance(child, ast.stmt):
+                        self.visit(child)
+                    else:
+                        # an except handler or a match case
+                        self.visit_block(getattr(child, 'body', []))
+
+
+def methods(name, classes, seen=None):
+    """Return the signatures of the methods of the class, including those inherited from other
+    classes defined in the module.
+    """
+    seen = seen or set()
+    seen.add(name)
+
+    statement, body = classes[name]
+
+    result = {}
+    for base in reversed(statement.bases):
+        if isinstance(base, ast.Name) and base.id in classes and base.id not in seen:
+            result.update(methods(base.id, classes, seen))
+
+    result.update(body.functions)
+    return result
+
+
+def catalog(tree):
+    module = Scope()
+    module.visit_block(tree.body)
+
+    return {
+        'classes': dict((name, methods(name, module.classes)) for name in module.classes),
+        'functions': module.functions,
+        'variables': sorted(module.variables)
+    }
+
+
+def write_bytecode(path):
+    if not getattr(sys, 'pycache_prefix', None):
+        return
+
+    import importlib.util
+    import py_compile
+
+    try:
+        py_compile.compile(path, cfile=importlib.util.cache_from_source(path), doraise=True,
+                           invalidation_mode=py_compile.PycInvalidationMode.CHECKED_HASH)
+    except Exception:
+        # the module will be compiled when it is imported instead
+        pass
+
+
+def analyze(request):
+    result = {'key': request['key']}
+    path = request.get('path')
+
+    try:
+        if path is not None:
+            name = os.path.basename(path)
+            with open(path, 'rb') as f:
+                source = f.read()
+        else:
+            name = request['name']
+            source = base64.b64decode(request['source'])
+    except (IOError, OSError, ValueError) as e:
+        result['io_error'] = str(e)
+        return result
+
+    try:
+        tree = compile(source, name, 'exec', ast.PyCF_ONLY_AST)
+
+        # compiling the tree finds errors the parser does not (e.g., 'return' outside function),
+        # but does not run anything
+        compile(tree, name, 'exec')
+
+    except Exception as e:
+        result['error_type'] = type(e).__name__
+        result['error_message'] = str(e)
+
+        if isinstance(e, SyntaxError):
+            result['line'] = e.lineno
+            result['column'] = e.offset
+
+        return result
+
+    result['catalog'] = catalog(tree)
+    if path is not None:
+        write_bytecode(path)
+    return result
+
+
+def main():
+    # the requests are sent in UTF-8, whatever the encoding of the standard in
+    requests = []
+    for line in sys.stdin.buffer:
+        line = line.decode('utf-8').strip()
+        if line:
+            requests.append(json.loads(line))
+
+    pool = None
+    if len(requests) >= PARALLEL_THRESHOLD and multiprocessing.cpu_count() > 1:
+        pool = multiprocessing.Pool()
+        results = pool.imap_unordered(analyze, requests, CHUNK_SIZE)
+    else:
+        results = map(analyze, requests)
+
+    try:
+        for result in results:
+            print(json.dumps(result))
+            sys.stdout.flush()
+    finally:
+        if pool is not None:
+            pool.terminate()
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,287 @@
+"""
+A long-lived process that runs script-based tests for Socrates. Rather than starting a new
+interpreter (which must import socrates.py) for every test, Socrates keeps a few of these hosts
+running, and sends one of them a request for every script it should run.
+
+Requests and responses are JSON objects, each preceded by its length in bytes (as a 4-byte,
+big-endian unsigned integer). A request contains the path of the script, the directory in which
+the script should run, the parameters of the test, and the number of seconds (of wall-clock
+and CPU time) the script may take. The response is the one a script sends by calling conclude()
+or error(), or an object with a "host_error" key if the script did not conclude (e.g., it
+crashed, or took too long). Before the response, any output printed by the script is sent as it
+is printed, in objects with only an "output" key.
+
+Where os.fork() is available, every script is run in a forked child process, so that nothing a
+script does (e.g., importing student modules, changing global state) can affect the next one.
+The child runs in its own process group, so that it (and any processes it starts) can be killed
+if it takes too long. Otherwise, scripts are run in this process, each in a fresh module
+namespace, and any modules imported by a script are forgotten after it finishes; there, output
+is sent to Socrates' standard error, and Socrates enforces time limits by stopping this process.
+
+This process exits when the standard in is closed (i.e., when Socrates exits).
+"""
+import os
+import sys
+
+import codecs
+import json
+import math
+import runpy
+import select
+import signal
+import struct
+import time
+import traceback
+
+LOGGING = False
+
+# tells socrates.py not to wait for parameters when it is imported
+sys.modules['socrates_host'] = sys.modules[__name__]
+
+import socrates
+
+HEADER = struct.Struct('>I')
+READ_SIZE = 64 * 1024
+
+# how long to wait for the output of a script's child processes after the script has concluded
+OUTPUT_GRACE_PERIOD = 0.1  # seconds
+
+
+class Concluded(BaseException):
+    """Raised when a script calls conclude() or error(), in place of exiting the interpreter.
+    (This does not extend Exception, so that scripts catching Exception do not catch it.)
+    """
+    def __init__(self, resp):
+        BaseException.__init__(self)
+        self.resp = resp
+
+
+def respond(resp):
+    if socrates.LOGGING:
+        print(resp, file=sys.stderr)
+
+    raise Concluded(resp)
+
+
+def host_error(message):
+    return json.dumps({'host_error': message})
+
+
+def read_frame(f):
+    header = f.read(HEADER.size)
+    if len(header) < HEADER.size:
+        return None
+
+    length, = HEADER.unpack(header)
+    data = f.read(length)
+    if len(data) < length:
+        return None
+
+    return data
+
+
+def write_frame(f, data):
+    f.write(HEADER.pack(len(data)))
+    f.write(data)
+    f.flush()
+
+
+def run_script(request):
+    """Run the script specified by the request in this process, and return the response."""
+    script = request['script']
+
+    os.chdir(request['cwd'])
+
+    # as if the script were run directly, with the working directory on PYTHONPATH
+    sys.path[:0] = [os.path.dirname(script), '']
+    sys.argv = [script]
+
+    socrates._params = request['parameters']
+    socrates._callbacks = []
+
+    try:
+        runpy.run_path(script, run_name='__main__')
+
+    except Concluded as c:
+        return c.resp
+
+    except SystemExit as x:
+        if x.code is not None and x.code != socrates.EXIT_NORMAL:
+            return host_error('script exited abnormally')
+
+    except BaseException:
+        traceback.print_exc()
+        return host_error('script exited abnormally')
+
+    finally:
+        sys.stdout.flush()
+        sys.stderr.flush()
+
+    return host_error('script exited without calling conclude()')
+
+
+def limit_cpu_time(seconds):
+    """Limit the CPU time of this process. A process exceeding the limit is sent SIGXCPU."""
+    try:
+        import resource
+    except ImportError:
+        return
+
+    soft = int(math.ceil(seconds))
+    resource.setrlimit(resource.RLIMIT_CPU, (soft, soft + 1))
+
+
+def kill_group(pid):
+    try:
+        os.killpg(pid, signal.SIGKILL)
+    except OSError:
+        # the group has already exited
+        pass
+
+
+def run_forked(request):
+    r, w = os.pipe()
+    out_r, out_w = os.pipe()
+
+    pid = os.fork()
+    if pid == 0:
+        # child: the response is sent to the host over the pipe, as is any output
+        os.close(r)
+        os.close(out_r)
+        requests.close()
+        responses.close()
+
+        os.setpgid(0, 0)
+        os.dup2(out_w, 1)
+        os.close(out_w)
+
+        # line buffered, so that output is sent as it is printed
+        sys.stdout = open(1, 'w', buffering=1, encoding='utf-8', closefd=False)
+
+        if request.get('cpu_time'):
+            limit_cpu_time(request['cpu_time'])
+
+        try:
+            resp = run_script(request)
+            with os.fdopen(w, 'wb') as f:
+                f.write(resp.encode('utf-8'))
+        finally:
+            os._exit(socrates.EXIT_NORMAL)
+
+    try:
+        # also set here, in case we kill the group before the child has set it
+        os.setpgid(pid, pid)
+    except OSError:
+        pass
+
+    os.close(w)
+    os.close(out_w)
+
+    timeout = request.get('timeout')
+    deadline = time.monotonic() + timeout if timeout else None
+
+    decoder = codecs.getincrementaldecoder('utf-8')('replace')
+    data = b''
+    fds = [r, out_r]
+    timed_out = False
+
+    while fds:
+        remaining = None
+        if deadline is not None:
+            remaining = deadline - time.monotonic()
+            if remaining <= 0:
+                timed_out = r in fds
+                break
+
+        ready, _, _ = select.select(fds, [], [], remaining)
+        for fd in ready:
+            chunk = os.read(fd, READ_SIZE)
+
+            if not chunk:
+                fds.remove(fd)
+                os.close(fd)
+
+                if fd == r and out_r in fds:
+                    # the script has concluded, but processes it started may still be running
+                    grace = time.monotonic() + OUTPUT_GRACE_PERIOD
+                    deadline = grace if deadline is None else min(deadline, grace)
+
+            elif fd == r:
+                data += chunk
+
+            else:
+                send_output(decoder.decode(chunk))
+
+    send_output(decoder.decode(b'', True))
+
+    for fd in fds:
+        os.close(fd)
+
+    kill_group(pid)
+    _, status = os.waitpid(pid, 0)
+
+    if timed_out:
+        return host_error('script timed out after %g seconds' % timeout).encode('utf-8')
+
+    if not data:
+        if os.WIFSIGNALED(status) and os.WTERMSIG(status) == signal.SIGXCPU:
+            message = 'script exceeded its CPU time limit of %g seconds' % request['cpu_time']
+            return host_error(message).encode('utf-8')
+
+        # the child died before it could respond
+        return host_error('script exited abnormally').encode('utf-8')
+
+    return data
+
+
+def send_output(text):
+    if text:
+        write_frame(responses, json.dumps({'output': text}).encode('utf-8'))
+
+
+def run_in_process(request):
+    cwd = os.getcwd()
+    path = list(sys.path)
+    modules = set(sys.modules)
+
+    try:
+        return run_script(request).encode('utf-8')
+
+    finally:
+        os.chdir(cwd)
+        sys.path[:] = path
+
+        for name in set(sys.modules) - modules:
+            del sys.modules[name]
+
+
+# requests and responses use copies of the standard in and out, which are then redirected, so
+# that scripts (and any processes they start) cannot read requests or write to the responses
+requests = os.fdopen(os.dup(0), 'rb')
+responses = os.fdopen(os.dup(1), 'wb')
+
+devnull = os.open(os.devnull, os.O_RDONLY)
+os.dup2(devnull, 0)
+os.close(devnull)
+
+# anything a script prints is sent to Socrates' standard error
+os.dup2(2, 1)
+
+socrates._respond = respond
+
+while True:
+    data = read_frame(requests)
+    if data is None:
+        break
+
+    request = json.loads(data.decode('utf-8'))
+
+    if LOGGING:
+        print(request, file=sys.stderr)
+
+    if hasattr(os, 'fork'):
+        resp = run_forked(request)
+    else:
+        resp = run_in_process(request)
+
+    write_frame(responses, resp)
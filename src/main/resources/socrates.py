@@ -38,12 +38,7 @@ def conclude(passes, transcript=None, notes=None):
         'notes': notes
     })
 
-    if LOGGING:
-        print(resp, file=sys.stderr)
-
-    print(resp)
-
-    sys.exit(EXIT_NORMAL)
+    _respond(resp)
 
 
 def error(exc):
@@ -60,6 +55,13 @@ def error(exc):
         'error_message': str(exc)
     })
 
+    _respond(resp)
+
+
+def _respond(resp):
+    """Send the response to Socrates and exit. (When a script is run by the script host, the
+    host replaces this function to receive the response itself.)
+    """
     if LOGGING:
         print(resp, file=sys.stderr)
 
@@ -84,6 +86,9 @@ if __name__ == '__main__':
     print('this module cannot be invoked directly; it should be imported by a script')
     sys.exit(EXIT_ERROR)
 
-# wait for Socrates to supply the parameters to the test
-_params = json.loads(input())
+# wait for Socrates to supply the parameters to the test (unless this module was imported by the
+# script host, which supplies the parameters of each test itself)
+if 'socrates_host' not in sys.modules:
+    _params = json.loads(input())
+
 _callbacks = []
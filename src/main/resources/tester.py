@@ -3,7 +3,7 @@
 'module': 'myprogram',
 'target': {'type': 'function', 'name': 'foo'},
 'type': 'eval',
-'parameters': {'args': [1, 2], 'value': 10}
+'parameters': {'args': [1, 2], 'expected': 10, 'comparison': 'equal'}
 }
 
 {
@@ -16,20 +16,77 @@
 'module': 'myprogram',
 'type': 'load'
 }
+
+The values produced by student code are compared with the expected values here, rather than in
+Socrates, so that they need not be sent back (or be serializable as JSON). The response to an eval
+request only contains whether the value matched, and a preview of its repr().
+
+Requests and responses are sent in frames: a header containing the length of the payload (as a
+4-byte, big-endian unsigned integer), the ID of the request (also 4 bytes) and the payload kind
+(1 byte), followed by the payload. The payload is either a JSON object (as above), or, for large
+objects, the path of a temporary file containing the JSON object, which the receiver maps into
+memory and deletes. Responses carry the ID of their request, so Socrates may send several requests
+before reading the responses. Requests are handled in the order they are received, and the module
+is imported only once.
 """
 
+import os
 import sys
-import _thread
 
+import math
+import reprlib
+import mmap
+import signal
+import struct
+import tempfile
 import threading
 import types
 import json
 import importlib
 import inspect
-from io import StringIO
+from collections import deque
+from io import StringIO, TextIOBase
 
 LOGGING = False
-TIMEOUT = 10  # seconds
+
+# the limits on this process, from the command line (zero means no limit)
+TIMEOUT = float(sys.argv[1]) if len(sys.argv) > 1 else 10.0  # seconds
+MEMORY_LIMIT = int(sys.argv[2]) if len(sys.argv) > 2 else 0  # MiB
+
+# the directory in which files containing large payloads are written
+PAYLOAD_DIR = sys.argv[3] if len(sys.argv) > 3 else tempfile.gettempdir()
+
+HEADER = struct.Struct('>IIB')
+PAYLOAD_INLINE = 0
+PAYLOAD_FILE = 1
+
+# payloads larger than this are sent in a file, rather than through the pipe
+LARGE_PAYLOAD_SIZE = 1024 * 1024  # bytes
+
+# the number of characters kept from the beginning and the end of the output of student code
+OUTPUT_HEAD_SIZE = 8192
+OUTPUT_TAIL_SIZE = 8192
+
+# the ways values can be compared with expected values (see Comparison.java)
+EXACT = 'exact'
+EQUAL = 'equal'
+APPROXIMATE = 'approximate'
+UNORDERED = 'unordered'
+COMPARISONS = [EXACT, EQUAL, APPROXIMATE, UNORDERED]
+
+# how close numbers must be to be approximately equal
+RELATIVE_TOLERANCE = 1e-6
+ABSOLUTE_TOLERANCE = 1e-9
+
+# the key identifying an expected object (a !python:object in the criteria)
+OBJECT_TAG = '!python:object'
+
+# error types reported when a limit is exceeded
+TIME_LIMIT_EXCEEDED = 'TimeLimitExceeded'
+MEMORY_LIMIT_EXCEEDED = 'MemoryLimitExceeded'
+
+module = None
+import_output = None  # the output of the module when it was imported
 
 globalz = {}  # globals() in the imported module
 objects = {}
@@ -43,36 +100,378 @@ def log(s):
     print(s, file=sys.stderr)
 
 
-def conclude(val, output=None, after=None):
-    s = json.dumps({
+class CappedOutput(TextIOBase):
+    """A replacement for the standard out that keeps only the beginning and the end of the output
+    (however much student code prints), along with its total length. If the expected output is
+    specified, the output is compared with it as it is written, and the comparison stops at the
+    first mismatch.
+    """
+    def __init__(self, expected=None):
+        TextIOBase.__init__(self)
+        self.length = 0
+        self.head = []
+        self.head_length = 0
+        self.tail = deque()
+        self.tail_length = 0
+
+        self.expected = expected
+        self.mismatched = False
+
+    def writable(self):
+        return True
+
+    def write(self, s):
+        if not isinstance(s, str):
+            raise TypeError('write() argument must be str, not ' + type(s).__name__)
+
+        n = len(s)
+
+        if self.expected is not None and not self.mismatched:
+            if self.expected[self.length:self.length + n] != s:
+                self.mismatched = True
+
+        self.length += n
+
+        if self.head_length < OUTPUT_HEAD_SIZE:
+            part = s[:OUTPUT_HEAD_SIZE - self.head_length]
+            self.head.append(part)
+            self.head_length += len(part)
+            s = s[len(part):]
+
+        if s:
+            self.tail.append(s)
+            self.tail_length += len(s)
+
+            while self.tail_length - len(self.tail[0]) >= OUTPUT_TAIL_SIZE:
+                self.tail_length -= len(self.tail.popleft())
+
+            if self.tail_length > 2 * OUTPUT_TAIL_SIZE:
+                # a single large write: keep only its end
+                last = ''.join(self.tail)[-OUTPUT_TAIL_SIZE:]
+                self.tail = deque([last])
+                self.tail_length = len(last)
+
+        return n
+
+    def matches(self):
+        """Return whether the output is exactly the expected output (or None, if the expected
+        output was not specified).
+        """
+        if self.expected is None:
+            return None
+
+        return not self.mismatched and self.length == len(self.expected)
+
+    def getvalue(self):
+        head = ''.join(self.head)
+        tail = ''.join(self.tail)[-OUTPUT_TAIL_SIZE:]
+
+        omitted = self.length - len(head) - len(tail)
+        if omitted > 0:
+            return head + '\n... (%d characters omitted) ...\n' % omitted + tail
+
+        return head + tail
+
+
+class ExpectedObject:
+    """An expected instance of a student's class, with the expected values of its attributes."""
+    def __init__(self, class_name, fields):
+        self.class_name = class_name
+        self.fields = fields
+
+
+def decode_expected(value):
+    """Return the expected value sent by Socrates, with expected objects decoded."""
+    if isinstance(value, dict):
+        if OBJECT_TAG in value:
+            return ExpectedObject(value[OBJECT_TAG], decode_expected(value['fields']))
+
+        return dict((k, decode_expected(v)) for k, v in value.items())
+
+    if isinstance(value, list):
+        return [decode_expected(v) for v in value]
+
+    return value
+
+
+def is_number(value):
+    return isinstance(value, (int, float)) and not isinstance(value, bool)
+
+
+def json_key(key):
+    """Return the dict key as it is sent to Socrates in JSON (where every key is a string)."""
+    return key if isinstance(key, str) else json.dumps(key)
+
+
+def compare(expected, actual, mode):
+    """Return whether the actual value equals the expected value under the specified comparison.
+    """
+    if isinstance(expected, ExpectedObject):
+        return type(actual).__name__ == expected.class_name and \
+            compare_fields(expected.fields, actual, mode)
+
+    if expected is None:
+        return actual is None
+
+    if isinstance(expected, bool):
+        return isinstance(actual, bool) and actual == expected
+
+    if is_number(expected):
+        if not is_number(actual):
+            return False
+
+        if mode == EXACT:
+            return type(actual) is type(expected) and actual == expected
+
+        if mode == APPROXIMATE and (isinstance(actual, float) or isinstance(expected, float)):
+            try:
+                difference = abs(actual - expected)
+                return difference <= max(RELATIVE_TOLERANCE * max(abs(actual), abs(expected)),
+                                         ABSOLUTE_TOLERANCE)
+            except OverflowError:
+                return False
+
+        return actual == expected
+
+    if isinstance(expected, str):
+        return isinstance(actual, str) and actual == expected
+
+    if isinstance(expected, list):
+        if mode == UNORDERED:
+            if not isinstance(actual, (list, tuple, set, frozenset)):
+                return False
+
+            return compare_unordered(expected, list(actual), mode)
+
+        if not (type(actual) is list if mode == EXACT else isinstance(actual, list)):
+            return False
+
+        if len(actual) != len(expected):
+            return False
+
+        for e, a in zip(expected, actual):
+            if not compare(e, a, mode):
+                return False
+
+        return True
+
+    if isinstance(expected, dict):
+        if not (type(actual) is dict if mode == EXACT else isinstance(actual, dict)):
+            return False
+
+        if len(actual) != len(expected):
+            return False
+
+        for k, v in actual.items():
+            key = json_key(k)
+            if key not in expected or not compare(expected[key], v, mode):
+                return False
+
+        return True
+
+    raise ValueError('cannot compare with expected value of type ' + type(expected).__name__)
+
+
+def sort_key(value):
+    """Return a key ordering scalar values (raising TypeError for any other value)."""
+    if value is None:
+        return 0, 0
+    if isinstance(value, bool):
+        return 1, value
+    if is_number(value):
+        return 2, value
+    if isinstance(value, str):
+        return 3, value
+
+    raise TypeError()
+
+
+def compare_unordered(expected, actual, mode):
+    if len(actual) != len(expected):
+        return False
+
+    try:
+        # scalars can be sorted and compared in order
+        return sorted(map(sort_key, expected)) == sorted(map(sort_key, actual))
+    except TypeError:
+        pass
+
+    remaining = actual
+    for e in expected:
+        for i, a in enumerate(remaining):
+            if compare(e, a, mode):
+                del remaining[i]
+                break
+        else:
+            return False
+
+    return True
+
+
+def compare_fields(fields, obj, mode):
+    """Return whether the attributes of the object equal the expected fields (ignoring any other
+    attributes of the object).
+    """
+    for name, value in fields.items():
+        if not hasattr(obj, name) or not compare(value, getattr(obj, name), mode):
+            return False
+
+    return True
+
+
+def get_comparison(parameters):
+    mode = parameters.get('comparison') or EQUAL
+    if mode not in COMPARISONS:
+        raise ValueError('unknown comparison: ' + mode)
+
+    return mode
+
+
+preview_repr = reprlib.Repr()
+preview_repr.maxlevel = 6
+preview_repr.maxlist = preview_repr.maxtuple = preview_repr.maxarray = 100
+preview_repr.maxset = preview_repr.maxfrozenset = preview_repr.maxdeque = 100
+preview_repr.maxdict = 50
+preview_repr.maxstring = preview_repr.maxlong = preview_repr.maxother = 1000
+
+
+def preview(value):
+    """Return the repr() of the value, abbreviated if the value is large."""
+    try:
+        return preview_repr.repr(value)
+    except Exception:
+        return '<%s object>' % type(value).__name__
+
+
+class Response(BaseException):
+    """Raised by conclude() and error() with the response to the current request. (This does not
+    extend Exception, so that it is not caught by handlers for errors in student code.)
+    """
+    def __init__(self, response):
+        BaseException.__init__(self)
+        self.response = response
+
+
+def output_response(output):
+    """Return the part of a response describing the output of student code."""
+    matches = None
+    length = None
+    if isinstance(output, CappedOutput):
+        matches = output.matches()
+        length = output.length
+        output = output.getvalue()
+
+    return {
+        'output': output,  # any characters sent to the standard out (maybe truncated)
+        'output_length': length,  # the number of characters sent to the standard out
+        'output_matches': matches  # whether the output was exactly the expected output
+    }
+
+
+def conclude(val, output=None):
+    response = {
         'error': False,  # no error occurred
-        'value': val,  # the value of a variable/value returned by a function or method
-        'type': type(val).__name__,  # the type of the value (the type name as a string)
-        'output': output,  # any characters sent to the standard out during eval
-        'after': after  # if a method is being tested on an instance, its state after a method call
-    })
+        'value': val,  # the result of a load/exists request
+        'type': type(val).__name__  # the type of the value (the type name as a string)
+    }
 
-    if LOGGING:
-        print(s, file=sys.stderr)
+    response.update(output_response(output))
+    raise Response(response)
 
-    print(s)
 
-    sys.exit(0)
+def conclude_eval(val, parameters, mode, output=None, obj=None):
+    """Compare the value of a variable, or the value returned by a function or method, with the
+    expected value (and, for a method, the called object with its expected fields).
+    """
+    matches = compare(decode_expected(parameters.get('expected')), val, mode)
 
+    after_matches = None
+    if obj is not None and parameters.get('expected_after') is not None:
+        after_matches = compare_fields(decode_expected(parameters['expected_after']), obj, mode)
 
-def error(exc):
-    s = json.dumps({
+    response = {
+        'error': False,
+        'type': type(val).__name__,
+        'matches': matches,  # whether the value was the expected value
+        'repr': preview(val),  # the repr() of the value (maybe abbreviated)
+        'after_matches': after_matches  # whether the called object had the expected fields
+    }
+
+    response.update(output_response(output))
+    raise Response(response)
+
+
+def error_response(exc):
+    if isinstance(exc, MemoryError) and MEMORY_LIMIT:
+        error_type = MEMORY_LIMIT_EXCEEDED
+        error_message = 'student code used more than %d MiB of memory' % MEMORY_LIMIT
+    else:
+        error_type = type(exc).__name__
+        error_message = str(exc)
+
+    return {
         'error': True,
-        'error_type': type(exc).__name__,
-        'error_message': str(exc)
-    })
+        'error_type': error_type,
+        'error_message': error_message
+    }
+
+
+def error(exc):
+    raise Response(error_response(exc))
+
+
+def read_request():
+    """Read the next request, and return its ID and the request, or None if Socrates has closed
+    the standard in.
+    """
+    stream = sys.__stdin__.buffer
+
+    header = stream.read(HEADER.size)
+    if len(header) < HEADER.size:
+        return None
+
+    length, request_id, kind = HEADER.unpack(header)
+    payload = stream.read(length)
+    if len(payload) < length:
+        return None
+
+    if kind == PAYLOAD_FILE:
+        path = payload.decode('utf-8')
+        with open(path, 'rb') as f:
+            with mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ) as m:
+                payload = m[:]
 
+        os.remove(path)
+
+    return request_id, json.loads(payload.decode('utf-8'))
+
+
+send_lock = threading.Lock()
+
+
+def send_response(request_id, response):
+    """Send the response to a request (on the real standard out, even if student code's output
+    is being captured).
+    """
     if LOGGING:
-        print(s, file=sys.stderr)
+        print(response, file=sys.stderr)
 
-    print(s)
+    payload = json.dumps(response).encode('utf-8')
+    kind = PAYLOAD_INLINE
 
-    sys.exit(1)
+    if len(payload) > LARGE_PAYLOAD_SIZE:
+        fd, path = tempfile.mkstemp(suffix='.json', dir=PAYLOAD_DIR)
+        with os.fdopen(fd, 'wb') as f:
+            f.write(payload)
+
+        payload = path.encode('utf-8')
+        kind = PAYLOAD_FILE
+
+    with send_lock:
+        stream = sys.__stdout__.buffer
+        stream.write(HEADER.pack(len(payload), request_id, kind))
+        stream.write(payload)
+        stream.flush()
 
 
 def new(klass, fields):
@@ -96,129 +495,206 @@ def find_method(class_name, method_name):
         # the class could not be found
         return None
 
-timer = threading.Timer(TIMEOUT, _thread.interrupt_main)
-timer.daemon = True  # so that the interrupt_main() call will terminate the whole process
-timer.start()
+current_request = None
 
-# wait for a JSON message describing what we should do
-msg = json.loads(input())
 
-module = None
-try:
-    import_in_buf = StringIO()
-    import_out_buf = StringIO()
+def time_limit_exceeded(*args):
+    """Report that the current request exceeded the time limit and exit immediately. This is
+    called from a timer's thread (or as a signal handler), so student code cannot catch it.
+    """
+    send_response(current_request, {
+        'error': True,
+        'error_type': TIME_LIMIT_EXCEEDED,
+        'error_message': 'student code ran longer than %g seconds' % TIMEOUT
+    })
 
-    sys.stdin = import_in_buf
-    sys.stdout = import_out_buf
+    os._exit(1)
 
-    module = importlib.import_module(msg['name'])
 
-    sys.stdin = sys.__stdin__
-    sys.stdout = sys.__stdout__
+def set_memory_limit():
+    if not MEMORY_LIMIT:
+        return
 
-except ImportError as e:
-    sys.stdin = sys.__stdin__
-    sys.stdout = sys.__stdout__
+    try:
+        import resource
+    except ImportError:
+        # not available on Windows
+        return
 
-    # could not find module
-    error(e)
+    size = MEMORY_LIMIT * 1024 * 1024
+    resource.setrlimit(resource.RLIMIT_AS, (size, size))
 
-except (SyntaxError, NameError) as e:
-    if msg['type'] == 'load':
-        conclude(False, type(e).__name__ + ': ' + str(e))
-    else:
-        error(e)
-
-if msg['type'] == 'load':
-    conclude(True, output=import_out_buf.getvalue())
-
-# catalog the members of this module
-for member_name, value in inspect.getmembers(module):
-    globalz[member_name] = value
-
-    if inspect.isbuiltin(value):
-        continue
-    elif inspect.isclass(value):
-        classes[member_name] = value
-    elif inspect.isfunction(value):
-        functions[member_name] = value
-    elif type(value) not in [types.FunctionType, types.LambdaType, types.MethodType,
-                             types.ModuleType]:
-        variables[member_name] = value
-
-if msg['type'] == 'exists':
-    target = msg['target']
-
-    if target['type'] == 'variable':
-        conclude(target['name'] in variables)
-    elif target['type'] == 'function':
-        conclude(target['name'] in functions)
-    elif target['type'] == 'class':
-        conclude(target['name'] in classes)
-    elif target['type'] == 'method':
-        method_name = target['name']
-        class_name = target['class_name']
-
-        method = find_method(class_name, method_name)
-        conclude(method is not None)
-
-elif msg['type'] == 'eval':
-    target = msg['target']
-
-    if target['type'] == 'variable':
-        conclude(variables[target['name']])
-
-    elif target['type'] in ['function', 'method']:
-        parameters = msg['parameters']
-        args = parameters.get('args', [])
-        object_indices = parameters.get('object_indices', [])
-        kwargs = parameters.get('kwargs', {})
-        in_str = parameters.get('input', '')
-
-        before = parameters.get('before', None)
-        after = parameters.get('after', None)
-
-        if target['type'] == 'method':
-            before_class = classes[before['class_name']]
-            before_fields = before['fields']
-
-            before_obj = new(before_class, before_fields)
-
-        for i in object_indices:
-            args[i] = new(classes[args[i]['class_name']], args[i]['fields'])
-
-        in_buf = StringIO(in_str)
-        out_buf = StringIO()
-
-        sys.stdin = in_buf
-        sys.stdout = out_buf
-
-        try:
-            if target['type'] == 'function':
-                f = functions[target['name']]
-                rv = f(*args, **kwargs)
-
-            elif target['type'] == 'method':
-                m = find_method(before['class_name'], target['name'])
-                rv = m(before_obj, *args, **kwargs)
-
-        except Exception as e:
-            sys.stdin = sys.__stdin__
-            sys.stdout = sys.__stdout__
+
+def start_time_limit():
+    """Start enforcing the time limit on the current request, and return the timer (or None)."""
+    if not TIMEOUT:
+        return None
+
+    try:
+        import resource
+    except ImportError:
+        # not available on Windows; Socrates will stop this process if it takes too long
+        resource = None
+
+    if resource is not None:
+        # SIGXCPU is sent when the CPU time used by this process reaches the soft limit
+        usage = resource.getrusage(resource.RUSAGE_SELF)
+        soft = int(math.ceil(usage.ru_utime + usage.ru_stime + TIMEOUT))
+
+        _, hard = resource.getrlimit(resource.RLIMIT_CPU)
+        if hard != resource.RLIM_INFINITY:
+            soft = min(soft, hard)
+
+        resource.setrlimit(resource.RLIMIT_CPU, (soft, hard))
+
+    timer = threading.Timer(TIMEOUT, time_limit_exceeded)
+    timer.daemon = True
+    timer.start()
+    return timer
+
+
+def import_module(msg):
+    """Import the student's module (with its output captured) and catalog its members."""
+    global module, import_output
+
+    import_output = CappedOutput()
+
+    sys.stdin = StringIO()
+    sys.stdout = import_output
+
+    try:
+        m = importlib.import_module(msg['name'])
+
+    except (SyntaxError, NameError) as e:
+        if msg['type'] == 'load':
+            conclude(False, type(e).__name__ + ': ' + str(e))
+        else:
             error(e)
 
+    finally:
         sys.stdin = sys.__stdin__
         sys.stdout = sys.__stdout__
 
-        output_str = out_buf.getvalue()
+    # catalog the members of this module
+    for member_name, value in inspect.getmembers(m):
+        globalz[member_name] = value
+
+        if inspect.isbuiltin(value):
+            continue
+        elif inspect.isclass(value):
+            classes[member_name] = value
+        elif inspect.isfunction(value):
+            functions[member_name] = value
+        elif type(value) not in [types.FunctionType, types.LambdaType, types.MethodType,
+                                 types.ModuleType]:
+            variables[member_name] = value
+
+    module = m
+
+
+def handle(msg):
+    """Handle a request, raising a Response."""
+    if module is None:
+        # raises ImportError if the module could not be found
+        import_module(msg)
+
+    if msg['type'] == 'load':
+        conclude(True, output=import_output)
+
+    if msg['type'] == 'exists':
+        target = msg['target']
+
+        if target['type'] == 'variable':
+            conclude(target['name'] in variables)
+        elif target['type'] == 'function':
+            conclude(target['name'] in functions)
+        elif target['type'] == 'class':
+            conclude(target['name'] in classes)
+        elif target['type'] == 'method':
+            method_name = target['name']
+            class_name = target['class_name']
+
+            method = find_method(class_name, method_name)
+            conclude(method is not None)
+
+    elif msg['type'] == 'eval':
+        target = msg['target']
+
+        parameters = msg.get('parameters', {})
+        mode = get_comparison(parameters)
+
+        if target['type'] == 'variable':
+            conclude_eval(variables[target['name']], parameters, mode)
+
+        elif target['type'] in ['function', 'method']:
+            args = parameters.get('args', [])
+            object_indices = parameters.get('object_indices', [])
+            kwargs = parameters.get('kwargs', {})
+            in_str = parameters.get('input', '')
+
+            before = parameters.get('before', None)
+
+            if target['type'] == 'method':
+                before_class = classes[before['class_name']]
+                before_fields = before['fields']
+
+                before_obj = new(before_class, before_fields)
+
+            for i in object_indices:
+                args[i] = new(classes[args[i]['class_name']], args[i]['fields'])
+
+            in_buf = StringIO(in_str)
+            out_buf = CappedOutput(parameters.get('expected_output', None))
+
+            sys.stdin = in_buf
+            sys.stdout = out_buf
+
+            try:
+                if target['type'] == 'function':
+                    f = functions[target['name']]
+                    rv = f(*args, **kwargs)
+
+                elif target['type'] == 'method':
+                    m = find_method(before['class_name'], target['name'])
+                    rv = m(before_obj, *args, **kwargs)
+
+            except Exception as e:
+                error(e)
+
+            finally:
+                sys.stdin = sys.__stdin__
+                sys.stdout = sys.__stdout__
+
+            obj = before_obj if target['type'] == 'method' else None
+            conclude_eval(rv, parameters, mode, output=out_buf, obj=obj)
+
+    raise ValueError('unknown request: ' + msg['type'])
+
+
+if TIMEOUT and hasattr(signal, 'SIGXCPU'):
+    signal.signal(signal.SIGXCPU, time_limit_exceeded)
+
+set_memory_limit()
+
+while True:
+    request = read_request()
+    if request is None:
+        break
+
+    current_request, msg = request
+    timer = start_time_limit()
+
+    try:
+        handle(msg)
+
+    except Response as r:
+        response = r.response
 
-        after_fields = None
-        if target['type'] == 'method':
-            after_fields = {}
-            for name, value in inspect.getmembers(before_obj):
-                if inspect.isbuiltin(value) or name[0] == '_' or callable(value):
-                    continue
+    except Exception as e:
+        response = error_response(e)
 
-                after_fields[name] = value
+    finally:
+        if timer is not None:
+            timer.cancel()
 
-        conclude(rv, output=output_str, after=after_fields)
+    send_response(current_request, response)
@@ -0,0 +1,112 @@
+package io.breen.socrates;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.file.File;
+import io.breen.socrates.file.plain.PlainFile;
+import io.breen.socrates.model.SubmissionFixture;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.test.any.ReviewTest;
+import org.junit.*;
+
+import java.io.StringWriter;
+import java.util.*;
+
+import static io.breen.socrates.model.SubmissionFixture.setResult;
+import static org.junit.Assert.*;
+
+public class GradebookExporterTest {
+
+    private SubmissionFixture fixture;
+    private Criteria criteria;
+    private PlainFile first;
+    private PlainFile second;
+    private io.breen.socrates.test.Test magic;
+    private io.breen.socrates.test.Test comments;
+    private io.breen.socrates.test.Test small;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new SubmissionFixture("gradebook");
+
+        // the descriptions need quoting in CSV, and the first file's deductions exceed its points
+        magic = new ReviewTest(6.0, "uses \"magic\" numbers, often");
+        comments = new ReviewTest(6.0, "no\ncomments");
+        small = new ReviewTest(5.0, "small");
+
+        first = SubmissionFixture.createFile("ps0pr1.txt", 10.0, magic, comments);
+        second = SubmissionFixture.createFile("ps0pr2.txt", 10.0, small);
+
+        criteria = new Criteria("Problem Set 0", Arrays.<File>asList(first, second));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.delete();
+    }
+
+    private String exportCSV(SubmissionWrapperNode... submissions) throws Exception {
+        GradebookExporter exporter = new GradebookExporter(
+                criteria, GradebookExporter.Format.CSV
+        );
+
+        StringWriter writer = new StringWriter();
+        exporter.export(Arrays.asList(submissions), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Returns the total from the plain text grade report of the specified submission, in the form
+     * "total/possible".
+     */
+    private String getReportTotal(SubmissionWrapperNode swn) {
+        String report = new TextGradeReportFormatter(criteria).toString(swn);
+        int i = report.lastIndexOf("total: ");
+        return report.substring(i + "total: ".length()).trim();
+    }
+
+    @Test
+    public void shouldQuoteSpecialCharacters() throws Exception {
+        SubmissionWrapperNode swn = fixture.createSubmission("doe, jane", first, second);
+        String[] lines = exportCSV(swn).split("\r\n");
+
+        assertEquals(2, lines.length);
+        assertEquals(
+                "student,complete,total,possible," +
+                        "ps0pr1.txt," +
+                        "\"ps0pr1.txt: uses \"\"magic\"\" numbers, often\"," +
+                        "\"ps0pr1.txt: no\ncomments\"," +
+                        "ps0pr2.txt," +
+                        "ps0pr2.txt: small",
+                lines[0]
+        );
+        assertTrue(lines[1].startsWith("\"doe, jane\",false,20,20,"));
+    }
+
+    @Test
+    public void fileDeductionShouldBeCappedAsInGradeReport() throws Exception {
+        SubmissionWrapperNode swn = fixture.createSubmission("alpha", first, second);
+        setResult(swn, first, magic, TestResult.FAILED);
+        setResult(swn, first, comments, TestResult.FAILED);
+        setResult(swn, second, small, TestResult.FAILED);
+
+        String[] lines = exportCSV(swn).split("\r\n");
+
+        // 20 - 10 (capped) - 5; each test column still shows the test's own deduction
+        assertEquals("alpha,true,5,20,10,6,6,5,5", lines[1]);
+        assertEquals("5/20", getReportTotal(swn));
+    }
+
+    @Test
+    public void missingFileShouldDeductItsPointValue() throws Exception {
+        SubmissionWrapperNode swn = fixture.createSubmission("alpha", first);
+        setResult(swn, first, magic, TestResult.FAILED);
+        setResult(swn, first, comments, TestResult.PASSED);
+
+        String[] lines = exportCSV(swn).split("\r\n");
+
+        // the missing file's test columns are empty
+        assertEquals("alpha,true,4,20,6,6,0,10,", lines[1]);
+        assertEquals("4/20", getReportTotal(swn));
+    }
+}
@@ -0,0 +1,103 @@
+package io.breen.socrates.controller;
+
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.UnrecognizedFileWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class SubmissionWatcherTest {
+
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private Path root;
+    private Path submissionDir;
+    private SubmissionWatcher watcher;
+    private BlockingQueue<SubmittedFile> changed;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("watched");
+        submissionDir = root.resolve("alpha");
+        Files.createDirectory(submissionDir);
+        Files.write(submissionDir.resolve("ps0pr1.txt"), "one\n".getBytes(StandardCharsets.UTF_8));
+
+        changed = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (watcher != null) watcher.stop();
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    private void startWatching(Submission submission) throws Exception {
+        watcher = new SubmissionWatcher(
+                Collections.singletonList(submission), new SubmissionWatcher.Listener() {
+                    @Override
+                    public void submissionAdded(Submission submission) {}
+
+                    @Override
+                    public void submittedFileChanged(Submission submission, SubmittedFile file) {
+                        changed.add(file);
+                    }
+                }
+        );
+        watcher.start();
+    }
+
+    private SubmittedFile nextChange() throws Exception {
+        SubmittedFile file = changed.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(file);
+        return file;
+    }
+
+    @Test
+    public void modifiedFileShouldReplaceNodeAndSubmittedFile() throws Exception {
+        Submission submission = Submission.fromDirectory(submissionDir);
+        SubmittedFile oldFile = submission.files.get(0);
+
+        SubmissionWrapperNode swn = new SubmissionWrapperNode(submission);
+        UnrecognizedFileWrapperNode node = new UnrecognizedFileWrapperNode(oldFile);
+        swn.add(node);
+
+        startWatching(submission);
+
+        Path path = submissionDir.resolve("ps0pr1.txt");
+        Files.write(path, "two\n".getBytes(StandardCharsets.UTF_8));
+
+        SubmittedFile newFile = nextChange();
+        assertFalse(oldFile.hash.equals(newFile.hash));
+        assertSame(node, swn.updateFile(newFile));
+
+        assertSame(newFile, node.getUserObject());
+        assertEquals(1, submission.files.size());
+        assertSame(newFile, submission.files.get(0));
+    }
+
+    @Test
+    public void addedFileShouldBeAddedToSubmission() throws Exception {
+        Submission submission = Submission.fromDirectory(submissionDir);
+        SubmissionWrapperNode swn = new SubmissionWrapperNode(submission);
+        swn.add(new UnrecognizedFileWrapperNode(submission.files.get(0)));
+
+        startWatching(submission);
+
+        Files.write(submissionDir.resolve("ps0pr2.txt"), "new\n".getBytes(StandardCharsets.UTF_8));
+
+        SubmittedFile newFile = nextChange();
+        assertEquals(Paths.get("ps0pr2.txt"), newFile.localPath);
+        assertNull(swn.updateFile(newFile));
+
+        assertEquals(2, submission.files.size());
+        assertTrue(submission.files.contains(newFile));
+    }
+}
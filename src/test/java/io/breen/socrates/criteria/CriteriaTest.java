@@ -4,15 +4,20 @@ import io.breen.pyfinder.PythonFinder;
 import io.breen.pyfinder.PythonInterpreter;
 import io.breen.pyfinder.PythonVersion;
 import io.breen.socrates.Globals;
+import io.breen.socrates.file.File;
+import io.breen.socrates.file.plain.PlainFile;
+import io.breen.socrates.test.TestGroup;
+import io.breen.socrates.test.any.ReviewTest;
+import io.breen.socrates.test.plain.AlwaysPassingTest;
 import org.junit.*;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.List;
+import java.util.*;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class CriteriaTest {
 
@@ -30,6 +35,11 @@ public class CriteriaTest {
                 Paths.get(
                         "file_nonmapping." + Criteria.CRITERIA_FILE_EXTENSIONS[0]
                 )
+        ),
+        UNKNOWN_COMPARISON(
+                Paths.get(
+                        "unknown_comparison." + Criteria.CRITERIA_FILE_EXTENSIONS[0]
+                )
         );
 
         Path p;
@@ -94,6 +104,30 @@ public class CriteriaTest {
             w.append("  - !file:plain 123\n");
             w.close();
         }
+
+        {
+            // criteria file with an evaluation test whose comparison does not exist
+            Files.createFile(InputFile.UNKNOWN_COMPARISON.p);
+            BufferedWriter w = Files.newBufferedWriter(
+                    InputFile.UNKNOWN_COMPARISON.p, StandardCharsets.UTF_8
+            );
+            w.append("assignmentName: " + TEST_ASSIGNMENT_NAME + "\n");
+            w.append("files:\n");
+            w.append("  - !file:python\n");
+            w.append("    path: pr1.py\n");
+            w.append("    pointValue: 10\n");
+            w.append("    variables:\n");
+            w.append("      - name: foo\n");
+            w.append("        pointValue: 5\n");
+            w.append("        tests:\n");
+            w.append("          - !test:python:eval:variable\n");
+            w.append("            description: foo should be 3\n");
+            w.append("            deduction: 5\n");
+            w.append("            value: 3\n");
+            w.append("            comparison: sorta\n");
+            w.append("    tests: []\n");
+            w.close();
+        }
     }
 
     @After
@@ -101,6 +135,7 @@ public class CriteriaTest {
         for (InputFile file : InputFile.values()) {
             if (file != InputFile.NONEXISTENT) try {
                 Files.delete(file.p);
+                Files.deleteIfExists(CriteriaCache.getCachePath(file.p));
             } catch (IOException ignored) {}
         }
     }
@@ -131,4 +166,137 @@ public class CriteriaTest {
     public void fileNonMappingShouldThrowException() throws Exception {
         Criteria.loadFromPath(InputFile.FILE_NONMAPPING.p);
     }
+
+    @Test(expected = InvalidCriteriaException.class)
+    public void unknownComparisonShouldThrowException() throws Exception {
+        Criteria.loadFromPath(InputFile.UNKNOWN_COMPARISON.p);
+    }
+
+    @Test
+    public void compiledCriteriaShouldIndexFilesAndTests() throws Exception {
+        AlwaysPassingTest first = new AlwaysPassingTest(1.0);
+        AlwaysPassingTest second = new AlwaysPassingTest(2.0);
+        AlwaysPassingTest third = new AlwaysPassingTest(3.0);
+
+        List<Object> group = new ArrayList<Object>(Collections.singletonList(second));
+        List<Object> tests = new ArrayList<>();
+        tests.add(first);
+        tests.add(new TestGroup(group, 0, 0.0));
+
+        List<File> files = new ArrayList<>(2);
+        files.add(new PlainFile("ps0/pr1.txt", 10.0, null, tests));
+        files.add(new PlainFile("pr2.txt", 10.0, null, new ArrayList<Object>(
+                Collections.singletonList(third)
+        )));
+
+        Criteria c = new Criteria(TEST_ASSIGNMENT_NAME, files);
+
+        assertSame(files.get(0), c.getFileByLocalPath(Paths.get("ps0", "pr1.txt")));
+        assertSame(files.get(1), c.getFileByLocalPath(Paths.get("pr2.txt")));
+        assertNull(c.getFileByLocalPath(Paths.get("pr3.txt")));
+
+        assertSame(files.get(0), c.getFileForTest(second));
+        assertSame(files.get(1), c.getFileForTest(third));
+
+        // root, first, group, second; then root, third
+        assertEquals(6, c.getNumIds());
+        assertEquals(1, c.getId(first));
+        assertEquals(3, c.getId(second));
+        assertEquals(5, c.getId(third));
+        assertSame(second, c.getById(3));
+        assertEquals(-1, c.getId(new AlwaysPassingTest(1.0)));
+    }
+
+    @Test
+    public void matcherShouldFindChangedTests() throws Exception {
+        AlwaysPassingTest oldFirst = new AlwaysPassingTest(1.0);
+        ReviewTest oldReview = new ReviewTest(2.0, "review");
+        AlwaysPassingTest oldSecond = new AlwaysPassingTest(3.0);
+
+        AlwaysPassingTest newFirst = new AlwaysPassingTest(1.0);
+        ReviewTest newReview = new ReviewTest(2.0, "review");
+        AlwaysPassingTest newSecond = new AlwaysPassingTest(4.0);
+        ReviewTest added = new ReviewTest(1.0, "added");
+
+        File oldFile = new PlainFile("pr1.txt", 10.0, null, new ArrayList<Object>(
+                Arrays.asList(oldFirst, oldReview, oldSecond)
+        ));
+        File newFile = new PlainFile("pr1.txt", 10.0, null, new ArrayList<Object>(
+                Arrays.asList(added, newFirst, newSecond, newReview)
+        ));
+
+        TestMatcher matcher = new TestMatcher(oldFile, newFile);
+
+        assertSame(oldFirst, matcher.getOldTest(newFirst));
+        assertFalse(matcher.isChanged(newFirst));
+        assertSame(oldReview, matcher.getOldTest(newReview));
+        assertFalse(matcher.isChanged(newReview));
+
+        // same identity, different deduction
+        assertSame(oldSecond, matcher.getOldTest(newSecond));
+        assertTrue(matcher.isChanged(newSecond));
+
+        assertNull(matcher.getOldTest(added));
+        assertTrue(matcher.isChanged(added));
+    }
+
+    @Test
+    public void cachedCriteriaShouldMatchOriginal() throws Exception {
+        Map<Date, Double> dueDates = new HashMap<>();
+        dueDates.put(new Date(0), 5.0);
+
+        AlwaysPassingTest test = new AlwaysPassingTest(1.0);
+        List<File> files = new ArrayList<>(1);
+        files.add(new PlainFile("pr1.txt", 10.0, dueDates, new ArrayList<Object>(
+                Collections.singletonList(test)
+        )));
+
+        Criteria c = new Criteria(TEST_ASSIGNMENT_NAME, files);
+        Path path = InputFile.BASIC.p;
+
+        CriteriaCache.store(path, "hash", c);
+        assertNull(CriteriaCache.load(path, "other hash"));
+
+        Criteria cached = CriteriaCache.load(path, "hash");
+        assertNotNull(cached);
+        assertEquals(TEST_ASSIGNMENT_NAME, cached.assignmentName);
+        assertEquals(c.getNumIds(), cached.getNumIds());
+
+        // late submission group, then the test
+        File file = cached.getFileByLocalPath(Paths.get("pr1.txt"));
+        Object cachedTest = file.testRoot.members.get(1);
+        assertTrue(file.testRoot.members.get(0) instanceof TestGroup);
+        assertTrue(cachedTest instanceof AlwaysPassingTest);
+        assertEquals(c.getId(test), cached.getId(cachedTest));
+        assertSame(file, cached.getFileForTest((AlwaysPassingTest)cachedTest));
+    }
+
+    @Test
+    public void cachedCriteriaFromAnotherVersionShouldBeIgnored() throws Exception {
+        Criteria c = new Criteria(TEST_ASSIGNMENT_NAME, new ArrayList<File>());
+        Path path = InputFile.BASIC.p;
+
+        CriteriaCache.store(path, "hash", c);
+        assertNotNull(CriteriaCache.load(path, "hash"));
+
+        // change the last character of the version in the header
+        Path cachePath = CriteriaCache.getCachePath(path);
+        byte[] bytes = Files.readAllBytes(cachePath);
+        byte[] version = Globals.VERSION.getBytes(StandardCharsets.UTF_8);
+
+        int i = indexOf(bytes, version);
+        assertTrue(i >= 0);
+        bytes[i + version.length - 1] ^= 1;
+        Files.write(cachePath, bytes);
+
+        assertNull(CriteriaCache.load(path, "hash"));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            if (Arrays.equals(target, Arrays.copyOfRange(bytes, i, i + target.length))) return i;
+        }
+
+        return -1;
+    }
 }
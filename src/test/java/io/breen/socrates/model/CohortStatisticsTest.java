@@ -0,0 +1,148 @@
+package io.breen.socrates.model;
+
+import io.breen.socrates.criteria.Criteria;
+import io.breen.socrates.file.File;
+import io.breen.socrates.file.plain.PlainFile;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.test.any.ReviewTest;
+import org.junit.*;
+
+import java.util.*;
+
+import static io.breen.socrates.model.SubmissionFixture.setResult;
+import static org.junit.Assert.*;
+
+public class CohortStatisticsTest {
+
+    private static final double DELTA = 1e-9;
+
+    private SubmissionFixture fixture;
+    private Criteria criteria;
+    private PlainFile first;
+    private PlainFile second;
+    private io.breen.socrates.test.Test big;
+    private io.breen.socrates.test.Test other;
+    private io.breen.socrates.test.Test small;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new SubmissionFixture("statistics");
+
+        // the deductions of the first file's tests add up to more than its point value
+        big = new ReviewTest(6.0, "big");
+        other = new ReviewTest(6.0, "other");
+        small = new ReviewTest(5.0, "small");
+
+        first = SubmissionFixture.createFile("ps0pr1.txt", 10.0, big, other);
+        second = SubmissionFixture.createFile("ps0pr2.txt", 10.0, small);
+
+        criteria = new Criteria("Problem Set 0", Arrays.<File>asList(first, second));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.delete();
+    }
+
+    @Test
+    public void missingFileShouldDeductItsPointValue() throws Exception {
+        CohortStatistics statistics = new CohortStatistics(criteria);
+        statistics.add(fixture.createSubmission("alpha", first));
+
+        assertEquals(1, statistics.getFileStatistics(second).numMissing);
+        assertEquals(10.0, statistics.getFileStatistics(second).getMeanDeduction(), DELTA);
+        assertEquals(0.0, statistics.getFileStatistics(first).getMeanDeduction(), DELTA);
+        assertEquals(1, statistics.getTestStatistics(big).numTotal);
+        assertEquals(0, statistics.getNumComplete());
+    }
+
+    @Test
+    public void fileDeductionShouldBeCapped() throws Exception {
+        CohortStatistics statistics = new CohortStatistics(criteria);
+        SubmissionWrapperNode swn = fixture.createSubmission("alpha", first, second);
+        statistics.add(swn);
+
+        setResult(swn, first, big, TestResult.FAILED);
+        assertEquals(6.0, statistics.getFileStatistics(first).totalDeducted, DELTA);
+
+        setResult(swn, first, other, TestResult.FAILED);
+        assertEquals(10.0, statistics.getFileStatistics(first).totalDeducted, DELTA);
+
+        // passing one test removes only the part of its deduction that was counted
+        setResult(swn, first, other, TestResult.PASSED);
+        assertEquals(6.0, statistics.getFileStatistics(first).totalDeducted, DELTA);
+
+        assertEquals(1, statistics.getTestStatistics(big).numFailed);
+        assertEquals(1, statistics.getTestStatistics(other).numPassed);
+        assertEquals(0, statistics.getTestStatistics(other).numFailed);
+    }
+
+    @Test
+    public void completeSubmissionsShouldMoveBetweenBins() throws Exception {
+        CohortStatistics statistics = new CohortStatistics(criteria);
+        SubmissionWrapperNode swn = fixture.createSubmission("alpha", first, second);
+        statistics.add(swn);
+
+        setResult(swn, first, big, TestResult.FAILED);
+        setResult(swn, first, other, TestResult.FAILED);
+        assertEquals(0, statistics.getNumComplete());
+
+        // 20 - 10 (capped) - 5 = 5 of 20 points
+        setResult(swn, second, small, TestResult.FAILED);
+        assertEquals(1, statistics.getNumComplete());
+        assertEquals(1, statistics.getHistogram()[2]);
+
+        // 20 - 6 = 14 of 20 points
+        setResult(swn, first, other, TestResult.PASSED);
+        setResult(swn, second, small, TestResult.PASSED);
+        assertEquals(1, statistics.getNumComplete());
+        assertEquals(0, statistics.getHistogram()[2]);
+        assertEquals(1, statistics.getHistogram()[7]);
+
+        setResult(swn, first, big, TestResult.NONE);
+        assertEquals(0, statistics.getNumComplete());
+        assertEquals(0, statistics.getHistogram()[7]);
+
+        // 20 of 20 points
+        setResult(swn, first, big, TestResult.PASSED);
+        assertEquals(1, statistics.getHistogram()[CohortStatistics.NUM_BINS - 1]);
+    }
+
+    @Test
+    public void removedSubmissionShouldNoLongerCount() throws Exception {
+        CohortStatistics statistics = new CohortStatistics(criteria);
+
+        SubmissionWrapperNode alpha = fixture.createSubmission("alpha", first);
+        SubmissionWrapperNode beta = fixture.createSubmission("beta", first, second);
+        statistics.add(alpha);
+        statistics.add(beta);
+
+        setResult(alpha, first, big, TestResult.FAILED);
+        setResult(alpha, first, other, TestResult.PASSED);
+        setResult(beta, first, big, TestResult.PASSED);
+        setResult(beta, first, other, TestResult.PASSED);
+        setResult(beta, second, small, TestResult.PASSED);
+        assertEquals(2, statistics.getNumComplete());
+
+        statistics.remove(alpha);
+
+        assertEquals(1, statistics.getNumSubmissions());
+        assertEquals(1, statistics.getNumComplete());
+        assertEquals(0, statistics.getFileStatistics(second).numMissing);
+        assertEquals(0.0, statistics.getFileStatistics(first).totalDeducted, DELTA);
+        assertEquals(0, statistics.getTestStatistics(big).numFailed);
+        assertEquals(1, statistics.getTestStatistics(big).numTotal);
+
+        // changes to a removed submission are ignored
+        setResult(alpha, first, other, TestResult.FAILED);
+        assertEquals(0, statistics.getTestStatistics(other).numFailed);
+
+        // adding it again counts its current results
+        statistics.add(alpha);
+        assertEquals(2, statistics.getNumSubmissions());
+        assertEquals(1, statistics.getFileStatistics(second).numMissing);
+        assertEquals(2, statistics.getTestStatistics(big).numTotal);
+        assertEquals(1, statistics.getTestStatistics(other).numFailed);
+        assertEquals(10.0, statistics.getFileStatistics(first).totalDeducted, DELTA);
+    }
+}
@@ -0,0 +1,87 @@
+package io.breen.socrates.model;
+
+import io.breen.socrates.file.python.PythonFile;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.python.ImportTest;
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import static org.junit.Assert.*;
+
+public class ContentIndexTest {
+
+    private Path parent;
+
+    @Before
+    public void setUp() throws Exception {
+        parent = Files.createTempDirectory("content-index");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(parent.toFile());
+    }
+
+    private Submission createSubmission(String name, String module, String helper)
+            throws Exception
+    {
+        Path dir = parent.resolve(name);
+        Files.createDirectory(dir);
+        Files.write(dir.resolve("main.py"), module.getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("helper.py"), helper.getBytes(StandardCharsets.UTF_8));
+
+        return Submission.fromDirectory(dir);
+    }
+
+    private static SubmittedFile getFile(Submission submission, String localPath) {
+        for (SubmittedFile f : submission.files)
+            if (f.localPath.toString().equals(localPath)) return f;
+
+        throw new IllegalArgumentException("no such file: " + localPath);
+    }
+
+    @Test
+    public void identicalFilesWithDifferentSiblingsShouldNotShareOutcomes() throws Exception {
+        Submission alpha = createSubmission("alpha", "from helper import *\n", "x = 1\n");
+        Submission beta = createSubmission("beta", "from helper import *\n", "x = \n");
+
+        SubmittedFile alphaMain = getFile(alpha, "main.py");
+        SubmittedFile betaMain = getFile(beta, "main.py");
+        assertEquals(alphaMain.hash, betaMain.hash);
+
+        ImportTest test = new ImportTest(new PythonFile(5.0));
+        ContentIndex index = new ContentIndex();
+
+        String alphaHash = ContentIndex.getOutcomeHash(test, alphaMain, alpha);
+        String betaHash = ContentIndex.getOutcomeHash(test, betaMain, beta);
+        assertNotNull(alphaHash);
+        assertNotNull(betaHash);
+
+        index.putOutcome(alphaHash, test, new ContentIndex.Outcome(TestResult.PASSED, ""));
+
+        assertNotNull(index.getOutcome(alphaHash, test));
+        assertNull(index.getOutcome(betaHash, test));
+    }
+
+    @Test
+    public void identicalSubmissionsShouldShareOutcomes() throws Exception {
+        Submission alpha = createSubmission("alpha", "from helper import *\n", "x = 1\n");
+        Submission beta = createSubmission("beta", "from helper import *\n", "x = 1\n");
+
+        ImportTest test = new ImportTest(new PythonFile(5.0));
+        ContentIndex index = new ContentIndex();
+
+        String alphaHash = ContentIndex.getOutcomeHash(test, getFile(alpha, "main.py"), alpha);
+        index.putOutcome(alphaHash, test, new ContentIndex.Outcome(TestResult.FAILED, "notes"));
+
+        String betaHash = ContentIndex.getOutcomeHash(test, getFile(beta, "main.py"), beta);
+        ContentIndex.Outcome outcome = index.getOutcome(betaHash, test);
+        assertNotNull(outcome);
+        assertEquals(TestResult.FAILED, outcome.result);
+        assertEquals("notes", outcome.notes);
+    }
+}
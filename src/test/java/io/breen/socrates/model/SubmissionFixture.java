@@ -0,0 +1,73 @@
+package io.breen.socrates.model;
+
+import io.breen.socrates.file.File;
+import io.breen.socrates.file.plain.PlainFile;
+import io.breen.socrates.model.wrapper.SubmissionWrapperNode;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Creates submission nodes for plain files under a temporary directory, so that tests of code
+ * that totals up grades can set test results without running any tests.
+ */
+public class SubmissionFixture {
+
+    private final Path parent;
+
+    public SubmissionFixture(String prefix) throws IOException {
+        parent = Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Deletes the temporary directory containing every submission created by this fixture.
+     */
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(parent.toFile());
+    }
+
+    public static PlainFile createFile(String path, double pointValue,
+                                       io.breen.socrates.test.Test... tests)
+    {
+        return new PlainFile(path, pointValue, null, new ArrayList<Object>(Arrays.asList(tests)));
+    }
+
+    /**
+     * Returns the node for a new submission containing the specified files from the criteria.
+     */
+    public SubmissionWrapperNode createSubmission(String name, PlainFile... files)
+            throws IOException
+    {
+        Path dir = parent.resolve(name);
+        Files.createDirectory(dir);
+
+        Submission submission = new Submission(name, dir);
+        SubmissionWrapperNode swn = new SubmissionWrapperNode(submission);
+
+        for (PlainFile file : files) {
+            Path path = dir.resolve(file.path);
+            Files.write(path, name.getBytes("UTF-8"));
+
+            SubmittedFile submittedFile = new SubmittedFile(path, Paths.get(file.path));
+            submission.putFile(submittedFile);
+            swn.add(new SubmittedFileWrapperNode(submittedFile, file));
+        }
+
+        return swn;
+    }
+
+    public static SubmittedFileWrapperNode getFileNode(SubmissionWrapperNode swn, File file) {
+        return (SubmittedFileWrapperNode)swn.getFileNode(Paths.get(file.path));
+    }
+
+    public static void setResult(SubmissionWrapperNode swn, File file,
+                                 io.breen.socrates.test.Test test, TestResult result)
+    {
+        getFileNode(swn, file).getTestNode(test).setResult(result);
+    }
+}
@@ -0,0 +1,271 @@
+package io.breen.socrates.session;
+
+import io.breen.socrates.file.plain.PlainFile;
+import io.breen.socrates.model.TestResult;
+import io.breen.socrates.model.wrapper.SubmittedFileWrapperNode;
+import io.breen.socrates.submission.Submission;
+import io.breen.socrates.submission.SubmittedFile;
+import io.breen.socrates.test.any.ReviewTest;
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import java.io.RandomAccessFile;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SessionJournalTest {
+
+    private static final String ASSIGNMENT = "Problem Set 0";
+
+    private Path parent;
+    private Path journalPath;
+    private ReviewTest test;
+    private PlainFile file;
+    private SubmittedFile submittedFile;
+    private Submission submission;
+
+    @Before
+    public void setUp() throws Exception {
+        parent = Files.createTempDirectory("journal");
+        journalPath = parent.resolve("criteria.scf." + SessionJournal.EXTENSION);
+
+        test = new ReviewTest(5.0, "looks right");
+        file = new PlainFile("ps0pr1.txt", 10.0, null, new ArrayList<Object>(
+                Collections.singletonList(test)
+        ));
+
+        Path dir = parent.resolve("alpha");
+        Files.createDirectory(dir);
+        Path path = dir.resolve(file.path);
+        Files.write(path, "alpha".getBytes("UTF-8"));
+
+        submittedFile = new SubmittedFile(path, Paths.get(file.path));
+        submission = new Submission("alpha", dir, Collections.singletonList(submittedFile));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(parent.toFile());
+    }
+
+    private SubmittedFileWrapperNode newNode() {
+        return new SubmittedFileWrapperNode(submittedFile, file);
+    }
+
+    /**
+     * Opens the journal, records the specified results for the test (in order), and closes it.
+     */
+    private void record(TestResult... results) throws Exception {
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode sfwn = newNode();
+        journal.attach(submission, sfwn);
+
+        for (TestResult result : results)
+            sfwn.getTestNode(test).setResult(result);
+
+        journal.close();
+    }
+
+    /**
+     * Opens the journal, and returns the result restored for the test (or null if nothing was
+     * restored).
+     */
+    private TestResult replay() throws Exception {
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode sfwn = newNode();
+        int numRestored = journal.restore(submission, sfwn);
+        journal.close();
+
+        return numRestored == 0 ? null : sfwn.getTestNode(test).getResult();
+    }
+
+    @Test
+    public void shouldRestoreRecordedResultAndNotes() throws Exception {
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode sfwn = newNode();
+        journal.attach(submission, sfwn);
+
+        sfwn.getTestNode(test).setResult(TestResult.FAILED);
+        sfwn.getTestNode(test).notes.insertString(0, "missing a case", null);
+        journal.close();
+
+        journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode restored = newNode();
+        assertEquals(1, journal.restore(submission, restored));
+        journal.close();
+
+        assertEquals(TestResult.FAILED, restored.getTestNode(test).getResult());
+        assertEquals(
+                "missing a case",
+                restored.getTestNode(test).notes.getText(
+                        0, restored.getTestNode(test).notes.getLength()
+                )
+        );
+    }
+
+    @Test
+    public void shouldDiscardTornRecordAtEnd() throws Exception {
+        record(TestResult.PASSED);
+        long length = Files.size(journalPath);
+
+        // the length of a record, followed by only part of the record
+        try (RandomAccessFile f = new RandomAccessFile(journalPath.toFile(), "rw")) {
+            f.seek(length);
+            f.writeInt(100);
+            f.writeInt(0);
+            f.write(new byte[10]);
+        }
+
+        assertEquals(TestResult.PASSED, replay());
+        assertEquals(length, Files.size(journalPath));
+
+        // records written after the torn record was removed are read
+        record(TestResult.FAILED);
+        assertEquals(TestResult.FAILED, replay());
+    }
+
+    @Test
+    public void shouldRejectRecordWithBadChecksum() throws Exception {
+        record(TestResult.PASSED, TestResult.FAILED);
+        long length = Files.size(journalPath);
+
+        // change the last byte of the last record
+        try (RandomAccessFile f = new RandomAccessFile(journalPath.toFile(), "rw")) {
+            f.seek(length - 1);
+            byte b = f.readByte();
+            f.seek(length - 1);
+            f.writeByte(b ^ 0x01);
+        }
+
+        assertEquals(TestResult.PASSED, replay());
+        assertTrue(Files.size(journalPath) < length);
+    }
+
+    @Test
+    public void shouldNotRestoreSavedSubmission() throws Exception {
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode sfwn = newNode();
+        journal.attach(submission, sfwn);
+
+        sfwn.getTestNode(test).setResult(TestResult.FAILED);
+        journal.submissionSaved(submission);
+        journal.close();
+
+        assertNull(replay());
+    }
+
+    @Test
+    public void shouldBeEmptyOnceEverySubmissionIsSaved() throws Exception {
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        assertTrue(journal.isEmpty());
+
+        SubmittedFileWrapperNode sfwn = newNode();
+        journal.attach(submission, sfwn);
+
+        sfwn.getTestNode(test).setResult(TestResult.FAILED);
+        assertFalse(journal.isEmpty());
+
+        journal.submissionSaved(submission);
+        journal.close();
+
+        journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void shouldIgnoreJournalForAnotherAssignment() throws Exception {
+        record(TestResult.FAILED);
+
+        SessionJournal journal = SessionJournal.open(journalPath, "Problem Set 1");
+        assertEquals(0, journal.restore(submission, newNode()));
+        journal.close();
+    }
+
+    @Test
+    public void shouldDistinguishSubmissionsInDifferentArchives() throws Exception {
+        Path dir = Paths.get("/alpha");
+        Submission first = new Submission(
+                "alpha", dir, Collections.singletonList(submittedFile), parent.resolve("a.zip")
+        );
+        Submission second = new Submission(
+                "alpha", dir, Collections.singletonList(submittedFile), parent.resolve("b.zip")
+        );
+
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        SubmittedFileWrapperNode sfwn = newNode();
+        journal.attach(first, sfwn);
+        sfwn.getTestNode(test).setResult(TestResult.FAILED);
+        journal.close();
+
+        journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        assertEquals(0, journal.restore(second, newNode()));
+        assertEquals(1, journal.restore(first, newNode()));
+        journal.close();
+    }
+
+    @Test
+    public void shouldCompactSupersededRecords() throws Exception {
+        TestResult[] results = new TestResult[20001];
+        for (int i = 0; i < results.length; i++)
+            results[i] = i % 2 == 0 ? TestResult.FAILED : TestResult.PASSED;
+
+        // a new journal contains only its header
+        SessionJournal.open(journalPath, ASSIGNMENT).close();
+        long headerSize = Files.size(journalPath);
+
+        record(TestResult.PASSED);
+        long recordSize = Files.size(journalPath) - headerSize;
+
+        record(results);
+
+        // the journal is compacted while it is written, or when it is opened again
+        assertEquals(TestResult.FAILED, replay());
+        assertTrue(Files.size(journalPath) - headerSize < results.length / 2 * recordSize);
+        assertEquals(TestResult.FAILED, replay());
+    }
+
+    @Test
+    public void shouldReplayManyRecordsQuickly() throws Exception {
+        // four records for each test, so that the journal is not compacted
+        int numTests = 25000;
+
+        SessionJournal journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        List<SubmittedFileWrapperNode> nodes = new ArrayList<>(numTests);
+        List<Submission> submissions = new ArrayList<>(numTests);
+
+        for (int i = 0; i < numTests; i++) {
+            Submission s = new Submission(
+                    "student" + i, parent.resolve("student" + i),
+                    Collections.singletonList(submittedFile)
+            );
+            SubmittedFileWrapperNode sfwn = newNode();
+            journal.attach(s, sfwn);
+            submissions.add(s);
+            nodes.add(sfwn);
+        }
+
+        for (TestResult result : new TestResult[] {
+                TestResult.FAILED, TestResult.PASSED, TestResult.NONE, TestResult.FAILED
+        })
+        {
+            for (SubmittedFileWrapperNode sfwn : nodes)
+                sfwn.getTestNode(test).setResult(result);
+        }
+
+        journal.close();
+
+        long start = System.nanoTime();
+        journal = SessionJournal.open(journalPath, ASSIGNMENT);
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        SubmittedFileWrapperNode restored = newNode();
+        assertEquals(1, journal.restore(submissions.get(numTests - 1), restored));
+        assertEquals(TestResult.FAILED, restored.getTestNode(test).getResult());
+        journal.close();
+
+        assertTrue("replay took " + millis + " ms", millis < 1000);
+    }
+}
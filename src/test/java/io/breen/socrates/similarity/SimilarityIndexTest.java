@@ -0,0 +1,157 @@
+package io.breen.socrates.similarity;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SimilarityIndexTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final String ORIGINAL = "def count_vowels(word):\n" +
+            "    total = 0\n" +
+            "    for letter in word:\n" +
+            "        if letter in 'aeiou':\n" +
+            "            total += 1\n" +
+            "    return total\n" +
+            "\n" +
+            "def longest(words):\n" +
+            "    best = ''\n" +
+            "    for w in words:\n" +
+            "        if len(w) > len(best):\n" +
+            "            best = w\n" +
+            "    return best\n";
+
+    private Fingerprinter fingerprinter;
+
+    @Before
+    public void setUp() throws Exception {
+        fingerprinter = new Fingerprinter();
+    }
+
+    /**
+     * Returns a sorted array of the hashes from start (inclusive) to end (exclusive), followed by
+     * the specified extra hashes, which must all be at least end.
+     */
+    private static int[] hashes(int start, int end, int... extra) {
+        int[] fingerprint = new int[end - start + extra.length];
+        for (int i = start; i < end; i++)
+            fingerprint[i - start] = i;
+
+        System.arraycopy(extra, 0, fingerprint, end - start, extra.length);
+        Arrays.sort(fingerprint);
+        return fingerprint;
+    }
+
+    @Test
+    public void renamedIdentifiersAndLiteralsShouldMatch() throws Exception {
+        String renamed = "# counts the vowels\n" +
+                "def vowels_in(s):\n" +
+                "    n = 10\n" +
+                "    for c in s:\n" +
+                "        if c in 'AEIOU':\n" +
+                "            n += 2\n" +
+                "    return n\n" +
+                "\n" +
+                "def find_longest(items):\n" +
+                "    result = 'none'\n" +
+                "    for item in items:\n" +
+                "        if len(item) > len(result):  # longer\n" +
+                "            result = item\n" +
+                "    return result\n";
+
+        SimilarityIndex<String> index = new SimilarityIndex<>();
+        index.add("original", fingerprinter.fingerprint(ORIGINAL, "python"));
+        index.add("renamed", fingerprinter.fingerprint(renamed, "python"));
+
+        List<SimilarityIndex.Match<String>> matches = index.findMatches(
+                SimilarityReport.DEFAULT_THRESHOLD
+        );
+
+        assertEquals(1, matches.size());
+        assertEquals(1.0, matches.get(0).similarity, DELTA);
+    }
+
+    @Test
+    public void unrelatedFilesShouldNotMatch() throws Exception {
+        String unrelated = "import sys\n" +
+                "\n" +
+                "class Stack:\n" +
+                "    def __init__(self):\n" +
+                "        self.items = []\n" +
+                "\n" +
+                "    def push(self, x):\n" +
+                "        self.items.append(x)\n" +
+                "\n" +
+                "    def pop(self):\n" +
+                "        return self.items.pop()\n" +
+                "\n" +
+                "print(Stack().pop(), file=sys.stderr)\n";
+
+        SimilarityIndex<String> index = new SimilarityIndex<>();
+        index.add("original", fingerprinter.fingerprint(ORIGINAL, "python"));
+        index.add("unrelated", fingerprinter.fingerprint(unrelated, "python"));
+
+        assertTrue(index.findMatches(SimilarityReport.DEFAULT_THRESHOLD).isEmpty());
+    }
+
+    @Test
+    public void commonHashesShouldBeIgnored() throws Exception {
+        SimilarityIndex<Integer> index = new SimilarityIndex<>();
+
+        // every item shares 100 hashes (e.g., from starter code), and has 10 of its own
+        for (int i = 0; i < 10; i++) {
+            int start = 1000 + 10 * i;
+            index.add(i, hashes(0, 100, start, start + 1, start + 2, start + 3, start + 4,
+                                start + 5, start + 6, start + 7, start + 8, start + 9));
+        }
+
+        // except for the last item, which has the same hashes of its own as the first
+        index.add(10, hashes(0, 100, 1000, 1001, 1002, 1003, 1004, 1005, 1006, 1007, 1008, 1009));
+
+        List<SimilarityIndex.Match<Integer>> matches = index.findMatches(
+                SimilarityReport.DEFAULT_THRESHOLD
+        );
+
+        assertEquals(1, matches.size());
+        assertEquals(0, (int)matches.get(0).first);
+        assertEquals(10, (int)matches.get(0).second);
+        assertEquals(1.0, matches.get(0).similarity, DELTA);
+
+        // without ignoring the common hashes, every pair is similar
+        assertEquals(55, index.findMatches(SimilarityReport.DEFAULT_THRESHOLD, 1.0).size());
+    }
+
+    @Test
+    public void matchesShouldMeetThresholdMostSimilarFirst() throws Exception {
+        SimilarityIndex<String> index = new SimilarityIndex<>();
+
+        // 60 shared of 100 distinct hashes
+        index.add("c", hashes(0, 80));
+        index.add("d", hashes(20, 100));
+
+        // 50 shared of 100 distinct hashes
+        index.add("e", hashes(1000, 1075));
+        index.add("f", hashes(1025, 1100));
+
+        // 80 shared of 100 distinct hashes
+        index.add("a", hashes(2000, 2090));
+        index.add("b", hashes(2010, 2100));
+
+        List<SimilarityIndex.Match<String>> matches = index.findMatches(
+                SimilarityReport.DEFAULT_THRESHOLD
+        );
+
+        assertEquals(2, matches.size());
+
+        assertEquals("a", matches.get(0).first);
+        assertEquals("b", matches.get(0).second);
+        assertEquals(0.8, matches.get(0).similarity, DELTA);
+
+        assertEquals("c", matches.get(1).first);
+        assertEquals("d", matches.get(1).second);
+        assertEquals(0.6, matches.get(1).similarity, DELTA);
+    }
+}
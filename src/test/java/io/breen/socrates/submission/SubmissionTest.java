@@ -1,16 +1,20 @@
 package io.breen.socrates.submission;
 
+import io.breen.socrates.Globals;
 import io.breen.socrates.criteria.Criteria;
 import io.breen.socrates.file.File;
 import io.breen.socrates.file.plain.PlainFile;
 import org.junit.*;
 
 import java.io.IOException;
+import java.nio.charset.MalformedInputException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -171,4 +175,102 @@ public class SubmissionTest {
         assertNotNull(s);
         assertEquals(0, s.files.size());
     }
+
+    @Test
+    public void loaderShouldLoadAllButBeta() throws Exception {
+        SubmissionLoader loader = new SubmissionLoader();
+        List<Submission> loaded = loader.load(Arrays.asList(children), null);
+
+        assertEquals(children.length - 1, loaded.size());
+        assertEquals(1, loader.getErrors().size());
+        assertTrue(
+                loader.getErrors().get(children[SubDir.BETA.i]) instanceof ReceiptFormatException
+        );
+
+        // submissions should be in the same order as their directories
+        assertEquals(children[SubDir.ALPHA.i], loaded.get(0).submissionDir);
+        assertEquals(children[SubDir.EPSILON.i], loaded.get(loaded.size() - 1).submissionDir);
+    }
+
+    @Test
+    public void loaderShouldReadSubmissionsFromArchive() throws Exception {
+        Path archive = submissionDir.resolve("all.zip");
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (SubDir d : new SubDir[] {SubDir.ALPHA, SubDir.GAMMA}) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(children[d.i])) {
+                    for (Path p : stream) {
+                        String name = d.name().toLowerCase() + "/" + p.getFileName();
+                        out.putNextEntry(new ZipEntry(name));
+                        out.write(Files.readAllBytes(p));
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+
+        SubmissionLoader loader = new SubmissionLoader();
+        List<Submission> loaded = loader.load(Collections.singletonList(archive), null);
+
+        assertEquals(0, loader.getErrors().size());
+        assertEquals(2, loaded.size());
+
+        Submission alpha = loaded.get(0);
+        assertEquals("alpha", alpha.studentName);
+        assertTrue(alpha.isArchived());
+        assertNotNull(alpha.files.get(0).receipt);
+        assertNotNull(criteria.getFileByLocalPath(alpha.files.get(0).localPath));
+
+        Path working = alpha.getWorkingPath(alpha.files.get(0));
+        assertEquals(FileSystems.getDefault(), working.getFileSystem());
+        assertTrue(Files.isRegularFile(working));
+    }
+
+    @Test
+    public void gradedSubmissionShouldOnlyLoadWhenAllowed() throws Exception {
+        Path dir = children[SubDir.GAMMA.i];
+        Files.createFile(dir.resolve(Globals.DEFAULT_GRADE_FILE_NAME));
+        Files.createFile(dir.resolve(Globals.DEFAULT_MANIFEST_FILE_NAME));
+
+        try {
+            Submission.fromDirectory(dir);
+            fail("expected already graded submission");
+        } catch (AlreadyGradedException ignored) {}
+
+        Submission s = Submission.fromDirectory(dir, null, true);
+        assertEquals(1, s.files.size());
+        assertEquals(Paths.get("ps0pr1.txt"), s.files.get(0).localPath);
+    }
+
+    @Test
+    public void contentsShouldReplaceMalformedInput() throws Exception {
+        Path p = children[SubDir.GAMMA.i].resolve("ps0pr1.txt");
+        Files.write(p, new byte[] {'a', (byte)0xC3, (byte)0xA9, (byte)0xFF, '\r', '\n', 'b'});
+
+        SubmittedFile f = Submission.fromDirectory(children[SubDir.GAMMA.i]).files.get(0);
+
+        assertEquals("a\u00e9\ufffd\r\nb", f.getContentsMixedUTF8());
+        assertEquals("a\u00e9\ufffd\nb\n", f.getContents());
+
+        try {
+            f.getContentsUTF8();
+            fail("expected malformed input");
+        } catch (MalformedInputException ignored) {}
+    }
+
+    @Test
+    public void contentsShouldBeReadAgainAfterModification() throws Exception {
+        Path p = children[SubDir.GAMMA.i].resolve("ps0pr1.txt");
+        Files.write(p, "old".getBytes(StandardCharsets.UTF_8));
+
+        SubmittedFile f = Submission.fromDirectory(children[SubDir.GAMMA.i]).files.get(0);
+        assertEquals("old\n", f.getContents());
+
+        Files.write(p, "new".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(
+                p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 1000)
+        );
+
+        assertEquals("new\n", f.getContents());
+    }
 }
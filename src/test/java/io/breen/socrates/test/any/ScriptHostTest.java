@@ -0,0 +1,210 @@
+package io.breen.socrates.test.any;
+
+import io.breen.pyfinder.PythonFinder;
+import io.breen.pyfinder.PythonVersion;
+import io.breen.socrates.Globals;
+import io.breen.socrates.test.AutomationFailureException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.junit.*;
+
+import javax.swing.*;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ScriptHostTest {
+
+    private Path dir;
+    private Document output;
+
+    @Before
+    public void setUp() throws Exception {
+        Globals.interpreter = new PythonFinder().findOrNewer(new PythonVersion(3, 2)).get(0);
+
+        dir = Files.createTempDirectory("scripthost");
+        output = new PlainDocument();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    /**
+     * Writes a script with the specified lines to the temporary directory, and returns its path.
+     */
+    private Path writeScript(String fileName, String... lines) throws Exception {
+        Path path = dir.resolve(fileName);
+        Files.write(path, Arrays.asList(lines), Charset.defaultCharset());
+        return path;
+    }
+
+    /**
+     * Returns the text of the output document, once everything appended to it has been inserted.
+     */
+    private String getOutput() throws Exception {
+        // output is inserted on the event dispatch thread
+        SwingUtilities.invokeAndWait(
+                new Runnable() {
+                    @Override
+                    public void run() {}
+                }
+        );
+
+        return output.getText(0, output.getLength());
+    }
+
+    @Test
+    public void shouldReturnConcludedResponse() throws Exception {
+        Path script = writeScript(
+                "concludes.py",
+                "import socrates",
+                "params = socrates.get_parameters()",
+                "print('checking', params['n'])",
+                "socrates.conclude(params['n'] == 3, transcript='three', notes='none')"
+        );
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("n", 3);
+
+        Map<String, Object> response = ScriptHost.run(script, dir, params, 10.0, 0, output);
+
+        assertFalse(response.containsKey("host_error"));
+        assertEquals(true, response.get("should_pass"));
+        assertEquals("three", response.get("transcript"));
+        assertEquals("none", response.get("notes"));
+        assertEquals("checking 3\n", getOutput());
+    }
+
+    @Test
+    public void shouldStreamOutputLargerThanPipe() throws Exception {
+        // about 1 MB, much more than a pipe holds
+        Path script = writeScript(
+                "prints.py",
+                "import socrates",
+                "for i in range(1000):",
+                "    print('x' * 999)",
+                "socrates.conclude(True)"
+        );
+
+        Map<String, Object> response = ScriptHost.run(
+                script, dir, Collections.<String, Object>emptyMap(), 10.0, 0, output
+        );
+
+        assertEquals(true, response.get("should_pass"));
+        assertEquals(1000 * 1000, getOutput().length());
+    }
+
+    @Test
+    public void shouldStopScriptThatTimesOut() throws Exception {
+        Path script = writeScript(
+                "sleeps.py",
+                "import socrates, time",
+                "time.sleep(60)",
+                "socrates.conclude(True)"
+        );
+
+        Map<String, Object> response = ScriptHost.run(
+                script, dir, Collections.<String, Object>emptyMap(), 1.0, 0, output
+        );
+
+        assertTrue(((String)response.get("host_error")).contains("timed out"));
+    }
+
+    @Test
+    public void shouldStopScriptExceedingCpuTime() throws Exception {
+        Assume.assumeFalse(SystemUtils.IS_OS_WINDOWS);
+
+        Path script = writeScript(
+                "spins.py",
+                "import socrates",
+                "while True:",
+                "    pass",
+                "socrates.conclude(True)"
+        );
+
+        Map<String, Object> response = ScriptHost.run(
+                script, dir, Collections.<String, Object>emptyMap(), 30.0, 1.0, output
+        );
+
+        assertTrue(((String)response.get("host_error")).contains("CPU time"));
+    }
+
+    @Test
+    public void shouldStopProcessesStartedByScript() throws Exception {
+        Assume.assumeFalse(SystemUtils.IS_OS_WINDOWS);
+
+        Path alive = dir.resolve("alive.txt");
+
+        // the script concludes while the process it started is still running
+        Path script = writeScript(
+                "starts.py",
+                "import socrates, subprocess, sys, time",
+                "subprocess.Popen([sys.executable, '-c', '''",
+                "import time",
+                "while True:",
+                "    with open('alive.txt', 'a') as f:",
+                "        f.write('.')",
+                "    time.sleep(0.05)",
+                "'''])",
+                "time.sleep(0.5)",
+                "socrates.conclude(True)"
+        );
+
+        Map<String, Object> response = ScriptHost.run(
+                script, dir, Collections.<String, Object>emptyMap(), 10.0, 0, output
+        );
+
+        assertEquals(true, response.get("should_pass"));
+
+        Thread.sleep(500);
+        long size = Files.size(alive);
+        assertTrue(size > 0);
+
+        Thread.sleep(500);
+        assertEquals(size, Files.size(alive));
+    }
+
+    @Test
+    public void shouldRunScriptWithoutHost() throws Exception {
+        Path script = writeScript(
+                "alone.py",
+                "import socrates",
+                "params = socrates.get_parameters()",
+                "print('checking', params['n'])",
+                "socrates.conclude(params['n'] == 3, transcript='three')"
+        );
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("n", 3);
+
+        ScriptTest test = new ScriptTest();
+        test.timeout = 10.0;
+
+        Map<String, Object> response = test.runInNewProcess(script, dir, params, output);
+
+        assertEquals(true, response.get("should_pass"));
+        assertEquals("three", response.get("transcript"));
+        assertEquals("checking 3\n", getOutput());
+    }
+
+    @Test(expected = AutomationFailureException.class)
+    public void shouldStopScriptThatTimesOutWithoutHost() throws Exception {
+        Path script = writeScript(
+                "sleeps.py",
+                "import socrates, time",
+                "time.sleep(60)",
+                "socrates.conclude(True)"
+        );
+
+        ScriptTest test = new ScriptTest();
+        test.timeout = 1.0;
+
+        test.runInNewProcess(script, dir, Collections.<String, Object>emptyMap(), output);
+    }
+}
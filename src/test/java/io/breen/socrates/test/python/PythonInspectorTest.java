@@ -3,14 +3,18 @@ package io.breen.socrates.test.python;
 import io.breen.pyfinder.PythonFinder;
 import io.breen.pyfinder.PythonVersion;
 import io.breen.socrates.Globals;
+import io.breen.socrates.util.BytecodeCache;
+import io.breen.socrates.util.Pair;
+import org.apache.commons.lang.SystemUtils;
 import org.junit.*;
 
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class PythonInspectorTest {
 
@@ -27,7 +31,10 @@ public class PythonInspectorTest {
                 Paths.get(parentDir.toString(), "zero.py"),
                 Paths.get(parentDir.toString(), "one.py"),
                 Paths.get(parentDir.toString(), "two.py"),
-                Paths.get(parentDir.toString(), "three.py")
+                Paths.get(parentDir.toString(), "three.py"),
+                Paths.get(parentDir.toString(), "four.py"),
+                Paths.get(parentDir.toString(), "five.py"),
+                Paths.get(parentDir.toString(), "six.py")
         );
 
         Files.createDirectory(parentDir);
@@ -67,6 +74,76 @@ public class PythonInspectorTest {
                  .append("def odds(n):\n")
                  .append("    return [2 * x + 1 for x in range(n)]\n")
                  .append("\n")
+                 .append("def greet():\n")
+                 .append("    print('hello')\n")
+                 .append("\n")
+                 .append("def count(n):\n")
+                 .append("    for i in range(n):\n")
+                 .append("        print(i)\n")
+                 .append("\n")
+                 .append("def pair():\n")
+                 .append("    return (1, 2)\n")
+                 .append("\n")
+                 .append("def tenths():\n")
+                 .append("    return 0.1 + 0.2\n")
+                 .append("\n")
+                 .append("def letters():\n")
+                 .append("    return set('abc')\n")
+                 .append("\n")
+                 .append("class Counter:\n")
+                 .append("    def __init__(self, start=0):\n")
+                 .append("        self.total = start\n")
+                 .append("\n")
+                 .append("    def add(self, n, *more):\n")
+                 .append("        self.total += n + sum(more)\n")
+                 .append("\n")
+                 .close();
+        }
+
+        {
+            // four.py: a valid Python file with functions exceeding resource limits
+            Files.newBufferedWriter(paths.get(4), Charset.defaultCharset())
+                 .append("def forever():\n")
+                 .append("    while True:\n")
+                 .append("        try:\n")
+                 .append("            pass\n")
+                 .append("        except KeyboardInterrupt:\n")
+                 .append("            pass\n")
+                 .append("\n")
+                 .append("def hog():\n")
+                 .append("    return [0] * (10 ** 10)\n")
+                 .append("\n")
+                 .close();
+        }
+
+        {
+            // five.py: a valid Python file whose top-level code never finishes
+            Files.newBufferedWriter(paths.get(5), Charset.defaultCharset())
+                 .append("name = input()\n")
+                 .append("while True:\n")
+                 .append("    pass\n")
+                 .append("\n")
+                 .append("def greet(greeting, punctuation='!'):\n")
+                 .append("    return greeting + ', ' + name + punctuation\n")
+                 .append("\n")
+                 .close();
+        }
+
+        {
+            // six.py: a valid Python file with an alias and a __main__ guard
+            Files.newBufferedWriter(paths.get(6), Charset.defaultCharset())
+                 .append("def compute_area(width, height):\n")
+                 .append("    return width * height\n")
+                 .append("\n")
+                 .append("area = compute_area\n")
+                 .append("\n")
+                 .append("if __name__ == '__main__':\n")
+                 .append("    answer = area(2, 3)\n")
+                 .append("\n")
+                 .append("    def show():\n")
+                 .append("        print(answer)\n")
+                 .append("else:\n")
+                 .append("    imported = True\n")
                  .close();
         }
     }
@@ -81,32 +158,44 @@ public class PythonInspectorTest {
 
     @Test
     public void shouldFindVariable() throws Exception {
-        assertTrue(new PythonInspector(paths.get(2)).variableExists("foo"));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertTrue(inspector.variableExists("foo"));
+        }
     }
 
     @Test
     public void shouldFailWhenMissingVariable() throws Exception {
-        assertFalse(new PythonInspector(paths.get(2)).variableExists("goo"));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertFalse(inspector.variableExists("goo"));
+        }
     }
 
     @Test
     public void shouldEquateMatchingIntVariables() throws Exception {
-        assertTrue(new PythonInspector(paths.get(2)).variableEquals("foo", 3));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertTrue(inspector.variableEquals("foo", 3));
+        }
     }
 
     @Test
     public void shouldRejectMismatchingIntVariables() throws Exception {
-        assertFalse(new PythonInspector(paths.get(2)).variableEquals("foo", 6));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertFalse(inspector.variableEquals("foo", 6));
+        }
     }
 
     @Test
     public void shouldEquateMatchingBoolVariables() throws Exception {
-        assertTrue(new PythonInspector(paths.get(2)).variableEquals("bar", true));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertTrue(inspector.variableEquals("bar", true));
+        }
     }
 
     @Test
     public void shouldRejectMismatchingBoolVariables() throws Exception {
-        assertFalse(new PythonInspector(paths.get(2)).variableEquals("bar", false));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertFalse(inspector.variableEquals("bar", false));
+        }
     }
 
     @Test
@@ -115,84 +204,433 @@ public class PythonInspectorTest {
         list.add(1);
         list.add(2);
         list.add(3);
-        assertTrue(new PythonInspector(paths.get(2)).variableEquals("baz", list));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertTrue(inspector.variableEquals("baz", list));
+        }
     }
 
     @Test
     public void shouldEquateMatchingIntListVariablesArray() throws Exception {
         Integer[] arr = {1, 2, 3};
-        assertTrue(new PythonInspector(paths.get(2)).variableEquals("baz", arr));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertTrue(inspector.variableEquals("baz", arr));
+        }
     }
 
     @Test
     public void shouldRejectMismatchingIntListVariablesList() throws Exception {
         List<Integer> list = Arrays.asList(4, 5, 6);
-        assertFalse(new PythonInspector(paths.get(2)).variableEquals("baz", list));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertFalse(inspector.variableEquals("baz", list));
+        }
     }
 
     @Test
     public void shouldRejectMismatchingIntListVariablesArray() throws Exception {
         Integer[] arr = {6, 7, 8};
-        assertFalse(new PythonInspector(paths.get(2)).variableEquals("baz", arr));
+        try (PythonInspector inspector = new PythonInspector(paths.get(2))) {
+            assertFalse(inspector.variableEquals("baz", arr));
+        }
     }
 
     @Test
     public void shouldFindFunction() throws Exception {
-        assertTrue(new PythonInspector(paths.get(3)).functionExists("ten"));
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(inspector.functionExists("ten"));
+        }
     }
 
     @Test
     public void shouldFailWhenMissingFunction() throws Exception {
-        assertFalse(new PythonInspector(paths.get(3)).variableExists("zzz"));
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(inspector.variableExists("zzz"));
+        }
+    }
+
+    @Test
+    public void shouldCatalogVariables() throws Exception {
+        ModuleCatalog catalog = ModuleCatalog.get(paths.get(2), "two");
+        assertEquals(new HashSet<>(Arrays.asList("foo", "bar", "baz")), catalog.variables);
+        assertTrue(catalog.functions.isEmpty());
+        assertTrue(catalog.classes.isEmpty());
+    }
+
+    @Test
+    public void shouldCatalogFunctionsAndClasses() throws Exception {
+        ModuleCatalog catalog = ModuleCatalog.get(paths.get(3), "three");
+        assertTrue(catalog.hasFunction("twice"));
+        assertFalse(catalog.hasFunction("zzz"));
+        assertTrue(catalog.functions.get("twice").accepts(1));
+        assertFalse(catalog.functions.get("twice").accepts(2));
+
+        assertTrue(catalog.hasClass("Counter"));
+        assertTrue(catalog.hasMethod("Counter", "add"));
+        assertFalse(catalog.hasMethod("Counter", "subtract"));
+        assertFalse(catalog.hasMethod("Missing", "add"));
+        assertTrue(catalog.classes.get("Counter").get("add").accepts(5));
+        assertEquals(1, catalog.classes.get("Counter").get("__init__").numRequired);
+    }
+
+    @Test(expected = CompileError.class)
+    public void shouldFailToCatalogModuleWithSyntaxError() throws Exception {
+        ModuleCatalog.get(paths.get(1), "one");
+    }
+
+    @Test
+    public void shouldAnalyzeModuleWithoutRunningIt() throws Exception {
+        ModuleCatalog catalog = ModuleCatalog.get(paths.get(5), "five");
+        assertTrue(catalog.hasVariable("name"));
+        assertTrue(catalog.hasFunction("greet"));
+        assertEquals(1, catalog.functions.get("greet").numRequired);
+        assertSame(catalog, ModuleCatalog.get(paths.get(5), "five"));
+    }
+
+    @Test
+    public void shouldAnalyzeAliasAsFunction() throws Exception {
+        ModuleCatalog catalog = ModuleCatalog.get(paths.get(6), "six");
+        assertTrue(catalog.hasFunction("area"));
+        assertFalse(catalog.hasVariable("area"));
+        assertTrue(catalog.functions.get("area").accepts(2));
+
+        try (PythonInspector inspector = new PythonInspector(paths.get(6))) {
+            assertTrue(inspector.functionExists("area"));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreNamesBoundOnlyWhenRunAsMain() throws Exception {
+        ModuleCatalog catalog = ModuleCatalog.get(paths.get(6), "six");
+        assertFalse(catalog.hasVariable("answer"));
+        assertFalse(catalog.hasFunction("show"));
+        assertTrue(catalog.hasVariable("imported"));
+
+        try (PythonInspector inspector = new PythonInspector(paths.get(6))) {
+            assertFalse(inspector.variableExists("answer"));
+            assertTrue(inspector.variableExists("imported"));
+        }
+    }
+
+    @Test
+    public void shouldAnalyzeModuleInsideArchive() throws Exception {
+        Path archive = Files.createTempFile("submissions", ".zip");
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+                out.putNextEntry(new ZipEntry("student/three.py"));
+                out.write(Files.readAllBytes(paths.get(3)));
+                out.closeEntry();
+            }
+
+            try (FileSystem fs = FileSystems.newFileSystem(archive, (ClassLoader)null)) {
+                ModuleCatalog catalog = ModuleCatalog.get(
+                        fs.getPath("student", "three.py"), "zipped three"
+                );
+                assertTrue(catalog.hasFunction("twice"));
+                assertTrue(catalog.hasMethod("Counter", "add"));
+            }
+        } finally {
+            Files.delete(archive);
+        }
+    }
+
+    @Test
+    public void shouldFailToAnalyzeModuleWithSyntaxError() throws Exception {
+        try {
+            ModuleCatalog.get(paths.get(1), "one");
+            fail();
+        } catch (CompileError x) {
+            assertEquals("SyntaxError", x.errorType);
+            assertEquals(1, x.line);
+            assertTrue(x.column > 0);
+        }
+    }
+
+    @Test
+    public void shouldKeepBytecodeOutsideSubmission() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(inspector.functionExists("ten"));
+        }
+
+        assertFalse(Files.exists(parentDir.resolve("__pycache__")));
+
+        Assume.assumeTrue(BytecodeCache.isSupported(Globals.interpreter.path));
+        Assume.assumeFalse(SystemUtils.IS_OS_WINDOWS);
+
+        // the cache mirrors the absolute path of the module's directory
+        Path dir = parentDir.toAbsolutePath();
+        Path cachedDir = BytecodeCache.getDirectory().resolve(dir.getRoot().relativize(dir));
+
+        boolean found = false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cachedDir, "three.*.pyc")) {
+            for (Path p : stream)
+                found = true;
+        }
+
+        assertTrue(found);
     }
 
     @Test
     public void shouldEquateCorrectFunctionReturnValue() throws Exception {
-        assertTrue(
-                new PythonInspector(paths.get(3)).functionProduces(
-                        "ten", null, null, null, 10, null
-                ).first
-        );
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "ten", null, null, null, 10, null
+                    ).first
+            );
+        }
     }
 
     @Test
     public void shouldRejectIncorrectFunctionReturnValue() throws Exception {
-        assertFalse(
-                new PythonInspector(paths.get(3)).functionProduces(
-                        "ten", null, null, null, 99, null
-                ).first
-        );
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(
+                    inspector.functionProduces(
+                            "ten", null, null, null, 99, null
+                    ).first
+            );
+        }
     }
 
     @Test
     public void shouldEquateCorrectFunctionReturnValueWithArgs() throws Exception {
-        assertTrue(
-                new PythonInspector(paths.get(3)).functionProduces(
-                        "twice", Collections.singletonList((Object)20), null, null, 40, null
-                ).first
-        );
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "twice", Collections.singletonList((Object)20), null, null, 40, null
+                    ).first
+            );
+        }
     }
 
     @Test
     public void shouldRejectIncorrectFunctionReturnValueWithArgs() throws Exception {
-        assertFalse(
-                new PythonInspector(paths.get(3)).functionProduces(
-                        "twice", Collections.singletonList((Object)25), null, null, 99, null
-                ).first
-        );
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(
+                    inspector.functionProduces(
+                            "twice", Collections.singletonList((Object)25), null, null, 99, null
+                    ).first
+            );
+        }
     }
 
     @Test
     public void shouldEquateCorrectFunctionReturnValueListWithArgs() throws Exception {
-        assertTrue(
-                new PythonInspector(paths.get(3)).functionProduces(
-                        "odds",
-                        Collections.singletonList((Object)3),
-                        null,
-                        null,
-                        Arrays.asList(1, 3, 5),
-                        null
-                ).first
-        );
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "odds",
+                            Collections.singletonList((Object)3),
+                            null,
+                            null,
+                            Arrays.asList(1, 3, 5),
+                            null
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldEquateLargeFunctionReturnValue() throws Exception {
+        // the request and the response are both larger than LARGE_PAYLOAD_SIZE
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 300000; i++)
+            expected.add(2 * i + 1);
+
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "odds",
+                            Collections.singletonList((Object)300000),
+                            null,
+                            null,
+                            expected,
+                            null
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldHandleManyRequests() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(inspector.functionExists("ten"));
+            assertFalse(inspector.functionExists("zzz"));
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(
+                        inspector.functionProduces(
+                                "twice", Collections.singletonList((Object)i), null, null, 2 * i,
+                                null
+                        ).first
+                );
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectTupleForExpectedList() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(
+                    inspector.functionProduces(
+                            "pair", Collections.emptyList(), null, null, Arrays.asList(1, 2), null
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldRejectIntegerForExpectedFloatWhenExact() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "ten", null, null, null, 10.0, null, Comparison.EQUAL
+                    ).first
+            );
+            assertFalse(
+                    inspector.functionProduces(
+                            "ten", null, null, null, 10.0, null, Comparison.EXACT
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldEquateCloseFloatsWhenApproximate() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(
+                    inspector.functionProduces(
+                            "tenths", null, null, null, 0.3, null, Comparison.EQUAL
+                    ).first
+            );
+            assertTrue(
+                    inspector.functionProduces(
+                            "tenths", null, null, null, 0.3, null, Comparison.APPROXIMATE
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldEquateSetWhenUnordered() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            Pair<Boolean, String> result = inspector.functionProduces(
+                    "letters", null, null, null, Arrays.asList("c", "a", "b"), null,
+                    Comparison.UNORDERED
+            );
+
+            assertTrue(result.first);
+            assertTrue(result.second.startsWith("{"));
+        }
+    }
+
+    @Test
+    public void shouldStopFunctionExceedingTimeLimit() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(4), 1.0, 0)) {
+            inspector.functionProduces(
+                    "forever", Collections.emptyList(), null, null, null, null
+            );
+            fail();
+        } catch (ResourceLimitError x) {
+            assertEquals(ResourceLimitError.TIME_LIMIT_EXCEEDED, x.errorType);
+        }
+    }
+
+    @Test
+    public void shouldEvaluateWithoutTimeLimit() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3), 0, 0)) {
+            assertTrue(inspector.functionExists("twice"));
+            assertTrue(
+                    inspector.functionProduces(
+                            "twice", Collections.singletonList((Object)3), null, null, 6, null
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldStopFunctionExceedingMemoryLimit() throws Exception {
+        Assume.assumeFalse(SystemUtils.IS_OS_WINDOWS);
+
+        try (PythonInspector inspector = new PythonInspector(paths.get(4), 10.0, 256)) {
+            inspector.functionProduces(
+                    "hog", Collections.emptyList(), null, null, null, null
+            );
+            fail();
+        } catch (ResourceLimitError x) {
+            assertEquals(ResourceLimitError.MEMORY_LIMIT_EXCEEDED, x.errorType);
+        }
+    }
+
+    @Test
+    public void shouldStopInterpreterThatDoesNotExitWhenClosed() throws Exception {
+        Path module = parentDir.resolve("seven.py");
+        Path alive = parentDir.resolve("alive.txt").toAbsolutePath();
+
+        // the thread is not a daemon, so the interpreter waits for it forever before exiting
+        Files.newBufferedWriter(module, Charset.defaultCharset())
+             .append("import threading, time\n")
+             .append("\n")
+             .append("def spin():\n")
+             .append("    while True:\n")
+             .append("        with open(" + toPythonString(alive) + ", 'a') as f:\n")
+             .append("            f.write('.')\n")
+             .append("        time.sleep(0.05)\n")
+             .append("\n")
+             .append("threading.Thread(target=spin).start()\n")
+             .close();
+
+        try {
+            try (PythonInspector inspector = new PythonInspector(module)) {
+                assertTrue(inspector.functionExists("spin"));
+            }
+
+            Thread.sleep(500);
+            long size = Files.size(alive);
+            Thread.sleep(500);
+            assertEquals(size, Files.size(alive));
+        } finally {
+            Files.deleteIfExists(module);
+            Files.deleteIfExists(alive);
+        }
+    }
+
+    private static String toPythonString(Path path) {
+        return "'" + path.toString().replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    @Test
+    public void shouldEquateCorrectFunctionOutput() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertTrue(
+                    inspector.functionProduces(
+                            "greet", Collections.emptyList(), null, null, null, "hello\n"
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldRejectIncorrectFunctionOutput() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            assertFalse(
+                    inspector.functionProduces(
+                            "greet", Collections.emptyList(), null, null, null, "hello!\n"
+                    ).first
+            );
+        }
+    }
+
+    @Test
+    public void shouldTruncateLongFunctionOutput() throws Exception {
+        try (PythonInspector inspector = new PythonInspector(paths.get(3))) {
+            Pair<Boolean, String> result = inspector.functionProduces(
+                    "count", Collections.singletonList((Object)200000), null, null, null, "0\n"
+            );
+
+            assertFalse(result.first);
+            assertTrue(result.second.startsWith("0\n1\n2\n"));
+            assertTrue(result.second.contains("characters omitted"));
+            assertTrue(result.second.endsWith("199999\n"));
+            assertTrue(result.second.length() < 20000);
+        }
     }
 }